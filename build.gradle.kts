@@ -3,6 +3,8 @@ plugins {
     id("application")
     //https://plugins.gradle.org/plugin/io.freefair.lombok
     id("io.freefair.lombok") version "8.11"
+    //https://plugins.gradle.org/plugin/me.champeau.jmh
+    id("me.champeau.jmh") version "0.7.2"
 
 }
 
@@ -13,8 +15,13 @@ repositories {
     mavenCentral()
 }
 
+// Векторный поиск строк использует модуль jdk.incubator.vector. Он нужен при компиляции, а при запуске
+// подключается аргументом JVM --add-modules jdk.incubator.vector, без него строки ищутся скалярно
+val vectorModule = listOf("--add-modules", "jdk.incubator.vector")
+
 tasks.withType<JavaCompile> {
     options.annotationProcessorPath = configurations.annotationProcessor.get()
+    options.compilerArgs.addAll(vectorModule)
 }
 
 java {
@@ -44,6 +51,40 @@ dependencies {
 
 tasks.test {
     useJUnitPlatform()
+    jvmArgs(vectorModule)
+}
+
+application {
+    mainClass.set("ru.paskal.Main")
+    applicationDefaultJvmArgs = vectorModule
+}
+
+// Бенчмарки: ./gradlew jmh [-Pjmh.includes=Statistics] [-Pjmh.tag=имя]
+// Результаты в формате JSON сохраняются в build/results/jmh/<тег>.json, по умолчанию тег - хеш текущего коммита,
+// поэтому результаты разных коммитов не перезаписывают друг друга и их можно сравнивать
+val gitRevision = providers.exec {
+    commandLine("git", "rev-parse", "--short", "HEAD")
+    isIgnoreExitValue = true
+}.standardOutput.asText.map { it.trim().ifEmpty { "results" } }
+
+jmh {
+    jmhVersion.set("1.37")
+    resultFormat.set("JSON")
+    resultsFile.set(layout.buildDirectory.file(
+        providers.gradleProperty("jmh.tag").orElse(gitRevision).map { "results/jmh/$it.json" }))
+    providers.gradleProperty("jmh.includes").orNull?.let { includes.add(it) }
+    jvmArgsAppend.addAll(vectorModule)
+}
+
+// Генерация входного файла: ./gradlew generateWorkload -Pworkload.args="--output in.txt --size 100M --mix 40:30:30"
+tasks.register<JavaExec>("generateWorkload") {
+    group = "benchmark"
+    description = "Генерирует детерминированный входной файл для бенчмарков"
+    classpath = sourceSets["jmh"].runtimeClasspath
+    mainClass.set("ru.paskal.benchmarks.WorkloadGenerator")
+    workingDir = projectDir
+    args(providers.gradleProperty("workload.args").orElse("--output build/workload.txt --size 100M")
+        .get().split(" ").filter { it.isNotBlank() })
 }
 
 tasks.processResources {
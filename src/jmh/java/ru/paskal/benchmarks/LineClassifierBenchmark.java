@@ -0,0 +1,84 @@
+package ru.paskal.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import ru.paskal.utils.LineClassifier;
+import ru.paskal.utils.StringTypesEnum;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Сравнение {@link LineClassifier} с исходной цепочкой Long.parseLong -> Double.parseDouble
+ * на наборах строк с разной долей текстовых строк
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LineClassifierBenchmark {
+    private static final int LINES = 4096;
+
+    /**
+     * Доля строковых значений в процентах, оставшиеся строки поровну делятся между целыми и дробными числами
+     */
+    @Param({"0", "50", "90"})
+    private int stringPercent;
+
+    private final LineClassifier classifier = new LineClassifier();
+    private String[] lines;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(1);
+        lines = new String[LINES];
+        for (int i = 0; i < LINES; i++) {
+            int roll = random.nextInt(100);
+            if (roll < stringPercent) {
+                lines[i] = "Lorem ipsum dolor sit amet " + random.nextInt(1000);
+            } else if (roll % 2 == 0) {
+                lines[i] = Long.toString(random.nextLong() >> random.nextInt(60));
+            } else {
+                lines[i] = Double.toString(random.nextDouble() * random.nextInt(100_000));
+            }
+        }
+    }
+
+    @Benchmark
+    public void classifier(Blackhole bh) {
+        for (String line : lines) {
+            StringTypesEnum type = classifier.classify(line);
+            bh.consume(type);
+            bh.consume(classifier.getLongValue());
+            bh.consume(classifier.getDoubleValue());
+        }
+    }
+
+    @Benchmark
+    public void exceptionChain(Blackhole bh) {
+        for (String line : lines) {
+            bh.consume(legacyClassify(line, bh));
+        }
+    }
+
+    private static StringTypesEnum legacyClassify(String line, Blackhole bh) {
+        if (line.isEmpty()) {
+            return StringTypesEnum.STRING;
+        }
+        try {
+            bh.consume(Long.parseLong(line));
+            return StringTypesEnum.INTEGER;
+        } catch (NumberFormatException e) {
+            // Не Integer
+        }
+        try {
+            bh.consume(Double.parseDouble(line));
+            return StringTypesEnum.FLOAT;
+        } catch (NumberFormatException e) {
+            // Не Float
+        }
+        return StringTypesEnum.STRING;
+    }
+}
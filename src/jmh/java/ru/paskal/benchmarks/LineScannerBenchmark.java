@@ -0,0 +1,87 @@
+package ru.paskal.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import ru.paskal.io.AsciiByteSequence;
+import ru.paskal.io.LineScanner;
+import ru.paskal.io.MappedLineReader;
+import ru.paskal.utils.LineClassifier;
+import ru.paskal.utils.StringTypesEnum;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Сравнение скалярного и векторного {@link LineScanner} на окне из сгенерированных строк, лежащем вне кучи,
+ * как окно отображенного файла: только поиск строк и поиск вместе с классификацией, в которой векторный
+ * поиск пропускает разбор строк, заведомо не являющихся числами. Векторный режим требует
+ * {@code --add-modules jdk.incubator.vector}, который добавляется к аргументам JVM в build.gradle.kts
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LineScannerBenchmark {
+    @Param({"16"})
+    private int sizeMb;
+
+    @Param({"40:30:30", "10:10:80"})
+    private String mix;
+
+    @Param({"scalar", "vector"})
+    private String mode;
+
+    private ByteBuffer window;
+    private LineScanner scanner;
+    private final LineClassifier classifier = new LineClassifier();
+    private final AsciiByteSequence line = new AsciiByteSequence();
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        scanner = switch (mode) {
+            case "scalar" -> LineScanner.scalar();
+            case "vector" -> LineScanner.vector();
+            default -> throw new IllegalStateException("Неизвестный режим: " + mode);
+        };
+        if (scanner == null) {
+            throw new IllegalStateException("Vector API недоступен, нужен --add-modules jdk.incubator.vector");
+        }
+        Path input = Files.createTempFile("line-scanner", ".txt");
+        try {
+            new WorkloadGenerator().mix(mix).generate(input, (long) sizeMb << 20);
+            byte[] bytes = Files.readAllBytes(input);
+            window = ByteBuffer.allocateDirect(bytes.length).put(bytes).flip();
+        } finally {
+            Files.delete(input);
+        }
+    }
+
+    /**
+     * Одна операция - просмотр всего окна, поэтому пропускная способность режимов сравнима напрямую
+     */
+    @Benchmark
+    public int scan(Blackhole bh) throws IOException {
+        return scanner.scan(window, window.limit(), true, (buffer, start, end, ascii) -> bh.consume(end));
+    }
+
+    @Benchmark
+    public int scanAndClassify(Blackhole bh) throws IOException {
+        return scanner.scan(window, window.limit(), true, new MappedLineReader.LineHandler() {
+            @Override
+            public void onLine(ByteBuffer buffer, int start, int end, boolean ascii) {
+                onLine(buffer, start, end, ascii, true);
+            }
+
+            @Override
+            public void onLine(ByteBuffer buffer, int start, int end, boolean ascii, boolean numeric) {
+                StringTypesEnum type = numeric ? classifier.classify(line.set(buffer, start, end)) : StringTypesEnum.STRING;
+                bh.consume(type);
+            }
+        });
+    }
+}
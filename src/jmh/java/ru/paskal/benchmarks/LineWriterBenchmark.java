@@ -0,0 +1,86 @@
+package ru.paskal.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import ru.paskal.io.AsciiByteSequence;
+import ru.paskal.io.ChannelLineWriter;
+import ru.paskal.io.DirectBufferPool;
+import ru.paskal.io.DurabilityPolicy;
+import ru.paskal.io.LineWriter;
+import ru.paskal.io.StreamLineWriter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Пропускная способность реализаций {@link LineWriter}: запись строк {@link String} и байтовых строк
+ * {@link AsciiByteSequence}, как в режиме {@code -m}. Каждая итерация пишет в новый временный файл
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LineWriterBenchmark {
+    private static final int LINES = 4096;
+    private static final int SEGMENT_SIZE = 64 * 1024;
+
+    @Param({"stream", "channel"})
+    private String writer;
+
+    @Param({"16", "128"})
+    private int maxLength;
+
+    private String[] lines;
+    private AsciiByteSequence[] asciiLines;
+    private DirectBufferPool pool;
+    private Path file;
+    private LineWriter lineWriter;
+
+    @Setup
+    public void setup() {
+        lines = new WorkloadGenerator().mix("0:0:100").stringLength(1, maxLength).lines(LINES);
+        asciiLines = new AsciiByteSequence[LINES];
+        for (int i = 0; i < LINES; i++) {
+            ByteBuffer bytes = ByteBuffer.wrap(lines[i].getBytes(StandardCharsets.US_ASCII));
+            asciiLines[i] = new AsciiByteSequence().set(bytes, 0, bytes.limit());
+        }
+        pool = new DirectBufferPool(SEGMENT_SIZE, 64);
+    }
+
+    @Setup(Level.Iteration)
+    public void openWriter() throws IOException {
+        file = Files.createTempFile("line-writer", ".txt");
+        lineWriter = switch (writer) {
+            case "stream" -> new StreamLineWriter(file.toString(), false);
+            case "channel" -> new ChannelLineWriter(file, false, 1 << 20, pool, DurabilityPolicy.NONE);
+            default -> throw new IllegalStateException("Неизвестный способ записи: " + writer);
+        };
+    }
+
+    @TearDown(Level.Iteration)
+    public void closeWriter() throws IOException {
+        lineWriter.close();
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void writeString() throws IOException {
+        for (String line : lines) {
+            lineWriter.writeLine(line);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void writeAscii() throws IOException {
+        for (AsciiByteSequence line : asciiLines) {
+            lineWriter.writeLine(line);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package ru.paskal.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import ru.paskal.FilesManager;
+import ru.paskal.models.StatisticsUnion;
+import ru.paskal.utils.ArgumentsParser;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Сквозной бенчмарк {@link FilesManager#processFiles()}: разбор аргументов, чтение, классификация,
+ * запись выходных файлов и подсчет полной статистики на сгенерированном входном файле.
+ * Режимы соответствуют аргументам командной строки: чтение через Reader, {@code -m}, обработка по частям
+ * ({@code -t} с {@code --parallelism}) и {@code --pipeline}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ProcessFilesBenchmark {
+    @Param({"64"})
+    private int sizeMb;
+
+    @Param({"40:30:30", "10:10:80"})
+    private String mix;
+
+    @Param({"reader", "mmap", "chunked", "pipeline"})
+    private String mode;
+
+    private Path directory;
+    private String[] args;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("process-files");
+        Path input = directory.resolve("input.txt");
+        new WorkloadGenerator().mix(mix).generate(input, (long) sizeMb << 20);
+
+        List<String> list = new ArrayList<>(List.of("-o", directory.resolve("out").toString(), "-f"));
+        switch (mode) {
+            case "reader" -> { }
+            case "mmap" -> list.add("-m");
+            case "chunked" -> list.addAll(List.of("-m", "-t", "2", "--parallelism",
+                    Integer.toString(Runtime.getRuntime().availableProcessors()), "--chunk-size", "8M"));
+            case "pipeline" -> list.add("--pipeline");
+            default -> throw new IllegalStateException("Неизвестный режим: " + mode);
+        }
+        list.add(input.toString());
+        args = list.toArray(String[]::new);
+    }
+
+    @TearDown(Level.Trial)
+    public void cleanup() throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Benchmark
+    public StatisticsUnion processFiles() {
+        FilesManager manager = new FilesManager(ArgumentsParser.parse(args));
+        StatisticsUnion stats = manager.processFiles();
+        manager.closeWriters();
+        return stats;
+    }
+}
@@ -0,0 +1,76 @@
+package ru.paskal.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import ru.paskal.models.FloatStatistics;
+import ru.paskal.models.IntegerStatistics;
+import ru.paskal.models.StringStatistics;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Стоимость обновления каждой реализации статистики на уровнях краткой, полной и расширенной статистики.
+ * Значения подготавливаются заранее, поэтому измеряется только {@code upd}
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StatisticsBenchmark {
+    private static final int VALUES = 4096;
+
+    @Param({"short", "full", "extended"})
+    private String level;
+
+    private IntegerStatistics integerStatistics;
+    private FloatStatistics floatStatistics;
+    private StringStatistics stringStatistics;
+    private long[] longs;
+    private double[] doubles;
+    private String[] strings;
+
+    @Setup
+    public void setup() {
+        boolean isFull = !level.equals("short");
+        boolean isExtended = level.equals("extended");
+        integerStatistics = new IntegerStatistics(isFull, isExtended);
+        floatStatistics = new FloatStatistics(isFull, isExtended);
+        stringStatistics = new StringStatistics(isFull, isExtended);
+
+        SplittableRandom random = new SplittableRandom(1);
+        longs = new long[VALUES];
+        doubles = new double[VALUES];
+        for (int i = 0; i < VALUES; i++) {
+            longs[i] = random.nextLong() >> random.nextInt(64);
+            doubles[i] = (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(-3, 9));
+        }
+        strings = new WorkloadGenerator().mix("0:0:100").lines(VALUES);
+    }
+
+    @Benchmark
+    public void integerUpd(Blackhole bh) {
+        for (long value : longs) {
+            integerStatistics.upd(value);
+        }
+        bh.consume(integerStatistics);
+    }
+
+    @Benchmark
+    public void floatUpd(Blackhole bh) {
+        for (double value : doubles) {
+            floatStatistics.upd(value);
+        }
+        bh.consume(floatStatistics);
+    }
+
+    @Benchmark
+    public void stringUpd(Blackhole bh) {
+        for (String value : strings) {
+            stringStatistics.upd(value);
+        }
+        bh.consume(stringStatistics);
+    }
+}
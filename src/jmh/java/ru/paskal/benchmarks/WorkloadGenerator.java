@@ -0,0 +1,211 @@
+package ru.paskal.benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.SplittableRandom;
+
+/**
+ * Детерминированный генератор входных данных для бенчмарков: при одинаковых параметрах и зерне
+ * всегда формируется одна и та же последовательность строк, поэтому результаты разных коммитов сопоставимы.
+ * <p>
+ * Параметры: доли целых, дробных и текстовых строк, диапазон длин текстовых строк, наибольшее количество
+ * цифр целых чисел и зерно генератора. Запуск из командной строки:
+ * {@code ./gradlew generateWorkload -Pworkload.args="--output in.txt --size 100M --mix 40:30:30"}
+ */
+public class WorkloadGenerator {
+    private static final String ALPHABET = "abcdefghijklmnopqrstuvwxyz     ,.-";
+
+    private long seed = 1;
+    private int integerPercent = 40;
+    private int floatPercent = 30;
+    private int minStringLength = 5;
+    private int maxStringLength = 80;
+    private int maxIntegerDigits = 18;
+
+    /**
+     * @param seed зерно генератора
+     * @return этот генератор
+     */
+    public WorkloadGenerator seed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    /**
+     * @param mix доли целых, дробных и текстовых строк в процентах через двоеточие, например {@code 40:30:30}
+     * @return этот генератор
+     */
+    public WorkloadGenerator mix(String mix) {
+        String[] parts = mix.split(":");
+        if (parts.length != 3) {
+            throw new IllegalArgumentException("Доли строк задаются как целые:дробные:текстовые, например 40:30:30");
+        }
+        int integers = Integer.parseInt(parts[0]);
+        int floats = Integer.parseInt(parts[1]);
+        int strings = Integer.parseInt(parts[2]);
+        if (integers < 0 || floats < 0 || strings < 0 || integers + floats + strings != 100) {
+            throw new IllegalArgumentException("Сумма долей строк должна быть равна 100: " + mix);
+        }
+        this.integerPercent = integers;
+        this.floatPercent = floats;
+        return this;
+    }
+
+    /**
+     * @param min наименьшая длина текстовой строки, не меньше 1
+     * @param max наибольшая длина текстовой строки
+     * @return этот генератор
+     */
+    public WorkloadGenerator stringLength(int min, int max) {
+        if (min < 1 || max < min) {
+            throw new IllegalArgumentException("Некорректный диапазон длин строк: " + min + ".." + max);
+        }
+        this.minStringLength = min;
+        this.maxStringLength = max;
+        return this;
+    }
+
+    /**
+     * @param digits наибольшее количество цифр целого числа, от 1 до 18
+     * @return этот генератор
+     */
+    public WorkloadGenerator maxIntegerDigits(int digits) {
+        if (digits < 1 || digits > 18) {
+            throw new IllegalArgumentException("Количество цифр целого числа должно быть от 1 до 18");
+        }
+        this.maxIntegerDigits = digits;
+        return this;
+    }
+
+    /**
+     * @param count количество строк
+     * @return строки в порядке генерации
+     */
+    public String[] lines(int count) {
+        SplittableRandom random = new SplittableRandom(seed);
+        StringBuilder sb = new StringBuilder();
+        String[] lines = new String[count];
+        for (int i = 0; i < count; i++) {
+            sb.setLength(0);
+            nextLine(random, sb);
+            lines[i] = sb.toString();
+        }
+        return lines;
+    }
+
+    /**
+     * Записывает строки в файл, пока его размер не достигнет указанного
+     *
+     * @param file  выходной файл, перезаписывается
+     * @param bytes наименьший размер файла в байтах
+     * @return количество записанных строк
+     */
+    public long generate(Path file, long bytes) throws IOException {
+        SplittableRandom random = new SplittableRandom(seed);
+        StringBuilder sb = new StringBuilder();
+        long written = 0;
+        long lines = 0;
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            while (written < bytes) {
+                sb.setLength(0);
+                nextLine(random, sb);
+                sb.append('\n');
+                writer.append(sb);
+                written += sb.length();
+                lines++;
+            }
+        }
+        return lines;
+    }
+
+    private void nextLine(SplittableRandom random, StringBuilder sb) {
+        int roll = random.nextInt(100);
+        if (roll < integerPercent) {
+            appendInteger(random, sb);
+        } else if (roll < integerPercent + floatPercent) {
+            appendFloat(random, sb);
+        } else {
+            appendString(random, sb);
+        }
+    }
+
+    private void appendInteger(SplittableRandom random, StringBuilder sb) {
+        long bound = 1;
+        for (int i = random.nextInt(maxIntegerDigits) + 1; i > 0; i--) {
+            bound *= 10;
+        }
+        long value = random.nextLong(bound);
+        sb.append(random.nextInt(10) == 0 ? -value : value);
+    }
+
+    private static void appendFloat(SplittableRandom random, StringBuilder sb) {
+        double value = random.nextDouble() * Math.pow(10, random.nextInt(-3, 9));
+        if (random.nextBoolean()) {
+            value = -value;
+        }
+        switch (random.nextInt(4)) {
+            case 0 -> sb.append(String.format(Locale.ROOT, "%.6E", value));
+            case 1 -> sb.append(String.format(Locale.ROOT, "%.2f", value));
+            default -> sb.append(value);
+        }
+    }
+
+    private void appendString(SplittableRandom random, StringBuilder sb) {
+        int length = random.nextInt(minStringLength, maxStringLength + 1);
+        // Первый символ - буква, чтобы строка не была распознана как число
+        sb.append(ALPHABET.charAt(random.nextInt(26)));
+        for (int i = 1; i < length; i++) {
+            sb.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+        }
+    }
+
+    /**
+     * Разбирает размер с необязательным суффиксом K, M или G
+     */
+    static long parseSize(String value) {
+        String upper = value.trim().toUpperCase(Locale.ROOT);
+        long multiplier = switch (upper.isEmpty() ? ' ' : upper.charAt(upper.length() - 1)) {
+            case 'K' -> 1L << 10;
+            case 'M' -> 1L << 20;
+            case 'G' -> 1L << 30;
+            default -> 1;
+        };
+        String digits = multiplier == 1 ? upper : upper.substring(0, upper.length() - 1);
+        return Long.parseLong(digits) * multiplier;
+    }
+
+    /**
+     * Аргументы: {@code --output FILE --size SIZE [--mix I:F:S] [--min-length N] [--max-length N]
+     * [--max-digits N] [--seed N]}
+     */
+    public static void main(String[] args) throws IOException {
+        WorkloadGenerator generator = new WorkloadGenerator();
+        Path output = null;
+        long size = 0;
+        int minLength = generator.minStringLength;
+        int maxLength = generator.maxStringLength;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--output" -> output = Path.of(value);
+                case "--size" -> size = parseSize(value);
+                case "--mix" -> generator.mix(value);
+                case "--min-length" -> minLength = Integer.parseInt(value);
+                case "--max-length" -> maxLength = Integer.parseInt(value);
+                case "--max-digits" -> generator.maxIntegerDigits(Integer.parseInt(value));
+                case "--seed" -> generator.seed(Long.parseLong(value));
+                default -> throw new IllegalArgumentException("Неизвестный аргумент: " + args[i]);
+            }
+        }
+        if (output == null || size <= 0 || args.length % 2 != 0) {
+            throw new IllegalArgumentException("Необходимо указать --output FILE и --size SIZE");
+        }
+        generator.stringLength(minLength, maxLength);
+        long lines = generator.generate(output, size);
+        System.out.printf("Записано строк: %d в файл %s%n", lines, output.toAbsolutePath());
+    }
+}
@@ -0,0 +1,88 @@
+package ru.paskal;
+
+import ru.paskal.models.FloatStatistics;
+import ru.paskal.models.IntegerStatistics;
+import ru.paskal.models.StringStatistics;
+import ru.paskal.models.TypeStatistics;
+import ru.paskal.utils.StringTypesEnum;
+
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumMap;
+
+/**
+ * Контрольная точка обработки: позиция во входных данных, до которой все строки записаны в выходные файлы
+ * и учтены в статистике, длины выходных файлов в этот момент и копия статистики.
+ * Обработка продолжается с позиции после усечения выходных файлов до сохраненных длин
+ *
+ * @param inputFiles    входные файлы обработки, продолжить можно только с тем же списком
+ * @param settings      настройки, от которых зависят статистика и имена выходных файлов
+ * @param fileIndex     номер текущего входного файла
+ * @param offset        смещение начала строки в текущем файле, с которого продолжается обработка
+ * @param outputLengths длины выходных файлов; тип отсутствует, если файл еще не открывался и будет перезаписан
+ * @param typeLengths   длины выходных файлов пользовательских типов по номеру типа, -1 если файл еще не открывался
+ * @param integerStats  статистика целых чисел или null
+ * @param floatStats    статистика чисел с плавающей запятой или null
+ * @param stringsStats  статистика строк или null
+ * @param typeStats     статистика пользовательских типов или null
+ */
+record Checkpoint(String[] inputFiles,
+                  String settings,
+                  int fileIndex,
+                  long offset,
+                  EnumMap<StringTypesEnum, Long> outputLengths,
+                  long[] typeLengths,
+                  IntegerStatistics integerStats,
+                  FloatStatistics floatStats,
+                  StringStatistics stringsStats,
+                  TypeStatistics[] typeStats) implements Serializable {
+    /**
+     * Классы, которые может содержать контрольная точка
+     */
+    private static final ObjectInputFilter FILTER = ObjectInputFilter.Config.createFilter(
+            "ru.paskal.**;java.util.EnumMap;java.lang.Enum;java.lang.String;java.lang.Long;java.lang.Number;"
+                    + "java.math.BigDecimal;java.math.BigInteger;!*");
+
+    /**
+     * Записывает контрольную точку атомарно: во временный файл со сбросом на диск, который затем
+     * переименовывается, поэтому при остановке во время записи остается предыдущая контрольная точка
+     *
+     * @param path путь к файлу контрольной точки
+     */
+    void write(Path path) throws IOException {
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            OutputStream out = Channels.newOutputStream(channel);
+            ObjectOutputStream objects = new ObjectOutputStream(out);
+            objects.writeObject(this);
+            objects.flush();
+            channel.force(true);
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @param path путь к файлу контрольной точки
+     * @return прочитанная контрольная точка
+     */
+    static Checkpoint read(Path path) throws IOException {
+        try (ObjectInputStream in = new ObjectInputStream(Files.newInputStream(path))) {
+            in.setObjectInputFilter(FILTER);
+            return (Checkpoint) in.readObject();
+        } catch (ClassNotFoundException | ClassCastException | InvalidClassException e) {
+            throw new IOException("контрольная точка создана несовместимой версией утилиты", e);
+        }
+    }
+}
@@ -1,22 +1,51 @@
 package ru.paskal;
 
-import lombok.NonNull;
+import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
+import ru.paskal.distinct.DistinctFilter;
+import ru.paskal.io.AsciiByteSequence;
+import ru.paskal.io.AsyncLineWriter;
+import ru.paskal.io.ChannelLineWriter;
+import ru.paskal.io.CompressedInputs;
+import ru.paskal.io.DirectBufferPool;
+import ru.paskal.io.FileChunks;
+import ru.paskal.io.FileFollower;
+import ru.paskal.io.FilePrefetcher;
+import ru.paskal.io.GzipLineWriter;
+import ru.paskal.io.InputFiles;
+import ru.paskal.io.LineWriter;
+import ru.paskal.io.MappedLineReader;
+import ru.paskal.io.PrefetchedFile;
+import ru.paskal.io.RotatingLineWriter;
+import ru.paskal.io.StreamFollower;
+import ru.paskal.metrics.ProcessingMetrics;
 import ru.paskal.models.*;
-import ru.paskal.utils.Pair;
+import ru.paskal.sort.SortingLineWriter;
+import ru.paskal.utils.LineType;
+import ru.paskal.utils.LineTypes;
 import ru.paskal.utils.StringTypesEnum;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
 import java.util.Map;
-
-import static ru.paskal.utils.StringTypesEnum.STRING;
-import static ru.paskal.utils.StringTypesEnum.FLOAT;
-import static ru.paskal.utils.StringTypesEnum.INTEGER;
+import java.util.concurrent.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Класс для работы с файлами, открывает входные файлы,
@@ -25,121 +54,1363 @@ import static ru.paskal.utils.StringTypesEnum.INTEGER;
  */
 @Slf4j
 public class FilesManager {
+    private static final int SEGMENT_SIZE = 1 << 16;
+    private static final long FOLLOW_POLL_MILLIS = 50;
+    private static final String GZIP_SUFFIX = ".gz";
+    private static final String CHECKPOINT_FILE = ".file_util-%scheckpoint";
+    private static final String TEXT_SUFFIX = ".txt";
+    private static final String SEGMENT_SUFFIX = "-%05d";
+    private static final int PREFETCH_SIZE = 256 << 10;
+
     private final CliArgumentsModel args;
-    private final Map<StringTypesEnum, BufferedWriter> writers = new HashMap<>();
-    private Statistics<Long> integerStats;
-    private Statistics<Double> floatStats;
-    private Statistics<String> stringsStats;
+    private final DirectBufferPool bufferPool;
+    private final CompressedInputs inputs = new CompressedInputs(Runtime.getRuntime().availableProcessors());
+    private final Map<StringTypesEnum, LineWriter> writers = new HashMap<>();
+    /**
+     * Метрики обработки, доступные также через JMX и JFR во время работы {@link #processFiles()}
+     */
+    @Getter
+    private final ProcessingMetrics metrics = new ProcessingMetrics();
+    /**
+     * Ошибки чтения входных и записи выходных файлов, по ним определяется, успешно ли завершилась обработка
+     */
+    @Getter
+    private final ProcessingErrors errors = new ProcessingErrors();
+    private IntegerStatistics integerStats;
+    private FloatStatistics floatStats;
+    private StringStatistics stringsStats;
+    /**
+     * Пользовательские типы строк, их выходные файлы и статистика по номеру типа, null если типы не заданы
+     */
+    private final LineTypes lineTypes;
+    private LineWriter[] typeWriters;
+    private TypeStatistics[] typeStats;
+    /**
+     * Выходные файлы пользовательских типов, продолженные с контрольной точки, дописываются
+     */
+    private boolean[] resumedTypeOutputs;
+    private Path spoolDir;
+    private ForkJoinPool chunkPool;
+    private ExecutorService compressionPool;
+    private IntervalTimer timer;
+    private volatile boolean stopped = false;
+    /**
+     * Файл контрольной точки, null если контрольные точки не создаются
+     */
+    private Path checkpointPath;
+    /**
+     * Типы выходных файлов, усеченных до длины из контрольной точки, они дописываются
+     */
+    private final EnumSet<StringTypesEnum> resumedOutputs = EnumSet.noneOf(StringTypesEnum.class);
+    private int currentFile;
+    private boolean halted = false;
+    /**
+     * Кэш результатов обработки входных файлов, null если кэш не используется
+     */
+    private InputCache cache;
+    /**
+     * Количество файлов, результаты которых взяты из кэша
+     */
+    @Getter
+    private int cacheHits = 0;
+    /**
+     * Отбор первых вхождений значений, null если повторы записываются
+     */
+    private DistinctFilter distinct;
+    /**
+     * Обработана ли полностью часть входных данных, тогда при закрытии выходных файлов записывается ее результат
+     */
+    private boolean shardCompleted = false;
 
 
     /**
      * Конструктор класса {@link FilesManager}, создает хранилища
      * для статистики если ее сбор указан в аргументах
-     * Если указана краткая статистика, то полная не будет вычисляться
+     * Если указана краткая статистика, то полная не будет вычисляться.
+     * Входные директории и шаблоны заменяются в аргументах списком файлов {@link InputFiles}
      *
      * @param args аргументы командной строки в виде {@link CliArgumentsModel}
      */
     public FilesManager(CliArgumentsModel args) {
         this.args = args;
-        if (args.isFullStats() || args.isShortStats()) {
-            integerStats = new IntegerStatistics(args.isFullStats());
-            floatStats = new FloatStatistics(args.isFullStats());
-            stringsStats = new StringStatistics(args.isFullStats());
+        this.lineTypes = args.getLineTypes();
+        args.setInputFiles(InputFiles.expand(args.getInputFiles(), Paths.get(args.getOutputPath()), outputNames()));
+        if (lineTypes != null) {
+            configureLineTypes();
+        }
+        if (args.getShardCount() > 0) {
+            configureShard();
+        }
+        if (isCollectingStats()) {
+            integerStats = new IntegerStatistics(args.isFullStats(), args.isExtendedStats());
+            floatStats = new FloatStatistics(args.isFullStats(), args.isExtendedStats());
+            stringsStats = new StringStatistics(args.isFullStats(), args.isExtendedStats(), args.getTopK());
+        }
+        Charset charset = Charset.defaultCharset();
+        if (args.isMmapMode() && !AsciiByteSequence.isAsciiCompatible(charset)) {
+            log.warn("Системная кодировка {} несовместима с ASCII, файлы будут читаться построчно", charset);
+            args.setMmapMode(false);
+        }
+        if (args.isFollowMode() && !AsciiByteSequence.isAsciiCompatible(charset)) {
+            log.warn("Системная кодировка {} несовместима с ASCII, отслеживание файлов отключено", charset);
+            args.setFollowMode(false);
+        }
+        if (args.isPipelineMode() && !AsciiByteSequence.isAsciiCompatible(charset)) {
+            log.warn("Системная кодировка {} несовместима с ASCII, конвейерная обработка отключена", charset);
+            args.setPipelineMode(false);
+        }
+        if (args.isDistinct()) {
+            configureDistinct();
+        }
+        if (args.getRotateSize() > 0 || args.getRotateLines() > 0) {
+            configureRotation(charset);
+        }
+        if (args.isSort()) {
+            configureSort(charset);
+        }
+        if (args.isAsyncWriters() && args.isPipelineMode()) {
+            log.info("При конвейерной обработке выходные файлы уже записываются в отдельных потоках");
+            args.setAsyncWriters(false);
+        }
+        if (args.getCheckpointInterval() > 0) {
+            configureCheckpoints(charset);
+        }
+        if (args.getCacheDir() != null) {
+            configureCache();
+        }
+        int segmentSize = Math.min(SEGMENT_SIZE, args.getWriteBufferSize());
+        int segmentsPerFile = Math.max(1, args.getWriteBufferSize() / segmentSize);
+        int outputs = StringTypesEnum.values().length + (lineTypes != null ? lineTypes.size() : 0);
+        bufferPool = new DirectBufferPool(segmentSize, segmentsPerFile * outputs);
+    }
+
+    /**
+     * Создает выходные файлы и статистику пользовательских типов. При параллельной обработке и с кэшем
+     * строки пользовательских типов проходят через временные файлы {@link SegmentResult} так же, как встроенные,
+     * в конвейере у каждого типа своя стадия записи, а контрольные точки сохраняют длины их выходных файлов
+     */
+    private void configureLineTypes() {
+        typeWriters = new LineWriter[lineTypes.size()];
+        resumedTypeOutputs = new boolean[lineTypes.size()];
+        if (isCollectingStats()) {
+            typeStats = new TypeStatistics[lineTypes.size()];
+            for (int i = 0; i < typeStats.length; i++) {
+                LineType type = lineTypes.get(i);
+                typeStats[i] = new TypeStatistics(type.name(), type.decimal(), args.isFullStats());
+            }
+        }
+    }
+
+    /**
+     * Включает обработку части входных данных. Выходные файлы частей объединяются дописыванием друг за другом,
+     * поэтому отключаются режимы, в которых содержимое выходного файла зависит не только от его строк
+     * или выходной файл делится на сегменты, а также дописывание к результатам прошлых запусков
+     */
+    private void configureShard() {
+        if (args.isAppendMode()) {
+            log.warn("Выходные файлы части перезаписываются, дописывание выполняется при объединении частей");
+            args.setAppendMode(false);
+        }
+        if (args.isDistinct()) {
+            log.warn("Режим без повторов отключен при обработке части входных данных");
+            args.setDistinct(false);
+        }
+        if (args.isSort()) {
+            log.warn("Числа не сортируются при обработке части входных данных");
+            args.setSort(false);
+        }
+        if (args.getRotateSize() > 0 || args.getRotateLines() > 0) {
+            log.warn("Выходные файлы части не делятся на сегменты");
+            args.setRotateSize(0);
+            args.setRotateLines(0);
+        }
+        if (args.getCheckpointInterval() > 0) {
+            log.warn("Контрольные точки не создаются при обработке части входных данных");
+            args.setCheckpointInterval(0);
+            args.setResume(false);
+        }
+    }
+
+    /**
+     * Создает отбор первых вхождений значений. Повторы должны определяться в порядке строк входных файлов
+     * в потоке, владеющем выходными файлами, поэтому режимы с временными файлами, конвейер,
+     * контрольные точки и кэш отключаются. Отбираются только значения встроенных типов: строки пользовательских
+     * типов записываются все, включая повторы, так как их значения не разбираются
+     */
+    private void configureDistinct() {
+        if (args.getThreads() > 1 || args.getParallelism() > 1) {
+            log.warn("В режиме без повторов файлы обрабатываются в одном потоке");
+            args.setThreads(1);
+            args.setParallelism(1);
+        }
+        if (args.isPipelineMode()) {
+            log.warn("Конвейерная обработка отключена в режиме без повторов");
+            args.setPipelineMode(false);
+        }
+        if (args.getCheckpointInterval() > 0) {
+            log.warn("Контрольные точки не создаются в режиме без повторов");
+            args.setCheckpointInterval(0);
+            args.setResume(false);
+        }
+        if (args.getCacheDir() != null) {
+            log.warn("Кэш не используется в режиме без повторов");
+            args.setCacheDir(null);
+        }
+        try {
+            distinct = new DistinctFilter(args.getDistinctMemory(), args.getDistinctOverflow(),
+                    Paths.get(args.getOutputPath()));
+        } catch (IOException e) {
+            log.error("Не удалось создать множества значений, повторы будут записаны: {}", e.getMessage());
+        }
+        if (distinct != null && lineTypes != null) {
+            log.info("Строки пользовательских типов записываются без отбора повторов");
+        }
+    }
+
+    /**
+     * Включает деление выходных файлов на сегменты. Границы строк в уже закодированных данных определяются
+     * по байту перевода строки, а контрольная точка хранит длину одного файла на тип, поэтому сегменты
+     * требуют совместимой с ASCII кодировки и отключают контрольные точки
+     */
+    private void configureRotation(Charset charset) {
+        if (!AsciiByteSequence.isAsciiCompatible(charset)) {
+            log.warn("Системная кодировка {} несовместима с ASCII, выходные файлы не делятся на сегменты", charset);
+            args.setRotateSize(0);
+            args.setRotateLines(0);
+            return;
+        }
+        if (args.getCheckpointInterval() > 0) {
+            log.warn("Контрольные точки не создаются при делении выходных файлов на сегменты");
+            args.setCheckpointInterval(0);
+            args.setResume(false);
+        }
+    }
+
+    /**
+     * Включает сортировку чисел в выходных файлах. Отсортированные значения записываются только при закрытии
+     * выходных файлов, поэтому сортировка несовместима с отслеживанием файлов, а длины выходных файлов
+     * до закрытия не соответствуют обработанным строкам, поэтому контрольные точки не создаются
+     */
+    private void configureSort(Charset charset) {
+        if (!AsciiByteSequence.isAsciiCompatible(charset)) {
+            log.warn("Системная кодировка {} несовместима с ASCII, числа не сортируются", charset);
+            args.setSort(false);
+            return;
+        }
+        if (args.isFollowMode()) {
+            log.warn("В режиме отслеживания файлов числа не сортируются, так как строки должны быть видны сразу");
+            args.setSort(false);
+            return;
+        }
+        if (args.getCheckpointInterval() > 0) {
+            log.warn("Контрольные точки не создаются при сортировке чисел");
+            args.setCheckpointInterval(0);
+            args.setResume(false);
+        }
+    }
+
+    /**
+     * Включает контрольные точки, если режим обработки позволяет определить позицию во входных данных.
+     * Позиция внутри файла известна только при побайтовом чтении, поэтому оно включается принудительно,
+     * а конвейерная обработка отключается
+     */
+    private void configureCheckpoints(Charset charset) {
+        if (args.isFollowMode()) {
+            log.warn("Контрольные точки не создаются в режиме отслеживания файлов");
+            return;
+        }
+        if (Arrays.asList(args.getInputFiles()).contains(LineProcessor.STDIN)) {
+            log.warn("Контрольные точки не создаются при чтении стандартного ввода");
+            return;
+        }
+        if (!AsciiByteSequence.isAsciiCompatible(charset)) {
+            log.warn("Системная кодировка {} несовместима с ASCII, контрольные точки не создаются", charset);
+            return;
+        }
+        if (args.isPipelineMode()) {
+            log.warn("Конвейерная обработка отключена, так как не позволяет создавать контрольные точки");
+            args.setPipelineMode(false);
+        }
+        if (!args.isMmapMode()) {
+            log.info("Для создания контрольных точек файлы читаются побайтово");
+            args.setMmapMode(true);
+        }
+        checkpointPath = Paths.get(args.getOutputPath(), CHECKPOINT_FILE.formatted(args.getPrefix()));
+    }
+
+    /**
+     * Открывает кэш результатов обработки файлов. С кэшем каждый файл обрабатывается отдельно
+     * во временные файлы, как при параллельной обработке, поэтому конвейерная обработка отключается
+     */
+    private void configureCache() {
+        if (args.isFollowMode()) {
+            log.warn("Кэш не используется в режиме отслеживания файлов");
+            return;
+        }
+        try {
+            cache = new InputCache(Paths.get(args.getCacheDir()), args.getCacheSize(), cacheSettings());
+        } catch (IOException e) {
+            log.error("Не удалось открыть кэш {}, файлы будут обработаны без него: {}", args.getCacheDir(), e.getMessage());
+            return;
+        }
+        if (args.isPipelineMode()) {
+            log.warn("Конвейерная обработка отключена при использовании кэша");
+            args.setPipelineMode(false);
         }
     }
 
     /**
      * Метод обработки содержимого файлов в соответствии с задачей.
      * Занимается открытием файлов, чтением строк, и определением их типа,
-     * запись и подсчет статистики ведется используя метод {@link #handleValue(StringTypesEnum, Object, String)}
+     * запись и подсчет статистики ведется при помощи {@link LineProcessor}.
+     * Если задано больше одного потока, файлы обрабатываются параллельно
+     * методом {@link #processFilesParallel(String[])}, иначе при конвейерном режиме
+     * методом {@link #processFilesPipelined(String[])}. В режиме отслеживания файлы обрабатываются
+     * методом {@link #processFilesFollowing(String[])} до вызова {@link #stop()}.
+     * При обработке части входных данных ({@link CliArgumentsModel#getShardCount()}) обрабатывается только
+     * ее доля методом {@link #processFilesSharded(String[])}, а результат части записывается при закрытии выходных файлов.
+     * Если включены контрольные точки, обработка может продолжиться с сохраненной позиции
+     * ({@link CliArgumentsModel#isResume()}), а при вызове {@link #stop()} останавливается после создания
+     * контрольной точки; после полной обработки файл контрольной точки удаляется.
+     * По завершении в лог выводится сводка {@link ProcessingMetrics}
      *
      * @return Объединенная статистика по всем файлам в виде {@link StatisticsUnion}
      */
     public StatisticsUnion processFiles() {
-        for (String file : args.getInputFiles()) {
-            try (val br = new BufferedReader(new FileReader(file))) {
+        String[] files = args.getInputFiles();
+        metrics.start();
+        long checkpointInterval = checkpointPath != null ? args.getCheckpointInterval() : 0;
+        if (args.getStatsInterval() > 0 || args.getFlushInterval() > 0 || args.getProgressInterval() > 0
+                || checkpointInterval > 0) {
+            timer = new IntervalTimer(args.getStatsInterval(), args.getFlushInterval(), checkpointInterval);
+            if (args.getProgressInterval() > 0) {
+                timer.schedule(args.getProgressInterval(), () -> log.info("Прогресс: {}", metrics.formatProgress()));
+            }
+        }
+        boolean completed = false;
+        try {
+            int first = 0;
+            if (checkpointPath != null && args.isResume()) {
+                Checkpoint checkpoint = restoreCheckpoint();
+                if (checkpoint != null) {
+                    first = checkpoint.fileIndex();
+                    if (checkpoint.offset() > 0 && first < files.length) {
+                        // Недообработанный файл продолжается с сохраненного смещения
+                        processSequentialFile(newLineProcessor(), files, first, checkpoint.offset(), Long.MAX_VALUE, null);
+                        first++;
+                    }
+                }
+            }
+            if (halted) {
+                log.info("Обработка остановлена");
+            } else if (args.isFollowMode()) {
+                processFilesFollowing(files);
+            } else if (args.getShardCount() > 0) {
+                shardCompleted = processFilesSharded(files);
+            } else {
+                dispatch(files, first);
+            }
+            completed = !halted && !Thread.currentThread().isInterrupted();
+            shardCompleted &= completed;
+            if (cache != null) {
+                log.info("Из кэша взяты результаты {} из {} файлов", cacheHits, files.length);
+                cache.trim();
+            }
+            if (distinct != null) {
+                distinct.logSummary();
+            }
+        } catch (IOException e) {
+            errors.report("Невозможно продолжить обработку с контрольной точки {}: {}", checkpointPath, e.getMessage());
+        } finally {
+            releaseResources();
+            metrics.stop();
+        }
+        if (completed && checkpointPath != null) {
+            deleteCheckpoint();
+        }
+
+        log.info("Обработка всех файлов завершена");
+        log.info(metrics.formatSummary());
+        return new StatisticsUnion(allStats(stringsStats, integerStats, floatStats, typeStats));
+    }
+
+    /**
+     * Обработка файлов способом, заданным аргументами: параллельно, конвейером или последовательно
+     *
+     * @param files входные файлы
+     * @param first номер первого обрабатываемого файла
+     */
+    private void dispatch(String[] files, int first) {
+        if (cache != null || args.getThreads() > 1 && files.length - first > 1) {
+            processFilesParallel(files, first);
+        } else if (args.isPipelineMode()) {
+            processFilesPipelined(files);
+        } else {
+            processFilesSequential(files, first);
+        }
+    }
+
+    /**
+     * Обработка доли входных данных части по {@link ShardPlan}. Файлы, доставшиеся части целиком,
+     * обрабатываются способом, заданным аргументами, а диапазоны файлов на границах доли - в текущем потоке
+     *
+     * @param files входные файлы
+     * @return true если доля вычислена и обработка не была прервана
+     */
+    private boolean processFilesSharded(String[] files) {
+        ShardPlan plan;
+        try {
+            plan = ShardPlan.of(files, args.getShardIndex(), args.getShardCount(),
+                    AsciiByteSequence.isAsciiCompatible(Charset.defaultCharset()));
+        } catch (IOException e) {
+            errors.report("Не удалось вычислить долю части {} из {}: {}", args.getShardIndex(), args.getShardCount(),
+                    e.getMessage());
+            return false;
+        }
+        log.info("Часть {} из {}: {} байт в {} файлах", args.getShardIndex(), args.getShardCount(), plan.bytes(),
+                plan.pieces().size());
+        List<String> whole = new ArrayList<>();
+        for (ShardPlan.Piece piece : plan.pieces()) {
+            if (piece.whole()) {
+                whole.add(files[piece.fileIndex()]);
+                continue;
+            }
+            if (!whole.isEmpty()) {
+                dispatch(whole.toArray(String[]::new), 0);
+                whole.clear();
+            }
+            if (halted || Thread.currentThread().isInterrupted()) {
+                return false;
+            }
+            log.info("Обрабатывается диапазон {}-{} файла {}", piece.from(), piece.to(), files[piece.fileIndex()]);
+            processSequentialFile(newLineProcessor(), files, piece.fileIndex(), piece.from(), piece.to(), null);
+        }
+        if (!whole.isEmpty()) {
+            dispatch(whole.toArray(String[]::new), 0);
+        }
+        return true;
+    }
+
+    /**
+     * @return статистика встроенных типов, за которой следует статистика пользовательских типов
+     */
+    private static Statistics<?>[] allStats(StringStatistics strings, IntegerStatistics integers, FloatStatistics floats,
+                                            TypeStatistics[] types) {
+        int typeCount = types != null ? types.length : 0;
+        Statistics<?>[] stats = new Statistics<?>[3 + typeCount];
+        stats[0] = strings;
+        stats[1] = integers;
+        stats[2] = floats;
+        for (int i = 0; i < typeCount; i++) {
+            stats[3 + i] = types[i];
+        }
+        return stats;
+    }
+
+    /**
+     * Последовательная обработка файлов в текущем потоке.
+     * Если задана параллельность обработки частей файлов ({@link CliArgumentsModel#getParallelism()}),
+     * большие файлы обрабатываются методом {@link #processFileChunked(String, int, long, long)}
+     *
+     * @param files входные файлы
+     * @param first номер первого обрабатываемого файла
+     */
+    private void processFilesSequential(String[] files, int first) {
+        val processor = newLineProcessor();
+        try (val prefetcher = newPrefetcher(files)) {
+            for (int i = first; i < files.length; i++) {
+                if (prefetcher != null) {
+                    prefetcher.advance(i);
+                }
+                PrefetchedFile prefetched = prefetcher != null ? prefetcher.take(i) : null;
+                if (!processSequentialFile(processor, files, i, 0, Long.MAX_VALUE, prefetched)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Упреждающее чтение {@link CliArgumentsModel#getPrefetch()} файлов, следующих за обрабатываемым
+     *
+     * @param files входные файлы
+     * @return упреждающее чтение или null, если оно отключено или файл один
+     */
+    private FilePrefetcher newPrefetcher(String[] files) {
+        return args.getPrefetch() > 0 && files.length > 1
+                ? new FilePrefetcher(files, args.getPrefetch(), PREFETCH_SIZE) : null;
+    }
+
+    /**
+     * Обработка одного файла в текущем потоке, после которой при необходимости создается контрольная точка
+     *
+     * @param processor  обработчик строк
+     * @param files      входные файлы
+     * @param index      номер обрабатываемого файла
+     * @param offset     смещение начала строки, с которого продолжается обработка файла
+     * @param end        смещение начала строки, до которого обрабатывается файл, или {@link Long#MAX_VALUE}
+     * @param prefetched файл, открытый заранее, или null; закрывается после обработки
+     * @return false если обработка была прервана или остановлена
+     */
+    private boolean processSequentialFile(LineProcessor processor, String[] files, int index, long offset, long end,
+                                          PrefetchedFile prefetched) {
+        String file = files[index];
+        currentFile = index;
+        // Части большого файла читаются из своих каналов, заранее открытый файл только закрывается
+        try (prefetched) {
+            log.info("Обработка файла {}", file);
+            if (isChunked(file)) {
+                long start = System.nanoTime();
+                long lines = metrics.getLines();
+                long bytes = metrics.getBytes();
+                processFileChunked(file, index, offset, end);
+                // Части файла учитываются счетчиками рабочих потоков, другие файлы в это время не обрабатываются
+                metrics.fileProcessed(file, metrics.getLines() - lines, metrics.getBytes() - bytes,
+                        System.nanoTime() - start);
+            } else {
+                processor.processFile(file, args.isMmapMode(), offset, end, prefetched);
+            }
+        } catch (FileNotFoundException | NoSuchFileException e) {
+            logNotFound(file);
+        } catch (InterruptedIOException e) {
+            // Обработка остановлена на границе окна после создания контрольной точки
+            return false;
+        } catch (IOException e) {
+            logFileError(file, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            errors.report("Обработка файлов была прервана");
+            return false;
+        }
+        return onCheckpointBoundary(index + 1, 0);
+    }
+
+    /**
+     * Обработка файлов в режиме отслеживания, как в {@code tail -F}: файлы опрашиваются по кругу через {@link FileFollower},
+     * новые строки обрабатываются сразу, при отсутствии новых данных выходные файлы сбрасываются.
+     * Стандартный ввод читается в отдельном потоке через {@link StreamFollower} и опрашивается вместе с файлами,
+     * поэтому не задерживает их отслеживание, даже если не заканчивается. Обработка продолжается до вызова {@link #stop()}
+     *
+     * @param files входные файлы
+     */
+    private void processFilesFollowing(String[] files) {
+        val processor = newLineProcessor();
+        List<FileFollower> followers = new ArrayList<>();
+        StreamFollower stdin = null;
+        try {
+            for (String file : files) {
                 log.info("Обработка файла {}", file);
+                if (LineProcessor.STDIN.equals(file)) {
+                    if (stdin == null) {
+                        stdin = new StreamFollower(System.in, Charset.defaultCharset(), "stdin");
+                    }
+                } else if (isExistingGzip(file)) {
+                    log.info("Сжатый файл {} обрабатывается целиком без отслеживания", file);
+                    processOnce(processor, file);
+                } else {
+                    followers.add(new FileFollower(Paths.get(file)));
+                }
+            }
+            while (!stopped) {
+                boolean progress = false;
+                if (stdin != null && !stdin.isFinished()) {
+                    try {
+                        progress = stdin.poll(processor::handleLine);
+                    } catch (IOException e) {
+                        logFileError(LineProcessor.STDIN, e);
+                    }
+                }
+                for (FileFollower follower : followers) {
+                    try {
+                        progress |= follower.poll(processor);
+                    } catch (IOException e) {
+                        logFileError(follower.getPath().toString(), e);
+                    }
+                }
+                if (timer != null) {
+                    onTick();
+                }
+                if (!progress) {
+                    processor.publishMetrics();
+                    flushWriters();
+                    Thread.sleep(FOLLOW_POLL_MILLIS);
+                }
+            }
+            log.info("Отслеживание файлов остановлено");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            errors.report("Обработка файлов была прервана");
+        } finally {
+            if (stdin != null) {
+                stdin.close();
+            }
+            for (FileFollower follower : followers) {
+                try {
+                    follower.close();
+                } catch (IOException e) {
+                    log.error("Не удалось закрыть файл {}: {}", follower.getPath(), e.getMessage());
+                }
+            }
+        }
+    }
 
-                String line;
-                while ((line = br.readLine()) != null) {
-                    val typeAndVal = getStringTypeWithParsedVal(line);
+    /**
+     * Однократная обработка файла, который нельзя отслеживать
+     *
+     * @param processor обработчик строк
+     * @param file      путь к файлу
+     */
+    private void processOnce(LineProcessor processor, String file) {
+        try {
+            processor.processFile(file, args.isMmapMode());
+        } catch (FileNotFoundException | NoSuchFileException e) {
+            logNotFound(file);
+        } catch (IOException e) {
+            logFileError(file, e);
+        }
+    }
 
-                    handleValue(
-                            typeAndVal.getKey(),
-                            typeAndVal.getValue(),
-                            line
-                    );
+    /**
+     * @return true если файл существует и сжат gzip
+     */
+    private static boolean isExistingGzip(String file) {
+        try {
+            return Files.isRegularFile(Paths.get(file)) && CompressedInputs.isGzip(Paths.get(file));
+        } catch (IOException e) {
+            return false;
+        }
+    }
 
+    /**
+     * Останавливает обработку в режиме отслеживания файлов после текущего опроса, а при создании
+     * контрольных точек - на ближайшей границе окна, части или файла после сохранения контрольной точки.
+     * Может вызываться из другого потока, например из обработчика завершения программы
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * Конвейерная обработка файлов {@link PipelineProcessor}: чтение, классификация и запись каждого типа
+     * выполняются в отдельных потоках, по завершении в лог выводится заполненность очередей между стадиями
+     *
+     * @param files входные файлы
+     */
+    private void processFilesPipelined(String[] files) {
+        try (val prefetcher = newPrefetcher(files)) {
+            val pipeline = new PipelineProcessor(this::getWriter, integerStats, floatStats, stringsStats);
+            pipeline.setErrors(errors);
+            pipeline.setInputs(inputs);
+            pipeline.setPrefetcher(prefetcher);
+            pipeline.setMetrics(metrics);
+            if (lineTypes != null) {
+                pipeline.setLineTypes(lineTypes, this::getTypeWriter, typeStats);
+            }
+            if (timer != null) {
+                // Выходные файлы принадлежат потокам записи конвейера, поэтому периодически выводится только статистика
+                pipeline.setOnLine(this::onStatsTick);
+            }
+            pipeline.process(files);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            errors.report("Обработка файлов была прервана");
+        }
+    }
+
+    /**
+     * Параллельная обработка файлов пулом из {@link CliArgumentsModel#getThreads()} потоков.
+     * Каждый файл обрабатывается независимо в {@link SegmentResult} со своими временными файлами и статистикой,
+     * а результаты переносятся в выходные файлы и общую статистику строго в порядке входных файлов,
+     * поэтому содержимое выходных файлов и статистика совпадают с последовательной обработкой.
+     * Одновременно в работе находится не больше двух файлов на поток, что ограничивает объем временных данных.
+     * При использовании кэша так обрабатываются файлы и в одном потоке, а результаты неизменившихся файлов
+     * берутся из {@link InputCache}.
+     *
+     * @param files входные файлы
+     * @param first номер первого обрабатываемого файла
+     */
+    private void processFilesParallel(String[] files, int first) {
+        if (!canSpool()) {
+            log.error("Файлы будут обработаны последовательно");
+            processFilesSequential(files, first);
+            return;
+        }
+        int threads = args.getThreads();
+        val prefetcher = newPrefetcher(files);
+        List<Callable<SegmentResult>> tasks = new ArrayList<>();
+        for (int i = first; i < files.length; i++) {
+            int index = i;
+            String file = files[i];
+            tasks.add(() -> {
+                if (prefetcher != null) {
+                    prefetcher.advance(index);
+                }
+                PrefetchedFile prefetched = prefetcher != null ? prefetcher.take(index) : null;
+                // Файл, взятый из кэша, закрывается без чтения
+                try (prefetched) {
+                    return cache != null ? processCachedSegment(file, prefetched) : processSegment(file, prefetched);
+                }
+            });
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            runOrdered(pool, 2 * threads, tasks, (i, result) -> {
+                String file = files[first + i];
+                if (result != null && result.getCacheEntry() != null) {
+                    log.info("Файл {} не изменился, результат взят из кэша", file);
+                    cacheHits++;
+                } else {
+                    log.info("Обработка файла {}", file);
+                }
+                if (result != null) {
+                    commitSegment(file, result);
+                }
+                return onCheckpointBoundary(first + i + 1, 0);
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            errors.report("Обработка файлов была прервана");
+        } finally {
+            shutdownAndWait(pool);
+            if (prefetcher != null) {
+                prefetcher.close();
+            }
+        }
+    }
+
+    /**
+     * Обработка большого файла по частям: файл делится на диапазоны байтов размером около
+     * {@link CliArgumentsModel#getChunkSize()}, выровненные по границам строк, которые обрабатываются
+     * в {@link ForkJoinPool} независимо, каждая в свой {@link SegmentResult}.
+     * Результаты переносятся в выходные файлы и статистику в исходном порядке строк,
+     * при ошибке чтения части обработка файла прекращается, как и при последовательном чтении.
+     * Границы частей служат позициями для контрольных точек
+     *
+     * @param file   путь к файлу
+     * @param index  номер файла среди входных файлов
+     * @param offset смещение начала строки, с которого обрабатывается файл
+     * @param end    смещение начала строки, до которого обрабатывается файл, или {@link Long#MAX_VALUE}
+     */
+    private void processFileChunked(String file, int index, long offset, long end) throws IOException, InterruptedException {
+        try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+            long[] bounds = FileChunks.split(channel, offset, Math.min(end, channel.size()), args.getChunkSize());
+            List<Callable<SegmentResult>> tasks = new ArrayList<>();
+            for (int i = 0; i + 1 < bounds.length; i++) {
+                long from = bounds[i];
+                long to = bounds[i + 1];
+                tasks.add(() -> processChunk(channel, from, to));
+            }
+            runOrdered(getChunkPool(), 2 * args.getParallelism(), tasks,
+                    (i, result) -> result != null && commitSegment(file, result)
+                            && (i == bounds.length - 2 || onCheckpointBoundary(index, bounds[i + 1])));
+        }
+    }
+
+    /**
+     * Нужно ли обрабатывать файл по частям: только при заданной параллельности, побайтовом
+     * чтении, совместимом с системной кодировкой, и размере файла больше двух частей.
+     * Сжатые файлы не делятся на части, их распаковка распараллеливается отдельно
+     *
+     * @param file путь к файлу
+     */
+    private boolean isChunked(String file) throws IOException {
+        return args.getParallelism() > 1
+                && !LineProcessor.STDIN.equals(file)
+                && AsciiByteSequence.isAsciiCompatible(Charset.defaultCharset())
+                && Files.size(Paths.get(file)) > 2 * args.getChunkSize()
+                && !CompressedInputs.isGzip(Paths.get(file))
+                && canSpool();
+    }
+
+    /**
+     * @return true если директория для временных файлов существует или была создана
+     */
+    private boolean canSpool() {
+        try {
+            getSpoolDir();
+            return true;
+        } catch (IOException e) {
+            log.error("Не удалось создать директорию для временных файлов: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Обработчик результатов {@link #runOrdered(ExecutorService, int, List, SegmentCommitter)}
+     */
+    @FunctionalInterface
+    private interface SegmentCommitter {
+        /**
+         * @param index  номер задачи
+         * @param result результат задачи или null, если задача завершилась непредвиденной ошибкой
+         * @return продолжать ли обработку следующих результатов
+         */
+        boolean commit(int index, SegmentResult result);
+    }
+
+    /**
+     * Выполняет задачи в пуле и передает их результаты обработчику строго в порядке задач.
+     * Одновременно в работе находится не больше {@code window} задач, что ограничивает объем временных файлов
+     *
+     * @param pool      пул потоков
+     * @param window    максимальное количество задач в работе
+     * @param tasks     задачи
+     * @param committer обработчик результатов
+     */
+    private void runOrdered(ExecutorService pool, int window, List<Callable<SegmentResult>> tasks,
+                            SegmentCommitter committer) throws InterruptedException {
+        List<Future<SegmentResult>> futures = new ArrayList<>();
+        try {
+            for (int i = 0; i < tasks.size(); i++) {
+                while (futures.size() < tasks.size() && futures.size() < i + window) {
+                    futures.add(pool.submit(tasks.get(futures.size())));
+                }
+                SegmentResult result = null;
+                try {
+                    result = futures.get(i).get();
+                } catch (ExecutionException e) {
+                    errors.report("Произошла непредвиденная ошибка {} при обработке", e.getCause().toString());
+                }
+                futures.set(i, null);
+                if (!committer.commit(i, result)) {
+                    break;
                 }
+            }
+        } finally {
+            for (val future : futures) {
+                if (future != null) {
+                    future.cancel(true);
+                }
+            }
+        }
+    }
 
-            } catch (FileNotFoundException e) {
-                log.error("Файл {} не найден, пропускаем...", file);
+    /**
+     * Обработка одного файла в рабочем потоке
+     *
+     * @param file       путь к файлу
+     * @param prefetched файл, открытый заранее, или null
+     * @return результат обработки, при ошибке чтения содержит уже обработанную часть файла и ошибку
+     */
+    private SegmentResult processSegment(String file, PrefetchedFile prefetched) throws IOException {
+        val result = new SegmentResult(getSpoolDir(), isCollectingStats(), args.isFullStats(), args.isExtendedStats(),
+                args.getTopK(), lineTypes);
+        result.setErrors(errors);
+        try {
+            val processor = result.newProcessor();
+            processor.setInputs(inputs);
+            processor.setMetrics(metrics);
+            processor.processFile(file, args.isMmapMode(), 0, Long.MAX_VALUE, prefetched);
+        } catch (IOException e) {
+            result.setError(e);
+        } finally {
+            result.closeSpools();
+        }
+        return result;
+    }
+
+    /**
+     * Обработка одного файла в рабочем потоке с использованием кэша: результат неизменившегося файла
+     * берется из кэша, иначе файл обрабатывается и результат сохраняется в кэш
+     *
+     * @param file       путь к файлу
+     * @param prefetched файл, открытый заранее, или null
+     * @return результат обработки или результат из кэша
+     */
+    private SegmentResult processCachedSegment(String file, PrefetchedFile prefetched) throws IOException {
+        if (LineProcessor.STDIN.equals(file)) {
+            return processSegment(file, prefetched);
+        }
+        Path path = Paths.get(file);
+        val cached = cache.lookup(path);
+        if (cached != null) {
+            return cached;
+        }
+        BasicFileAttributes before;
+        try {
+            before = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (IOException e) {
+            return processSegment(file, prefetched);
+        }
+        val result = processSegment(file, prefetched);
+        if (result.getError() == null) {
+            cache.store(path, before, result);
+        }
+        return result;
+    }
+
+    /**
+     * Обработка части файла в рабочем потоке
+     *
+     * @param channel канал файла
+     * @param from    начало части
+     * @param to      конец части
+     * @return результат обработки части
+     */
+    private SegmentResult processChunk(FileChannel channel, long from, long to) throws IOException {
+        val result = new SegmentResult(getSpoolDir(), isCollectingStats(), args.isFullStats(), args.isExtendedStats(),
+                args.getTopK(), lineTypes);
+        result.setErrors(errors);
+        try {
+            val processor = result.newProcessor();
+            processor.setMetrics(metrics);
+            try {
+                new MappedLineReader().read(channel, from, to, processor);
+            } finally {
+                processor.publishMetrics();
+            }
+        } catch (IOException e) {
+            result.setError(e);
+        } finally {
+            result.closeSpools();
+        }
+        return result;
+    }
+
+    /**
+     * Перенос результата обработки файла в выходные файлы и общую статистику
+     *
+     * @param file   путь к файлу, используется для сообщений об ошибках
+     * @param result результат обработки файла
+     * @return true если файл был обработан без ошибок
+     */
+    private boolean commitSegment(String file, SegmentResult result) {
+        try {
+            for (StringTypesEnum type : result.getTypes()) {
+                val writer = getWriter(type);
+                if (writer == null) continue;
+                try {
+                    result.appendTo(type, writer);
+                } catch (IOException e) {
+                    errors.report("Произошла ошибка при записи строк типа {} из файла {}: {}",
+                            type, file, e.getMessage());
+                }
+            }
+            for (int i = 0; i < result.getTypeCount(); i++) {
+                if (!result.hasTypeLines(i)) continue;
+                val writer = getTypeWriter(i);
+                if (writer == null) continue;
+                try {
+                    result.appendTypeTo(i, writer);
+                } catch (IOException e) {
+                    errors.report("Произошла ошибка при записи строк типа {} из файла {}: {}",
+                            lineTypes.get(i).name(), file, e.getMessage());
+                }
+            }
+            if (isCollectingStats()) {
+                integerStats.merge(result.getIntegerStats());
+                floatStats.merge(result.getFloatStats());
+                stringsStats.merge(result.getStringsStats());
+                for (int i = 0; typeStats != null && i < typeStats.length; i++) {
+                    typeStats[i].merge(result.getTypeStats()[i]);
+                }
+            }
+            val error = result.getError();
+            if (error instanceof FileNotFoundException || error instanceof NoSuchFileException) {
+                logNotFound(file);
+            } else if (error != null) {
+                logFileError(file, error);
+            }
+            return error == null;
+        } finally {
+            result.deleteSpools();
+            if (timer != null) {
+                onTick();
+            }
+        }
+    }
+
+    /**
+     * @return {@link LineProcessor} для обработки в текущем потоке с записью в выходные файлы.
+     * Сбрасывает выходные файлы, когда стандартный ввод ожидает данных, и выполняет периодические действия таймера
+     */
+    private LineProcessor newLineProcessor() {
+        val processor = new LineProcessor(this::getWriter, integerStats, floatStats, stringsStats);
+        processor.setErrors(errors);
+        processor.setInputs(inputs);
+        processor.setMetrics(metrics);
+        processor.setOnIdle(this::flushWriters);
+        if (lineTypes != null) {
+            processor.setLineTypes(lineTypes, this::getTypeWriter, typeStats);
+        }
+        if (distinct != null) {
+            processor.setDistinct(distinct, args.isDistinctStats());
+        }
+        if (timer != null) {
+            processor.setOnLine(this::onTick);
+        }
+        if (checkpointPath != null) {
+            processor.setOnBoundary(position -> {
+                if (!onCheckpointBoundary(currentFile, position)) {
+                    throw new InterruptedIOException("Обработка остановлена");
+                }
+            });
+        }
+        return processor;
+    }
+
+    /**
+     * Выполняет периодические действия таймера в потоке, владеющем выходными файлами и статистикой
+     */
+    private void onTick() {
+        onStatsTick();
+        if (timer.takeFlushDue()) {
+            flushWriters();
+        }
+    }
+
+    /**
+     * @return копия статистики пользовательских типов или null, если она не собирается
+     */
+    private TypeStatistics[] copyTypeStats() {
+        if (typeStats == null) {
+            return null;
+        }
+        TypeStatistics[] copy = new TypeStatistics[typeStats.length];
+        for (int i = 0; i < typeStats.length; i++) {
+            copy[i] = typeStats[i].copy();
+        }
+        return copy;
+    }
+
+    /**
+     * Если пора, копирует текущую статистику и выводит копию в потоке таймера, не задерживая обработку
+     */
+    private void onStatsTick() {
+        if (!timer.takeStatsDue() || !isCollectingStats()) {
+            return;
+        }
+        val snapshot = new StatisticsUnion(allStats(stringsStats.copy(), integerStats.copy(), floatStats.copy(), copyTypeStats()));
+        timer.execute(() -> {
+            log.info("Промежуточная статистика:");
+            snapshot.printAllStats(args.isFullStats());
+        });
+    }
+
+    /**
+     * Сбрасывает все открытые выходные файлы, чтобы записанные строки стали видны читателям
+     */
+    private void flushWriters() {
+        for (LineWriter writer : openWriters()) {
+            try {
+                writer.flush();
             } catch (IOException e) {
-                log.error("Произошла непредвиденная ошибка {} при работе с файлом {}," +
-                        " переходим к следующему файлу: ", e.getMessage(), file);
+                errors.report("Произошла ошибка при сбросе файла: {}", e.getMessage());
             }
         }
+    }
 
-        log.info("Обработка всех файлов завершена");
-        return new StatisticsUnion(stringsStats, integerStats, floatStats);
+    /**
+     * @return открытые выходные файлы встроенных и пользовательских типов
+     */
+    private List<LineWriter> openWriters() {
+        List<LineWriter> open = new ArrayList<>(writers.values());
+        if (typeWriters != null) {
+            for (LineWriter writer : typeWriters) {
+                if (writer != null) {
+                    open.add(writer);
+                }
+            }
+        }
+        return open;
+    }
+
+    /**
+     * Вызывается, когда все строки до указанной позиции записаны и учтены в статистике.
+     * Создает контрольную точку, если подошло время или обработка остановлена
+     *
+     * @param fileIndex номер входного файла
+     * @param offset    смещение начала строки в файле, с которого продолжится обработка
+     * @return false если обработку нужно прекратить
+     */
+    private boolean onCheckpointBoundary(int fileIndex, long offset) {
+        if (checkpointPath == null) {
+            return true;
+        }
+        if (halted) {
+            return false;
+        }
+        if (stopped) {
+            saveCheckpoint(fileIndex, offset);
+            halted = true;
+            log.info("Обработка остановлена, для продолжения запустите утилиту с флагом --resume");
+            return false;
+        }
+        if (timer != null && timer.takeCheckpointDue()) {
+            saveCheckpoint(fileIndex, offset);
+        }
+        return true;
+    }
+
+    /**
+     * Записывает выходные файлы на диск, копирует статистику и записывает контрольную точку в потоке таймера.
+     * Контрольная точка сама записывается с {@link FileChannel#force(boolean)}, поэтому и длины выходных файлов
+     * в ней должны соответствовать данным на диске, а не только в кэше операционной системы.
+     * Длины сохраняются для уже открытых и дописываемых файлов, остальные при продолжении перезаписываются
+     */
+    private void saveCheckpoint(int fileIndex, long offset) {
+        for (LineWriter writer : openWriters()) {
+            try {
+                writer.sync();
+            } catch (IOException e) {
+                errors.report("Произошла ошибка при сбросе файла: {}", e.getMessage());
+                log.error("Контрольная точка не создана");
+                return;
+            }
+        }
+        EnumMap<StringTypesEnum, Long> lengths = new EnumMap<>(StringTypesEnum.class);
+        for (StringTypesEnum type : StringTypesEnum.values()) {
+            if (!writers.containsKey(type) && !resumedOutputs.contains(type) && !args.isAppendMode()) {
+                continue;
+            }
+            try {
+                Path path = outputPath(type);
+                lengths.put(type, Files.exists(path) ? Files.size(path) : 0L);
+            } catch (IOException e) {
+                log.error("Не удалось создать контрольную точку: {}", e.getMessage());
+                return;
+            }
+        }
+        long[] typeLengths = null;
+        if (lineTypes != null) {
+            typeLengths = new long[lineTypes.size()];
+            for (int i = 0; i < typeLengths.length; i++) {
+                typeLengths[i] = -1;
+                if (typeWriters[i] == null && !resumedTypeOutputs[i] && !args.isAppendMode()) {
+                    continue;
+                }
+                try {
+                    Path path = outputPath(lineTypes.get(i).toFileName());
+                    typeLengths[i] = Files.exists(path) ? Files.size(path) : 0L;
+                } catch (IOException e) {
+                    log.error("Не удалось создать контрольную точку: {}", e.getMessage());
+                    return;
+                }
+            }
+        }
+        boolean withStats = isCollectingStats();
+        val checkpoint = new Checkpoint(args.getInputFiles(), checkpointSettings(), fileIndex, offset, lengths, typeLengths,
+                withStats ? integerStats.copy() : null,
+                withStats ? floatStats.copy() : null,
+                withStats ? stringsStats.copy() : null,
+                copyTypeStats());
+        Runnable write = () -> {
+            try {
+                checkpoint.write(checkpointPath);
+                log.info("Создана контрольная точка: файл {}, смещение {}", fileIndex, offset);
+            } catch (IOException e) {
+                log.error("Не удалось записать контрольную точку {}: {}", checkpointPath, e.getMessage());
+            }
+        };
+        if (timer != null) {
+            timer.execute(write);
+        } else {
+            write.run();
+        }
     }
 
     /**
-     * Метод получения типа строки ({@link StringTypesEnum})
-     * и приведенного к этому типу значения
+     * Читает контрольную точку и усекает выходные файлы до сохраненных длин
      *
-     * @param string строка для определения типа
-     * @return {@link Pair} типа строки и ее значения
+     * @return контрольная точка или null, если ее нет и обработка начинается сначала
+     * @throws IOException если контрольная точка повреждена или не соответствует текущему запуску
      */
-    private Pair<StringTypesEnum, Object> getStringTypeWithParsedVal(@NonNull String string) {
-        if (string.isEmpty()) {
-            return Pair.of(STRING, string);
+    private Checkpoint restoreCheckpoint() throws IOException {
+        if (!Files.exists(checkpointPath)) {
+            log.warn("Контрольная точка {} не найдена, обработка начинается сначала", checkpointPath);
+            return null;
+        }
+        val checkpoint = Checkpoint.read(checkpointPath);
+        if (!Arrays.equals(checkpoint.inputFiles(), args.getInputFiles())) {
+            throw new IOException("контрольная точка создана для других входных файлов");
+        }
+        if (!checkpoint.settings().equals(checkpointSettings())) {
+            throw new IOException("контрольная точка создана с другими параметрами: " + checkpoint.settings());
+        }
+        for (val entry : checkpoint.outputLengths().entrySet()) {
+            truncateOutput(outputPath(entry.getKey()), entry.getValue());
+            resumedOutputs.add(entry.getKey());
+        }
+        for (int i = 0; checkpoint.typeLengths() != null && i < checkpoint.typeLengths().length; i++) {
+            if (checkpoint.typeLengths()[i] >= 0) {
+                truncateOutput(outputPath(lineTypes.get(i).toFileName()), checkpoint.typeLengths()[i]);
+                resumedTypeOutputs[i] = true;
+            }
+        }
+        if (checkpoint.integerStats() != null) {
+            integerStats = checkpoint.integerStats();
+            floatStats = checkpoint.floatStats();
+            stringsStats = checkpoint.stringsStats();
+            typeStats = checkpoint.typeStats();
+        }
+        log.info("Обработка продолжается с контрольной точки: файл {}, смещение {}",
+                checkpoint.fileIndex(), checkpoint.offset());
+        return checkpoint;
+    }
+
+    /**
+     * Усекает выходной файл до длины, сохраненной в контрольной точке
+     */
+    private static void truncateOutput(Path path, long length) throws IOException {
+        if (Files.exists(path)) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                if (channel.size() < length) {
+                    throw new IOException("файл %s короче сохраненного в контрольной точке".formatted(path));
+                }
+                channel.truncate(length);
+            }
+        } else if (length > 0) {
+            throw new IOException("файл %s не найден".formatted(path));
         }
+    }
 
+    private void deleteCheckpoint() {
         try {
-            return Pair.of(INTEGER, Long.parseLong(string));
-        } catch (NumberFormatException e) {
-            // Не Integer
+            Files.deleteIfExists(checkpointPath);
+        } catch (IOException e) {
+            log.error("Не удалось удалить контрольную точку {}: {}", checkpointPath, e.getMessage());
+        }
+    }
+
+    /**
+     * @return параметры, от которых зависят содержимое выходных файлов и статистика
+     */
+    private String checkpointSettings() {
+        return statsSettings() + ";compress=" + args.isCompressOutput();
+    }
+
+    /**
+     * @return параметры, от которых зависят строки и статистика каждого файла в кэше
+     */
+    private String cacheSettings() {
+        return statsSettings() + ";charset=" + Charset.defaultCharset().name()
+                + ";eol=" + HexFormat.of().formatHex(System.lineSeparator().getBytes());
+    }
+
+    /**
+     * @return параметры статистики и пользовательские типы строк, от которых зависит распределение строк по файлам
+     */
+    private String statsSettings() {
+        StringBuilder settings = new StringBuilder("short=%b;full=%b;extended=%b;top=%d".formatted(args.isShortStats(),
+                args.isFullStats(), args.isExtendedStats(), args.getTopK()));
+        for (int i = 0; lineTypes != null && i < lineTypes.size(); i++) {
+            settings.append(";type=").append(lineTypes.get(i).name()).append('=').append(lineTypes.get(i).pattern());
         }
+        return settings.toString();
+    }
+
+    /**
+     * @return {@link ForkJoinPool} для обработки частей больших файлов, создается при первом обращении
+     */
+    private ForkJoinPool getChunkPool() {
+        if (chunkPool == null) {
+            chunkPool = new ForkJoinPool(args.getParallelism());
+        }
+        return chunkPool;
+    }
+
+    /**
+     * @return директория для временных файлов, создается при первом обращении
+     */
+    private synchronized Path getSpoolDir() throws IOException {
+        if (spoolDir == null) {
+            spoolDir = createSpoolDir();
+        }
+        return spoolDir;
+    }
+
+    /**
+     * @return директория для временных файлов внутри выходной директории
+     */
+    private Path createSpoolDir() throws IOException {
+        Path outputPath = Paths.get(args.getOutputPath());
+        Files.createDirectories(outputPath);
+        return Files.createTempDirectory(outputPath, ".file_util-");
+    }
 
+    /**
+     * Удаляет директорию временных файлов, останавливает пул обработки частей файлов и таймер
+     */
+    private void releaseResources() {
+        if (timer != null) {
+            timer.close();
+            timer = null;
+        }
+        if (chunkPool != null) {
+            shutdownAndWait(chunkPool);
+            chunkPool = null;
+        }
+        if (spoolDir == null) {
+            return;
+        }
+        if (args.isAsyncWriters()) {
+            // Потоки записи дописывают временные файлы до удаления временной директории
+            flushWriters();
+        }
+        try (val spools = Files.list(spoolDir)) {
+            for (Path spool : spools.toList()) {
+                Files.deleteIfExists(spool);
+            }
+            Files.deleteIfExists(spoolDir);
+        } catch (IOException e) {
+            log.error("Не удалось удалить временную директорию {}: {}", spoolDir, e.getMessage());
+        }
+        spoolDir = null;
+    }
+
+    /**
+     * Прерывает задачи пула и дожидается их завершения, чтобы задачи, отмененные при остановке обработки,
+     * не создавали временные файлы после удаления временной директории
+     */
+    private static void shutdownAndWait(ExecutorService pool) {
+        pool.shutdownNow();
         try {
-            return Pair.of(FLOAT, Double.parseDouble(string));
-        } catch (NumberFormatException e) {
-            // Не Float
+            if (!pool.awaitTermination(1, TimeUnit.MINUTES)) {
+                log.warn("Задачи обработки не завершились после остановки");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
+    }
 
-        return Pair.of(STRING, string);
+    private boolean isCollectingStats() {
+        return args.isFullStats() || args.isShortStats();
     }
 
+    private void logNotFound(String file) {
+        errors.report("Файл {} не найден, пропускаем...", file);
+    }
+
+    private void logFileError(String file, IOException e) {
+        errors.report("Произошла непредвиденная ошибка {} при работе с файлом {}," +
+                " переходим к следующему файлу: ", e.getMessage(), file);
+    }
 
     /**
-     * Метод получения {@link BufferedWriter} для записи в файл указанного типа,
-     * при его отсутствии создает новый и возвращает уже его
+     * Метод получения {@link LineWriter} для записи в файл указанного типа,
+     * при его отсутствии создает новый и возвращает уже его. При сортировке числа записываются
+     * через {@link SortingLineWriter}.
+     * Синхронизирован, так как при конвейерной обработке вызывается из потоков записи
      *
      * @param fileType тип файла
-     * @return {@link BufferedWriter} для записи в файл указанного типа
+     * @return {@link LineWriter} для записи в файл указанного типа
      */
-    private BufferedWriter getWriter(StringTypesEnum fileType) {
+    private synchronized LineWriter getWriter(StringTypesEnum fileType) {
         if (writers.containsKey(fileType)) {
             return writers.get(fileType);
         }
-        BufferedWriter writer = null;
+        LineWriter writer = null;
         try {
-            Path outputPath = Paths.get(args.getOutputPath());
-            if (!Files.exists(outputPath)) {
-                Files.createDirectories(outputPath);
+            boolean append = args.isAppendMode() || resumedOutputs.contains(fileType);
+            writer = openWriter(outputPath(fileType), append);
+            writer.setFlushListener(metrics.flushListener(fileType));
+            if (args.isSort() && fileType != StringTypesEnum.STRING) {
+                // Бюджет сортировки делится поровну между целыми и дробными числами
+                writer = new SortingLineWriter(writer, fileType, args.getSortMemory() / 2, Paths.get(args.getOutputPath()));
             }
-            writer = new BufferedWriter(new FileWriter(
-                    "%s/%s%s".formatted(
-                            args.getOutputPath(),
-                            args.getPrefix(),
-                            fileType.toFileName()
-                    ),
-                    args.isAppendMode()
-            ));
             writers.put(fileType, writer);
         } catch (IOException e) {
-            log.error("Произошла ошибка при открытии файла {}: {}", fileType.toFileName(), e.getMessage());
+            errors.report("Произошла ошибка при открытии файла {}: {}", fileType.toFileName(), e.getMessage());
             log.error("Текущая строка будет пропущена, " +
                     "следующая попытка открыть файл будет предпринята при следующей строке типа {}", fileType);
         }
@@ -147,44 +1418,234 @@ public class FilesManager {
     }
 
     /**
-     * Метод обработки полученного значения
-     * приведенного к необходимому типу и записи его в соответствующий файл,
-     * предварительно получив {@link BufferedWriter} из {@link #getWriter(StringTypesEnum)}
+     * Метод получения {@link LineWriter} для записи в файл пользовательского типа,
+     * при его отсутствии создает новый и возвращает уже его
      *
-     * @param writerType тип файла
-     * @param value значение, приведенное к нужному типу
-     * @param strValue строковое значение, полученное из входного файла
+     * @param type номер пользовательского типа
+     * @return {@link LineWriter} для записи в файл указанного типа или null, если файл не удалось открыть
      */
-    private void handleValue(StringTypesEnum writerType, Object value, String strValue) {
+    private synchronized LineWriter getTypeWriter(int type) {
+        LineWriter writer = typeWriters[type];
+        if (writer != null) {
+            return writer;
+        }
+        String fileName = lineTypes.get(type).toFileName();
         try {
-            val writer = getWriter(writerType);
-            if (writer == null) return;
-            writer.write(strValue);
-            writer.newLine();
-            if (!(args.isFullStats() || args.isShortStats())) {
-                return;
-            }
-            switch (writerType) {
-                case INTEGER -> integerStats.upd((Long) value);
-                case FLOAT -> floatStats.upd((Double) value);
-                case STRING -> stringsStats.upd((String) value);
+            writer = openWriter(outputPath(fileName), args.isAppendMode() || resumedTypeOutputs[type]);
+            typeWriters[type] = writer;
+        } catch (IOException e) {
+            errors.report("Произошла ошибка при открытии файла {}: {}", fileName, e.getMessage());
+            log.error("Текущая строка будет пропущена, " +
+                    "следующая попытка открыть файл будет предпринята при следующей строке типа {}", lineTypes.get(type).name());
+        }
+        return writer;
+    }
+
+    /**
+     * Открывает выходной файл, создавая выходную директорию при необходимости.
+     * При делении на сегменты файл записывается через {@link RotatingLineWriter},
+     * при записи в отдельных потоках - через {@link AsyncLineWriter}
+     *
+     * @param path   путь к выходному файлу
+     * @param append дописывать ли существующий файл
+     * @return {@link LineWriter} выходного файла
+     */
+    private LineWriter openWriter(Path path, boolean append) throws IOException {
+        Path outputPath = Paths.get(args.getOutputPath());
+        if (!Files.exists(outputPath)) {
+            Files.createDirectories(outputPath);
+        }
+        LineWriter writer = args.getRotateSize() > 0 || args.getRotateLines() > 0
+                ? openSegments(path, append)
+                : openFileWriter(path, append);
+        if (args.isAsyncWriters()) {
+            writer = new AsyncLineWriter(writer, args.getWriteBufferSize(), "writer-" + path.getFileName());
+        }
+        return writer;
+    }
+
+    /**
+     * Открывает запись выходного файла сегментами {@code <имя>-00001.txt}, {@code <имя>-00002.txt} и т.д.
+     * При дописывании нумерация продолжается после последнего существующего сегмента,
+     * иначе сегменты предыдущего запуска удаляются
+     *
+     * @param path   путь к выходному файлу без номера сегмента
+     * @param append дописывать ли существующие сегменты
+     * @return {@link LineWriter} выходного файла
+     */
+    private LineWriter openSegments(Path path, boolean append) throws IOException {
+        int last = 0;
+        Pattern segmentName = segmentPattern(path);
+        try (val files = Files.list(path.getParent())) {
+            for (Path file : files.toList()) {
+                Matcher matcher = segmentName.matcher(file.getFileName().toString());
+                if (!matcher.matches()) {
+                    continue;
+                }
+                if (append) {
+                    last = Math.max(last, Integer.parseInt(matcher.group(1)));
+                } else {
+                    Files.delete(file);
+                    log.info("Удален сегмент {} предыдущего запуска", file);
+                }
             }
+        }
+        return new RotatingLineWriter(index -> {
+            Path segment = segmentPath(path, index);
+            log.info("Строки записываются в сегмент {}", segment);
+            return openFileWriter(segment, false);
+        }, last + 1, args.getRotateSize(), args.getRotateLines());
+    }
 
-        } catch (IOException e) {
-            log.error("Произошла ошибка при записи значения {}: {}", strValue, e.getMessage());
+    /**
+     * @param path  путь к выходному файлу
+     * @param index номер сегмента
+     * @return путь к сегменту выходного файла, номер вставляется перед расширением {@code .txt}
+     */
+    private static Path segmentPath(Path path, int index) {
+        String name = path.getFileName().toString();
+        int suffix = name.lastIndexOf(TEXT_SUFFIX);
+        return path.resolveSibling(name.substring(0, suffix) + SEGMENT_SUFFIX.formatted(index) + name.substring(suffix));
+    }
+
+    /**
+     * @return шаблон имен сегментов выходного файла, группа 1 - номер сегмента
+     */
+    private static Pattern segmentPattern(Path path) {
+        String name = path.getFileName().toString();
+        int suffix = name.lastIndexOf(TEXT_SUFFIX);
+        return Pattern.compile(Pattern.quote(name.substring(0, suffix)) + "-(\\d{5,9})" + Pattern.quote(name.substring(suffix)));
+    }
+
+    /**
+     * Открывает запись в один файл, сжатый или обычный
+     *
+     * @param path   путь к файлу
+     * @param append дописывать ли существующий файл
+     * @return {@link LineWriter} файла
+     */
+    private LineWriter openFileWriter(Path path, boolean append) throws IOException {
+        if (args.isCompressOutput()) {
+            return new GzipLineWriter(
+                    path,
+                    append,
+                    args.getWriteBufferSize(),
+                    getCompressionPool(),
+                    args.getDurability()
+            );
+        }
+        return new ChannelLineWriter(
+                path,
+                append,
+                args.getWriteBufferSize(),
+                bufferPool,
+                args.getDurability()
+        );
+    }
+
+    /**
+     * @param fileType тип файла
+     * @return путь к выходному файлу указанного типа
+     */
+    private Path outputPath(StringTypesEnum fileType) {
+        return outputPath(fileType.toFileName());
+    }
+
+    /**
+     * @param fileName имя выходного файла без префикса
+     * @return путь к выходному файлу с префиксом
+     */
+    private Path outputPath(String fileName) {
+        String path = "%s/%s%s".formatted(args.getOutputPath(), args.getPrefix(), fileName);
+        return Paths.get(args.isCompressOutput() ? path + GZIP_SUFFIX : path);
+    }
+
+    /**
+     * @return шаблон имен выходных файлов с текущим префиксом: файлов встроенных и пользовательских типов,
+     * их сегментов и сжатых вариантов, а также результата части
+     */
+    private Pattern outputNames() {
+        List<String> stems = new ArrayList<>();
+        for (StringTypesEnum type : StringTypesEnum.values()) {
+            stems.add(type.toFileName());
+        }
+        for (int i = 0; lineTypes != null && i < lineTypes.size(); i++) {
+            stems.add(lineTypes.get(i).toFileName());
+        }
+        StringBuilder regex = new StringBuilder(Pattern.quote(args.getPrefix())).append("(?:");
+        for (int i = 0; i < stems.size(); i++) {
+            String stem = stems.get(i);
+            regex.append(i > 0 ? "|" : "").append(Pattern.quote(stem.substring(0, stem.length() - TEXT_SUFFIX.length())));
+        }
+        regex.append(")(?:-\\d{5,9})?").append(Pattern.quote(TEXT_SUFFIX)).append("(?:").append(Pattern.quote(GZIP_SUFFIX))
+                .append(")?|").append(Pattern.quote(ShardResult.FILE_NAME.formatted(args.getPrefix())));
+        return Pattern.compile(regex.toString());
+    }
+
+    /**
+     * @return пул потоков сжатия выходных файлов, создается при первом обращении
+     */
+    private ExecutorService getCompressionPool() {
+        if (compressionPool == null) {
+            compressionPool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), task -> {
+                Thread thread = new Thread(task, "gzip-deflater");
+                thread.setDaemon(true);
+                return thread;
+            });
         }
+        return compressionPool;
     }
 
     /**
-     * Метод закрытия всех открытых во время работы {@link BufferedWriter}
+     * Метод закрытия всех открытых во время работы {@link LineWriter}, после чего останавливается пул сжатия.
+     * После полной обработки части входных данных записывается ее результат {@link ShardResult},
+     * если все выходные файлы закрыты без ошибок
      */
     public void closeWriters() {
-        for (BufferedWriter writer : writers.values()) {
+        boolean closed = true;
+        for (LineWriter writer : openWriters()) {
             try {
                 writer.close();
             } catch (IOException e) {
-                log.error("Произошла ошибка при закрытии файла: {}", e.getMessage());
+                errors.report("Произошла ошибка при закрытии файла: {}", e.getMessage());
+                closed = false;
             }
         }
+        if (compressionPool != null) {
+            compressionPool.shutdown();
+            compressionPool = null;
+        }
+        if (shardCompleted && closed) {
+            shardCompleted = false;
+            saveShardResult();
+        }
+    }
+
+    /**
+     * Записывает результат части в выходную директорию: имена созданных выходных файлов и статистику
+     */
+    private void saveShardResult() {
+        List<String> outputs = new ArrayList<>();
+        for (StringTypesEnum type : StringTypesEnum.values()) {
+            if (writers.containsKey(type)) {
+                outputs.add(outputPath(type).getFileName().toString());
+            }
+        }
+        for (int i = 0; typeWriters != null && i < typeWriters.length; i++) {
+            if (typeWriters[i] != null) {
+                outputs.add(outputPath(lineTypes.get(i).toFileName()).getFileName().toString());
+            }
+        }
+        val result = new ShardResult(args.getShardIndex(), args.getShardCount(), args.getInputFiles(), checkpointSettings(),
+                args.isShortStats(), args.isFullStats(), outputs.toArray(String[]::new),
+                integerStats, floatStats, stringsStats, typeStats);
+        Path path = Paths.get(args.getOutputPath(), ShardResult.FILE_NAME.formatted(args.getPrefix()));
+        try {
+            Files.createDirectories(path.getParent());
+            result.write(path);
+            log.info("Результат части {} из {} записан в {}", args.getShardIndex(), args.getShardCount(), path);
+        } catch (IOException e) {
+            errors.report("Не удалось записать результат части {}: {}", path, e.getMessage());
+        }
     }
 }
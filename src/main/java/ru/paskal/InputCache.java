@@ -0,0 +1,358 @@
+package ru.paskal;
+
+import lombok.extern.slf4j.Slf4j;
+import ru.paskal.models.FloatStatistics;
+import ru.paskal.models.IntegerStatistics;
+import ru.paskal.models.StringStatistics;
+import ru.paskal.models.TypeStatistics;
+import ru.paskal.utils.StringTypesEnum;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32C;
+
+/**
+ * Кэш результатов обработки входных файлов для повторных запусков. Для каждого входного файла хранится запись:
+ * отпечаток файла (размер, время изменения и контрольная сумма CRC32C содержимого), строки каждого типа
+ * и статистика файла. Если отпечаток не изменился, результат берется из записи без разбора файла.
+ * <p>
+ * Запись - один файл: длина заголовка, сериализованный заголовок {@link Entry} и строки всех типов подряд,
+ * сначала встроенных, затем пользовательских.
+ * Запись создается во временном файле и атомарно переименовывается, поэтому одновременные запуски
+ * видят либо старую, либо новую запись целиком, а открытая запись остается читаемой даже после ее замены.
+ * Размер кэша ограничивается удалением давно не использованных записей, время использования - время изменения записи.
+ */
+@Slf4j
+class InputCache {
+    private static final String ENTRY_SUFFIX = ".entry";
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final String LOCK_FILE = ".lock";
+    private static final int HASH_BUFFER_SIZE = 1 << 20;
+    /**
+     * Временные файлы старше этого возраста остались от прерванных запусков и удаляются
+     */
+    private static final long STALE_TMP_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final ObjectInputFilter FILTER = ObjectInputFilter.Config.createFilter(
+            "ru.paskal.**;java.util.EnumMap;java.lang.Enum;java.lang.String;java.lang.Long;java.lang.Number;"
+                    + "java.math.BigDecimal;java.math.BigInteger;!*");
+
+    private final Path dir;
+    private final long maxSize;
+    private final String settings;
+
+    /**
+     * Заголовок записи кэша
+     *
+     * @param settings     параметры, с которыми получен результат
+     * @param size         размер входного файла
+     * @param modified     время изменения входного файла в миллисекундах
+     * @param checksum     CRC32C содержимого входного файла
+     * @param segments     длины строк каждого типа, в порядке их расположения в записи
+     * @param typeSegments длины строк каждого пользовательского типа, 0 если строк типа нет
+     * @param integerStats статистика целых чисел или null
+     * @param floatStats   статистика чисел с плавающей запятой или null
+     * @param stringsStats статистика строк или null
+     * @param typeStats    статистика пользовательских типов или null
+     */
+    record Entry(String settings,
+                 long size,
+                 long modified,
+                 long checksum,
+                 EnumMap<StringTypesEnum, Long> segments,
+                 long[] typeSegments,
+                 IntegerStatistics integerStats,
+                 FloatStatistics floatStats,
+                 StringStatistics stringsStats,
+                 TypeStatistics[] typeStats) implements Serializable {
+    }
+
+    /**
+     * @param dir      директория кэша, создается при необходимости
+     * @param maxSize  наибольший суммарный размер записей в байтах
+     * @param settings параметры, от которых зависит результат обработки файла
+     */
+    InputCache(Path dir, long maxSize, String settings) throws IOException {
+        this.dir = Files.createDirectories(dir);
+        this.maxSize = maxSize;
+        this.settings = settings;
+    }
+
+    /**
+     * Ищет результат обработки файла с неизменным отпечатком
+     *
+     * @param input входной файл
+     * @return результат, строки которого переносятся из записи кэша, или null если записи нет или файл изменился
+     */
+    SegmentResult lookup(Path input) {
+        Path entryPath = entryPath(input);
+        FileChannel channel = null;
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(input, BasicFileAttributes.class);
+            channel = FileChannel.open(entryPath, StandardOpenOption.READ);
+            ByteBuffer length = ByteBuffer.allocate(Long.BYTES);
+            readFully(channel, length, 0);
+            long headerLength = length.flip().getLong();
+            if (headerLength <= 0 || headerLength > channel.size() - Long.BYTES) {
+                throw new IOException("поврежден заголовок");
+            }
+            ByteBuffer header = ByteBuffer.allocate((int) headerLength);
+            readFully(channel, header, Long.BYTES);
+            Entry entry = readEntry(header.array());
+            if (!entry.settings().equals(settings)
+                    || entry.size() != attributes.size()
+                    || entry.modified() != attributes.lastModifiedTime().toMillis()
+                    || entry.checksum() != checksum(input)) {
+                channel.close();
+                return null;
+            }
+            Map<StringTypesEnum, long[]> segments = new EnumMap<>(StringTypesEnum.class);
+            long position = Long.BYTES + headerLength;
+            for (var segment : entry.segments().entrySet()) {
+                segments.put(segment.getKey(), new long[]{position, segment.getValue()});
+                position += segment.getValue();
+            }
+            long[][] typeSegments = new long[entry.typeSegments().length][];
+            for (int i = 0; i < typeSegments.length; i++) {
+                long size = entry.typeSegments()[i];
+                if (size > 0) {
+                    typeSegments[i] = new long[]{position, size};
+                    position += size;
+                }
+            }
+            if (position != channel.size()) {
+                throw new IOException("размер записи не совпадает с заголовком");
+            }
+            touch(entryPath);
+            return new SegmentResult(channel, segments, typeSegments, entry.integerStats(), entry.floatStats(),
+                    entry.stringsStats(), entry.typeStats());
+        } catch (NoSuchFileException e) {
+            closeQuietly(channel);
+            return null;
+        } catch (IOException e) {
+            closeQuietly(channel);
+            log.warn("Запись кэша {} для файла {} не прочитана и будет заменена: {}", entryPath, input, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Сохраняет результат обработки файла. Результат не сохраняется, если файл изменился во время обработки
+     *
+     * @param input  входной файл
+     * @param before атрибуты файла перед началом обработки
+     * @param result результат обработки без ошибок
+     */
+    void store(Path input, BasicFileAttributes before, SegmentResult result) {
+        Path entryPath = entryPath(input);
+        Path tmp = entryPath.resolveSibling(entryPath.getFileName() + "." + UUID.randomUUID() + TMP_SUFFIX);
+        try {
+            long checksum = checksum(input);
+            BasicFileAttributes after = Files.readAttributes(input, BasicFileAttributes.class);
+            if (after.size() != before.size() || !after.lastModifiedTime().equals(before.lastModifiedTime())) {
+                log.warn("Файл {} изменился во время обработки, результат не сохраняется в кэш", input);
+                return;
+            }
+            EnumMap<StringTypesEnum, Long> segments = new EnumMap<>(StringTypesEnum.class);
+            long total = 0;
+            for (var spool : result.getSpools().entrySet()) {
+                long size = Files.size(spool.getValue());
+                segments.put(spool.getKey(), size);
+                total += size;
+            }
+            Path[] typeSpools = result.getTypeSpools();
+            long[] typeSegments = new long[typeSpools.length];
+            for (int i = 0; i < typeSpools.length; i++) {
+                if (typeSpools[i] != null) {
+                    typeSegments[i] = Files.size(typeSpools[i]);
+                    total += typeSegments[i];
+                }
+            }
+            if (total > maxSize) {
+                return;
+            }
+            byte[] header = writeEntry(new Entry(settings, before.size(), before.lastModifiedTime().toMillis(),
+                    checksum, segments, typeSegments, result.getIntegerStats(), result.getFloatStats(),
+                    result.getStringsStats(), result.getTypeStats()));
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                ByteBuffer length = ByteBuffer.allocate(Long.BYTES).putLong(header.length).flip();
+                channel.write(new ByteBuffer[]{length, ByteBuffer.wrap(header)});
+                for (var spool : result.getSpools().entrySet()) {
+                    transfer(spool.getValue(), segments.get(spool.getKey()), channel);
+                }
+                for (int i = 0; i < typeSpools.length; i++) {
+                    if (typeSpools[i] != null) {
+                        transfer(typeSpools[i], typeSegments[i], channel);
+                    }
+                }
+            }
+            Files.move(tmp, entryPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Не удалось сохранить результат обработки файла {} в кэш: {}", input, e.getMessage());
+        } finally {
+            try {
+                Files.deleteIfExists(tmp);
+            } catch (IOException e) {
+                log.warn("Не удалось удалить временный файл кэша {}: {}", tmp, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Удаляет давно не использованные записи, пока размер кэша превышает предел, и временные файлы
+     * прерванных запусков. Если кэш в это время очищает другой запуск, очистка пропускается
+     */
+    void trim() {
+        try (FileChannel lockChannel = FileChannel.open(dir.resolve(LOCK_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             FileLock lock = lockChannel.tryLock()) {
+            if (lock == null) {
+                return;
+            }
+            List<Path> entries = new ArrayList<>();
+            Map<Path, BasicFileAttributes> attributes = new HashMap<>();
+            long total = 0;
+            long now = System.currentTimeMillis();
+            try (var files = Files.list(dir)) {
+                for (Path file : files.toList()) {
+                    String name = file.getFileName().toString();
+                    BasicFileAttributes attrs;
+                    try {
+                        attrs = Files.readAttributes(file, BasicFileAttributes.class);
+                    } catch (NoSuchFileException e) {
+                        continue;
+                    }
+                    if (name.endsWith(TMP_SUFFIX) && now - attrs.lastModifiedTime().toMillis() > STALE_TMP_MILLIS) {
+                        Files.deleteIfExists(file);
+                    } else if (name.endsWith(ENTRY_SUFFIX)) {
+                        entries.add(file);
+                        attributes.put(file, attrs);
+                        total += attrs.size();
+                    }
+                }
+            }
+            entries.sort(Comparator.comparing(file -> attributes.get(file).lastModifiedTime()));
+            for (int i = 0; i < entries.size() && total > maxSize; i++) {
+                Files.deleteIfExists(entries.get(i));
+                total -= attributes.get(entries.get(i)).size();
+            }
+        } catch (IOException e) {
+            log.warn("Не удалось очистить кэш {}: {}", dir, e.getMessage());
+        }
+    }
+
+    /**
+     * @param input входной файл
+     * @return путь к записи кэша: хэш абсолютного пути файла и параметров обработки
+     */
+    private Path entryPath(Path input) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(input.toAbsolutePath().normalize().toString().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(settings.getBytes(StandardCharsets.UTF_8));
+            return dir.resolve(HexFormat.of().formatHex(digest.digest(), 0, 16) + ENTRY_SUFFIX);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return контрольная сумма CRC32C содержимого файла
+     */
+    private static long checksum(Path input) throws IOException {
+        CRC32C crc = new CRC32C();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(HASH_BUFFER_SIZE);
+        try (FileChannel channel = FileChannel.open(input, StandardOpenOption.READ)) {
+            while (channel.read(buffer.clear()) >= 0) {
+                crc.update(buffer.flip());
+            }
+        }
+        return crc.getValue();
+    }
+
+    private static void transfer(Path spool, long size, FileChannel target) throws IOException {
+        try (FileChannel src = FileChannel.open(spool, StandardOpenOption.READ)) {
+            long transferred = 0;
+            while (transferred < size) {
+                transferred += src.transferTo(transferred, size - transferred, target);
+            }
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position + buffer.position());
+            if (n < 0) {
+                throw new EOFException("запись обрезана");
+            }
+        }
+    }
+
+    private static byte[] writeEntry(Entry entry) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(entry);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Entry readEntry(byte[] header) throws IOException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(header))) {
+            in.setObjectInputFilter(FILTER);
+            return (Entry) in.readObject();
+        } catch (ClassNotFoundException | ClassCastException | InvalidClassException e) {
+            throw new IOException("запись создана несовместимой версией утилиты", e);
+        }
+    }
+
+    /**
+     * Отмечает запись как использованную, ошибка не мешает использовать запись
+     */
+    private static void touch(Path entryPath) {
+        try {
+            Files.setLastModifiedTime(entryPath, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            log.debug("Не удалось обновить время использования записи кэша {}: {}", entryPath, e.getMessage());
+        }
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.debug("Не удалось закрыть запись кэша: {}", e.getMessage());
+        }
+    }
+}
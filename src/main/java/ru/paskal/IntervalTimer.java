@@ -0,0 +1,124 @@
+package ru.paskal;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Таймер периодических действий во время обработки: вывода промежуточной статистики, сброса выходных файлов
+ * и создания контрольных точек.
+ * По истечении интервала таймер только выставляет флаг, поток обработки проверяет его между строками
+ * и сам выполняет действие, поэтому статистика и выходные файлы не требуют синхронизации.
+ * Медленные действия, такие как вывод статистики, передаются обратно в поток таймера методом {@link #execute(Runnable)},
+ * чтобы не задерживать обработку. Действия, не обращающиеся к состоянию обработки, например вывод строки прогресса
+ * из потокобезопасных метрик, выполняются сразу в потоке таймера методом {@link #schedule(long, Runnable)}.
+ */
+@Slf4j
+class IntervalTimer implements AutoCloseable {
+    private static final long CLOSE_TIMEOUT_SECONDS = 5;
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "interval-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile boolean statsDue = false;
+    private volatile boolean flushDue = false;
+    private volatile boolean checkpointDue = false;
+
+    /**
+     * @param statsInterval интервал вывода промежуточной статистики в миллисекундах, 0 если не выводится
+     * @param flushInterval интервал сброса выходных файлов в миллисекундах, 0 если не сбрасываются
+     */
+    IntervalTimer(long statsInterval, long flushInterval) {
+        this(statsInterval, flushInterval, 0);
+    }
+
+    /**
+     * @param statsInterval      интервал вывода промежуточной статистики в миллисекундах, 0 если не выводится
+     * @param flushInterval      интервал сброса выходных файлов в миллисекундах, 0 если не сбрасываются
+     * @param checkpointInterval интервал создания контрольных точек в миллисекундах, 0 если не создаются
+     */
+    IntervalTimer(long statsInterval, long flushInterval, long checkpointInterval) {
+        if (statsInterval > 0) {
+            executor.scheduleAtFixedRate(() -> statsDue = true, statsInterval, statsInterval, TimeUnit.MILLISECONDS);
+        }
+        if (flushInterval > 0) {
+            executor.scheduleAtFixedRate(() -> flushDue = true, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+        }
+        if (checkpointInterval > 0) {
+            executor.scheduleAtFixedRate(() -> checkpointDue = true, checkpointInterval, checkpointInterval,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Периодически выполняет действие в потоке таймера. Действие не должно обращаться к выходным файлам
+     * и статистике потока обработки
+     *
+     * @param interval интервал в миллисекундах
+     * @param task     действие
+     */
+    void schedule(long interval, Runnable task) {
+        executor.scheduleAtFixedRate(task, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return true если пора вывести статистику, флаг при этом сбрасывается
+     */
+    boolean takeStatsDue() {
+        if (!statsDue) {
+            return false;
+        }
+        statsDue = false;
+        return true;
+    }
+
+    /**
+     * @return true если пора сбросить выходные файлы, флаг при этом сбрасывается
+     */
+    boolean takeFlushDue() {
+        if (!flushDue) {
+            return false;
+        }
+        flushDue = false;
+        return true;
+    }
+
+    /**
+     * @return true если пора создать контрольную точку, флаг при этом сбрасывается
+     */
+    boolean takeCheckpointDue() {
+        if (!checkpointDue) {
+            return false;
+        }
+        checkpointDue = false;
+        return true;
+    }
+
+    /**
+     * Выполняет действие в потоке таймера
+     *
+     * @param task действие
+     */
+    void execute(Runnable task) {
+        executor.execute(task);
+    }
+
+    /**
+     * Останавливает таймер, дожидаясь уже переданных действий
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                log.warn("Не удалось дождаться завершения периодических действий");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
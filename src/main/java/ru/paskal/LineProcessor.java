@@ -0,0 +1,440 @@
+package ru.paskal;
+
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import ru.paskal.distinct.DistinctFilter;
+import ru.paskal.io.AsciiByteSequence;
+import ru.paskal.io.CompressedInputs;
+import ru.paskal.io.LineWriter;
+import ru.paskal.io.MappedLineReader;
+import ru.paskal.io.PrefetchedFile;
+import ru.paskal.metrics.ProcessingMetrics;
+import ru.paskal.models.FloatStatistics;
+import ru.paskal.models.IntegerStatistics;
+import ru.paskal.models.StringStatistics;
+import ru.paskal.models.TypeStatistics;
+import ru.paskal.utils.LineClassifier;
+import ru.paskal.utils.LineTypes;
+import ru.paskal.utils.StringTypesEnum;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
+/**
+ * Обработчик содержимого входных файлов: определяет тип каждой строки,
+ * записывает ее в {@link LineWriter} соответствующего типа и обновляет статистику.
+ * Не потокобезопасен, при параллельной обработке каждый поток использует собственный экземпляр.
+ * Значения передаются в статистику примитивами, поэтому обработка числовой строки не выделяет памяти.
+ * Если заданы метрики, строки учитываются в собственном {@link ProcessingMetrics.Recorder}.
+ * Если заданы пользовательские типы строк, каждая строка сначала проверяется их общим автоматом,
+ * который заодно отличает заведомые строки от возможных чисел; возможные числа затем разбираются
+ * {@link LineClassifier} повторно, так как автомат не вычисляет их значение.
+ * Если задан {@link DistinctFilter}, записываются только первые вхождения значений встроенных типов;
+ * значение считается записанным только после успешной записи. Строки пользовательских типов записываются все.
+ */
+@Slf4j
+class LineProcessor implements MappedLineReader.LineHandler {
+    /**
+     * Имя входного файла, обозначающее стандартный ввод
+     */
+    static final String STDIN = "-";
+
+    private final LineClassifier classifier = new LineClassifier();
+    private final AsciiByteSequence asciiLine = new AsciiByteSequence();
+    private final Charset charset = Charset.defaultCharset();
+    private final Function<StringTypesEnum, LineWriter> writers;
+    private final IntegerStatistics integerStats;
+    private final FloatStatistics floatStats;
+    private final StringStatistics stringsStats;
+    /**
+     * Действие, выполняемое перед обработкой каждой строки, например проверка таймера, может быть null
+     */
+    @Setter
+    private Runnable onLine;
+    /**
+     * Действие, выполняемое когда стандартный ввод не готов и чтение будет ожидать данных,
+     * например сброс выходных файлов, может быть null
+     */
+    @Setter
+    private Runnable onIdle;
+    /**
+     * Способ распаковки сжатых входных файлов
+     */
+    @Setter
+    private CompressedInputs inputs = CompressedInputs.SEQUENTIAL;
+    /**
+     * Обработчик границ окон при побайтовом чтении несжатого файла, например для контрольных точек, может быть null
+     */
+    @Setter
+    private MappedLineReader.BoundaryHandler onBoundary;
+    /**
+     * Ошибки записи строк в выходные файлы
+     */
+    @Setter
+    private ProcessingErrors errors = new ProcessingErrors();
+    private ProcessingMetrics.Recorder recorder;
+    private LineTypes types;
+    private IntFunction<LineWriter> typeWriters;
+    private TypeStatistics[] typeStats;
+    private DistinctFilter distinct;
+    private boolean distinctStats;
+
+    /**
+     * @param writers      функция получения {@link LineWriter} для типа строки, может вернуть null,
+     *                     тогда строка пропускается
+     * @param integerStats статистика целых чисел, null если статистика не собирается
+     * @param floatStats   статистика чисел с плавающей запятой, null если статистика не собирается
+     * @param stringsStats статистика строк, null если статистика не собирается
+     */
+    LineProcessor(Function<StringTypesEnum, LineWriter> writers,
+                  IntegerStatistics integerStats,
+                  FloatStatistics floatStats,
+                  StringStatistics stringsStats) {
+        this.writers = writers;
+        this.integerStats = integerStats;
+        this.floatStats = floatStats;
+        this.stringsStats = stringsStats;
+    }
+
+    /**
+     * Обрабатывает все строки файла
+     *
+     * @param file   путь к файлу или {@link #STDIN} для стандартного ввода, который всегда читается построчно.
+     *               Сжатые файлы распаковываются при чтении
+     * @param mapped читать ли файл через {@link MappedLineReader}
+     */
+    void processFile(String file, boolean mapped) throws IOException {
+        processFile(file, mapped, 0);
+    }
+
+    /**
+     * Обрабатывает строки файла начиная с указанного смещения
+     *
+     * @param file   путь к файлу
+     * @param mapped читать ли файл через {@link MappedLineReader}
+     * @param from   смещение начала строки, с которого продолжается чтение несжатого файла;
+     *               при ненулевом смещении файл всегда читается побайтово
+     */
+    void processFile(String file, boolean mapped, long from) throws IOException {
+        processFile(file, mapped, from, Long.MAX_VALUE);
+    }
+
+    /**
+     * Обрабатывает строки диапазона файла
+     *
+     * @param file   путь к файлу
+     * @param mapped читать ли файл через {@link MappedLineReader}
+     * @param from   смещение начала строки, с которого начинается чтение несжатого файла
+     * @param to     смещение начала строки, до которого читается несжатый файл, или {@link Long#MAX_VALUE};
+     *               при ненулевом начале или ограниченном конце файл всегда читается побайтово
+     */
+    void processFile(String file, boolean mapped, long from, long to) throws IOException {
+        processFile(file, mapped, from, to, null);
+    }
+
+    /**
+     * Обрабатывает строки диапазона файла, который, возможно, уже открыт {@link ru.paskal.io.FilePrefetcher}:
+     * тогда файл не открывается заново, а его начало берется из памяти
+     *
+     * @param file       путь к файлу
+     * @param mapped     читать ли файл через {@link MappedLineReader}
+     * @param from       смещение начала строки, с которого начинается чтение несжатого файла
+     * @param to         смещение начала строки, до которого читается несжатый файл, или {@link Long#MAX_VALUE}
+     * @param prefetched файл, открытый заранее, или null; закрывается после обработки
+     */
+    void processFile(String file, boolean mapped, long from, long to, PrefetchedFile prefetched) throws IOException {
+        long start = System.nanoTime();
+        long startLines = recorder != null ? recorder.getTotalLines() : 0;
+        long startBytes = recorder != null ? recorder.getTotalBytes() : 0;
+        try (prefetched) {
+            if (STDIN.equals(file)) {
+                processStdin();
+            } else if (prefetched != null ? prefetched.isGzip() : CompressedInputs.isGzip(Paths.get(file))) {
+                processCompressedFile(Paths.get(file), mapped, prefetched);
+            } else if (mapped || from > 0 || to != Long.MAX_VALUE) {
+                processMappedFile(file, from, to, prefetched);
+            } else {
+                processReaderFile(file, prefetched);
+            }
+        } finally {
+            publishMetrics();
+        }
+        if (recorder != null) {
+            recorder.getMetrics().fileProcessed(file, recorder.getTotalLines() - startLines,
+                    recorder.getTotalBytes() - startBytes, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Включает учет строк в метриках
+     *
+     * @param metrics общие метрики обработки
+     */
+    void setMetrics(ProcessingMetrics metrics) {
+        this.recorder = metrics.newRecorder();
+    }
+
+    /**
+     * Включает пользовательские типы строк
+     *
+     * @param types   пользовательские типы
+     * @param writers функция получения {@link LineWriter} по номеру типа, может вернуть null, тогда строка пропускается
+     * @param stats   статистика каждого типа по его номеру, null если статистика не собирается
+     */
+    void setLineTypes(LineTypes types, IntFunction<LineWriter> writers, TypeStatistics[] stats) {
+        this.types = types;
+        this.typeWriters = writers;
+        this.typeStats = stats;
+    }
+
+    /**
+     * Включает запись только первых вхождений значений
+     *
+     * @param filter        отбор первых вхождений
+     * @param distinctStats учитывать ли в статистике только первые вхождения, иначе учитываются все значения
+     */
+    void setDistinct(DistinctFilter filter, boolean distinctStats) {
+        this.distinct = filter;
+        this.distinctStats = distinctStats;
+    }
+
+    /**
+     * Переносит накопленные счетчики строк в общие метрики, например перед ожиданием новых данных
+     */
+    void publishMetrics() {
+        if (recorder != null) {
+            recorder.publish();
+        }
+    }
+
+    /**
+     * Построчное чтение файла через {@link BufferedReader} в системной кодировке
+     *
+     * @param file       путь к файлу
+     * @param prefetched файл, открытый заранее, или null
+     */
+    private void processReaderFile(String file, PrefetchedFile prefetched) throws IOException {
+        try (val br = prefetched != null
+                ? new BufferedReader(new InputStreamReader(prefetched.newInputStream(), charset))
+                : new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                handleLine(line);
+            }
+        }
+    }
+
+    /**
+     * Чтение распакованного содержимого файла gzip: побайтово через {@link MappedLineReader}
+     * или построчно в системной кодировке, как и для несжатых файлов
+     *
+     * @param file       путь к файлу
+     * @param mapped     читать ли содержимое побайтово
+     * @param prefetched файл, открытый заранее, или null
+     */
+    private void processCompressedFile(Path file, boolean mapped, PrefetchedFile prefetched) throws IOException {
+        log.info("Файл {} сжат gzip и распаковывается при чтении", file);
+        try (InputStream in = inputs.open(file, prefetched)) {
+            if (mapped) {
+                new MappedLineReader().read(in, this);
+                return;
+            }
+            val br = new BufferedReader(new InputStreamReader(in, charset));
+            String line;
+            while ((line = br.readLine()) != null) {
+                handleLine(line);
+            }
+        }
+    }
+
+    /**
+     * Построчное чтение стандартного ввода в системной кодировке. Перед ожиданием новых данных
+     * выполняется {@link #onIdle}, чтобы уже обработанные строки были доступны без задержки
+     */
+    private void processStdin() throws IOException {
+        val br = new BufferedReader(new InputStreamReader(System.in, charset));
+        String line;
+        while (true) {
+            if (onIdle != null && !br.ready()) {
+                publishMetrics();
+                onIdle.run();
+            }
+            if ((line = br.readLine()) == null) {
+                break;
+            }
+            handleLine(line);
+        }
+    }
+
+    /**
+     * Побайтовое чтение файла через {@link MappedLineReader}. Строки ASCII классифицируются
+     * и записываются как диапазоны байтов без создания {@link String},
+     * остальные строки декодируются в системной кодировке, как при чтении через {@link FileReader}
+     *
+     * @param file       путь к файлу
+     * @param from       смещение начала строки, с которого начинается чтение
+     * @param to         смещение, до которого читается файл, не дальше его конца
+     * @param prefetched файл, открытый заранее, или null; его начало обрабатывается из памяти
+     */
+    private void processMappedFile(String file, long from, long to, PrefetchedFile prefetched) throws IOException {
+        if (prefetched != null) {
+            FileChannel channel = prefetched.channel();
+            new MappedLineReader()
+                    .setBoundaryHandler(onBoundary)
+                    .read(channel, prefetched.head(), from, Math.min(to, channel.size()), this);
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+            new MappedLineReader()
+                    .setBoundaryHandler(onBoundary)
+                    .read(channel, from, Math.min(to, channel.size()), this);
+        }
+    }
+
+    /**
+     * Метод обработки строки, полученной из {@link MappedLineReader}
+     *
+     * @param buffer окно файла
+     * @param start  начало строки
+     * @param end    конец строки
+     * @param ascii  состоит ли строка только из символов ASCII
+     */
+    @Override
+    public void onLine(ByteBuffer buffer, int start, int end, boolean ascii) {
+        onLine(buffer, start, end, ascii, true);
+    }
+
+    /**
+     * Строки ASCII, которые по признаку {@code numeric} не могут быть числом, записываются как строки без разбора
+     */
+    @Override
+    public void onLine(ByteBuffer buffer, int start, int end, boolean ascii, boolean numeric) {
+        if (ascii) {
+            handleLine(asciiLine.set(buffer, start, end), end - start, numeric);
+        } else {
+            byte[] bytes = new byte[end - start];
+            buffer.get(start, bytes);
+            handleLine(new String(bytes, charset), end - start, true);
+        }
+    }
+
+    /**
+     * Метод обработки одной строки входного файла: определения типа строки при помощи {@link LineClassifier},
+     * записи ее в файл соответствующего типа и обновления статистики
+     *
+     * @param line строка без символов перевода строки
+     */
+    void handleLine(CharSequence line) {
+        handleLine(line, line.length(), true);
+    }
+
+    /**
+     * @param line    строка без символов перевода строки
+     * @param length  длина строки в байтах для метрик; для декодированных строк используется длина в символах
+     * @param numeric false если строка заведомо не является числом и классификация не нужна
+     */
+    private void handleLine(CharSequence line, int length, boolean numeric) {
+        if (onLine != null) {
+            onLine.run();
+        }
+        if (types != null) {
+            int custom = types.match(line);
+            if (custom >= 0) {
+                handleTypedLine(custom, line, length);
+                return;
+            }
+            numeric &= custom == LineTypes.NUMBER;
+        }
+        StringTypesEnum type;
+        if (!numeric) {
+            type = StringTypesEnum.STRING;
+        } else if (recorder != null && recorder.isSampled()) {
+            long start = System.nanoTime();
+            type = classifier.classify(line);
+            recorder.recordClassification(System.nanoTime() - start);
+        } else {
+            type = classifier.classify(line);
+        }
+        if (recorder != null) {
+            // Разделитель строки учитывается как один байт
+            recorder.recordLine(type, length + 1);
+        }
+        // Выходной файл открывается до проверки повтора, чтобы значение не считалось записанным без файла
+        val writer = writers.apply(type);
+        if (writer == null) return;
+        if (distinct == null || isFirstOccurrence(type, line)) {
+            try {
+                writer.writeLine(line);
+            } catch (IOException e) {
+                if (distinct != null) {
+                    // Незаписанное значение должно быть записано при следующем вхождении
+                    distinct.undoAdd(type);
+                }
+                errors.report("Произошла ошибка при записи значения {}: {}", line, e.getMessage());
+                return;
+            }
+        } else if (distinctStats) {
+            return;
+        }
+        if (integerStats == null) {
+            return;
+        }
+        switch (type) {
+            case INTEGER -> integerStats.upd(classifier.getLongValue());
+            case FLOAT -> floatStats.upd(classifier.getDoubleValue());
+            case STRING -> stringsStats.upd(line);
+        }
+    }
+
+    /**
+     * @return true если значение строки встретилось впервые или его не удалось проверить
+     */
+    private boolean isFirstOccurrence(StringTypesEnum type, CharSequence line) {
+        try {
+            return switch (type) {
+                case INTEGER -> distinct.addInteger(classifier.getLongValue());
+                case FLOAT -> distinct.addFloat(classifier.getDoubleValue());
+                case STRING -> distinct.addString(line);
+            };
+        } catch (IOException e) {
+            log.error("Не удалось проверить повтор значения {}, оно будет записано: {}", line, e.getMessage());
+            return true;
+        }
+    }
+
+    /**
+     * Запись строки пользовательского типа и обновление статистики этого типа
+     *
+     * @param type   номер пользовательского типа
+     * @param line   строка без символов перевода строки
+     * @param length длина строки в байтах для метрик
+     */
+    private void handleTypedLine(int type, CharSequence line, int length) {
+        if (recorder != null) {
+            recorder.recordLine(null, length + 1);
+        }
+        try {
+            val writer = typeWriters.apply(type);
+            if (writer == null) return;
+            writer.writeLine(line);
+        } catch (IOException e) {
+            errors.report("Произошла ошибка при записи значения {}: {}", line, e.getMessage());
+            return;
+        }
+        if (typeStats != null) {
+            typeStats[type].upd(line);
+        }
+    }
+}
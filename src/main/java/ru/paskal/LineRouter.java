@@ -0,0 +1,295 @@
+package ru.paskal;
+
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import ru.paskal.io.AsciiByteSequence;
+import ru.paskal.io.LineWriter;
+import ru.paskal.io.MappedLineReader;
+import ru.paskal.models.FloatStatistics;
+import ru.paskal.models.IntegerStatistics;
+import ru.paskal.models.StatisticsUnion;
+import ru.paskal.models.StringStatistics;
+import ru.paskal.utils.StringTypesEnum;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.stream.Stream;
+
+/**
+ * Встраиваемая обработка строк без командной строки и временных файлов: строки из {@link InputStream},
+ * {@link Stream} или {@link Flow.Publisher} классифицируются так же, как утилитой, передаются в выходной
+ * {@link LineWriter} своего типа и учитываются в статистике. Выходом может быть файл
+ * ({@link ru.paskal.io.StreamLineWriter}), обработчик ({@link ru.paskal.io.CallbackLineWriter}) или память
+ * ({@link ru.paskal.io.MemoryLineWriter}). Запись выполняется в потоке источника, поэтому медленный выход
+ * задерживает чтение источника, а издателю строки запрашиваются ограниченными порциями по мере обработки.
+ * <p>
+ * Источники можно обрабатывать из нескольких потоков, строки разных источников тогда чередуются.
+ * Каждая строка обрабатывается под общей блокировкой, и под ней же {@link #snapshot()} копирует статистику,
+ * поэтому снимок можно получать из любого потока во время обработки
+ */
+@Slf4j
+public class LineRouter implements Closeable {
+    /**
+     * Количество строк, запрашиваемых у издателя сверх уже обработанных
+     */
+    private static final int DEMAND = 1024;
+
+    private final Object lock = new Object();
+    private final Charset charset = Charset.defaultCharset();
+    private final Map<StringTypesEnum, LineWriter> sinks;
+    private final IntegerStatistics integerStats;
+    private final FloatStatistics floatStats;
+    private final StringStatistics stringsStats;
+    private final LineProcessor processor;
+    private final MappedLineReader.LineHandler handler = new LockingHandler();
+    private long lines;
+
+    /**
+     * @param sinks           выходы для типов строк; строки типов без выхода только учитываются в статистике.
+     *                        Выходы закрываются методом {@link #close()}
+     * @param isFullStats     собирать ли полную статистику, иначе собирается краткая
+     * @param isExtendedStats собирать ли расширенную статистику (процентили, количество различных строк)
+     */
+    public LineRouter(Map<StringTypesEnum, ? extends LineWriter> sinks, boolean isFullStats, boolean isExtendedStats) {
+        this.sinks = new EnumMap<>(StringTypesEnum.class);
+        this.sinks.putAll(sinks);
+        this.integerStats = new IntegerStatistics(isFullStats, isExtendedStats);
+        this.floatStats = new FloatStatistics(isFullStats, isExtendedStats);
+        this.stringsStats = new StringStatistics(isFullStats, isExtendedStats, 0);
+        this.processor = new LineProcessor(type -> this.sinks.getOrDefault(type, Discarding.INSTANCE),
+                integerStats, floatStats, stringsStats);
+    }
+
+    /**
+     * Снимок статистики, независимый от дальнейшей обработки
+     *
+     * @param lines    количество обработанных строк
+     * @param integers статистика целых чисел
+     * @param floats   статистика чисел с плавающей запятой
+     * @param strings  статистика строк
+     */
+    public record Snapshot(long lines, IntegerStatistics integers, FloatStatistics floats, StringStatistics strings) {
+        /**
+         * @return статистика в виде, в котором ее выводит утилита
+         */
+        public StatisticsUnion union() {
+            return new StatisticsUnion(strings, integers, floats);
+        }
+    }
+
+    /**
+     * Обрабатывает все строки потока до его конца. Концы строк определяются как в
+     * {@link BufferedReader#readLine()}, байты декодируются в системной кодировке
+     *
+     * @param in поток байтов, не закрывается
+     */
+    public void process(InputStream in) throws IOException {
+        if (AsciiByteSequence.isAsciiCompatible(charset)) {
+            new MappedLineReader().read(in, handler);
+            return;
+        }
+        val br = new BufferedReader(new InputStreamReader(in, charset));
+        String line;
+        while ((line = br.readLine()) != null) {
+            accept(line);
+        }
+    }
+
+    /**
+     * Обрабатывает элементы потока как отдельные строки, переводы строк внутри элементов не ищутся
+     *
+     * @param lines строки
+     */
+    public void process(Stream<String> lines) {
+        lines.forEachOrdered(this::accept);
+    }
+
+    /**
+     * Подписывается на издателя строк. Строки запрашиваются порциями: новые запрашиваются только после
+     * обработки половины запрошенных, поэтому в обработке находится не больше {@value #DEMAND} строк,
+     * а медленный выход замедляет издателя. Отмена результата отменяет подписку
+     *
+     * @param publisher издатель строк
+     * @return снимок статистики после завершения издателя и сброса выходов; завершается с ошибкой издателя
+     * или сброса. Ошибки записи отдельных строк, как и в утилите, выводятся в лог, а обработка продолжается
+     */
+    public CompletableFuture<Snapshot> subscribe(Flow.Publisher<String> publisher) {
+        val subscriber = new LineSubscriber();
+        publisher.subscribe(subscriber);
+        return subscriber.result;
+    }
+
+    /**
+     * Обрабатывает одну строку
+     *
+     * @param line строка без символов перевода строки
+     */
+    public void accept(CharSequence line) {
+        synchronized (lock) {
+            lines++;
+            processor.handleLine(line);
+        }
+    }
+
+    /**
+     * Копирует текущую статистику, может вызываться из любого потока во время обработки
+     *
+     * @return снимок статистики
+     */
+    public Snapshot snapshot() {
+        synchronized (lock) {
+            return new Snapshot(lines, integerStats.copy(), floatStats.copy(), stringsStats.copy());
+        }
+    }
+
+    /**
+     * Сбрасывает накопленные строки в выходы
+     */
+    public void flush() throws IOException {
+        synchronized (lock) {
+            for (LineWriter sink : distinctSinks()) {
+                sink.flush();
+            }
+        }
+    }
+
+    /**
+     * Закрывает выходы, обработка после закрытия не допускается
+     */
+    @Override
+    public void close() throws IOException {
+        IOException error = null;
+        synchronized (lock) {
+            for (LineWriter sink : distinctSinks()) {
+                try {
+                    sink.close();
+                } catch (IOException e) {
+                    log.error("Не удалось закрыть выход: {}", e.getMessage());
+                    error = error != null ? error : e;
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * @return выходы без повторов, если один выход задан для нескольких типов
+     */
+    private Collection<LineWriter> distinctSinks() {
+        Set<LineWriter> unique = Collections.newSetFromMap(new IdentityHashMap<>());
+        unique.addAll(sinks.values());
+        return unique;
+    }
+
+    /**
+     * Выход для типов без заданного выхода: строки не записываются, но учитываются в статистике
+     */
+    private static final class Discarding implements LineWriter {
+        private static final Discarding INSTANCE = new Discarding();
+
+        @Override
+        public void writeLine(CharSequence line) {
+        }
+
+        @Override
+        public void writeEncoded(byte[] bytes, int offset, int length) {
+        }
+
+        @Override
+        public void append(FileChannel src, long position, long count) {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Передает строки окна {@link MappedLineReader} обработчику под блокировкой
+     */
+    private final class LockingHandler implements MappedLineReader.LineHandler {
+        @Override
+        public void onLine(ByteBuffer buffer, int start, int end, boolean ascii) {
+            onLine(buffer, start, end, ascii, true);
+        }
+
+        @Override
+        public void onLine(ByteBuffer buffer, int start, int end, boolean ascii, boolean numeric) {
+            synchronized (lock) {
+                lines++;
+                processor.onLine(buffer, start, end, ascii, numeric);
+            }
+        }
+    }
+
+    /**
+     * Подписчик, обрабатывающий строки в потоке издателя и запрашивающий новые по мере обработки
+     */
+    private final class LineSubscriber implements Flow.Subscriber<String> {
+        private final CompletableFuture<Snapshot> result = new CompletableFuture<>();
+        private Flow.Subscription subscription;
+        private int processed;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            if (this.subscription != null) {
+                subscription.cancel();
+                return;
+            }
+            this.subscription = subscription;
+            result.whenComplete((snapshot, e) -> {
+                if (result.isCancelled()) {
+                    subscription.cancel();
+                }
+            });
+            subscription.request(DEMAND);
+        }
+
+        @Override
+        public void onNext(String line) {
+            if (result.isDone()) {
+                return;
+            }
+            accept(line);
+            if (++processed == DEMAND / 2) {
+                processed = 0;
+                subscription.request(DEMAND / 2);
+            }
+        }
+
+        @Override
+        public void onError(Throwable e) {
+            result.completeExceptionally(e);
+        }
+
+        @Override
+        public void onComplete() {
+            try {
+                flush();
+                result.complete(snapshot());
+            } catch (IOException e) {
+                result.completeExceptionally(e);
+            }
+        }
+    }
+}
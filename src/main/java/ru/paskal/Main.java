@@ -2,21 +2,52 @@ package ru.paskal;
 
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
+import ru.paskal.daemon.DaemonServer;
 import ru.paskal.utils.ArgumentsParser;
 
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.Arrays;
 
 @Slf4j
 public class Main {
+    private static final long SHUTDOWN_TIMEOUT_MILLIS = 10_000;
+
     public static void main(String[] args) {
         val parsedArgs = ArgumentsParser.parse(args);
+        if (parsedArgs.getDaemonSocket() != null) {
+            DaemonServer.serve(Paths.get(parsedArgs.getDaemonSocket()));
+            return;
+        }
         if (!parsedArgs.isValid()) {
             if (!Arrays.asList(args).contains("-h")) {
                 log.error("При разборе аргументов произошла ошибка, дальнейшее выполнение программы невозможно.");
             }
             return;
         }
+        if (parsedArgs.isMergeShards()) {
+            try {
+                val stats = new ShardMerger(parsedArgs).merge();
+                stats.printAllStats(parsedArgs.isFullStats());
+            } catch (IOException e) {
+                log.error("Не удалось объединить результаты частей: {}", e.getMessage());
+            }
+            return;
+        }
         val fileManager = new FilesManager(parsedArgs);
+        if (parsedArgs.isFollowMode() || parsedArgs.getCheckpointInterval() > 0) {
+            // В режиме отслеживания обработка завершается по сигналу остановки, после чего выводится статистика.
+            // При создании контрольных точек по сигналу остановки сохраняется контрольная точка
+            val mainThread = Thread.currentThread();
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                fileManager.stop();
+                try {
+                    mainThread.join(SHUTDOWN_TIMEOUT_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+        }
         val stats = fileManager.processFiles();
         fileManager.closeWriters();
 
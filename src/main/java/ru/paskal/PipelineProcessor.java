@@ -0,0 +1,529 @@
+package ru.paskal;
+
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import ru.paskal.io.BufferedLineWriter;
+import ru.paskal.io.CompressedInputs;
+import ru.paskal.io.FilePrefetcher;
+import ru.paskal.io.LineWriter;
+import ru.paskal.io.MappedLineReader;
+import ru.paskal.io.PrefetchedFile;
+import ru.paskal.metrics.ProcessingMetrics;
+import ru.paskal.models.FloatStatistics;
+import ru.paskal.models.IntegerStatistics;
+import ru.paskal.models.StringStatistics;
+import ru.paskal.models.TypeStatistics;
+import ru.paskal.utils.LineTypes;
+import ru.paskal.utils.SpscQueue;
+import ru.paskal.utils.StringTypesEnum;
+
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+/**
+ * Конвейерная обработка файлов: чтение, классификация со статистикой и запись строк каждого типа
+ * выполняются в отдельных потоках, связанных ограниченными очередями {@link SpscQueue}.
+ * Стадия чтения передает пакеты строк, стадия классификации - блоки уже закодированных строк,
+ * опустошенные пакеты и блоки возвращаются производителю обратными очередями, поэтому память
+ * при работе не выделяется, а медленная стадия притормаживает предыдущие.
+ * Классификация и статистика выполняются в одном потоке в порядке строк, поэтому выходные файлы
+ * и статистика совпадают с последовательной обработкой.
+ */
+@Slf4j
+class PipelineProcessor {
+    private static final int BATCH_SIZE = 1 << 20;
+    private static final int BATCH_LINES = 1 << 14;
+    private static final int BATCHES = 8;
+    private static final int BLOCK_SIZE = 1 << 20;
+    private static final int BLOCKS = 4;
+
+    private final Function<StringTypesEnum, LineWriter> writers;
+    private final IntegerStatistics integerStats;
+    private final FloatStatistics floatStats;
+    private final StringStatistics stringsStats;
+    /**
+     * Действие, выполняемое потоком классификации перед обработкой каждой строки, может быть null
+     */
+    @Setter
+    private Runnable onLine;
+    /**
+     * Способ распаковки сжатых входных файлов
+     */
+    @Setter
+    private CompressedInputs inputs = CompressedInputs.SEQUENTIAL;
+    /**
+     * Метрики обработки, может быть null. Строки учитываются потоком классификации,
+     * скорость обработки файлов измеряется потоком чтения
+     */
+    @Setter
+    private ProcessingMetrics metrics;
+    /**
+     * Упреждающее чтение входных файлов, может быть null. Поток чтения сообщает ему о начале каждого файла
+     */
+    @Setter
+    private FilePrefetcher prefetcher;
+    /**
+     * Ошибки чтения и записи, учитываются потоками всех стадий
+     */
+    @Setter
+    private ProcessingErrors errors = new ProcessingErrors();
+    private LineTypes lineTypes;
+    private IntFunction<LineWriter> typeWriters;
+    private TypeStatistics[] typeStats;
+
+    /**
+     * @param writers      функция получения {@link LineWriter} выходного файла для типа строки,
+     *                     вызывается из потоков записи и должна быть потокобезопасной
+     * @param integerStats статистика целых чисел, null если статистика не собирается
+     * @param floatStats   статистика чисел с плавающей запятой, null если статистика не собирается
+     * @param stringsStats статистика строк, null если статистика не собирается
+     */
+    PipelineProcessor(Function<StringTypesEnum, LineWriter> writers,
+                      IntegerStatistics integerStats,
+                      FloatStatistics floatStats,
+                      StringStatistics stringsStats) {
+        this.writers = writers;
+        this.integerStats = integerStats;
+        this.floatStats = floatStats;
+        this.stringsStats = stringsStats;
+    }
+
+    /**
+     * Включает пользовательские типы строк: у каждого типа своя стадия записи, статистика типов
+     * обновляется потоком классификации
+     *
+     * @param types   пользовательские типы
+     * @param writers функция получения {@link LineWriter} выходного файла по номеру типа,
+     *                вызывается из потоков записи и должна быть потокобезопасной
+     * @param stats   статистика типов по номеру типа, null если статистика не собирается
+     */
+    void setLineTypes(LineTypes types, IntFunction<LineWriter> writers, TypeStatistics[] stats) {
+        this.lineTypes = types;
+        this.typeWriters = writers;
+        this.typeStats = stats;
+    }
+
+    /**
+     * Обрабатывает файлы по порядку. Классификация выполняется в текущем потоке,
+     * сообщения о начале обработки файлов и об ошибках чтения выводит поток чтения
+     *
+     * @param files входные файлы
+     */
+    void process(String[] files) throws InterruptedException {
+        val reader = new ReaderStage(files, inputs, metrics, prefetcher, errors);
+        val builtIn = new EnumMap<StringTypesEnum, WriterStage>(StringTypesEnum.class);
+        val stages = new ArrayList<WriterStage>();
+        for (StringTypesEnum type : StringTypesEnum.values()) {
+            val stage = new WriterStage(type.name(), () -> writers.apply(type));
+            builtIn.put(type, stage);
+            stages.add(stage);
+        }
+        val processor = new LineProcessor(type -> builtIn.get(type).input, integerStats, floatStats, stringsStats);
+        if (lineTypes != null) {
+            val custom = new WriterStage[lineTypes.size()];
+            for (int i = 0; i < custom.length; i++) {
+                int type = i;
+                custom[i] = new WriterStage(lineTypes.get(i).name(), () -> typeWriters.apply(type));
+                stages.add(custom[i]);
+            }
+            processor.setLineTypes(lineTypes, type -> custom[type].input, typeStats);
+        }
+        processor.setOnLine(onLine);
+        processor.setErrors(errors);
+        if (metrics != null) {
+            processor.setMetrics(metrics);
+        }
+
+        reader.thread.start();
+        stages.forEach(stage -> stage.thread.start());
+        boolean completed = false;
+        try {
+            LineBatch batch;
+            while (!(batch = reader.filled.take()).last) {
+                for (int i = 0; i < batch.count; i++) {
+                    processor.onLine(batch.view, batch.starts[i], batch.ends[i], batch.ascii[i], batch.numeric[i]);
+                }
+                reader.free.put(batch);
+            }
+            processor.publishMetrics();
+            for (WriterStage stage : stages) {
+                closeInput(stage);
+            }
+            completed = true;
+        } finally {
+            if (!completed) {
+                reader.thread.interrupt();
+                stages.forEach(stage -> stage.thread.interrupt());
+            }
+            reader.thread.join();
+            for (WriterStage stage : stages) {
+                stage.thread.join();
+            }
+        }
+        logOccupancy(reader, stages);
+    }
+
+    private void closeInput(WriterStage stage) throws InterruptedException {
+        try {
+            stage.input.close();
+        } catch (InterruptedIOException e) {
+            throw new InterruptedException();
+        } catch (IOException e) {
+            errors.report("Произошла ошибка при завершении записи строк типа {}: {}", stage.type, e.getMessage());
+        }
+    }
+
+    /**
+     * Выводит в лог заполненность очередей между стадиями: постоянно заполненная очередь означает,
+     * что узким местом является следующая стадия, постоянно пустая - предыдущая
+     */
+    private void logOccupancy(ReaderStage reader, List<WriterStage> stages) {
+        logQueue("чтение -> классификация", reader.filled);
+        for (WriterStage stage : stages) {
+            logQueue("классификация -> запись " + stage.type, stage.blocks);
+        }
+    }
+
+    private void logQueue(String name, SpscQueue<?> queue) {
+        log.info("Очередь {}: средняя заполненность {}%, ожиданий производителя {}, ожиданий потребителя {}",
+                name, Math.round(queue.averageOccupancy() * 100), queue.producerWaits(), queue.consumerWaits());
+    }
+
+    /**
+     * Пакет строк, прочитанных из файла: байты строк подряд и их границы
+     */
+    private static final class LineBatch {
+        private byte[] data;
+        private ByteBuffer view;
+        private final int[] starts = new int[BATCH_LINES];
+        private final int[] ends = new int[BATCH_LINES];
+        private final boolean[] ascii = new boolean[BATCH_LINES];
+        private final boolean[] numeric = new boolean[BATCH_LINES];
+        private int count;
+        private int used;
+        private final boolean last;
+
+        LineBatch(int size, boolean last) {
+            this.data = new byte[size];
+            this.view = ByteBuffer.wrap(data);
+            this.last = last;
+        }
+
+        /**
+         * Добавляет строку в пакет. Строка длиннее пакета помещается в пустой пакет, буфер которого увеличивается
+         *
+         * @return false если пакет заполнен и строка не добавлена
+         */
+        boolean add(ByteBuffer source, int start, int end, boolean isAscii, boolean isNumeric) {
+            int len = end - start;
+            if (count == starts.length || len > data.length - used) {
+                if (count > 0) {
+                    return false;
+                }
+                data = new byte[len];
+                view = ByteBuffer.wrap(data);
+            }
+            source.get(start, data, used, len);
+            starts[count] = used;
+            ends[count] = used + len;
+            ascii[count] = isAscii;
+            numeric[count] = isNumeric;
+            used += len;
+            count++;
+            return true;
+        }
+
+        void clear() {
+            count = 0;
+            used = 0;
+        }
+    }
+
+    /**
+     * Стадия чтения: читает файлы через {@link MappedLineReader}, сжатые файлы распаковываются при чтении,
+     * а стандартный ввод читается построчно; строки передаются пакетами
+     */
+    private static final class ReaderStage implements MappedLineReader.LineHandler {
+        private final String[] files;
+        private final CompressedInputs inputs;
+        private final ProcessingMetrics metrics;
+        private final FilePrefetcher prefetcher;
+        private final ProcessingErrors errors;
+        private final SpscQueue<LineBatch> filled = new SpscQueue<>(BATCHES);
+        private final SpscQueue<LineBatch> free = new SpscQueue<>(BATCHES);
+        private final Thread thread = new Thread(this::run, "pipeline-reader");
+        private LineBatch batch;
+        private int allocated;
+        private long fileLines;
+        private long fileBytes;
+
+        ReaderStage(String[] files, CompressedInputs inputs, ProcessingMetrics metrics, FilePrefetcher prefetcher,
+                    ProcessingErrors errors) {
+            this.files = files;
+            this.inputs = inputs;
+            this.metrics = metrics;
+            this.prefetcher = prefetcher;
+            this.errors = errors;
+            thread.setDaemon(true);
+        }
+
+        private void run() {
+            try {
+                try {
+                    batch = nextBatch();
+                    for (int i = 0; i < files.length; i++) {
+                        if (prefetcher != null) {
+                            prefetcher.advance(i);
+                        }
+                        readFile(files[i], prefetcher != null ? prefetcher.take(i) : null);
+                    }
+                } catch (RuntimeException e) {
+                    errors.report("Произошла непредвиденная ошибка {} при чтении файлов", e.toString());
+                }
+                if (batch != null && batch.count > 0) {
+                    filled.put(batch);
+                }
+                filled.put(new LineBatch(0, true));
+            } catch (InterruptedException | InterruptedIOException e) {
+                errors.report("Чтение файлов было прервано");
+            }
+        }
+
+        /**
+         * @param file       путь к файлу
+         * @param prefetched файл, открытый заранее, или null; закрывается после чтения
+         */
+        private void readFile(String file, PrefetchedFile prefetched) throws InterruptedIOException {
+            log.info("Обработка файла {}", file);
+            long start = System.nanoTime();
+            fileLines = 0;
+            fileBytes = 0;
+            try (prefetched) {
+                if (LineProcessor.STDIN.equals(file)) {
+                    readStdin();
+                } else if (prefetched != null ? prefetched.isGzip() : CompressedInputs.isGzip(Paths.get(file))) {
+                    try (InputStream in = inputs.open(Paths.get(file), prefetched)) {
+                        new MappedLineReader().read(in, this);
+                    }
+                } else if (prefetched != null) {
+                    FileChannel channel = prefetched.channel();
+                    new MappedLineReader().read(channel, prefetched.head(), 0, channel.size(), this);
+                } else {
+                    new MappedLineReader().read(Paths.get(file), this);
+                }
+                if (metrics != null) {
+                    metrics.fileProcessed(file, fileLines, fileBytes, System.nanoTime() - start);
+                }
+            } catch (InterruptedIOException e) {
+                throw e;
+            } catch (FileNotFoundException | NoSuchFileException e) {
+                errors.report("Файл {} не найден, пропускаем...", file);
+            } catch (IOException e) {
+                errors.report("Произошла непредвиденная ошибка {} при работе с файлом {}," +
+                        " переходим к следующему файлу: ", e.getMessage(), file);
+            }
+        }
+
+        /**
+         * Читает стандартный ввод построчно и передает строки в системной кодировке
+         */
+        private void readStdin() throws IOException {
+            Charset charset = Charset.defaultCharset();
+            val br = new BufferedReader(new InputStreamReader(System.in, charset));
+            String line;
+            while ((line = br.readLine()) != null) {
+                byte[] bytes = line.getBytes(charset);
+                int bits = 0;
+                for (byte b : bytes) {
+                    bits |= b;
+                }
+                onLine(ByteBuffer.wrap(bytes), 0, bytes.length, bits >= 0);
+            }
+        }
+
+        @Override
+        public void onLine(ByteBuffer buffer, int start, int end, boolean ascii) throws IOException {
+            onLine(buffer, start, end, ascii, true);
+        }
+
+        /**
+         * Признак {@code numeric} векторного поиска строк передается стадии классификации вместе со строкой
+         */
+        @Override
+        public void onLine(ByteBuffer buffer, int start, int end, boolean ascii, boolean numeric) throws IOException {
+            fileLines++;
+            fileBytes += end - start + 1;
+            if (batch.add(buffer, start, end, ascii, numeric)) {
+                return;
+            }
+            try {
+                filled.put(batch);
+                batch = nextBatch();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+            batch.add(buffer, start, end, ascii, numeric);
+        }
+
+        private LineBatch nextBatch() throws InterruptedException {
+            if (allocated < BATCHES) {
+                allocated++;
+                return new LineBatch(BATCH_SIZE, false);
+            }
+            LineBatch next = free.take();
+            next.clear();
+            return next;
+        }
+    }
+
+    /**
+     * Блок закодированных строк с разделителями
+     */
+    private record Block(byte[] data, int length) {
+        private static final Block END = new Block(null, 0);
+    }
+
+    /**
+     * Стадия записи строк одного типа: принимает блоки и записывает их в выходной файл
+     */
+    private final class WriterStage {
+        private final String type;
+        private final Supplier<LineWriter> output;
+        private final SpscQueue<Block> blocks = new SpscQueue<>(BLOCKS);
+        private final SpscQueue<byte[]> free = new SpscQueue<>(BLOCKS);
+        private final BlockWriter input = new BlockWriter();
+        private final Thread thread;
+
+        /**
+         * @param type   имя типа строк для сообщений и имени потока
+         * @param output функция получения выходного файла типа, вызывается потоком записи
+         */
+        WriterStage(String type, Supplier<LineWriter> output) {
+            this.type = type;
+            this.output = output;
+            this.thread = new Thread(this::run, "pipeline-writer-" + type.toLowerCase());
+            thread.setDaemon(true);
+        }
+
+        private void run() {
+            try {
+                Block block;
+                while ((block = blocks.take()) != Block.END) {
+                    write(block);
+                    if (block.data().length == BLOCK_SIZE) {
+                        free.put(block.data());
+                    }
+                }
+            } catch (InterruptedException e) {
+                errors.report("Запись строк типа {} была прервана", type);
+            }
+        }
+
+        private void write(Block block) {
+            LineWriter writer = output.get();
+            if (writer == null) {
+                return;
+            }
+            try {
+                writer.writeEncoded(block.data(), 0, block.length());
+            } catch (IOException e) {
+                errors.report("Произошла ошибка при записи строк типа {}: {}", type, e.getMessage());
+            }
+        }
+
+        /**
+         * Запись строк в блоки, которые передаются стадии записи. Используется потоком классификации
+         */
+        private final class BlockWriter extends BufferedLineWriter {
+            private int allocated = 1;
+
+            BlockWriter() {
+                super(new byte[BLOCK_SIZE]);
+            }
+
+            @Override
+            protected byte[] drain(byte[] buffer, int length) throws IOException {
+                send(new Block(buffer, length));
+                return nextBlock();
+            }
+
+            private byte[] nextBlock() throws InterruptedIOException {
+                try {
+                    if (allocated < BLOCKS) {
+                        allocated++;
+                        return new byte[BLOCK_SIZE];
+                    }
+                    return free.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+            }
+
+            @Override
+            protected void writeDirect(byte[] bytes, int offset, int length) throws IOException {
+                send(new Block(Arrays.copyOfRange(bytes, offset, offset + length), length));
+            }
+
+            private void send(Block block) throws InterruptedIOException {
+                try {
+                    blocks.put(block);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+            }
+
+            /**
+             * Диапазон читается в блоки из того же пула и передается стадии записи после уже накопленных строк
+             */
+            @Override
+            public void append(FileChannel src, long position, long count) throws IOException {
+                flushBuffer();
+                long end = position + count;
+                while (position < end) {
+                    byte[] data = nextBlock();
+                    ByteBuffer chunk = ByteBuffer.wrap(data, 0, (int) Math.min(data.length, end - position));
+                    int n = 0;
+                    while (chunk.hasRemaining() && (n = src.read(chunk, position)) >= 0) {
+                        position += n;
+                    }
+                    // Блок передается и при ошибке, чтобы вернуться в пул
+                    send(new Block(data, chunk.position()));
+                    if (n < 0) {
+                        throw new EOFException("Файл %d байт короче ожидаемого".formatted(end - position));
+                    }
+                }
+            }
+
+            @Override
+            public void flush() throws IOException {
+                flushBuffer();
+            }
+
+            @Override
+            public void close() throws IOException {
+                flushBuffer();
+                send(Block.END);
+            }
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package ru.paskal;
+
+import lombok.extern.slf4j.Slf4j;
+import org.slf4j.helpers.MessageFormatter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Ошибки чтения входных и записи выходных файлов, произошедшие при обработке.
+ * Каждая ошибка записывается в лог и учитывается, первые {@link #MAX_MESSAGES} сообщений сохраняются,
+ * чтобы, например, демон мог передать их клиенту и завершить задание с кодом ошибки.
+ * Потокобезопасен, один экземпляр используется всеми потоками обработки.
+ */
+@Slf4j
+public class ProcessingErrors {
+    static final int MAX_MESSAGES = 100;
+
+    private final List<String> messages = new ArrayList<>();
+    private int count;
+
+    /**
+     * Записывает ошибку в лог и учитывает ее
+     *
+     * @param format сообщение в формате SLF4J
+     * @param args   аргументы сообщения
+     */
+    public void report(String format, Object... args) {
+        String message = MessageFormatter.arrayFormat(format, args).getMessage();
+        log.error(message);
+        synchronized (this) {
+            count++;
+            if (messages.size() < MAX_MESSAGES) {
+                messages.add(message);
+            }
+        }
+    }
+
+    /**
+     * @return true если ошибок не было
+     */
+    public synchronized boolean isEmpty() {
+        return count == 0;
+    }
+
+    /**
+     * @return количество ошибок
+     */
+    public synchronized int getCount() {
+        return count;
+    }
+
+    /**
+     * @return первые {@link #MAX_MESSAGES} сообщений об ошибках в порядке появления
+     */
+    public synchronized List<String> getMessages() {
+        return List.copyOf(messages);
+    }
+}
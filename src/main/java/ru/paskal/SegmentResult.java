@@ -0,0 +1,337 @@
+package ru.paskal;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import ru.paskal.io.LineWriter;
+import ru.paskal.io.StreamLineWriter;
+import ru.paskal.models.FloatStatistics;
+import ru.paskal.models.IntegerStatistics;
+import ru.paskal.models.StringStatistics;
+import ru.paskal.models.TypeStatistics;
+import ru.paskal.utils.LineType;
+import ru.paskal.utils.LineTypes;
+import ru.paskal.utils.StringTypesEnum;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Результат независимой обработки части входных данных (файла) при параллельной обработке.
+ * Строки каждого типа, в том числе пользовательского, записываются во временный файл,
+ * статистика собирается в собственные хранилища,
+ * после чего {@link FilesManager} переносит результат в выходные файлы в исходном порядке.
+ * Результат может быть также получен из {@link InputCache}, тогда строки переносятся из файла кэша.
+ * Перенос может завершаться в потоках записи после {@link #deleteSpools()}, поэтому временные файлы
+ * и файл кэша освобождаются после переноса последнего диапазона.
+ */
+@Slf4j
+@Getter
+class SegmentResult {
+    private final Path spoolDir;
+    private final Map<StringTypesEnum, Path> spools = new EnumMap<>(StringTypesEnum.class);
+    private final Map<StringTypesEnum, LineWriter> spoolWriters = new EnumMap<>(StringTypesEnum.class);
+    private final IntegerStatistics integerStats;
+    private final FloatStatistics floatStats;
+    private final StringStatistics stringsStats;
+    /**
+     * Пользовательские типы строк или null, их временные файлы и статистика по номеру типа
+     */
+    private final LineTypes lineTypes;
+    private final Path[] typeSpools;
+    private final LineWriter[] typeSpoolWriters;
+    private final TypeStatistics[] typeStats;
+    /**
+     * Файл кэша с сохраненными строками и диапазоны строк каждого типа в нем, если результат взят из кэша
+     */
+    private final FileChannel cacheEntry;
+    private final Map<StringTypesEnum, long[]> cachedSegments;
+    private final long[][] cachedTypeSegments;
+    /**
+     * Переносы диапазонов, которые еще не завершились, и сам владелец результата до {@link #deleteSpools()}
+     */
+    @Getter(AccessLevel.NONE)
+    private final AtomicInteger references = new AtomicInteger(1);
+    @Setter
+    private IOException error;
+    /**
+     * Ошибки создания и закрытия временных файлов, при которых строки будут потеряны
+     */
+    @Setter
+    private ProcessingErrors errors = new ProcessingErrors();
+
+    /**
+     * @param spoolDir    директория для временных файлов
+     * @param collectStats собирать ли статистику
+     * @param isFull      собирать ли полную статистику
+     * @param isExtended  собирать ли расширенную статистику
+     * @param topK        количество отслеживаемых наиболее частых строк, 0 если не требуется
+     * @param lineTypes   пользовательские типы строк или null
+     */
+    SegmentResult(Path spoolDir, boolean collectStats, boolean isFull, boolean isExtended, int topK, LineTypes lineTypes) {
+        this.spoolDir = spoolDir;
+        this.lineTypes = lineTypes;
+        int typeCount = lineTypes != null ? lineTypes.size() : 0;
+        typeSpools = new Path[typeCount];
+        typeSpoolWriters = new LineWriter[typeCount];
+        if (collectStats) {
+            integerStats = new IntegerStatistics(isFull, isExtended);
+            floatStats = new FloatStatistics(isFull, isExtended);
+            stringsStats = new StringStatistics(isFull, isExtended, topK);
+            typeStats = lineTypes != null ? new TypeStatistics[typeCount] : null;
+            for (int i = 0; i < typeCount; i++) {
+                LineType type = lineTypes.get(i);
+                typeStats[i] = new TypeStatistics(type.name(), type.decimal(), isFull);
+            }
+        } else {
+            integerStats = null;
+            floatStats = null;
+            stringsStats = null;
+            typeStats = null;
+        }
+        cacheEntry = null;
+        cachedSegments = Map.of();
+        cachedTypeSegments = new long[typeCount][];
+    }
+
+    /**
+     * Результат, сохраненный в кэше
+     *
+     * @param cacheEntry     открытый файл кэша, закрывается методом {@link #deleteSpools()}
+     * @param cachedSegments     начало и длина строк каждого типа в файле кэша
+     * @param cachedTypeSegments начало и длина строк каждого пользовательского типа или null, если строк типа нет
+     * @param integerStats       статистика целых чисел или null
+     * @param floatStats         статистика чисел с плавающей запятой или null
+     * @param stringsStats       статистика строк или null
+     * @param typeStats          статистика пользовательских типов или null
+     */
+    SegmentResult(FileChannel cacheEntry, Map<StringTypesEnum, long[]> cachedSegments, long[][] cachedTypeSegments,
+                  IntegerStatistics integerStats, FloatStatistics floatStats, StringStatistics stringsStats,
+                  TypeStatistics[] typeStats) {
+        this.spoolDir = null;
+        this.lineTypes = null;
+        this.cacheEntry = cacheEntry;
+        this.cachedSegments = cachedSegments;
+        this.cachedTypeSegments = cachedTypeSegments;
+        this.typeSpools = new Path[cachedTypeSegments.length];
+        this.typeSpoolWriters = new LineWriter[cachedTypeSegments.length];
+        this.integerStats = integerStats;
+        this.floatStats = floatStats;
+        this.stringsStats = stringsStats;
+        this.typeStats = typeStats;
+    }
+
+    /**
+     * @return типы строк, встретившихся в обработанных данных
+     */
+    Set<StringTypesEnum> getTypes() {
+        Set<StringTypesEnum> types = EnumSet.noneOf(StringTypesEnum.class);
+        types.addAll(spools.keySet());
+        types.addAll(cachedSegments.keySet());
+        return types;
+    }
+
+    /**
+     * Дописывает строки указанного типа в выходной файл
+     *
+     * @param type   тип строк
+     * @param writer выходной файл
+     */
+    void appendTo(StringTypesEnum type, LineWriter writer) throws IOException {
+        Path spool = spools.get(type);
+        if (spool != null) {
+            appendSpool(spool, writer);
+            return;
+        }
+        long[] segment = cachedSegments.get(type);
+        if (segment != null) {
+            appendCached(segment, writer);
+        }
+    }
+
+    /**
+     * @return количество пользовательских типов строк
+     */
+    int getTypeCount() {
+        return typeSpools.length;
+    }
+
+    /**
+     * Дописывает строки пользовательского типа в выходной файл
+     *
+     * @param type   номер пользовательского типа
+     * @param writer выходной файл
+     */
+    void appendTypeTo(int type, LineWriter writer) throws IOException {
+        if (typeSpools[type] != null) {
+            appendSpool(typeSpools[type], writer);
+            return;
+        }
+        long[] segment = cachedTypeSegments[type];
+        if (segment != null) {
+            appendCached(segment, writer);
+        }
+    }
+
+    /**
+     * Передает временный файл в выходной файл; файл закрывается после переноса, а удаляется
+     * после переноса всех диапазонов результата
+     */
+    private void appendSpool(Path spool, LineWriter writer) throws IOException {
+        long size = Files.size(spool);
+        FileChannel channel = FileChannel.open(spool, StandardOpenOption.READ);
+        references.incrementAndGet();
+        writer.append(channel, 0, size, () -> {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.error("Не удалось закрыть временный файл {}: {}", spool, e.getMessage());
+            }
+            release();
+        });
+    }
+
+    /**
+     * Передает диапазон файла кэша в выходной файл; файл кэша закрывается после переноса всех диапазонов
+     */
+    private void appendCached(long[] segment, LineWriter writer) throws IOException {
+        references.incrementAndGet();
+        writer.append(cacheEntry, segment[0], segment[1], this::release);
+    }
+
+    /**
+     * @param type номер пользовательского типа
+     * @return true если в результате есть строки этого типа
+     */
+    boolean hasTypeLines(int type) {
+        return typeSpools[type] != null || cachedTypeSegments[type] != null;
+    }
+
+    /**
+     * @return {@link LineProcessor}, записывающий строки во временные файлы этого результата
+     */
+    LineProcessor newProcessor() {
+        val processor = new LineProcessor(this::getSpoolWriter, integerStats, floatStats, stringsStats);
+        processor.setErrors(errors);
+        if (lineTypes != null) {
+            processor.setLineTypes(lineTypes, this::getTypeSpoolWriter, typeStats);
+        }
+        return processor;
+    }
+
+    /**
+     * Метод получения {@link LineWriter} временного файла для указанного типа, создает файл при первом обращении
+     *
+     * @param type тип строк
+     * @return {@link LineWriter} временного файла или null, если его не удалось создать
+     */
+    LineWriter getSpoolWriter(StringTypesEnum type) {
+        LineWriter writer = spoolWriters.get(type);
+        if (writer != null) {
+            return writer;
+        }
+        try {
+            Path spool = Files.createTempFile(spoolDir, type.name().toLowerCase(), ".spool");
+            spools.put(type, spool);
+            writer = new StreamLineWriter(spool.toString(), false);
+            spoolWriters.put(type, writer);
+        } catch (IOException e) {
+            errors.report("Произошла ошибка при создании временного файла для типа {}: {}", type, e.getMessage());
+        }
+        return writer;
+    }
+
+    /**
+     * Метод получения {@link LineWriter} временного файла для пользовательского типа, создает файл при первом обращении
+     *
+     * @param type номер пользовательского типа
+     * @return {@link LineWriter} временного файла или null, если его не удалось создать
+     */
+    LineWriter getTypeSpoolWriter(int type) {
+        LineWriter writer = typeSpoolWriters[type];
+        if (writer != null) {
+            return writer;
+        }
+        try {
+            Path spool = Files.createTempFile(spoolDir, "type" + type + "-", ".spool");
+            typeSpools[type] = spool;
+            writer = new StreamLineWriter(spool.toString(), false);
+            typeSpoolWriters[type] = writer;
+        } catch (IOException e) {
+            errors.report("Произошла ошибка при создании временного файла для типа {}: {}",
+                    lineTypes.get(type).name(), e.getMessage());
+        }
+        return writer;
+    }
+
+    /**
+     * Закрывает все временные файлы, после этого их можно переносить в выходные файлы
+     */
+    void closeSpools() {
+        List<LineWriter> all = new ArrayList<>(spoolWriters.values());
+        for (LineWriter writer : typeSpoolWriters) {
+            if (writer != null) {
+                all.add(writer);
+            }
+        }
+        for (LineWriter writer : all) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                errors.report("Произошла ошибка при закрытии временного файла: {}", e.getMessage());
+            }
+        }
+        spoolWriters.clear();
+        Arrays.fill(typeSpoolWriters, null);
+    }
+
+    /**
+     * Закрывает временные файлы и освобождает результат: временные файлы удаляются и файл кэша закрывается
+     * сразу или, если переносы в выходные файлы еще выполняются потоками записи, после последнего из них
+     */
+    void deleteSpools() {
+        closeSpools();
+        release();
+    }
+
+    private void release() {
+        if (references.decrementAndGet() > 0) {
+            return;
+        }
+        if (cacheEntry != null) {
+            try {
+                cacheEntry.close();
+            } catch (IOException e) {
+                log.error("Не удалось закрыть файл кэша: {}", e.getMessage());
+            }
+        }
+        List<Path> all = new ArrayList<>(spools.values());
+        for (Path spool : typeSpools) {
+            if (spool != null) {
+                all.add(spool);
+            }
+        }
+        for (Path spool : all) {
+            try {
+                Files.deleteIfExists(spool);
+            } catch (IOException e) {
+                log.error("Не удалось удалить временный файл {}: {}", spool, e.getMessage());
+            }
+        }
+        spools.clear();
+        Arrays.fill(typeSpools, null);
+    }
+}
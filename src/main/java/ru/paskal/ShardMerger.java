@@ -0,0 +1,151 @@
+package ru.paskal;
+
+import lombok.extern.slf4j.Slf4j;
+import ru.paskal.models.CliArgumentsModel;
+import ru.paskal.models.Statistics;
+import ru.paskal.models.StatisticsUnion;
+import ru.paskal.models.TypeStatistics;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Объединение результатов частей, обработанных с {@code --shard i/n} на разных узлах ({@code --merge-shards}).
+ * Входными аргументами служат выходные директории частей. Выходные файлы частей дописываются в выходную
+ * директорию в порядке номеров частей, а статистика объединяется в том же порядке, поэтому результат совпадает
+ * с обработкой всех входных файлов на одном узле. Результаты частей должны быть созданы с тем же списком
+ * входных файлов, теми же настройками статистики и тем же префиксом выходных файлов
+ */
+@Slf4j
+public class ShardMerger {
+    private static final int COPY_CHUNK = 64 << 20;
+
+    private final CliArgumentsModel args;
+
+    /**
+     * @param args аргументы объединения: выходные директории частей вместо входных файлов,
+     *             выходная директория, префикс и режим дописывания
+     */
+    public ShardMerger(CliArgumentsModel args) {
+        this.args = args;
+    }
+
+    /**
+     * Проверяет, что найдены результаты всех частей одной обработки, объединяет выходные файлы и статистику.
+     * Флаги статистики аргументов заменяются флагами, с которыми обрабатывались части
+     *
+     * @return объединенная статистика всех частей
+     * @throws IOException если результаты частей отсутствуют или не согласованы, либо выходные файлы не записаны
+     */
+    public StatisticsUnion merge() throws IOException {
+        Path output = Paths.get(args.getOutputPath());
+        ShardResult reference = null;
+        ShardResult[] shards = null;
+        Path[] dirs = null;
+        for (String dir : args.getInputFiles()) {
+            Path path = Paths.get(dir);
+            if (Files.exists(output) && Files.exists(path) && Files.isSameFile(output, path)) {
+                throw new IOException("выходная директория совпадает с директорией части " + dir);
+            }
+            Path file = path.resolve(ShardResult.FILE_NAME.formatted(args.getPrefix()));
+            if (!Files.exists(file)) {
+                throw new IOException("в директории %s нет результата части %s".formatted(dir, file.getFileName()));
+            }
+            ShardResult shard = ShardResult.read(file);
+            if (shard.index() < 1 || shard.index() > shard.count()) {
+                throw new IOException("результат части в директории %s поврежден".formatted(dir));
+            }
+            if (reference == null) {
+                reference = shard;
+                shards = new ShardResult[shard.count()];
+                dirs = new Path[shard.count()];
+            } else if (shard.count() != reference.count()
+                    || !Arrays.equals(shard.inputFiles(), reference.inputFiles())
+                    || !shard.settings().equals(reference.settings())) {
+                throw new IOException("часть в директории %s создана другой обработкой: %d частей, настройки %s"
+                        .formatted(dir, shard.count(), shard.settings()));
+            }
+            if (dirs[shard.index() - 1] != null) {
+                throw new IOException("часть %d найдена в директориях %s и %s"
+                        .formatted(shard.index(), dirs[shard.index() - 1], dir));
+            }
+            shards[shard.index() - 1] = shard;
+            dirs[shard.index() - 1] = path;
+        }
+        for (int i = 0; i < dirs.length; i++) {
+            if (dirs[i] == null) {
+                throw new IOException("не найден результат части %d из %d".formatted(i + 1, dirs.length));
+            }
+        }
+
+        Files.createDirectories(output);
+        Set<String> outputs = new LinkedHashSet<>();
+        for (ShardResult shard : shards) {
+            outputs.addAll(Arrays.asList(shard.outputs()));
+        }
+        for (String name : outputs) {
+            concatenate(name, shards, dirs, output.resolve(name));
+        }
+        log.info("Объединены результаты {} частей: {} выходных файлов", shards.length, outputs.size());
+
+        args.setShortStats(shards[0].isShortStats());
+        args.setFullStats(shards[0].isFullStats());
+        List<Statistics<?>> stats = new ArrayList<>();
+        stats.add(mergeAll(shards, ShardResult::stringsStats));
+        stats.add(mergeAll(shards, ShardResult::integerStats));
+        stats.add(mergeAll(shards, ShardResult::floatStats));
+        TypeStatistics[] types = shards[0].typeStats();
+        for (int t = 0; types != null && t < types.length; t++) {
+            int type = t;
+            stats.add(mergeAll(shards, shard -> shard.typeStats()[type]));
+        }
+        return new StatisticsUnion(stats.toArray(Statistics<?>[]::new));
+    }
+
+    /**
+     * Записывает выходной файл как последовательность одноименных файлов частей. Сжатые файлы тоже
+     * объединяются побайтово: несколько членов gzip подряд распаковываются как один поток
+     */
+    private void concatenate(String name, ShardResult[] shards, Path[] dirs, Path target) throws IOException {
+        StandardOpenOption mode = args.isAppendMode() ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING;
+        try (FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE, mode)) {
+            for (int i = 0; i < shards.length; i++) {
+                if (!Arrays.asList(shards[i].outputs()).contains(name)) {
+                    continue;
+                }
+                try (FileChannel in = FileChannel.open(dirs[i].resolve(name), StandardOpenOption.READ)) {
+                    long size = in.size();
+                    for (long position = 0; position < size; ) {
+                        position += in.transferTo(position, Math.min(COPY_CHUNK, size - position), out);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return копия статистики первой части, объединенная со статистикой остальных частей по порядку,
+     * или null, если статистика не собиралась
+     */
+    private static <S extends Statistics<S>> S mergeAll(ShardResult[] shards, Function<ShardResult, S> stats) {
+        S first = stats.apply(shards[0]);
+        if (first == null) {
+            return null;
+        }
+        S merged = first.copy();
+        for (int i = 1; i < shards.length; i++) {
+            merged.merge(stats.apply(shards[i]));
+        }
+        return merged;
+    }
+}
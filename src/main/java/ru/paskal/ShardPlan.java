@@ -0,0 +1,125 @@
+package ru.paskal;
+
+import ru.paskal.io.CompressedInputs;
+import ru.paskal.io.FileChunks;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Доля входных данных одной части при обработке на нескольких узлах. Входные файлы рассматриваются
+ * как один поток байтов, который делится на равные по объему диапазоны. Граница диапазона переносится
+ * на начало следующей строки, а внутри сжатого файла - на его конец, так как сжатый файл нельзя читать с середины.
+ * Разбиение зависит только от списка, размеров и содержимого файлов, поэтому каждый узел вычисляет его независимо.
+ * Пустые и отсутствующие файлы достаются части, в диапазон которой попадает их начало
+ *
+ * @param pieces диапазоны файлов части в порядке входных файлов
+ * @param bytes  объем диапазонов части
+ */
+record ShardPlan(List<Piece> pieces, long bytes) {
+    /**
+     * Диапазон одного входного файла
+     *
+     * @param fileIndex номер входного файла
+     * @param from      начало диапазона, совпадает с началом строки
+     * @param to        конец диапазона (не включительно)
+     * @param whole     занимает ли диапазон весь файл
+     */
+    record Piece(int fileIndex, long from, long to, boolean whole) {
+    }
+
+    /**
+     * Вычисляет долю части
+     *
+     * @param files       входные файлы
+     * @param index       номер части от 1 до {@code count}
+     * @param count       количество частей
+     * @param splitByLine можно ли делить несжатые файлы по границам строк, иначе части делятся только по файлам
+     * @return диапазоны файлов части
+     */
+    static ShardPlan of(String[] files, int index, int count, boolean splitByLine) throws IOException {
+        long[] starts = new long[files.length + 1];
+        boolean[] splittable = new boolean[files.length];
+        for (int f = 0; f < files.length; f++) {
+            Path path = Paths.get(files[f]);
+            long size = 0;
+            if (Files.isRegularFile(path)) {
+                size = Files.size(path);
+                splittable[f] = splitByLine && !CompressedInputs.isGzip(path);
+            }
+            starts[f + 1] = starts[f] + size;
+        }
+        long total = starts[files.length];
+        long[] cuts = new long[count + 1];
+        cuts[count] = total;
+        for (int s = 1; s < count; s++) {
+            long target = total / count * s + total % count * s / count;
+            cuts[s] = Math.max(cuts[s - 1], align(files, starts, splittable, target));
+        }
+
+        long from = cuts[index - 1];
+        long to = cuts[index];
+        List<Piece> pieces = new ArrayList<>();
+        for (int f = 0; f < files.length; f++) {
+            long start = starts[f];
+            long end = starts[f + 1];
+            if (start == end) {
+                if (owner(cuts, start) == index) {
+                    pieces.add(new Piece(f, 0, 0, true));
+                }
+                continue;
+            }
+            long pieceFrom = Math.max(start, from);
+            long pieceTo = Math.min(end, to);
+            if (pieceFrom < pieceTo) {
+                pieces.add(new Piece(f, pieceFrom - start, pieceTo - start, pieceFrom == start && pieceTo == end));
+            }
+        }
+        return new ShardPlan(pieces, to - from);
+    }
+
+    /**
+     * @return граница части не раньше {@code target}: начало строки или конец сжатого файла.
+     * Граница в конце входных данных (например, когда все файлы пустые или отсутствуют) не переносится
+     */
+    private static long align(String[] files, long[] starts, boolean[] splittable, long target) throws IOException {
+        if (target >= starts[files.length]) {
+            return starts[files.length];
+        }
+        int f = 0;
+        while (starts[f + 1] <= target) {
+            f++;
+        }
+        long local = target - starts[f];
+        if (local == 0) {
+            return target;
+        }
+        if (!splittable[f]) {
+            return starts[f + 1];
+        }
+        long size = starts[f + 1] - starts[f];
+        try (FileChannel channel = FileChannel.open(Paths.get(files[f]), StandardOpenOption.READ)) {
+            return starts[f] + FileChunks.nextLineStart(channel, local, size, ByteBuffer.allocate(1 << 16));
+        }
+    }
+
+    /**
+     * @return номер последней части (от 1), диапазон которой начинается не позже позиции
+     */
+    private static int owner(long[] cuts, long position) {
+        int owner = 1;
+        for (int s = 1; s < cuts.length - 1; s++) {
+            if (cuts[s] <= position) {
+                owner = s + 1;
+            }
+        }
+        return owner;
+    }
+}
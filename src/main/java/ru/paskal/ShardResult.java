@@ -0,0 +1,91 @@
+package ru.paskal;
+
+import ru.paskal.models.FloatStatistics;
+import ru.paskal.models.IntegerStatistics;
+import ru.paskal.models.StringStatistics;
+import ru.paskal.models.TypeStatistics;
+
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Результат обработки одной части входных данных ({@code --shard i/n}): выходные файлы части и ее статистика.
+ * Записывается в выходную директорию части после закрытия выходных файлов, поэтому наличие файла означает,
+ * что часть обработана полностью. Результаты всех частей объединяет {@link ShardMerger}
+ *
+ * @param index        номер части от 1
+ * @param count        количество частей
+ * @param inputFiles   входные файлы, доли частей вычисляются по одному списку
+ * @param settings     настройки, от которых зависят статистика и выходные файлы
+ * @param isShortStats собиралась ли краткая статистика
+ * @param isFullStats  собиралась ли полная статистика
+ * @param outputs      имена созданных частью выходных файлов в выходной директории
+ * @param integerStats статистика целых чисел или null
+ * @param floatStats   статистика чисел с плавающей запятой или null
+ * @param stringsStats статистика строк или null
+ * @param typeStats    статистика пользовательских типов или null
+ */
+record ShardResult(int index,
+                   int count,
+                   String[] inputFiles,
+                   String settings,
+                   boolean isShortStats,
+                   boolean isFullStats,
+                   String[] outputs,
+                   IntegerStatistics integerStats,
+                   FloatStatistics floatStats,
+                   StringStatistics stringsStats,
+                   TypeStatistics[] typeStats) implements Serializable {
+    /**
+     * Имя файла результата в выходной директории части, перед ним указывается префикс выходных файлов
+     */
+    static final String FILE_NAME = "%sshard-stats.bin";
+
+    /**
+     * Классы, которые может содержать результат части
+     */
+    private static final ObjectInputFilter FILTER = ObjectInputFilter.Config.createFilter(
+            "ru.paskal.**;java.math.BigDecimal;java.math.BigInteger;java.lang.Enum;java.lang.String;java.lang.Number;!*");
+
+    /**
+     * Записывает результат атомарно через временный файл, как {@link Checkpoint}
+     *
+     * @param path путь к файлу результата
+     */
+    void write(Path path) throws IOException {
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            OutputStream out = Channels.newOutputStream(channel);
+            ObjectOutputStream objects = new ObjectOutputStream(out);
+            objects.writeObject(this);
+            objects.flush();
+            channel.force(true);
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @param path путь к файлу результата
+     * @return прочитанный результат части
+     */
+    static ShardResult read(Path path) throws IOException {
+        try (ObjectInputStream in = new ObjectInputStream(Files.newInputStream(path))) {
+            in.setObjectInputFilter(FILTER);
+            return (ShardResult) in.readObject();
+        } catch (ClassNotFoundException | ClassCastException | InvalidClassException e) {
+            throw new IOException("результат части создан несовместимой версией утилиты", e);
+        }
+    }
+}
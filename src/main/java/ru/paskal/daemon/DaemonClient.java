@@ -0,0 +1,77 @@
+package ru.paskal.daemon;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Клиент демона утилиты: передает задание {@link DaemonServer} и выводит полученную статистику.
+ * Не использует логирование и разбор аргументов, поэтому запускается быстрее самой утилиты:
+ * <pre>
+ * java -cp file_util.jar ru.paskal.daemon.DaemonClient &lt;сокет&gt; [аргументы утилиты]
+ * </pre>
+ * Код завершения клиента равен коду завершения задания, 3 если демон недоступен.
+ */
+public class DaemonClient {
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            System.err.println("Использование: DaemonClient <сокет> [аргументы утилиты]");
+            System.exit(DaemonProtocol.EXIT_INVALID_ARGS);
+        }
+        List<String> jobArgs = Arrays.asList(args).subList(1, args.length);
+        Path workingDir = Paths.get("").toAbsolutePath();
+        System.exit(submit(Paths.get(args[0]), workingDir, jobArgs, System.out, System.err));
+    }
+
+    /**
+     * Передает задание демону и дожидается его завершения
+     *
+     * @param socket     путь к сокету демона
+     * @param workingDir директория, относительно которой разрешаются пути в аргументах
+     * @param args       аргументы командной строки утилиты
+     * @param out        поток для строк статистики
+     * @param err        поток для сообщений об ошибках связи с демоном
+     * @return код завершения задания
+     */
+    public static int submit(Path socket, Path workingDir, List<String> args, PrintStream out, PrintStream err) {
+        try (SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+            try {
+                channel.connect(UnixDomainSocketAddress.of(socket));
+            } catch (IOException e) {
+                err.println("Демон по адресу " + socket + " недоступен: " + e.getMessage());
+                return DaemonProtocol.EXIT_UNAVAILABLE;
+            }
+            DataOutputStream request = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            DaemonProtocol.writeRequest(request, new DaemonProtocol.Request(workingDir.toString(), args));
+            DataInputStream response = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            while (true) {
+                byte kind = response.readByte();
+                if (kind == DaemonProtocol.LINE) {
+                    out.println(DaemonProtocol.readString(response));
+                } else if (kind == DaemonProtocol.EXIT) {
+                    return response.readInt();
+                } else {
+                    throw new IOException("Некорректный ответ демона");
+                }
+            }
+        } catch (EOFException e) {
+            err.println("Демон завершил соединение до окончания задания");
+            return DaemonProtocol.EXIT_FAILED;
+        } catch (IOException e) {
+            err.println("Ошибка связи с демоном: " + e.getMessage());
+            return DaemonProtocol.EXIT_FAILED;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package ru.paskal.daemon;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Протокол обмена между {@link DaemonClient} и {@link DaemonServer} через сокет Unix.
+ * <p>
+ * Задание: версия протокола, рабочая директория клиента и аргументы командной строки утилиты.
+ * Ответ: последовательность кадров {@link #LINE} со строками статистики и сообщениями,
+ * завершающаяся кадром {@link #EXIT} с кодом завершения задания.
+ * Строки передаются длиной в байтах и байтами UTF-8, поэтому их длина не ограничена 64 КБ, как у {@code writeUTF}.
+ */
+final class DaemonProtocol {
+    static final int VERSION = 2;
+    static final byte LINE = 'L';
+    static final byte EXIT = 'X';
+
+    static final int EXIT_OK = 0;
+    static final int EXIT_FAILED = 1;
+    static final int EXIT_INVALID_ARGS = 2;
+    static final int EXIT_UNAVAILABLE = 3;
+    /**
+     * Наибольшая длина строки в байтах, защищает от выделения памяти по поврежденной длине
+     */
+    private static final int MAX_STRING_BYTES = 1 << 28;
+
+    /**
+     * Задание демону
+     *
+     * @param workingDir рабочая директория клиента, относительно нее разрешаются пути в аргументах
+     * @param args       аргументы командной строки утилиты
+     */
+    record Request(String workingDir, List<String> args) {
+    }
+
+    private DaemonProtocol() {
+    }
+
+    static void writeRequest(DataOutputStream out, Request request) throws IOException {
+        out.writeInt(VERSION);
+        writeString(out, request.workingDir());
+        out.writeInt(request.args().size());
+        for (String arg : request.args()) {
+            writeString(out, arg);
+        }
+        out.flush();
+    }
+
+    static Request readRequest(DataInputStream in) throws IOException {
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("Неподдерживаемая версия протокола: " + version);
+        }
+        String workingDir = readString(in);
+        int count = in.readInt();
+        if (count < 0 || count > Short.MAX_VALUE) {
+            throw new IOException("Некорректное количество аргументов: " + count);
+        }
+        String[] args = new String[count];
+        for (int i = 0; i < count; i++) {
+            args[i] = readString(in);
+        }
+        return new Request(workingDir, List.of(args));
+    }
+
+    static void writeLine(DataOutputStream out, String line) throws IOException {
+        out.writeByte(LINE);
+        writeString(out, line);
+        out.flush();
+    }
+
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_STRING_BYTES) {
+            throw new IOException("Некорректная длина строки: " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static void writeExit(DataOutputStream out, int status) throws IOException {
+        out.writeByte(EXIT);
+        out.writeInt(status);
+        out.flush();
+    }
+}
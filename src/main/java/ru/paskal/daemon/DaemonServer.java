@@ -0,0 +1,350 @@
+package ru.paskal.daemon;
+
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import ru.paskal.FilesManager;
+import ru.paskal.ProcessingErrors;
+import ru.paskal.models.CliArgumentsModel;
+import ru.paskal.utils.ArgumentsParser;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Демон утилиты: принимает задания {@link DaemonClient} через сокет Unix и выполняет их в уже прогретой JVM,
+ * что убирает затраты на запуск JVM, инициализацию логирования и интерпретацию холодного кода для каждого вызова.
+ * <p>
+ * Каждое задание выполняется собственным {@link FilesManager} со своими выходными файлами и статистикой,
+ * независимые задания выполняются одновременно. Задания с одинаковыми выходными файлами
+ * (выходная директория и префикс) выполняются по очереди. Стандартный ввод и режим отслеживания в заданиях не поддерживаются.
+ */
+@Slf4j
+public class DaemonServer implements Closeable {
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+    private static final int WARM_UP_LINES = 200_000;
+    private static final int WARM_UP_ROUNDS = 3;
+    private static final String STDIN = "-";
+    private static final String TYPES_OPTION = "--types";
+
+    private final Path socket;
+    private final ServerSocketChannel server;
+    private final ExecutorService jobs;
+    private final AtomicLong jobIds = new AtomicLong();
+    private final Map<Path, ReentrantLock> outputLocks = new ConcurrentHashMap<>();
+    private final Set<FilesManager> active = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed = false;
+
+    /**
+     * Создает сокет демона. Файл сокета, оставшийся от завершившегося демона, удаляется
+     *
+     * @param socket  путь к сокету
+     * @param maxJobs наибольшее количество одновременно выполняемых заданий
+     * @throws IOException если сокет занят работающим демоном или не может быть создан
+     */
+    public DaemonServer(Path socket, int maxJobs) throws IOException {
+        this.socket = socket;
+        if (Files.exists(socket)) {
+            if (isAlive(socket)) {
+                throw new IOException("по адресу %s уже работает демон".formatted(socket));
+            }
+            Files.delete(socket);
+        }
+        server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        server.bind(UnixDomainSocketAddress.of(socket));
+        jobs = Executors.newFixedThreadPool(maxJobs, task -> {
+            Thread thread = new Thread(task, "daemon-job");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Запускает демон и обслуживает задания до сигнала остановки, после которого выполняемые задания
+     * останавливаются так же, как при остановке утилиты
+     *
+     * @param socket путь к сокету
+     */
+    public static void serve(Path socket) {
+        DaemonServer daemon;
+        try {
+            daemon = new DaemonServer(socket, Runtime.getRuntime().availableProcessors());
+        } catch (IOException e) {
+            log.error("Не удалось запустить демон: {}", e.getMessage());
+            return;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(daemon::close));
+        daemon.warmUp();
+        log.info("Демон принимает задания по адресу {}", socket);
+        daemon.run();
+    }
+
+    /**
+     * Принимает соединения, пока демон не закрыт, и передает задания в пул
+     */
+    public void run() {
+        while (!closed) {
+            try {
+                SocketChannel client = server.accept();
+                long id = jobIds.incrementAndGet();
+                try {
+                    jobs.execute(() -> serveClient(client, id));
+                } catch (RejectedExecutionException e) {
+                    // Демон останавливается, соединение закрывается без выполнения задания
+                    client.close();
+                }
+            } catch (AsynchronousCloseException e) {
+                break;
+            } catch (IOException e) {
+                if (!closed) {
+                    log.error("Ошибка приема соединения: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Прекращает прием заданий, останавливает выполняемые задания и дожидается их завершения
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            server.close();
+        } catch (IOException e) {
+            log.error("Не удалось закрыть сокет демона: {}", e.getMessage());
+        }
+        for (FilesManager manager : active) {
+            manager.stop();
+        }
+        jobs.shutdown();
+        try {
+            if (!jobs.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                log.warn("Не удалось дождаться завершения заданий");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            Files.deleteIfExists(socket);
+        } catch (IOException e) {
+            log.error("Не удалось удалить сокет {}: {}", socket, e.getMessage());
+        }
+        log.info("Демон остановлен");
+    }
+
+    /**
+     * @return true если к сокету удается подключиться
+     */
+    private static boolean isAlive(Path socket) {
+        try (SocketChannel probe = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+            probe.connect(UnixDomainSocketAddress.of(socket));
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void serveClient(SocketChannel client, long id) {
+        try (client) {
+            val in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(client)));
+            val out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(client)));
+            val request = DaemonProtocol.readRequest(in);
+            log.info("Задание {}: {}", id, String.join(" ", request.args()));
+            int status;
+            try {
+                status = runJob(request, id, out);
+            } catch (RuntimeException e) {
+                log.error("Задание {} завершилось непредвиденной ошибкой", id, e);
+                DaemonProtocol.writeLine(out, "Непредвиденная ошибка: " + e);
+                status = DaemonProtocol.EXIT_FAILED;
+            }
+            DaemonProtocol.writeExit(out, status);
+            log.info("Задание {} завершено с кодом {}", id, status);
+        } catch (IOException e) {
+            log.error("Ошибка связи с клиентом задания {}: {}", id, e.getMessage());
+        }
+    }
+
+    /**
+     * Выполняет задание: разбирает аргументы, разрешает пути относительно рабочей директории клиента
+     * и обрабатывает файлы, после чего отправляет клиенту статистику
+     *
+     * @return код завершения задания
+     */
+    private int runJob(DaemonProtocol.Request request, long id, DataOutputStream out) throws IOException {
+        Path workingDir = Paths.get(request.workingDir());
+        CliArgumentsModel args = ArgumentsParser.parse(resolveTypesFile(request.args(), workingDir));
+        if (!args.isValid() || args.getDaemonSocket() != null) {
+            DaemonProtocol.writeLine(out, "Некорректные аргументы задания, подробности в логе демона");
+            return DaemonProtocol.EXIT_INVALID_ARGS;
+        }
+        if (args.isFollowMode() || Arrays.asList(args.getInputFiles()).contains(STDIN)) {
+            DaemonProtocol.writeLine(out, "Демон не поддерживает стандартный ввод и режим отслеживания файлов");
+            return DaemonProtocol.EXIT_INVALID_ARGS;
+        }
+        if (args.isMergeShards()) {
+            DaemonProtocol.writeLine(out, "Демон не объединяет результаты частей, используйте --merge-shards без демона");
+            return DaemonProtocol.EXIT_INVALID_ARGS;
+        }
+        resolvePaths(args, workingDir);
+
+        Path output = Paths.get(args.getOutputPath()).resolve(args.getPrefix() + "*").normalize();
+        ReentrantLock lock = outputLocks.computeIfAbsent(output, key -> new ReentrantLock());
+        lock.lock();
+        try {
+            if (closed) {
+                DaemonProtocol.writeLine(out, "Демон остановлен");
+                return DaemonProtocol.EXIT_FAILED;
+            }
+            FilesManager manager = new FilesManager(args);
+            manager.getMetrics().setJob(String.valueOf(id));
+            active.add(manager);
+            try {
+                val stats = manager.processFiles();
+                manager.closeWriters();
+                for (String line : stats.formatAllStats(args.isFullStats())) {
+                    DaemonProtocol.writeLine(out, line);
+                }
+                return reportErrors(manager.getErrors(), out);
+            } finally {
+                active.remove(manager);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Передает клиенту сообщения об ошибках чтения и записи файлов задания
+     *
+     * @return {@link DaemonProtocol#EXIT_FAILED}, если ошибки были, иначе {@link DaemonProtocol#EXIT_OK}
+     */
+    private static int reportErrors(ProcessingErrors errors, DataOutputStream out) throws IOException {
+        if (errors.isEmpty()) {
+            return DaemonProtocol.EXIT_OK;
+        }
+        List<String> messages = errors.getMessages();
+        for (String message : messages) {
+            DaemonProtocol.writeLine(out, message);
+        }
+        if (errors.getCount() > messages.size()) {
+            DaemonProtocol.writeLine(out, String.format("И еще ошибок: %d, подробности в логе демона",
+                    errors.getCount() - messages.size()));
+        }
+        return DaemonProtocol.EXIT_FAILED;
+    }
+
+    /**
+     * Файл типов читается при разборе аргументов, поэтому его путь разрешается относительно
+     * рабочей директории клиента заранее
+     *
+     * @return аргументы задания с абсолютным путем к файлу типов
+     */
+    private static String[] resolveTypesFile(List<String> args, Path workingDir) {
+        String[] resolved = args.toArray(String[]::new);
+        for (int i = 0; i < resolved.length; i++) {
+            if (resolved[i].equals(TYPES_OPTION) && i + 1 < resolved.length) {
+                resolved[i + 1] = workingDir.resolve(resolved[i + 1]).toString();
+                i++;
+            } else if (resolved[i].startsWith(TYPES_OPTION + "=")) {
+                String file = resolved[i].substring(TYPES_OPTION.length() + 1);
+                resolved[i] = TYPES_OPTION + "=" + workingDir.resolve(file);
+            } else if (resolved[i].equals("--")) {
+                break;
+            }
+        }
+        return resolved;
+    }
+
+    /**
+     * Разрешает пути входных файлов, выходной директории и кэша относительно рабочей директории клиента
+     */
+    private static void resolvePaths(CliArgumentsModel args, Path workingDir) {
+        args.setOutputPath(workingDir.resolve(args.getOutputPath()).toString());
+        args.setInputFiles(Arrays.stream(args.getInputFiles())
+                .map(file -> workingDir.resolve(file).toString())
+                .toArray(String[]::new));
+        if (args.getCacheDir() != null) {
+            args.setCacheDir(workingDir.resolve(args.getCacheDir()).toString());
+        }
+    }
+
+    /**
+     * Прогревает JIT обработкой сгенерированного файла во всех основных режимах чтения,
+     * чтобы первые задания не выполнялись интерпретатором
+     */
+    private void warmUp() {
+        long start = System.nanoTime();
+        Path dir = null;
+        try {
+            dir = Files.createTempDirectory("file_util-warm-up");
+            Path input = dir.resolve("input.txt");
+            StringBuilder content = new StringBuilder();
+            Random random = new Random(1);
+            for (int i = 0; i < WARM_UP_LINES; i++) {
+                switch (i % 3) {
+                    case 0 -> content.append(random.nextLong());
+                    case 1 -> content.append(random.nextDouble() * 1000);
+                    default -> content.append("warm up line ").append(i);
+                }
+                content.append('\n');
+            }
+            Files.writeString(input, content);
+            String out = dir.resolve("out").toString();
+            for (int round = 0; round < WARM_UP_ROUNDS; round++) {
+                // Побайтовое и построчное чтение
+                for (String[] args : new String[][]{{"-f", "-m", "-o", out, input.toString()}, {"-f", "-o", out, input.toString()}}) {
+                    val manager = new FilesManager(ArgumentsParser.parse(args));
+                    manager.processFiles();
+                    manager.closeWriters();
+                }
+            }
+            log.info("Прогрев выполнен за {} мс", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } catch (IOException e) {
+            log.warn("Прогрев не выполнен: {}", e.getMessage());
+        } finally {
+            deleteRecursively(dir);
+        }
+    }
+
+    private static void deleteRecursively(Path dir) {
+        if (dir == null) {
+            return;
+        }
+        try (val files = Files.walk(dir)) {
+            for (Path file : files.sorted((a, b) -> b.compareTo(a)).toList()) {
+                Files.deleteIfExists(file);
+            }
+        } catch (IOException e) {
+            log.warn("Не удалось удалить временную директорию {}: {}", dir, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package ru.paskal.distinct;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongConsumer;
+
+/**
+ * Компактное множество байтовых строк вне кучи. Строки хранятся подряд в страницах-арене как длина и байты,
+ * а таблица с открытой адресацией хранит для каждой строки одно long: признак занятости, 23 бита хеша
+ * для быстрого отсева несовпадающих строк, номер страницы и смещение в ней. Строки длиннее страницы
+ * получают отдельную страницу. Объекты на каждую строку не создаются, сравнение выполняется по 8 байтов.
+ * <p>
+ * Новую строку сначала проверяют методом {@link #contains(byte[], int, long)}, затем владелец проверяет бюджет
+ * памяти для {@link #growBytes()} и {@link #arenaBytes(int)} и сразу после этого добавляет ее методом
+ * {@link #insert(byte[], int, long, PageStore)}.
+ */
+final class BytesHashSet {
+    private static final int PAGE_SHIFT = 24;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int FIRST_PAGE_SIZE = 1 << 16;
+    private static final int MAX_PAGES = 1 << 16;
+    private static final long OCCUPIED = 1L << 63;
+    private static final int FINGERPRINT_SHIFT = 40;
+    private static final long FINGERPRINT_MASK = (1L << 23) - 1;
+
+    private LongPages table;
+    private long mask;
+    private long size = 0;
+    private final List<ByteBuffer> pages = new ArrayList<>();
+    /**
+     * Страница, в которую добавляются строки, и позиция в ней; -1 пока страниц нет
+     */
+    private int current = -1;
+    private int position = 0;
+    private long arenaBytes = 0;
+    /**
+     * Пустая ячейка, на которой остановился последний {@link #contains(byte[], int, long)}, -1 после расширения
+     */
+    private long vacant = -1;
+    /**
+     * Ячейка строки, добавленной последней
+     */
+    private long lastSlot = -1;
+
+    BytesHashSet(PageStore store) throws IOException {
+        this.table = new LongPages(LongHashSet.MIN_CAPACITY, store);
+        this.mask = LongHashSet.MIN_CAPACITY - 1;
+    }
+
+    /**
+     * @param key    строка в начале массива
+     * @param length длина строки
+     * @param hash   хеш строки {@link Hashing#hash(byte[], int)}
+     * @return true если строка есть в множестве
+     */
+    boolean contains(byte[] key, int length, long hash) {
+        long fingerprint = fingerprint(hash);
+        long i = hash & mask;
+        while (true) {
+            long slot = table.get(i);
+            if (slot == 0) {
+                vacant = i;
+                return false;
+            }
+            if ((slot & ~((1L << FINGERPRINT_SHIFT) - 1)) == fingerprint && equalsAt(slot, key, length)) {
+                return true;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    /**
+     * Добавляет строку, которой нет в множестве. Если таблица не расширялась после проверки строки,
+     * используется найденная при проверке пустая ячейка
+     *
+     * @param store источник страниц арены
+     */
+    void insert(byte[] key, int length, long hash, PageStore store) throws IOException {
+        long location = store(key, length, store);
+        long i = vacant;
+        if (i < 0) {
+            i = hash & mask;
+            while (table.get(i) != 0) {
+                i = (i + 1) & mask;
+            }
+        }
+        vacant = -1;
+        table.set(i, fingerprint(hash) | location);
+        lastSlot = i;
+        size++;
+    }
+
+    /**
+     * Удаляет строку, добавленную последней, если после нее ничего не добавлялось.
+     * Место строки в арене не освобождается
+     */
+    void undoInsert() {
+        table.set(lastSlot, 0);
+        vacant = -1;
+        size--;
+    }
+
+    /**
+     * @return true если перед добавлением новой строки таблицу нужно расширить
+     */
+    boolean isFull() {
+        long capacity = mask + 1;
+        return size >= capacity >>> 1;
+    }
+
+    /**
+     * @return прирост памяти при расширении таблицы
+     */
+    long growBytes() {
+        return table.bytes();
+    }
+
+    /**
+     * @param length длина новой строки
+     * @return объем новой страницы арены, необходимой для строки, или 0, если строка помещается в текущую
+     */
+    long arenaBytes(int length) {
+        int need = Integer.BYTES + length;
+        if (current >= 0 && pages.get(current).capacity() - position >= need) {
+            return 0;
+        }
+        return need > PAGE_SIZE ? need : nextPageSize();
+    }
+
+    /**
+     * Переносит строки в таблицу вдвое большего размера, хеши вычисляются заново по хранимым байтам
+     *
+     * @param store источник страниц новой таблицы
+     */
+    void grow(PageStore store) throws IOException {
+        LongPages grown = new LongPages(table.length() << 1, store);
+        long grownMask = grown.length() - 1;
+        byte[] scratch = new byte[64];
+        for (long j = 0; j < table.length(); j++) {
+            long slot = table.get(j);
+            if (slot == 0) {
+                continue;
+            }
+            scratch = read(slot, scratch);
+            long i = Hashing.hash(scratch, lengthAt(slot)) & grownMask;
+            while (grown.get(i) != 0) {
+                i = (i + 1) & grownMask;
+            }
+            grown.set(i, slot);
+        }
+        table = grown;
+        mask = grownMask;
+        vacant = -1;
+    }
+
+    /**
+     * @param action действие для хеша каждой строки множества
+     */
+    void forEachHash(LongConsumer action) {
+        byte[] scratch = new byte[64];
+        for (long j = 0; j < table.length(); j++) {
+            long slot = table.get(j);
+            if (slot != 0) {
+                scratch = read(slot, scratch);
+                action.accept(Hashing.hash(scratch, lengthAt(slot)));
+            }
+        }
+    }
+
+    long size() {
+        return size;
+    }
+
+    /**
+     * @return объем таблицы и арены в байтах
+     */
+    long bytes() {
+        return table.bytes() + arenaBytes;
+    }
+
+    private static long fingerprint(long hash) {
+        return OCCUPIED | ((hash >>> 41) & FINGERPRINT_MASK) << FINGERPRINT_SHIFT;
+    }
+
+    /**
+     * Копирует строку в арену
+     *
+     * @return номер страницы и смещение строки
+     */
+    private long store(byte[] key, int length, PageStore store) throws IOException {
+        int need = Integer.BYTES + length;
+        int index;
+        int offset;
+        if (need > PAGE_SIZE) {
+            index = addPage(need, store);
+            offset = 0;
+        } else {
+            if (current < 0 || pages.get(current).capacity() - position < need) {
+                current = addPage(nextPageSize(), store);
+                position = 0;
+            }
+            index = current;
+            offset = position;
+            position += need;
+        }
+        ByteBuffer page = pages.get(index);
+        page.putInt(offset, length);
+        page.put(offset + Integer.BYTES, key, 0, length);
+        return (long) index << PAGE_SHIFT | offset;
+    }
+
+    /**
+     * @return номер новой страницы
+     */
+    private int addPage(int bytes, PageStore store) throws IOException {
+        if (pages.size() == MAX_PAGES) {
+            throw new IOException("Превышено количество страниц множества строк");
+        }
+        pages.add(store.allocate(bytes));
+        arenaBytes += bytes;
+        return pages.size() - 1;
+    }
+
+    private int nextPageSize() {
+        return current < 0 ? FIRST_PAGE_SIZE : Math.min(PAGE_SIZE, pages.get(current).capacity() << 1);
+    }
+
+    private ByteBuffer pageOf(long slot) {
+        return pages.get((int) (slot >>> PAGE_SHIFT) & (MAX_PAGES - 1));
+    }
+
+    private int lengthAt(long slot) {
+        return pageOf(slot).getInt((int) (slot & (PAGE_SIZE - 1)));
+    }
+
+    private boolean equalsAt(long slot, byte[] key, int length) {
+        ByteBuffer page = pageOf(slot);
+        int offset = (int) (slot & (PAGE_SIZE - 1));
+        if (page.getInt(offset) != length) {
+            return false;
+        }
+        int from = offset + Integer.BYTES;
+        int i = 0;
+        for (; i + Long.BYTES <= length; i += Long.BYTES) {
+            if (page.getLong(from + i) != Hashing.readLong(key, i)) {
+                return false;
+            }
+        }
+        for (; i < length; i++) {
+            if (page.get(from + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return массив с байтами строки, тот же или новый, если строка в него не помещается
+     */
+    private byte[] read(long slot, byte[] scratch) {
+        ByteBuffer page = pageOf(slot);
+        int offset = (int) (slot & (PAGE_SIZE - 1));
+        int length = page.getInt(offset);
+        if (scratch.length < length) {
+            scratch = new byte[length];
+        }
+        page.get(offset + Integer.BYTES, scratch, 0, length);
+        return scratch;
+    }
+}
@@ -0,0 +1,266 @@
+package ru.paskal.distinct;
+
+import lombok.extern.slf4j.Slf4j;
+import ru.paskal.io.AsciiByteSequence;
+import ru.paskal.utils.StringTypesEnum;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Отбор первых вхождений значений каждого типа для режима без повторов. Целые числа сравниваются по значению,
+ * дробные - по значению double (0.0 и -0.0 совпадают), строки - по байтам в UTF-8.
+ * <p>
+ * Числа хранятся в {@link LongHashSet}, строки в {@link BytesHashSet}, все таблицы находятся вне кучи
+ * и вместе не превышают заданного бюджета памяти (во время расширения таблицы временно занята и старая).
+ * Множество, которому не хватило бюджета, продолжает работу в соответствии с {@link Overflow}:
+ * заменяется фильтром Блума того же объема или вытесняется в отображенные в память временные файлы.
+ * Не потокобезопасен.
+ */
+@Slf4j
+public class DistinctFilter {
+    /**
+     * Поведение множества, превысившего бюджет памяти
+     */
+    public enum Overflow {
+        /**
+         * Значения множества переносятся в {@link BloomFilter}: повторы по-прежнему отбрасываются всегда,
+         * но небольшая доля новых значений ошибочно считается повторами
+         */
+        BLOOM,
+        /**
+         * Множество остается точным, а новые таблицы и страницы создаются в отображенных в память временных файлах,
+         * которые операционная система вытесняет на диск
+         */
+        SPILL
+    }
+
+    private final long memoryLimit;
+    private final Overflow overflow;
+    private final Path spillDir;
+    private final Map<StringTypesEnum, Tracker> trackers = new EnumMap<>(StringTypesEnum.class);
+    private long memoryUsed = 0;
+    private byte[] scratch = new byte[256];
+
+    /**
+     * @param memoryLimit бюджет памяти всех множеств в байтах
+     * @param overflow    поведение при превышении бюджета
+     * @param spillDir    директория временных файлов для {@link Overflow#SPILL}
+     */
+    public DistinctFilter(long memoryLimit, Overflow overflow, Path spillDir) throws IOException {
+        this.memoryLimit = memoryLimit;
+        this.overflow = overflow;
+        this.spillDir = spillDir;
+        for (StringTypesEnum type : StringTypesEnum.values()) {
+            trackers.put(type, new Tracker(type));
+        }
+    }
+
+    /**
+     * @return true если целое число встретилось впервые
+     */
+    public boolean addInteger(long value) throws IOException {
+        return trackers.get(StringTypesEnum.INTEGER).addLong(value);
+    }
+
+    /**
+     * @return true если дробное число встретилось впервые
+     */
+    public boolean addFloat(double value) throws IOException {
+        return trackers.get(StringTypesEnum.FLOAT).addLong(value == 0 ? 0 : Double.doubleToLongBits(value));
+    }
+
+    /**
+     * @return true если строка встретилась впервые
+     */
+    public boolean addString(CharSequence line) throws IOException {
+        int length = line.length();
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length << 1)];
+        }
+        if (line instanceof AsciiByteSequence ascii) {
+            ascii.copyTo(scratch, 0);
+            return trackers.get(StringTypesEnum.STRING).addBytes(scratch, length);
+        }
+        for (int i = 0; i < length; i++) {
+            char c = line.charAt(i);
+            if (c >= 0x80) {
+                byte[] utf8 = line.toString().getBytes(StandardCharsets.UTF_8);
+                return trackers.get(StringTypesEnum.STRING).addBytes(utf8, utf8.length);
+            }
+            scratch[i] = (byte) c;
+        }
+        return trackers.get(StringTypesEnum.STRING).addBytes(scratch, length);
+    }
+
+    /**
+     * Отменяет последнее добавление значения типа, если оно вернуло true, например когда значение не удалось
+     * записать: значение снова считается новым. Вызывается до следующего добавления значения того же типа
+     *
+     * @param type тип строк
+     */
+    public void undoAdd(StringTypesEnum type) {
+        trackers.get(type).undo();
+    }
+
+    /**
+     * @param type тип строк
+     * @return количество отброшенных повторов
+     */
+    public long getRepeats(StringTypesEnum type) {
+        return trackers.get(type).repeats;
+    }
+
+    /**
+     * @param type тип строк
+     * @return оценка вероятности принять новое значение за повтор или 0, если множество точное
+     */
+    public double getFalsePositiveRate(StringTypesEnum type) {
+        BloomFilter bloom = trackers.get(type).bloom;
+        return bloom != null ? bloom.falsePositiveRate() : 0;
+    }
+
+    /**
+     * Выводит в лог количество отброшенных повторов каждого типа и точность отбора
+     */
+    public void logSummary() {
+        for (Tracker tracker : trackers.values()) {
+            if (tracker.bloom != null) {
+                log.info("Отброшено повторов типа {}: {} из {}, фильтр Блума, оценка доли ошибочно отброшенных новых значений {}",
+                        tracker.type, tracker.repeats, tracker.values,
+                        "%.4f%%".formatted(100 * tracker.bloom.falsePositiveRate()));
+            } else if (tracker.spilled) {
+                log.info("Отброшено повторов типа {}: {} из {}, множество вытеснено во временные файлы",
+                        tracker.type, tracker.repeats, tracker.values);
+            } else {
+                log.info("Отброшено повторов типа {}: {} из {}", tracker.type, tracker.repeats, tracker.values);
+            }
+        }
+    }
+
+    /**
+     * Множество значений одного типа и его счетчики
+     */
+    private final class Tracker {
+        private final StringTypesEnum type;
+        private LongHashSet longs;
+        private BytesHashSet strings;
+        private BloomFilter bloom;
+        private PageStore store = PageStore.direct();
+        private boolean spilled = false;
+        private long values = 0;
+        private long repeats = 0;
+        /**
+         * Последнее значение было добавлено, а не отброшено, и его добавление можно отменить
+         */
+        private boolean undoable = false;
+
+        Tracker(StringTypesEnum type) throws IOException {
+            this.type = type;
+            if (type == StringTypesEnum.STRING) {
+                strings = new BytesHashSet(store);
+                memoryUsed += strings.bytes();
+            } else {
+                longs = new LongHashSet(store);
+                memoryUsed += longs.bytes();
+            }
+        }
+
+        boolean addLong(long key) throws IOException {
+            values++;
+            undoable = false;
+            if (bloom == null && longs.isFull() && reserve(longs.bytes())) {
+                longs.grow(store);
+            }
+            boolean added = bloom != null ? bloom.add(Hashing.mix(key)) : longs.add(key);
+            return count(added);
+        }
+
+        boolean addBytes(byte[] key, int length) throws IOException {
+            values++;
+            undoable = false;
+            long hash = Hashing.hash(key, length);
+            if (bloom == null) {
+                if (strings.contains(key, length, hash)) {
+                    return count(false);
+                }
+                long extra = (strings.isFull() ? strings.growBytes() : 0) + strings.arenaBytes(length);
+                if (reserve(extra)) {
+                    if (strings.isFull()) {
+                        strings.grow(store);
+                    }
+                    strings.insert(key, length, hash, store);
+                    return count(true);
+                }
+            }
+            return count(bloom.add(hash));
+        }
+
+        private boolean count(boolean added) {
+            if (!added) {
+                repeats++;
+            }
+            undoable = added;
+            return added;
+        }
+
+        void undo() {
+            if (!undoable) {
+                return;
+            }
+            undoable = false;
+            if (bloom != null) {
+                bloom.undoAdd();
+            } else if (longs != null) {
+                longs.undoAdd();
+            } else {
+                strings.undoInsert();
+            }
+        }
+
+        /**
+         * Проверяет, помещается ли расширение множества в бюджет. При превышении бюджета множество
+         * вытесняется во временные файлы или заменяется фильтром Блума
+         *
+         * @param extra прирост памяти
+         * @return true если множество можно расширить, false если оно заменено фильтром Блума
+         */
+        private boolean reserve(long extra) throws IOException {
+            if (extra == 0 || spilled) {
+                return true;
+            }
+            if (memoryUsed + extra <= memoryLimit) {
+                memoryUsed += extra;
+                return true;
+            }
+            if (overflow == Overflow.SPILL) {
+                log.warn("Множество значений типа {} превысило бюджет памяти после {} различных значений " +
+                        "и продолжается во временных файлах в {}", type, size(), spillDir);
+                spilled = true;
+                store = PageStore.mapped(spillDir);
+                return true;
+            }
+            long setBytes = longs != null ? longs.bytes() : strings.bytes();
+            BloomFilter filter = new BloomFilter(setBytes, PageStore.direct());
+            if (longs != null) {
+                longs.forEach(key -> filter.add(Hashing.mix(key)));
+            } else {
+                strings.forEachHash(filter::add);
+            }
+            log.warn("Множество значений типа {} превысило бюджет памяти после {} различных значений, " +
+                    "далее повторы отбираются фильтром Блума объемом {} байт", type, size(), filter.bytes());
+            memoryUsed += filter.bytes() - setBytes;
+            bloom = filter;
+            longs = null;
+            strings = null;
+            return false;
+        }
+
+        private long size() {
+            return longs != null ? longs.size() : strings.size();
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package ru.paskal.distinct;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * 64-битные хеши значений и байтовых строк для множеств и фильтра Блума
+ */
+final class Hashing {
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    private Hashing() {
+    }
+
+    /**
+     * Финальное перемешивание MurmurHash3, взаимно однозначно
+     */
+    static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * @param bytes  массив байтов
+     * @param length длина строки в начале массива
+     * @return хеш строки байтов
+     */
+    static long hash(byte[] bytes, int length) {
+        long h = length * C2;
+        int i = 0;
+        for (; i + Long.BYTES <= length; i += Long.BYTES) {
+            h = Long.rotateLeft(h ^ (long) LONGS.get(bytes, i) * C1, 31) * C2;
+        }
+        long tail = 0;
+        for (int shift = 0; i < length; i++, shift += 8) {
+            tail |= (bytes[i] & 0xFFL) << shift;
+        }
+        return mix(h ^ tail * C1);
+    }
+
+    /**
+     * @return первые 8 байтов строки начиная с позиции в порядке little-endian
+     */
+    static long readLong(byte[] bytes, int index) {
+        return (long) LONGS.get(bytes, index);
+    }
+}
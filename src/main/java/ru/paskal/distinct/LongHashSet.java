@@ -0,0 +1,128 @@
+package ru.paskal.distinct;
+
+import java.io.IOException;
+import java.util.function.LongConsumer;
+
+/**
+ * Множество long с открытой адресацией и линейным пробированием в таблице вне кучи.
+ * Пустая ячейка хранит 0, поэтому наличие нуля хранится отдельно. Таблица расширяется вдвое при заполнении
+ * наполовину, чтобы цепочки пробирования оставались короткими. Расширение выполняет метод {@link #grow(PageStore)},
+ * который вызывает владелец после проверки бюджета памяти
+ */
+final class LongHashSet {
+    static final int MIN_CAPACITY = 1 << 10;
+
+    private LongPages table;
+    private long mask;
+    private long size = 0;
+    private boolean hasZero = false;
+    /**
+     * Ячейка значения, добавленного последним, -1 для нуля
+     */
+    private long lastSlot = -1;
+
+    LongHashSet(PageStore store) throws IOException {
+        this.table = new LongPages(MIN_CAPACITY, store);
+        this.mask = MIN_CAPACITY - 1;
+    }
+
+    /**
+     * @return true если значения не было в множестве
+     */
+    boolean add(long key) {
+        if (key == 0) {
+            if (hasZero) {
+                return false;
+            }
+            hasZero = true;
+            lastSlot = -1;
+            size++;
+            return true;
+        }
+        long i = Hashing.mix(key) & mask;
+        while (true) {
+            long stored = table.get(i);
+            if (stored == 0) {
+                table.set(i, key);
+                lastSlot = i;
+                size++;
+                return true;
+            }
+            if (stored == key) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    /**
+     * Удаляет значение, добавленное последним. Значение занимало пустую ячейку в конце своей цепочки,
+     * поэтому, если после него ничего не добавлялось, очистка ячейки возвращает таблицу в прежнее состояние
+     */
+    void undoAdd() {
+        if (lastSlot < 0) {
+            hasZero = false;
+        } else {
+            table.set(lastSlot, 0);
+        }
+        size--;
+    }
+
+    /**
+     * @return true если перед добавлением нового значения таблицу нужно расширить
+     */
+    boolean isFull() {
+        long capacity = mask + 1;
+        return size >= capacity >>> 1;
+    }
+
+    /**
+     * Переносит значения в таблицу вдвое большего размера
+     *
+     * @param store источник страниц новой таблицы
+     */
+    void grow(PageStore store) throws IOException {
+        LongPages old = table;
+        LongPages grown = new LongPages(old.length() << 1, store);
+        long grownMask = grown.length() - 1;
+        for (long j = 0; j < old.length(); j++) {
+            long key = old.get(j);
+            if (key == 0) {
+                continue;
+            }
+            long i = Hashing.mix(key) & grownMask;
+            while (grown.get(i) != 0) {
+                i = (i + 1) & grownMask;
+            }
+            grown.set(i, key);
+        }
+        table = grown;
+        mask = grownMask;
+    }
+
+    /**
+     * @param action действие для каждого значения множества
+     */
+    void forEach(LongConsumer action) {
+        if (hasZero) {
+            action.accept(0);
+        }
+        for (long i = 0; i < table.length(); i++) {
+            long key = table.get(i);
+            if (key != 0) {
+                action.accept(key);
+            }
+        }
+    }
+
+    long size() {
+        return size;
+    }
+
+    /**
+     * @return объем таблицы в байтах
+     */
+    long bytes() {
+        return table.bytes();
+    }
+}
@@ -0,0 +1,48 @@
+package ru.paskal.distinct;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Массив long вне кучи, разбитый на страницы по 2<sup>{@value #PAGE_SHIFT}</sup> элементов,
+ * так как один буфер ограничен 2 ГБ
+ */
+final class LongPages {
+    private static final int PAGE_SHIFT = 24;
+    private static final long PAGE_MASK = (1L << PAGE_SHIFT) - 1;
+
+    private final ByteBuffer[] pages;
+    private final long length;
+
+    /**
+     * @param length количество элементов
+     * @param store  источник страниц
+     */
+    LongPages(long length, PageStore store) throws IOException {
+        this.length = length;
+        this.pages = new ByteBuffer[(int) ((length + PAGE_MASK) >>> PAGE_SHIFT)];
+        for (int i = 0; i < pages.length; i++) {
+            long elements = Math.min(length - ((long) i << PAGE_SHIFT), 1L << PAGE_SHIFT);
+            pages[i] = store.allocate((int) (elements << 3));
+        }
+    }
+
+    long get(long index) {
+        return pages[(int) (index >>> PAGE_SHIFT)].getLong((int) (index & PAGE_MASK) << 3);
+    }
+
+    void set(long index, long value) {
+        pages[(int) (index >>> PAGE_SHIFT)].putLong((int) (index & PAGE_MASK) << 3, value);
+    }
+
+    long length() {
+        return length;
+    }
+
+    /**
+     * @return объем памяти в байтах
+     */
+    long bytes() {
+        return length << 3;
+    }
+}
@@ -0,0 +1,51 @@
+package ru.paskal.distinct;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Источник обнуленных страниц памяти вне кучи для таблиц множеств. Страницы освобождаются сборщиком мусора
+ * вместе с последней ссылкой на них. Порядок байтов страниц - little-endian
+ */
+interface PageStore {
+    /**
+     * @param bytes размер страницы
+     * @return обнуленная страница
+     */
+    ByteBuffer allocate(int bytes) throws IOException;
+
+    /**
+     * @return страницы в прямых буферах
+     */
+    static PageStore direct() {
+        return bytes -> ByteBuffer.allocateDirect(bytes).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Страницы отображаются в память из временных файлов, поэтому их содержимое вытесняется на диск
+     * операционной системой. Файл удаляется сразу после отображения, а где это невозможно - при завершении программы
+     *
+     * @param dir директория временных файлов
+     * @return страницы в отображенных в память файлах
+     */
+    static PageStore mapped(Path dir) {
+        return bytes -> {
+            Files.createDirectories(dir);
+            Path file = Files.createTempFile(dir, ".file_util-distinct-", ".tmp");
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                return channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes).order(ByteOrder.LITTLE_ENDIAN);
+            } finally {
+                try {
+                    Files.delete(file);
+                } catch (IOException e) {
+                    file.toFile().deleteOnExit();
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,94 @@
+package ru.paskal.io;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Переиспользуемое представление диапазона байтов ASCII из {@link ByteBuffer} в виде {@link CharSequence}.
+ * Позволяет классифицировать и записывать строки входного файла без декодирования и создания {@link String},
+ * строка создается только в {@link #toString()}, когда она действительно нужна потребителю.
+ * Объект изменяемый и не потокобезопасный.
+ */
+public class AsciiByteSequence implements CharSequence {
+    private ByteBuffer buffer;
+    private int start;
+    private int length;
+
+    /**
+     * Перенастраивает представление на новый диапазон байтов
+     *
+     * @param buffer буфер с данными
+     * @param start  начало диапазона
+     * @param end    конец диапазона (не включительно)
+     * @return это же представление
+     */
+    public AsciiByteSequence set(ByteBuffer buffer, int start, int end) {
+        this.buffer = buffer;
+        this.start = start;
+        this.length = end - start;
+        return this;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return (char) buffer.get(start + index);
+    }
+
+    @Override
+    public CharSequence subSequence(int from, int to) {
+        return new AsciiByteSequence().set(buffer, start + from, start + to);
+    }
+
+    /**
+     * Копирует байты представления в массив
+     *
+     * @param dst    массив назначения
+     * @param offset смещение в массиве назначения
+     */
+    public void copyTo(byte[] dst, int offset) {
+        buffer.get(start, dst, offset, length);
+    }
+
+    /**
+     * Копирует байты представления в буфер с его текущей позиции и сдвигает позицию
+     *
+     * @param dst буфер назначения, должен вмещать всю строку
+     */
+    public void copyTo(ByteBuffer dst) {
+        int position = dst.position();
+        dst.put(position, buffer, start, length);
+        dst.position(position + length);
+    }
+
+    @Override
+    public String toString() {
+        byte[] bytes = new byte[length];
+        copyTo(bytes, 0);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Проверяет, что кодировка кодирует символы ASCII теми же байтами,
+     * а байты ASCII не встречаются внутри многобайтовых символов других строк,
+     * что позволяет искать переводы строк и обрабатывать ASCII строки на уровне байтов
+     *
+     * @param charset проверяемая кодировка
+     * @return true если кодировка совместима с ASCII
+     */
+    public static boolean isAsciiCompatible(Charset charset) {
+        byte[] ascii = new byte[128];
+        char[] chars = new char[128];
+        for (int i = 0; i < 128; i++) {
+            ascii[i] = (byte) i;
+            chars[i] = (char) i;
+        }
+        return charset.canEncode() && Arrays.equals(ascii, new String(chars).getBytes(charset));
+    }
+}
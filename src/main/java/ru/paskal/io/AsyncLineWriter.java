@@ -0,0 +1,238 @@
+package ru.paskal.io;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Запись строк в отдельном потоке. Строки кодируются в буферы в потоке обработки, заполненные буферы передаются
+ * через ограниченную очередь потоку записи, который записывает их в {@link LineWriter} выходного файла.
+ * Медленная запись одного файла не задерживает обработку, пока в очереди есть место; при заполненной очереди
+ * поток обработки ждет (обратное давление), поэтому объем данных в памяти ограничен {@link #QUEUE_CAPACITY} буферами.
+ * <p>
+ * Сброс, закрытие и перенос диапазонов других файлов передаются той же очередью, что и данные. Ошибка записи
+ * сохраняется потоком записи и выбрасывается при следующем обращении к этому объекту. {@link #flush()} дожидается
+ * записи всех переданных буферов и диапазонов и сброса файла.
+ */
+public class AsyncLineWriter extends BufferedLineWriter {
+    private static final int QUEUE_CAPACITY = 4;
+
+    /**
+     * Задание потока записи: блок данных, диапазон файла при {@code append != null}
+     * или, при {@code done != null}, действие с файлом {@code control}
+     */
+    private record Task(byte[] data, int length, Append append, Control control, CountDownLatch done) {
+    }
+
+    /**
+     * Действие с файлом, выполнения которого дожидается поток обработки
+     */
+    private enum Control {
+        FLUSH, SYNC, CLOSE
+    }
+
+    /**
+     * Диапазон файла для переноса и действие после переноса
+     */
+    private record Append(FileChannel src, long position, long count, Runnable onDone) {
+    }
+
+    private final LineWriter delegate;
+    private final int bufferSize;
+    private final BlockingQueue<Task> tasks = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final BlockingQueue<byte[]> freeBuffers = new ArrayBlockingQueue<>(QUEUE_CAPACITY + 1);
+    private final Thread thread;
+    private volatile IOException error;
+    private boolean closed = false;
+
+    /**
+     * @param delegate   запись в выходной файл, используется только потоком записи
+     * @param bufferSize объем буфера, передаваемого потоку записи
+     * @param name       имя потока записи
+     */
+    public AsyncLineWriter(LineWriter delegate, int bufferSize, String name) {
+        super(new byte[bufferSize]);
+        this.delegate = delegate;
+        this.bufferSize = bufferSize;
+        this.thread = new Thread(this::run, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                Task task = tasks.take();
+                if (task.append() != null) {
+                    transfer(task.append());
+                    continue;
+                }
+                if (task.done() == null) {
+                    write(task);
+                    continue;
+                }
+                try {
+                    if (task.control() == Control.CLOSE) {
+                        delegate.close();
+                    } else if (error == null && task.control() == Control.SYNC) {
+                        delegate.sync();
+                    } else if (error == null) {
+                        delegate.flush();
+                    }
+                } catch (IOException e) {
+                    if (error == null) {
+                        error = e;
+                    }
+                }
+                task.done().countDown();
+                if (task.control() == Control.CLOSE) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            error = new InterruptedIOException("Запись была прервана");
+        }
+    }
+
+    /**
+     * После ошибки блоки пропускаются, чтобы поток обработки не ждал освобождения очереди
+     */
+    private void write(Task task) {
+        if (error == null) {
+            try {
+                delegate.writeEncoded(task.data(), 0, task.length());
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+        if (task.data().length == bufferSize) {
+            freeBuffers.offer(task.data());
+        }
+    }
+
+    /**
+     * Файл остается открытым до вызова {@code onDone}, который выполняется и после ошибки
+     */
+    private void transfer(Append append) {
+        try {
+            if (error == null) {
+                delegate.append(append.src(), append.position(), append.count());
+            }
+        } catch (IOException e) {
+            error = e;
+        } finally {
+            append.onDone().run();
+        }
+    }
+
+    @Override
+    protected byte[] drain(byte[] buffer, int length) throws IOException {
+        send(new Task(buffer, length, null, null, null));
+        byte[] next = freeBuffers.poll();
+        return next != null ? next : new byte[bufferSize];
+    }
+
+    @Override
+    protected void writeDirect(byte[] bytes, int offset, int length) throws IOException {
+        send(new Task(Arrays.copyOfRange(bytes, offset, offset + length), length, null, null, null));
+    }
+
+    /**
+     * Диапазон переносится потоком записи после переданных буферов. Метод дожидается переноса,
+     * так как файл может быть закрыт сразу после возврата из метода
+     */
+    @Override
+    public void append(FileChannel src, long position, long count) throws IOException {
+        CountDownLatch done = new CountDownLatch(1);
+        append(src, position, count, done::countDown);
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Запись была прервана");
+        }
+        checkError();
+    }
+
+    /**
+     * Диапазон передается потоку записи без ожидания переноса, поток обработки продолжает работу
+     */
+    @Override
+    public void append(FileChannel src, long position, long count, Runnable onDone) throws IOException {
+        try {
+            flushBuffer();
+            send(new Task(null, 0, new Append(src, position, count, onDone), null, null));
+        } catch (IOException | RuntimeException e) {
+            onDone.run();
+            throw e;
+        }
+    }
+
+    @Override
+    public void setFlushListener(FlushListener listener) {
+        delegate.setFlushListener(listener);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+        await(Control.FLUSH);
+        checkError();
+    }
+
+    @Override
+    public void sync() throws IOException {
+        flushBuffer();
+        await(Control.SYNC);
+        checkError();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            flushBuffer();
+        } finally {
+            await(Control.CLOSE);
+        }
+        checkError();
+    }
+
+    private void send(Task task) throws IOException {
+        checkError();
+        try {
+            tasks.put(task);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Запись была прервана");
+        }
+    }
+
+    /**
+     * Передает потоку записи действие с файлом и дожидается его выполнения
+     */
+    private void await(Control control) throws IOException {
+        CountDownLatch done = new CountDownLatch(1);
+        try {
+            tasks.put(new Task(null, 0, null, control, done));
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Запись была прервана");
+        }
+    }
+
+    private void checkError() throws IOException {
+        IOException e = error;
+        if (e != null) {
+            throw new IOException("Ошибка записи в потоке %s: %s".formatted(thread.getName(), e.getMessage()), e);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package ru.paskal.io;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * Основа буферизированной записи строк в системной кодировке.
+ * Строки ASCII копируются в буфер побайтно, без промежуточного кодирования,
+ * заполненный буфер передается наследнику методом {@link #drain(byte[], int)}.
+ */
+public abstract class BufferedLineWriter implements LineWriter {
+    private final Charset charset = Charset.defaultCharset();
+    private final boolean asciiCompatible = AsciiByteSequence.isAsciiCompatible(charset);
+    private final byte[] lineSeparator = System.lineSeparator().getBytes(charset);
+    private byte[] buffer;
+    private int position = 0;
+
+    /**
+     * @param buffer начальный буфер
+     */
+    protected BufferedLineWriter(byte[] buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * Передает заполненную часть буфера дальше
+     *
+     * @param buffer буфер
+     * @param length количество заполненных байтов
+     * @return буфер для дальнейшей записи, может быть тем же самым
+     */
+    protected abstract byte[] drain(byte[] buffer, int length) throws IOException;
+
+    /**
+     * Записывает данные, не помещающиеся в буфер, в обход него. Буфер к этому моменту уже передан дальше
+     */
+    protected abstract void writeDirect(byte[] bytes, int offset, int length) throws IOException;
+
+    @Override
+    public void writeLine(CharSequence line) throws IOException {
+        int len = line.length();
+        if (line instanceof AsciiByteSequence ascii) {
+            if (len > buffer.length) {
+                byte[] bytes = new byte[len];
+                ascii.copyTo(bytes, 0);
+                write(bytes, 0, len);
+            } else {
+                ensureCapacity(len);
+                ascii.copyTo(buffer, position);
+                position += len;
+            }
+        } else if (!asciiCompatible || len > buffer.length || !tryWriteAscii(line, len)) {
+            byte[] bytes = line.toString().getBytes(charset);
+            write(bytes, 0, bytes.length);
+        }
+        write(lineSeparator, 0, lineSeparator.length);
+    }
+
+    @Override
+    public void writeEncoded(byte[] bytes, int offset, int length) throws IOException {
+        write(bytes, offset, length);
+    }
+
+    /**
+     * Копирует строку в буфер, если она состоит только из символов ASCII
+     *
+     * @return false если строка содержит символы вне ASCII, в этом случае буфер не изменяется
+     */
+    private boolean tryWriteAscii(CharSequence line, int len) throws IOException {
+        ensureCapacity(len);
+        int pos = position;
+        for (int i = 0; i < len; i++) {
+            char c = line.charAt(i);
+            if (c >= 0x80) {
+                return false;
+            }
+            buffer[pos++] = (byte) c;
+        }
+        position = pos;
+        return true;
+    }
+
+    private void write(byte[] bytes, int offset, int length) throws IOException {
+        if (length > buffer.length) {
+            flushBuffer();
+            writeDirect(bytes, offset, length);
+            return;
+        }
+        ensureCapacity(length);
+        System.arraycopy(bytes, offset, buffer, position, length);
+        position += length;
+    }
+
+    private void ensureCapacity(int len) throws IOException {
+        if (buffer.length - position < len) {
+            flushBuffer();
+        }
+    }
+
+    /**
+     * Передает накопленные данные методом {@link #drain(byte[], int)}, если они есть
+     */
+    protected void flushBuffer() throws IOException {
+        if (position > 0) {
+            int length = position;
+            position = 0;
+            buffer = drain(buffer, length);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package ru.paskal.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.function.Consumer;
+
+/**
+ * Передача строк обработчику вместо записи в файл, например при встраивании утилиты в другое приложение.
+ * Обработчик получает каждую строку как {@link String} без разделителя и вызывается в потоке записи,
+ * поэтому медленный обработчик задерживает обработку, а не накапливает строки в памяти.
+ * Уже закодированные строки декодируются в системной кодировке
+ */
+public class CallbackLineWriter implements LineWriter {
+    private final Charset charset = Charset.defaultCharset();
+    private final Consumer<String> consumer;
+
+    /**
+     * @param consumer обработчик строк
+     */
+    public CallbackLineWriter(Consumer<String> consumer) {
+        this.consumer = consumer;
+    }
+
+    @Override
+    public void writeLine(CharSequence line) {
+        consumer.accept(line.toString());
+    }
+
+    @Override
+    public void writeEncoded(byte[] bytes, int offset, int length) throws IOException {
+        new MappedLineReader().read(ByteBuffer.wrap(bytes, offset, length).slice(), this::decodeLine);
+    }
+
+    @Override
+    public void append(FileChannel src, long position, long count) throws IOException {
+        new MappedLineReader().read(src, position, position + count, this::decodeLine);
+    }
+
+    private void decodeLine(ByteBuffer buffer, int start, int end, boolean ascii) {
+        byte[] bytes = new byte[end - start];
+        buffer.get(start, bytes);
+        consumer.accept(new String(bytes, charset));
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,216 @@
+package ru.paskal.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Запись строк в файл через {@link FileChannel} в системной кодировке.
+ * Строки кодируются сразу в прямые буферы из общего {@link DirectBufferPool}, строки ASCII копируются побайтно.
+ * Заполненные буферы накапливаются до заданного размера и записываются одним вызовом
+ * {@link FileChannel#write(ByteBuffer[], int, int)}, после чего возвращаются в пул.
+ * Сброс данных на диск выполняется в соответствии с {@link DurabilityPolicy}.
+ * Длительность каждой записи вместе со сбросом на диск передается {@link FlushListener}, если он установлен.
+ */
+public class ChannelLineWriter implements LineWriter {
+    private final FileChannel channel;
+    private final DirectBufferPool pool;
+    private final DurabilityPolicy durability;
+    private final Charset charset = Charset.defaultCharset();
+    private final boolean asciiCompatible = AsciiByteSequence.isAsciiCompatible(charset);
+    private final byte[] lineSeparator = System.lineSeparator().getBytes(charset);
+    private final ByteBuffer[] segments;
+    private int filled = 0;
+    private ByteBuffer current;
+    private long unsynced = 0;
+    private FlushListener flushListener;
+
+    /**
+     * @param path       путь к файлу, файл создается если его нет
+     * @param append     дописывать ли данные в конец существующего файла
+     * @param bufferSize объем данных, накапливаемых перед записью
+     * @param pool       пул буферов
+     * @param durability политика сброса на диск
+     */
+    public ChannelLineWriter(Path path, boolean append, int bufferSize,
+                             DirectBufferPool pool, DurabilityPolicy durability) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                append ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING);
+        this.pool = pool;
+        this.durability = durability;
+        this.segments = new ByteBuffer[Math.max(1, bufferSize / pool.getSegmentSize())];
+        this.current = pool.acquire();
+    }
+
+    @Override
+    public void writeLine(CharSequence line) throws IOException {
+        int len = line.length();
+        if (line instanceof AsciiByteSequence ascii && len <= current.capacity()) {
+            reserve(len);
+            ascii.copyTo(current);
+        } else if (!asciiCompatible || len > current.capacity() || !tryPutAscii(line, len)) {
+            byte[] bytes = line.toString().getBytes(charset);
+            put(bytes, 0, bytes.length);
+        }
+        put(lineSeparator, 0, lineSeparator.length);
+    }
+
+    @Override
+    public void writeEncoded(byte[] bytes, int offset, int length) throws IOException {
+        put(bytes, offset, length);
+    }
+
+    /**
+     * Копирует строку в буфер, если она состоит только из символов ASCII
+     *
+     * @return false если строка содержит символы вне ASCII, в этом случае позиция буфера не изменяется
+     */
+    private boolean tryPutAscii(CharSequence line, int len) throws IOException {
+        reserve(len);
+        int pos = current.position();
+        for (int i = 0; i < len; i++) {
+            char c = line.charAt(i);
+            if (c >= 0x80) {
+                return false;
+            }
+            current.put(pos + i, (byte) c);
+        }
+        current.position(pos + len);
+        return true;
+    }
+
+    /**
+     * Копирует байты, при необходимости разбивая их между несколькими буферами
+     */
+    private void put(byte[] bytes, int offset, int length) throws IOException {
+        while (length > 0) {
+            if (!current.hasRemaining()) {
+                nextSegment();
+            }
+            int n = Math.min(current.remaining(), length);
+            current.put(bytes, offset, n);
+            offset += n;
+            length -= n;
+        }
+    }
+
+    private void reserve(int len) throws IOException {
+        if (current.remaining() < len) {
+            nextSegment();
+        }
+    }
+
+    /**
+     * Ставит текущий буфер в очередь на запись и берет новый из пула.
+     * Когда накоплен весь объем буферизации, буферы записываются в файл
+     */
+    private void nextSegment() throws IOException {
+        current.flip();
+        segments[filled++] = current;
+        current = null;
+        if (filled == segments.length) {
+            writeSegments();
+        }
+        current = pool.acquire();
+    }
+
+    /**
+     * Записывает накопленные буферы одним или несколькими вызовами gathering write и возвращает их в пул
+     */
+    private void writeSegments() throws IOException {
+        long start = flushListener != null ? System.nanoTime() : 0;
+        long written = 0;
+        try {
+            int from = 0;
+            while (from < filled) {
+                written += channel.write(segments, from, filled - from);
+                while (from < filled && !segments[from].hasRemaining()) {
+                    from++;
+                }
+            }
+        } finally {
+            for (int i = 0; i < filled; i++) {
+                pool.release(segments[i]);
+                segments[i] = null;
+            }
+            filled = 0;
+        }
+        afterWrite(written);
+        if (flushListener != null) {
+            flushListener.onFlush(written, System.nanoTime() - start);
+        }
+    }
+
+    private void afterWrite(long written) throws IOException {
+        if (durability.getMode() != DurabilityPolicy.Mode.PERIODIC) {
+            return;
+        }
+        unsynced += written;
+        if (unsynced >= durability.getSyncInterval()) {
+            channel.force(false);
+            unsynced = 0;
+        }
+    }
+
+    /**
+     * Переносит диапазон файла средствами {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)},
+     * без копирования через буфер приложения
+     */
+    @Override
+    public void append(FileChannel src, long position, long count) throws IOException {
+        flush();
+        long start = flushListener != null ? System.nanoTime() : 0;
+        long transferred = 0;
+        while (transferred < count) {
+            transferred += src.transferTo(position + transferred, count - transferred, channel);
+        }
+        afterWrite(count);
+        if (flushListener != null) {
+            flushListener.onFlush(count, System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void setFlushListener(FlushListener listener) {
+        this.flushListener = listener;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (current.position() == 0 && filled == 0) {
+            return;
+        }
+        current.flip();
+        segments[filled++] = current;
+        current = null;
+        try {
+            writeSegments();
+        } finally {
+            current = pool.acquire();
+        }
+    }
+
+    @Override
+    public void sync() throws IOException {
+        flush();
+        channel.force(false);
+        unsynced = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+            if (durability.getMode() != DurabilityPolicy.Mode.NONE) {
+                channel.force(false);
+            }
+        } finally {
+            pool.release(current);
+            current = null;
+            channel.close();
+        }
+    }
+}
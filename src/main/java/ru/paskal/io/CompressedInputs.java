@@ -0,0 +1,103 @@
+package ru.paskal.io;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Распознавание и потоковая распаковка сжатых входных файлов. Формат определяется по сигнатуре
+ * в начале файла, а не по расширению. Файлы gzip из нескольких членов, достаточно большие для разбиения,
+ * распаковываются параллельно {@link ParallelGzipInputStream}, остальные - {@link GZIPInputStream}
+ */
+public class CompressedInputs {
+    /**
+     * Последовательная распаковка в потоке чтения
+     */
+    public static final CompressedInputs SEQUENTIAL = new CompressedInputs(1);
+
+    private static final int GZIP_MAGIC = 0x8b1f;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final int parallelism;
+
+    /**
+     * @param parallelism количество потоков распаковки одного файла
+     */
+    public CompressedInputs(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * @param path путь к файлу
+     * @return true если файл начинается с сигнатуры gzip
+     */
+    public static boolean isGzip(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(2);
+            while (magic.hasRemaining() && channel.read(magic) > 0) {
+                // Чтение до двух байт
+            }
+            return isGzip(magic.flip());
+        }
+    }
+
+    /**
+     * @param start начало файла от позиции 0 до предела
+     * @return true если начало файла - сигнатура gzip
+     */
+    static boolean isGzip(ByteBuffer start) {
+        return start.limit() >= 2 && ((start.get(0) & 0xff) | (start.get(1) & 0xff) << 8) == GZIP_MAGIC;
+    }
+
+    /**
+     * Открывает распакованное содержимое файла gzip
+     *
+     * @param path путь к файлу gzip
+     * @return поток распакованных байтов
+     */
+    public InputStream open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            if (parallelism > 1 && channel.size() > 2 * ParallelGzipInputStream.RANGE_SIZE) {
+                long[] starts = ParallelGzipInputStream.findRangeStarts(channel, ParallelGzipInputStream.RANGE_SIZE);
+                if (starts.length > 1) {
+                    channel.close();
+                    return new ParallelGzipInputStream(path, starts, Math.min(parallelism, starts.length));
+                }
+            }
+            // Единственный член распаковывается последовательно, GZIPInputStream также читает несколько членов подряд
+            return new GZIPInputStream(new BufferedInputStream(Channels.newInputStream(channel), BUFFER_SIZE), BUFFER_SIZE);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Открывает распакованное содержимое файла gzip, открытого заранее: начало файла берется из памяти,
+     * остальное читается из открытого канала. Для параллельной распаковки файл открывается заново
+     *
+     * @param path       путь к файлу gzip
+     * @param prefetched файл, открытый заранее, или null; закрывается вместе с потоком или его владельцем
+     * @return поток распакованных байтов
+     */
+    public InputStream open(Path path, PrefetchedFile prefetched) throws IOException {
+        if (prefetched == null) {
+            return open(path);
+        }
+        FileChannel channel = prefetched.channel();
+        if (parallelism > 1 && channel.size() > 2 * ParallelGzipInputStream.RANGE_SIZE) {
+            long[] starts = ParallelGzipInputStream.findRangeStarts(channel, ParallelGzipInputStream.RANGE_SIZE);
+            if (starts.length > 1) {
+                return new ParallelGzipInputStream(path, starts, Math.min(parallelism, starts.length));
+            }
+        }
+        return new GZIPInputStream(new BufferedInputStream(prefetched.newInputStream(), BUFFER_SIZE), BUFFER_SIZE);
+    }
+}
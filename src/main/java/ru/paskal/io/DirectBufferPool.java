@@ -0,0 +1,57 @@
+package ru.paskal.io;
+
+import lombok.Getter;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Потокобезопасный пул прямых {@link ByteBuffer} одинакового размера.
+ * Прямые буферы дорого создавать и они освобождаются только сборщиком мусора,
+ * поэтому после записи буферы возвращаются в пул и переиспользуются всеми выходными файлами.
+ */
+public class DirectBufferPool {
+    @Getter
+    private final int segmentSize;
+    private final int maxRetained;
+    private final ConcurrentLinkedQueue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger retained = new AtomicInteger();
+
+    /**
+     * @param segmentSize размер буфера
+     * @param maxRetained максимальное количество свободных буферов, хранимых в пуле
+     */
+    public DirectBufferPool(int segmentSize, int maxRetained) {
+        this.segmentSize = segmentSize;
+        this.maxRetained = maxRetained;
+    }
+
+    /**
+     * @return очищенный буфер из пула или новый, если свободных нет
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = free.poll();
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(segmentSize);
+        }
+        retained.decrementAndGet();
+        return buffer.clear();
+    }
+
+    /**
+     * Возвращает буфер в пул. Буферы сверх {@code maxRetained} остаются сборщику мусора
+     *
+     * @param buffer буфер, полученный из {@link #acquire()}
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || buffer.capacity() != segmentSize) {
+            return;
+        }
+        if (retained.incrementAndGet() <= maxRetained) {
+            free.offer(buffer);
+        } else {
+            retained.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package ru.paskal.io;
+
+import lombok.Getter;
+
+/**
+ * Политика сохранности выходных файлов: когда записанные данные принудительно сбрасываются
+ * на диск через {@link java.nio.channels.FileChannel#force(boolean)}
+ */
+@Getter
+public final class DurabilityPolicy {
+    /**
+     * Режим сброса на диск
+     */
+    public enum Mode {
+        /**
+         * Не сбрасывать, данные попадают на диск средствами операционной системы
+         */
+        NONE,
+        /**
+         * Сбрасывать при закрытии файла
+         */
+        CLOSE,
+        /**
+         * Сбрасывать после каждых {@link #getSyncInterval()} записанных байт и при закрытии файла
+         */
+        PERIODIC
+    }
+
+    public static final DurabilityPolicy NONE = new DurabilityPolicy(Mode.NONE, 0);
+    public static final DurabilityPolicy ON_CLOSE = new DurabilityPolicy(Mode.CLOSE, 0);
+
+    private final Mode mode;
+    private final long syncInterval;
+
+    private DurabilityPolicy(Mode mode, long syncInterval) {
+        this.mode = mode;
+        this.syncInterval = syncInterval;
+    }
+
+    /**
+     * @param bytes количество байт между сбросами на диск
+     * @return политика периодического сброса
+     */
+    public static DurabilityPolicy every(long bytes) {
+        if (bytes <= 0) {
+            throw new IllegalArgumentException("Интервал сброса на диск должен быть положительным");
+        }
+        return new DurabilityPolicy(Mode.PERIODIC, bytes);
+    }
+
+    @Override
+    public String toString() {
+        return switch (mode) {
+            case NONE -> "none";
+            case CLOSE -> "close";
+            case PERIODIC -> String.valueOf(syncInterval);
+        };
+    }
+}
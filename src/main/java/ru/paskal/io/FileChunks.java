@@ -0,0 +1,82 @@
+package ru.paskal.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Разбиение файла на диапазоны байтов, выровненные по границам строк.
+ * Каждый диапазон начинается с начала строки, поэтому диапазоны можно обрабатывать
+ * {@link MappedLineReader} независимо друг от друга.
+ */
+public final class FileChunks {
+    private static final int PROBE_SIZE = 1 << 16;
+
+    private FileChunks() {
+    }
+
+    /**
+     * Разбивает диапазон файла на части примерно заданного размера
+     *
+     * @param channel   канал файла
+     * @param from      начало диапазона, должно совпадать с началом строки
+     * @param to        конец диапазона (не включительно)
+     * @param chunkSize желаемый размер части, часть продлевается до конца строки
+     * @return границы частей: from, ..., to, часть i занимает [bounds[i], bounds[i + 1])
+     */
+    public static long[] split(FileChannel channel, long from, long to, long chunkSize) throws IOException {
+        List<Long> bounds = new ArrayList<>();
+        bounds.add(from);
+        long pos = from;
+        ByteBuffer probe = ByteBuffer.allocate(PROBE_SIZE);
+        while (to - pos > chunkSize) {
+            long next = nextLineStart(channel, pos + chunkSize, to, probe);
+            if (next >= to) {
+                break;
+            }
+            bounds.add(next);
+            pos = next;
+        }
+        bounds.add(to);
+        return bounds.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    /**
+     * Находит начало первой строки, начинающейся не раньше {@code pos}.
+     * Конец строки определяется так же, как в {@link MappedLineReader}: "\n", "\r" или "\r\n"
+     *
+     * @param channel канал файла
+     * @param pos     позиция, с которой начинается поиск
+     * @param to      конец диапазона
+     * @param probe   буфер для чтения
+     * @return позиция начала строки или {@code to}, если до конца диапазона строк больше нет
+     */
+    public static long nextLineStart(FileChannel channel, long pos, long to, ByteBuffer probe) throws IOException {
+        // Байт перед pos мог быть \r из пары \r\n, тогда граница должна быть после \n
+        long scan = pos - 1;
+        boolean afterCr = false;
+        while (scan < to) {
+            probe.clear();
+            int limit = (int) Math.min(probe.capacity(), to - scan);
+            probe.limit(limit);
+            int read = channel.read(probe, scan);
+            if (read <= 0) {
+                return to;
+            }
+            for (int i = 0; i < read; i++) {
+                byte b = probe.get(i);
+                if (afterCr) {
+                    return b == '\n' ? scan + i + 1 : scan + i;
+                }
+                if (b == '\n') {
+                    return scan + i + 1;
+                }
+                afterCr = b == '\r';
+            }
+            scan += read;
+        }
+        return to;
+    }
+}
@@ -0,0 +1,161 @@
+package ru.paskal.io;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Чтение растущего файла, как в {@code tail -F}: каждый вызов {@link #poll(MappedLineReader.LineHandler)}
+ * передает обработчику завершенные строки, появившиеся с прошлого вызова, незавершенная последняя строка
+ * ожидает перевода строки. Если файл по пути заменен другим (ротация), старый файл дочитывается до конца
+ * и чтение продолжается с начала нового, если файл усечен - с его начала. Отсутствующий файл ожидается.
+ */
+@Slf4j
+public class FileFollower implements Closeable {
+    private static final int PROBE_SIZE = 1 << 16;
+
+    @Getter
+    private final Path path;
+    private final MappedLineReader reader = new MappedLineReader();
+    private final ByteBuffer probe = ByteBuffer.allocate(PROBE_SIZE);
+    private FileChannel channel;
+    private Object fileKey;
+    private long position;
+    private boolean reportedMissing = false;
+
+    /**
+     * @param path путь к отслеживаемому файлу
+     */
+    public FileFollower(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * Передает обработчику строки, появившиеся с прошлого вызова
+     *
+     * @param handler обработчик строк
+     * @return true если были прочитаны новые строки
+     */
+    public boolean poll(MappedLineReader.LineHandler handler) throws IOException {
+        if (channel == null) {
+            return open() && readAvailable(handler);
+        }
+        Object currentKey = currentFileKey();
+        if (fileKey != null && currentKey != null && !fileKey.equals(currentKey)) {
+            boolean progress = readRest(handler);
+            closeChannel();
+            log.info("Файл {} был заменен, чтение продолжается с начала нового файла", path);
+            return (open() && readAvailable(handler)) || progress;
+        }
+        if (channel.size() < position) {
+            log.info("Файл {} был усечен, чтение продолжается с начала", path);
+            position = 0;
+        }
+        return readAvailable(handler);
+    }
+
+    /**
+     * @return true если файл был открыт, false если его еще нет
+     */
+    private boolean open() throws IOException {
+        try {
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            if (!reportedMissing) {
+                log.warn("Файл {} не найден, ожидаем его появления", path);
+                reportedMissing = true;
+            }
+            return false;
+        }
+        reportedMissing = false;
+        fileKey = currentFileKey();
+        position = 0;
+        return true;
+    }
+
+    /**
+     * @return идентификатор файла по пути, null если файла нет или система не поддерживает идентификаторы
+     */
+    private Object currentFileKey() throws IOException {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Читает завершенные строки от текущей позиции
+     */
+    private boolean readAvailable(MappedLineReader.LineHandler handler) throws IOException {
+        long end = lastLineEnd(position, channel.size());
+        if (end <= position) {
+            return false;
+        }
+        reader.read(channel, position, end, handler);
+        position = end;
+        return true;
+    }
+
+    /**
+     * Читает все оставшиеся данные замененного файла, включая незавершенную последнюю строку
+     */
+    private boolean readRest(MappedLineReader.LineHandler handler) throws IOException {
+        long size = channel.size();
+        if (size <= position) {
+            return false;
+        }
+        reader.read(channel, position, size, handler);
+        position = size;
+        return true;
+    }
+
+    /**
+     * Находит конец последней завершенной строки в диапазоне. Завершающий диапазон \r не считается концом строки,
+     * так как за ним может быть дописан \n
+     *
+     * @return позиция после последнего перевода строки или {@code from}, если завершенных строк нет
+     */
+    private long lastLineEnd(long from, long to) throws IOException {
+        long scanEnd = to;
+        while (scanEnd > from) {
+            int len = (int) Math.min(PROBE_SIZE, scanEnd - from);
+            long start = scanEnd - len;
+            probe.clear().limit(len);
+            while (probe.hasRemaining()) {
+                if (channel.read(probe, start + probe.position()) < 0) {
+                    return from;
+                }
+            }
+            for (int i = len - 1; i >= 0; i--) {
+                byte b = probe.get(i);
+                if (b == '\n' || (b == '\r' && start + i + 1 < to)) {
+                    return start + i + 1;
+                }
+            }
+            scanEnd = start;
+        }
+        return from;
+    }
+
+    private void closeChannel() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closeChannel();
+    }
+}
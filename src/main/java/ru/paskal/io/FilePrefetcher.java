@@ -0,0 +1,203 @@
+package ru.paskal.io;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Упреждающее открытие и чтение входных файлов. Пока обрабатывается текущий файл, следующие {@code depth} файлов
+ * открываются в фоновых потоках, и их начало (до {@code readSize} байт) читается в буфер. Обработка забирает
+ * открытый файл вместе с прочитанным началом методом {@link #take(int)} в виде {@link PrefetchedFile},
+ * поэтому поток обработки почти не ждет открытия файла и первого чтения с диска - это заметно на большом
+ * количестве небольших файлов, которые целиком помещаются в прочитанное начало.
+ * Если файл еще не начал открываться, обработка открывает его сама, а файлы, которые обработка так и не забрала,
+ * закрываются в {@link #close()}. Одновременно открыто не больше {@code depth} файлов
+ */
+@Slf4j
+public class FilePrefetcher implements AutoCloseable {
+    private static final int MAX_THREADS = 4;
+
+    private final String[] files;
+    private final int depth;
+    private final ExecutorService executor;
+    private final DirectBufferPool buffers;
+    /**
+     * Файлы, открытие которых запущено и которые еще не забрала обработка, по номерам
+     */
+    private final Map<Integer, Pending> pending = new ConcurrentHashMap<>();
+    private final LongAdder prefetchedFiles = new LongAdder();
+    private final LongAdder prefetchedBytes = new LongAdder();
+    /**
+     * Номер следующего файла для упреждающего чтения
+     */
+    private int next;
+    private volatile boolean closed;
+
+    /**
+     * Открытие одного файла: результат и признак того, что открытие начато или отменено
+     */
+    private static final class Pending {
+        private final CompletableFuture<PrefetchedFile> result = new CompletableFuture<>();
+        private final AtomicBoolean claimed = new AtomicBoolean();
+    }
+
+    /**
+     * @param files    входные файлы в порядке обработки, стандартный ввод пропускается
+     * @param depth    количество файлов после текущего, которые открываются заранее
+     * @param readSize количество байтов, читаемых с начала каждого файла
+     */
+    public FilePrefetcher(String[] files, int depth, int readSize) {
+        this.files = files;
+        this.depth = depth;
+        this.executor = Executors.newFixedThreadPool(Math.min(depth, MAX_THREADS), daemonThreads());
+        this.buffers = new DirectBufferPool(readSize, depth);
+    }
+
+    /**
+     * Сообщает о начале обработки файла и запускает открытие следующих за ним файлов, которые еще не открывались.
+     * Файлы, до которых не дошла очередь из-за ограничения открытых файлов, открываются при следующем вызове
+     *
+     * @param index номер обрабатываемого файла
+     */
+    public synchronized void advance(int index) {
+        next = Math.max(next, index + 1);
+        while (!closed && next < files.length && next <= index + depth && pending.size() < depth) {
+            int fileIndex = next++;
+            String file = files[fileIndex];
+            if ("-".equals(file)) {
+                continue;
+            }
+            Pending open = new Pending();
+            pending.put(fileIndex, open);
+            try {
+                executor.execute(() -> prefetch(file, open));
+            } catch (RejectedExecutionException e) {
+                pending.remove(fileIndex);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Забирает файл, открытый заранее. Если файл открывается в этот момент, дожидается открытия,
+     * а если его открытие еще не начато, отменяет его
+     *
+     * @param index номер файла
+     * @return открытый файл, который закрывает вызывающий, или null, если файл нужно открыть обычным способом
+     */
+    public PrefetchedFile take(int index) {
+        Pending open = pending.remove(index);
+        if (open == null || open.claimed.compareAndSet(false, true)) {
+            return null;
+        }
+        try {
+            return open.result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            open.result.thenAccept(FilePrefetcher::closeQuietly);
+            return null;
+        } catch (ExecutionException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Открывает файл и читает его начало, выполняется в фоновом потоке
+     */
+    private void prefetch(String file, Pending open) {
+        if (!open.claimed.compareAndSet(false, true)) {
+            return;
+        }
+        PrefetchedFile result = null;
+        try {
+            Path path = Paths.get(file);
+            if (!closed && Files.isRegularFile(path)) {
+                result = open(path);
+            }
+        } catch (IOException | RuntimeException e) {
+            // Ошибку открытия или чтения сообщит обработка файла, открыв его сама
+            log.debug("Не удалось заранее открыть файл {}: {}", file, e.toString());
+        } finally {
+            open.result.complete(result);
+        }
+    }
+
+    private PrefetchedFile open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        ByteBuffer buffer = buffers.acquire();
+        try {
+            while (buffer.hasRemaining() && channel.read(buffer, buffer.position()) > 0) {
+                // Чтение начала файла
+            }
+            buffer.flip();
+        } catch (IOException | RuntimeException e) {
+            buffers.release(buffer);
+            channel.close();
+            throw e;
+        }
+        prefetchedFiles.increment();
+        prefetchedBytes.add(buffer.limit());
+        return new PrefetchedFile(channel, buffer, buffers);
+    }
+
+    /**
+     * Останавливает фоновые потоки и закрывает файлы, которые обработка не забрала
+     */
+    @Override
+    public void close() {
+        closed = true;
+        executor.shutdownNow();
+        for (Pending open : pending.values()) {
+            if (!open.claimed.compareAndSet(false, true)) {
+                // Открытие начато, файл закрывается по его завершении
+                open.result.thenAccept(FilePrefetcher::closeQuietly);
+            }
+        }
+        pending.clear();
+        log.debug("Заранее открыто {} файлов, прочитано {} байт", prefetchedFiles.sum(), prefetchedBytes.sum());
+    }
+
+    /**
+     * @return количество файлов, открытых и прочитанных заранее
+     */
+    public long getPrefetchedFiles() {
+        return prefetchedFiles.sum();
+    }
+
+    private static void closeQuietly(PrefetchedFile file) {
+        if (file == null) {
+            return;
+        }
+        try {
+            file.close();
+        } catch (IOException e) {
+            log.debug("Не удалось закрыть файл после упреждающего чтения: {}", e.getMessage());
+        }
+    }
+
+    private static ThreadFactory daemonThreads() {
+        AtomicInteger counter = new AtomicInteger();
+        return task -> {
+            Thread thread = new Thread(task, "input-prefetch-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,14 @@
+package ru.paskal.io;
+
+/**
+ * Получатель сведений о сбросах выходного файла: каждой записи накопленных данных в файл
+ * вместе с принудительным сбросом на диск, если он выполнялся
+ */
+@FunctionalInterface
+public interface FlushListener {
+    /**
+     * @param bytes объем записанных данных
+     * @param nanos длительность записи в наносекундах
+     */
+    void onFlush(long bytes, long nanos);
+}
@@ -0,0 +1,212 @@
+package ru.paskal.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Запись строк в файл gzip. Строки накапливаются в буфере заданного размера, заполненный буфер сжимается
+ * в пуле потоков сжатия как отдельный член gzip, а поток записи сразу продолжает заполнять другой буфер.
+ * Сжатые члены записываются в файл строго по порядку; одновременно сжимается не больше
+ * {@link #MAX_PENDING} буферов одного файла, после чего запись ожидает самый старый из них.
+ * <p>
+ * Файл из нескольких членов является корректным gzip (RFC 1952) и читается любыми распаковщиками,
+ * а утилитой распаковывается параллельно, см. {@link ParallelGzipInputStream}.
+ * Дописывание в существующий файл gzip добавляет к нему новые члены.
+ */
+public class GzipLineWriter extends BufferedLineWriter {
+    private static final int MAX_PENDING = 4;
+    private static final int APPEND_CHUNK_SIZE = 1 << 16;
+    private static final byte[] HEADER = {0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 255};
+    private static final ThreadLocal<Deflater> DEFLATERS =
+            ThreadLocal.withInitial(() -> new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+
+    private final FileChannel channel;
+    private final ExecutorService compressor;
+    private final DurabilityPolicy durability;
+    private final int bufferSize;
+    private final Deque<Future<ByteBuffer>> pending = new ArrayDeque<>();
+    private final ConcurrentLinkedQueue<byte[]> freeBuffers = new ConcurrentLinkedQueue<>();
+    private long unsynced = 0;
+    private FlushListener flushListener;
+
+    /**
+     * @param path       путь к файлу, файл создается если его нет
+     * @param append     дописывать ли члены в конец существующего файла
+     * @param bufferSize объем несжатых данных в одном члене
+     * @param compressor пул потоков сжатия, может быть общим для нескольких файлов
+     * @param durability политика сброса на диск
+     */
+    public GzipLineWriter(Path path, boolean append, int bufferSize,
+                          ExecutorService compressor, DurabilityPolicy durability) throws IOException {
+        super(new byte[bufferSize]);
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                append ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING);
+        this.compressor = compressor;
+        this.durability = durability;
+        this.bufferSize = bufferSize;
+    }
+
+    @Override
+    protected byte[] drain(byte[] buffer, int length) throws IOException {
+        submit(buffer, length);
+        byte[] next = freeBuffers.poll();
+        return next != null ? next : new byte[bufferSize];
+    }
+
+    @Override
+    protected void writeDirect(byte[] bytes, int offset, int length) throws IOException {
+        submit(Arrays.copyOfRange(bytes, offset, offset + length), length);
+    }
+
+    /**
+     * Несжатое содержимое файла сжимается так же, как записываемые строки
+     */
+    @Override
+    public void append(FileChannel src, long position, long count) throws IOException {
+        ByteBuffer chunk = ByteBuffer.allocate(APPEND_CHUNK_SIZE);
+        long end = position + count;
+        while (position < end) {
+            chunk.clear().limit((int) Math.min(chunk.capacity(), end - position));
+            int n = src.read(chunk, position);
+            if (n < 0) {
+                throw new EOFException("Файл %d байт короче ожидаемого".formatted(end - position));
+            }
+            writeEncoded(chunk.array(), 0, n);
+            position += n;
+        }
+    }
+
+    /**
+     * Сжимает накопленные строки и дожидается записи всех членов
+     */
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+        while (!pending.isEmpty()) {
+            writeOldest();
+        }
+    }
+
+    @Override
+    public void sync() throws IOException {
+        flush();
+        channel.force(false);
+        unsynced = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+            if (durability.getMode() != DurabilityPolicy.Mode.NONE) {
+                channel.force(false);
+            }
+        } finally {
+            for (Future<ByteBuffer> future : pending) {
+                future.cancel(false);
+            }
+            channel.close();
+        }
+    }
+
+    private void submit(byte[] buffer, int length) throws IOException {
+        while (pending.size() >= MAX_PENDING) {
+            writeOldest();
+        }
+        pending.addLast(compressor.submit(() -> {
+            try {
+                return compress(buffer, length);
+            } finally {
+                if (buffer.length == bufferSize) {
+                    freeBuffers.offer(buffer);
+                }
+            }
+        }));
+        // Уже сжатые члены записываются сразу, не дожидаясь заполнения очереди
+        while (!pending.isEmpty() && pending.peekFirst().isDone()) {
+            writeOldest();
+        }
+    }
+
+    /**
+     * Дожидается сжатия самого старого члена и записывает его. Получателю {@link FlushListener} передается
+     * длительность вместе с ожиданием сжатия, так как именно на это время задерживается поток записи
+     */
+    private void writeOldest() throws IOException {
+        long start = flushListener != null ? System.nanoTime() : 0;
+        ByteBuffer member;
+        try {
+            member = pending.pollFirst().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Сжатие было прервано");
+        } catch (ExecutionException e) {
+            throw new IOException("Ошибка при сжатии: " + e.getCause().getMessage(), e.getCause());
+        }
+        long written = member.remaining();
+        while (member.hasRemaining()) {
+            channel.write(member);
+        }
+        if (durability.getMode() == DurabilityPolicy.Mode.PERIODIC) {
+            unsynced += written;
+            if (unsynced >= durability.getSyncInterval()) {
+                channel.force(false);
+                unsynced = 0;
+            }
+        }
+        if (flushListener != null) {
+            flushListener.onFlush(written, System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void setFlushListener(FlushListener listener) {
+        this.flushListener = listener;
+    }
+
+    /**
+     * Сжимает данные в отдельный член gzip: заголовок, данные deflate, CRC32 и длина несжатых данных
+     */
+    private static ByteBuffer compress(byte[] data, int length) {
+        Deflater deflater = DEFLATERS.get();
+        deflater.reset();
+        deflater.setInput(data, 0, length);
+        deflater.finish();
+        byte[] out = new byte[HEADER.length + length + (length >> 8) + 64];
+        System.arraycopy(HEADER, 0, out, 0, HEADER.length);
+        int pos = HEADER.length;
+        while (!deflater.finished()) {
+            if (out.length - pos < 8 + 64) {
+                out = Arrays.copyOf(out, out.length * 2);
+            }
+            pos += deflater.deflate(out, pos, out.length - pos - 8);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, length);
+        pos = putInt(out, pos, (int) crc.getValue());
+        pos = putInt(out, pos, length);
+        return ByteBuffer.wrap(out, 0, pos);
+    }
+
+    private static int putInt(byte[] out, int pos, int value) {
+        out[pos] = (byte) value;
+        out[pos + 1] = (byte) (value >>> 8);
+        out[pos + 2] = (byte) (value >>> 16);
+        out[pos + 3] = (byte) (value >>> 24);
+        return pos + 4;
+    }
+}
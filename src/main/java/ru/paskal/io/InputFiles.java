@@ -0,0 +1,201 @@
+package ru.paskal.io;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Раскрытие входных аргументов в список файлов. Директория заменяется всеми обычными файлами внутри нее
+ * (рекурсивно), шаблон с символами {@code * ? [ {} - совпадающими с ним файлами и директориями, как в
+ * {@link FileSystems#getDefault()}{@code .getPathMatcher("glob:...")}; {@code **} совпадает с любым количеством
+ * директорий. Скрытые файлы и директории (имя начинается с точки) и выходная директория внутри входной пропускаются,
+ * а если входная директория сама является выходной, пропускаются выходные файлы утилиты (в том числе прошлых запусков),
+ * чтобы не читать их повторно.
+ * Список составляет сама утилита, поэтому ему не нужно помещаться в командную строку.
+ * Файлы каждого аргумента упорядочены по пути, чтобы порядок строк в выходных файлах, контрольные точки
+ * и доли частей не зависели от порядка перечисления файловой системой. Остальные аргументы, в том числе
+ * отсутствующие файлы и стандартный ввод, передаются без изменений
+ */
+@Slf4j
+public class InputFiles {
+    private static final String GLOB_CHARS = "*?[{";
+    private static final String STDIN = "-";
+
+    private InputFiles() {
+    }
+
+    /**
+     * @param inputs      входные аргументы
+     * @param exclude     выходная директория, может быть null. Вложенная во входную, она пропускается целиком
+     * @param outputNames шаблон имен выходных файлов, такие файлы выходной директории не включаются в список,
+     *                    может быть null
+     * @return входные файлы после раскрытия директорий и шаблонов
+     */
+    public static String[] expand(String[] inputs, Path exclude, Pattern outputNames) {
+        Excluded excluded = exclude != null ? new Excluded(exclude.toAbsolutePath().normalize(), outputNames) : null;
+        List<String> files = new ArrayList<>();
+        for (String input : inputs) {
+            if (STDIN.equals(input)) {
+                files.add(input);
+                continue;
+            }
+            Path path;
+            try {
+                path = Paths.get(input);
+            } catch (InvalidPathException e) {
+                files.add(input);
+                continue;
+            }
+            if (Files.isDirectory(path)) {
+                List<Path> found = new ArrayList<>();
+                walk(path, Integer.MAX_VALUE, null, excluded, found);
+                if (found.isEmpty()) {
+                    log.warn("В директории {} нет файлов", input);
+                }
+                found.stream().sorted().map(Path::toString).forEach(files::add);
+            } else if (!Files.exists(path) && isGlob(input)) {
+                List<Path> found = glob(input, excluded);
+                if (found.isEmpty()) {
+                    log.warn("Шаблону {} не соответствует ни один файл", input);
+                    files.add(input);
+                }
+                found.stream().sorted().map(Path::toString).forEach(files::add);
+            } else {
+                files.add(input);
+            }
+        }
+        if (files.size() != inputs.length) {
+            log.info("Входные директории и шаблоны раскрыты в {} файлов", files.size());
+        }
+        return files.toArray(String[]::new);
+    }
+
+    /**
+     * @return содержит ли аргумент символы шаблона
+     */
+    static boolean isGlob(String input) {
+        for (int i = 0; i < input.length(); i++) {
+            if (GLOB_CHARS.indexOf(input.charAt(i)) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Ищет файлы по шаблону. Просматривается только директория до первого элемента пути с символами шаблона
+     * и не глубже, чем элементов в шаблоне, если он не содержит {@code **}. Совпавшие директории раскрываются рекурсивно
+     */
+    private static List<Path> glob(String pattern, Excluded excluded) {
+        String separator = FileSystems.getDefault().getSeparator();
+        String normalized = pattern.replace(separator, "/");
+        int cut = 0;
+        for (int i = 0; i < normalized.length() && GLOB_CHARS.indexOf(normalized.charAt(i)) < 0; i++) {
+            if (normalized.charAt(i) == '/') {
+                cut = i + 1;
+            }
+        }
+        Path base = cut == 0 ? Paths.get("") : Paths.get(normalized.substring(0, cut));
+        String rest = normalized.substring(cut);
+        int depth = rest.contains("**") ? Integer.MAX_VALUE : rest.split("/").length;
+        // Сопоставляется путь относительно базовой директории, "/" в шаблоне - разделитель в любой системе
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + rest);
+        List<Path> found = new ArrayList<>();
+        if (Files.isDirectory(cut == 0 ? Paths.get(".") : base)) {
+            walk(base, depth, matcher, excluded, found);
+        }
+        return found;
+    }
+
+    /**
+     * Собирает обычные файлы директории. С шаблоном собираются только совпавшие с ним файлы
+     * и содержимое совпавших директорий
+     */
+    private static void walk(Path dir, int depth, PathMatcher matcher, Excluded excluded, List<Path> found) {
+        Path root = dir.toString().isEmpty() ? Paths.get(".") : dir;
+        try {
+            Files.walkFileTree(root, EnumSet.of(FileVisitOption.FOLLOW_LINKS), depth, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path path, BasicFileAttributes attrs) {
+                    if (path.equals(root)) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    if (isHidden(path) || excluded != null && path.toAbsolutePath().normalize().equals(excluded.dir())) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    if (matcher != null && matcher.matches(root.relativize(path))) {
+                        walk(resolve(dir, root, path), Integer.MAX_VALUE, null, excluded, found);
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) {
+                    if (isHidden(path) || matcher != null && !matcher.matches(root.relativize(path))) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    if (attrs.isRegularFile()) {
+                        if (excluded != null && excluded.isOutput(path)) {
+                            log.debug("Выходной файл {} не читается как входной", path);
+                            return FileVisitResult.CONTINUE;
+                        }
+                        found.add(resolve(dir, root, path));
+                    } else if (attrs.isDirectory() && matcher != null) {
+                        // Директория на наибольшей глубине шаблона
+                        walk(resolve(dir, root, path), Integer.MAX_VALUE, null, excluded, found);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path path, IOException e) {
+                    log.warn("Не удалось прочитать {}, пропускаем: {}", path, e.getMessage());
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            log.warn("Не удалось прочитать директорию {}: {}", root, e.getMessage());
+        }
+    }
+
+    /**
+     * Выходная директория и шаблон имен выходных файлов в ней
+     */
+    private record Excluded(Path dir, Pattern outputNames) {
+        /**
+         * @return является ли файл выходным файлом утилиты
+         */
+        boolean isOutput(Path file) {
+            Path absolute = file.toAbsolutePath().normalize();
+            return outputNames != null && dir.equals(absolute.getParent())
+                    && outputNames.matcher(absolute.getFileName().toString()).matches();
+        }
+    }
+
+    private static boolean isHidden(Path path) {
+        Path name = path.getFileName();
+        return name != null && name.toString().startsWith(".");
+    }
+
+    /**
+     * @return путь относительно исходной директории, без префикса "./" для шаблонов в текущей директории
+     */
+    private static Path resolve(Path dir, Path root, Path path) {
+        return dir.toString().isEmpty() ? root.relativize(path) : path;
+    }
+}
@@ -0,0 +1,50 @@
+package ru.paskal.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Поиск строк в окне байтов для {@link MappedLineReader}. Концы строк определяются так же,
+ * как в {@link java.io.BufferedReader#readLine()}: "\n", "\r" или "\r\n".
+ * Скалярная реализация просматривает окно по одному байту, векторная ({@link VectorLineScanner}) -
+ * по 32 или 64 байта инструкциями SIMD через Vector API и дополнительно сообщает обработчику,
+ * может ли строка быть числом. Векторная реализация доступна, только если JVM запущена
+ * с {@code --add-modules jdk.incubator.vector}, иначе используется скалярная.
+ * Реализации хранят буферы, поэтому не потокобезопасны
+ */
+public interface LineScanner {
+    /**
+     * Находит строки в окне и передает их обработчику
+     *
+     * @param buffer  окно
+     * @param len     количество байтов окна
+     * @param last    является ли окно последним, тогда незавершенная строка в конце окна тоже передается обработчику
+     * @param handler обработчик строк
+     * @return количество байтов окна, занятых полностью обработанными строками
+     */
+    int scan(ByteBuffer buffer, int len, boolean last, MappedLineReader.LineHandler handler) throws IOException;
+
+    /**
+     * @return скалярный поиск строк
+     */
+    static LineScanner scalar() {
+        return ScalarLineScanner.INSTANCE;
+    }
+
+    /**
+     * @return новый векторный поиск строк или null, если Vector API недоступен
+     */
+    static LineScanner vector() {
+        return VectorSupport.isAvailable() ? new VectorLineScanner(false) : null;
+    }
+
+    /**
+     * Векторный поиск начинает работать после фонового прогрева Vector API, а до тех пор строки ищутся скалярно:
+     * непрогретый векторный код медленнее скалярного, и на небольших входных данных это не окупается
+     *
+     * @return векторный поиск строк, если он доступен, иначе скалярный
+     */
+    static LineScanner preferred() {
+        return VectorSupport.isAvailable() ? new VectorLineScanner(true) : scalar();
+    }
+}
@@ -0,0 +1,87 @@
+package ru.paskal.io;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Интерфейс построчной записи в выходной файл, позволяющий {@link ru.paskal.FilesManager}
+ * не зависеть от конкретного способа записи. После каждой строки записывается системный разделитель строк.
+ */
+public interface LineWriter extends Closeable, Flushable {
+    /**
+     * Записывает строку и разделитель строк. Если строка является {@link AsciiByteSequence},
+     * ее байты копируются без построения {@link String}
+     *
+     * @param line строка для записи
+     */
+    void writeLine(CharSequence line) throws IOException;
+
+    /**
+     * Записывает байты, уже состоящие из строк с разделителями в той же кодировке
+     *
+     * @param bytes  массив байтов
+     * @param offset начало данных
+     * @param length длина данных
+     */
+    void writeEncoded(byte[] bytes, int offset, int length) throws IOException;
+
+    /**
+     * Дописывает содержимое файла, уже состоящего из строк с разделителями в той же кодировке
+     *
+     * @param file файл для переноса
+     */
+    default void append(Path file) throws IOException {
+        try (FileChannel src = FileChannel.open(file, StandardOpenOption.READ)) {
+            append(src, 0, src.size());
+        }
+    }
+
+    /**
+     * Дописывает диапазон файла, уже состоящий из строк с разделителями в той же кодировке
+     *
+     * @param src      канал файла
+     * @param position начало диапазона
+     * @param count    длина диапазона
+     */
+    void append(FileChannel src, long position, long count) throws IOException;
+
+    /**
+     * Дописывает диапазон файла, как {@link #append(FileChannel, long, long)}, и вызывает {@code onDone},
+     * когда диапазон перенесен, в том числе при ошибке. Реализации, записывающие в отдельном потоке,
+     * возвращаются до переноса, поэтому файл должен оставаться открытым до вызова {@code onDone}.
+     * По умолчанию диапазон переносится в текущем потоке
+     *
+     * @param src      канал файла
+     * @param position начало диапазона
+     * @param count    длина диапазона
+     * @param onDone   действие после переноса, например закрытие и удаление файла
+     */
+    default void append(FileChannel src, long position, long count, Runnable onDone) throws IOException {
+        try {
+            append(src, position, count);
+        } finally {
+            onDone.run();
+        }
+    }
+
+    /**
+     * Сбрасывает накопленные данные и принудительно записывает файл на диск, например перед сохранением
+     * его длины в контрольной точке. Реализации, не записывающие в файл самостоятельно, только сбрасывают данные
+     */
+    default void sync() throws IOException {
+        flush();
+    }
+
+    /**
+     * Устанавливает получателя сведений о записи накопленных данных в файл.
+     * Реализации, не записывающие в файл самостоятельно, получателя не используют
+     *
+     * @param listener получатель или null
+     */
+    default void setFlushListener(FlushListener listener) {
+    }
+}
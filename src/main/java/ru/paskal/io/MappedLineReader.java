@@ -0,0 +1,209 @@
+package ru.paskal.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Побайтовое чтение строк файла через отображение в память ({@link MappedByteBuffer}).
+ * Файл отображается окнами ограниченного размера, поэтому поддерживаются файлы больше 2 ГБ.
+ * Концы строк определяются так же, как в {@link java.io.BufferedReader#readLine()}: "\n", "\r" или "\r\n".
+ * Данные, которые нельзя отобразить в память (например, распакованные из архива), читаются тем же способом
+ * из {@link InputStream} через буфер в куче методом {@link #read(InputStream, LineHandler)}.
+ * После каждого полностью обработанного окна файла вызывается {@link BoundaryHandler}, если он задан:
+ * смещение между окнами всегда совпадает с началом строки, с него можно продолжить чтение.
+ * Строки в окне ищет {@link LineScanner}, по умолчанию векторный, если Vector API доступен.
+ */
+public class MappedLineReader {
+    public static final int DEFAULT_WINDOW_SIZE = 64 << 20;
+    private static final int STREAM_BUFFER_SIZE = 1 << 20;
+    private static final int MAX_WINDOW_SIZE = Integer.MAX_VALUE - 8;
+
+    private final int windowSize;
+    private final LineScanner scanner;
+    private BoundaryHandler boundaryHandler;
+
+    /**
+     * Обработчик строк, получающий строку в виде диапазона байтов окна.
+     * Окно действительно только во время вызова обработчика.
+     */
+    @FunctionalInterface
+    public interface LineHandler {
+        /**
+         * @param buffer окно файла
+         * @param start  начало строки в окне
+         * @param end    конец строки в окне, без символов перевода строки
+         * @param ascii  true если строка состоит только из байтов ASCII
+         */
+        void onLine(ByteBuffer buffer, int start, int end, boolean ascii) throws IOException;
+
+        /**
+         * Вызывается вместо {@link #onLine(ByteBuffer, int, int, boolean)}, когда поиск строк дополнительно
+         * проверил, может ли строка быть числом
+         *
+         * @param numeric false если строка содержит байт, который не может входить в число, тогда она
+         *                гарантированно не является числом
+         */
+        default void onLine(ByteBuffer buffer, int start, int end, boolean ascii, boolean numeric) throws IOException {
+            onLine(buffer, start, end, ascii);
+        }
+    }
+
+    /**
+     * Обработчик границ окон файла, вызывается между окнами, но не в конце читаемого диапазона
+     */
+    @FunctionalInterface
+    public interface BoundaryHandler {
+        /**
+         * @param position смещение в файле, до которого все строки переданы обработчику строк
+         */
+        void onBoundary(long position) throws IOException;
+    }
+
+    public MappedLineReader() {
+        this(DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * @param windowSize размер окна отображения в байтах, при строке длиннее окна оно временно увеличивается
+     */
+    public MappedLineReader(int windowSize) {
+        this(windowSize, LineScanner.preferred());
+    }
+
+    /**
+     * @param windowSize размер окна отображения в байтах, при строке длиннее окна оно временно увеличивается
+     * @param scanner    поиск строк в окне
+     */
+    public MappedLineReader(int windowSize, LineScanner scanner) {
+        if (windowSize <= 0) {
+            throw new IllegalArgumentException("Размер окна должен быть положительным");
+        }
+        this.windowSize = windowSize;
+        this.scanner = scanner;
+    }
+
+    /**
+     * Читает все строки файла
+     *
+     * @param path    путь к файлу
+     * @param handler обработчик строк
+     */
+    public void read(Path path, LineHandler handler) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            read(channel, 0, channel.size(), handler);
+        }
+    }
+
+    /**
+     * Читает строки из диапазона файла, конец диапазона считается концом файла
+     *
+     * @param channel канал файла
+     * @param from    начало диапазона, должно совпадать с началом строки
+     * @param to      конец диапазона (не включительно)
+     * @param handler обработчик строк
+     */
+    public void read(FileChannel channel, long from, long to, LineHandler handler) throws IOException {
+        long pos = from;
+        int window = windowSize;
+        while (pos < to) {
+            int len = (int) Math.min(window, to - pos);
+            boolean last = pos + len == to;
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, pos, len);
+            int consumed = scanner.scan(buffer, len, last, handler);
+            if (consumed == 0 && !last) {
+                if (window == MAX_WINDOW_SIZE) {
+                    throw new IOException("Строка длиннее %d байт".formatted(MAX_WINDOW_SIZE));
+                }
+                window = (int) Math.min(2L * window, MAX_WINDOW_SIZE);
+                continue;
+            }
+            pos += consumed;
+            window = windowSize;
+            if (boundaryHandler != null && pos < to) {
+                boundaryHandler.onBoundary(pos);
+            }
+        }
+    }
+
+    /**
+     * Читает строки из диапазона файла, начало которого уже прочитано в память, например {@link PrefetchedFile}.
+     * Строки, целиком поместившиеся в прочитанное начало, передаются из него, остальные читаются из канала,
+     * поэтому небольшой файл обрабатывается без отображения в память. Конец прочитанного начала считается
+     * границей окна
+     *
+     * @param channel канал файла
+     * @param head    начало файла от позиции 0 до предела или null
+     * @param from    начало диапазона, должно совпадать с началом строки; начало файла используется только при 0
+     * @param to      конец диапазона (не включительно)
+     * @param handler обработчик строк
+     */
+    public void read(FileChannel channel, ByteBuffer head, long from, long to, LineHandler handler) throws IOException {
+        if (head != null && from == 0 && head.limit() > 0 && to > 0) {
+            int len = (int) Math.min(head.limit(), to);
+            boolean last = len == to;
+            from = scanner.scan(head, len, last, handler);
+            if (boundaryHandler != null && from > 0 && from < to) {
+                boundaryHandler.onBoundary(from);
+            }
+        }
+        read(channel, from, to, handler);
+    }
+
+    /**
+     * @param handler обработчик границ окон при чтении файла или null
+     * @return этот же объект
+     */
+    public MappedLineReader setBoundaryHandler(BoundaryHandler handler) {
+        this.boundaryHandler = handler;
+        return this;
+    }
+
+    /**
+     * Читает все строки потока. После каждого чтения строки ищутся в том, что уже поступило, не дожидаясь
+     * заполнения буфера, поэтому строки медленного потока (например, канала или сокета) передаются обработчику
+     * по мере поступления. Незавершенная строка в конце буфера переносится в его начало; для строки длиннее
+     * буфера он увеличивается
+     *
+     * @param in      поток байтов в системной кодировке, не закрывается
+     * @param handler обработчик строк
+     */
+    public void read(InputStream in, LineHandler handler) throws IOException {
+        byte[] array = new byte[STREAM_BUFFER_SIZE];
+        ByteBuffer buffer = ByteBuffer.wrap(array);
+        int filled = 0;
+        while (true) {
+            if (filled == array.length) {
+                if (array.length == MAX_WINDOW_SIZE) {
+                    throw new IOException("Строка длиннее %d байт".formatted(MAX_WINDOW_SIZE));
+                }
+                array = Arrays.copyOf(array, (int) Math.min(2L * array.length, MAX_WINDOW_SIZE));
+                buffer = ByteBuffer.wrap(array);
+            }
+            int n = in.read(array, filled, array.length - filled);
+            if (n < 0) {
+                scanner.scan(buffer, filled, true, handler);
+                return;
+            }
+            filled += n;
+            int consumed = scanner.scan(buffer, filled, false, handler);
+            System.arraycopy(array, consumed, array, 0, filled - consumed);
+            filled -= consumed;
+        }
+    }
+
+    /**
+     * Читает все строки буфера от начала до его предела, последняя строка может не иметь перевода строки
+     *
+     * @param buffer  буфер со строками в системной кодировке
+     * @param handler обработчик строк
+     */
+    public void read(ByteBuffer buffer, LineHandler handler) throws IOException {
+        scanner.scan(buffer, buffer.limit(), true, handler);
+    }
+}
@@ -0,0 +1,43 @@
+package ru.paskal.io;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Накопление строк в памяти вместо записи в файл, например для тестов или небольших объемов данных
+ * при встраивании утилиты. Строки можно читать из другого потока во время записи
+ */
+public class MemoryLineWriter extends CallbackLineWriter {
+    private final List<String> lines;
+
+    public MemoryLineWriter() {
+        this(new ArrayList<>());
+    }
+
+    private MemoryLineWriter(List<String> lines) {
+        super(line -> {
+            synchronized (lines) {
+                lines.add(line);
+            }
+        });
+        this.lines = lines;
+    }
+
+    /**
+     * @return копия записанных строк
+     */
+    public List<String> getLines() {
+        synchronized (lines) {
+            return new ArrayList<>(lines);
+        }
+    }
+
+    /**
+     * @return количество записанных строк
+     */
+    public int size() {
+        synchronized (lines) {
+            return lines.size();
+        }
+    }
+}
@@ -0,0 +1,442 @@
+package ru.paskal.io;
+
+import ru.paskal.utils.SpscQueue;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Параллельная распаковка gzip-файла из нескольких членов (результат {@code cat a.gz b.gz}, pigz, bgzip
+ * и сжатых выходных файлов утилиты). Границы членов заранее неизвестны, поэтому файл делится на диапазоны
+ * примерно по {@link #RANGE_SIZE} байт, и каждый диапазон начинается с ближайшего кандидата в заголовки
+ * gzip-члена. Диапазоны распаковываются параллельно, каждый поток распаковывает члены, начинающиеся
+ * до начала следующего диапазона, и сообщает, где закончился последний из них.
+ * <p>
+ * Кандидат может оказаться случайным совпадением внутри сжатых данных. Поэтому результат диапазона
+ * принимается, только если он начинается ровно там, где закончился предыдущий, иначе диапазон распаковывается
+ * заново с настоящей границы. Каждый член проверяется по CRC32 и длине из его окончания.
+ * <p>
+ * Результат читается по порядку, распакованные данные передаются через ограниченные очереди,
+ * поэтому объем памяти не зависит от размера файла: не больше {@link #QUEUE_BLOCKS} блоков
+ * по {@link #BLOCK_SIZE} байт на каждый диапазон в работе.
+ */
+public class ParallelGzipInputStream extends InputStream {
+    public static final long RANGE_SIZE = 4L << 20;
+    private static final int BLOCK_SIZE = 1 << 20;
+    private static final int QUEUE_BLOCKS = 4;
+    private static final int INPUT_SIZE = 1 << 16;
+    private static final int HEADER_SIZE = 10;
+    private static final int TRAILER_SIZE = 8;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+    private static final int FHCRC = 2;
+
+    private final Path path;
+    private final long size;
+    private final long[] starts;
+    private final int window;
+    private final ExecutorService pool;
+    private final Deque<Range> inFlight = new ArrayDeque<>();
+    private int nextRange = 0;
+    private Block current;
+    private int position;
+    private boolean finished = false;
+
+    /**
+     * Блок распакованных данных или сигнал об окончании диапазона
+     *
+     * @param data   данные, null для сигнала об окончании
+     * @param length длина данных
+     * @param end    смещение в файле, где закончился последний распакованный член диапазона
+     * @param error  ошибка распаковки, если она произошла
+     */
+    private record Block(byte[] data, int length, long end, IOException error) {
+    }
+
+    /**
+     * Диапазон файла в работе
+     */
+    private static final class Range {
+        private final long start;
+        private final long limit;
+        private final SpscQueue<Block> queue = new SpscQueue<>(QUEUE_BLOCKS);
+        private Future<?> future;
+
+        private Range(long start, long limit) {
+            this.start = start;
+            this.limit = limit;
+        }
+    }
+
+    /**
+     * @param path        путь к файлу gzip
+     * @param starts      начала диапазонов, первое равно 0, см. {@link #findRangeStarts(FileChannel, long)}
+     * @param parallelism количество потоков распаковки
+     */
+    public ParallelGzipInputStream(Path path, long[] starts, int parallelism) throws IOException {
+        this.path = path;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            this.size = channel.size();
+        }
+        this.starts = starts;
+        this.window = parallelism;
+        this.pool = Executors.newFixedThreadPool(parallelism, daemonThreads());
+    }
+
+    /**
+     * Находит начала диапазонов: первого кандидата в заголовки gzip-члена не раньше каждой границы,
+     * кратной {@code rangeSize}
+     *
+     * @param channel   канал файла
+     * @param rangeSize желаемый размер диапазона
+     * @return начала диапазонов по возрастанию, первое равно 0
+     */
+    public static long[] findRangeStarts(FileChannel channel, long rangeSize) throws IOException {
+        long size = channel.size();
+        List<Long> starts = new ArrayList<>();
+        starts.add(0L);
+        ByteBuffer probe = ByteBuffer.allocate(INPUT_SIZE);
+        long boundary = rangeSize;
+        while (boundary < size) {
+            long candidate = nextCandidate(channel, boundary, size, probe);
+            if (candidate < 0) {
+                break;
+            }
+            starts.add(candidate);
+            boundary = Math.max(boundary + rangeSize, candidate + 1);
+        }
+        return starts.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    /**
+     * @return смещение первого кандидата в заголовки не раньше {@code from} или -1, если его нет
+     */
+    private static long nextCandidate(FileChannel channel, long from, long size, ByteBuffer probe) throws IOException {
+        long pos = from;
+        while (pos + HEADER_SIZE <= size) {
+            probe.clear();
+            int n = channel.read(probe, pos);
+            if (n < HEADER_SIZE) {
+                return -1;
+            }
+            byte[] bytes = probe.array();
+            for (int i = 0; i + HEADER_SIZE <= n; i++) {
+                if (isHeader(bytes, i)) {
+                    return pos + i;
+                }
+            }
+            // Заголовок может начинаться в последних байтах пробы
+            pos += n - HEADER_SIZE + 1;
+        }
+        return -1;
+    }
+
+    /**
+     * Проверка фиксированной части заголовка: сигнатура, метод deflate, нулевые зарезервированные флаги,
+     * допустимые значения XFL и OS
+     */
+    private static boolean isHeader(byte[] bytes, int i) {
+        if (bytes[i] != 0x1f || bytes[i + 1] != (byte) 0x8b || bytes[i + 2] != 8 || (bytes[i + 3] & 0xe0) != 0) {
+            return false;
+        }
+        int xfl = bytes[i + 8] & 0xff;
+        int os = bytes[i + 9] & 0xff;
+        return (xfl == 0 || xfl == 2 || xfl == 4) && (os <= 13 || os == 255);
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (current == null || position == current.length()) {
+            if (!nextBlock()) {
+                return -1;
+            }
+        }
+        int n = Math.min(len, current.length() - position);
+        System.arraycopy(current.data(), position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    /**
+     * Получает следующий блок данных по порядку. По окончании диапазона проверяет, что следующий диапазон
+     * начинается там, где закончился этот, иначе распаковывает его заново с настоящей границы
+     *
+     * @return false если данные закончились
+     */
+    private boolean nextBlock() throws IOException {
+        current = null;
+        position = 0;
+        while (!finished) {
+            submitRanges();
+            Range head = inFlight.peekFirst();
+            if (head == null) {
+                finished = true;
+                break;
+            }
+            Block block;
+            try {
+                block = head.queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Распаковка файла была прервана");
+            }
+            if (block.data() != null) {
+                current = block;
+                return true;
+            }
+            if (block.error() != null) {
+                throw block.error();
+            }
+            inFlight.pollFirst();
+            submitRanges();
+            Range next = inFlight.peekFirst();
+            if (next != null && next.start != block.end()) {
+                // Начало следующего диапазона было случайным совпадением или оказалось внутри члена
+                next.future.cancel(true);
+                inFlight.pollFirst();
+                inFlight.addFirst(submit(block.end(), next.limit));
+            }
+        }
+        return false;
+    }
+
+    private void submitRanges() {
+        while (inFlight.size() < window && nextRange < starts.length) {
+            long start = starts[nextRange];
+            long limit = nextRange + 1 < starts.length ? starts[nextRange + 1] : size;
+            nextRange++;
+            inFlight.addLast(submit(start, limit));
+        }
+    }
+
+    private Range submit(long start, long limit) {
+        Range range = new Range(start, limit);
+        range.future = pool.submit(() -> decompress(range));
+        return range;
+    }
+
+    /**
+     * Распаковка диапазона в потоке пула, результат и ошибки передаются через очередь диапазона
+     */
+    private void decompress(Range range) {
+        try {
+            long end;
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                end = new MemberInflater(channel, size, range.queue).inflate(range.start, range.limit);
+            } catch (IOException e) {
+                range.queue.put(new Block(null, 0, -1, e));
+                return;
+            }
+            range.queue.put(new Block(null, 0, end, null));
+        } catch (InterruptedException e) {
+            // Диапазон отменен
+        }
+    }
+
+    @Override
+    public void close() {
+        for (Range range : inFlight) {
+            range.future.cancel(true);
+        }
+        inFlight.clear();
+        pool.shutdownNow();
+        finished = true;
+    }
+
+    private static ThreadFactory daemonThreads() {
+        AtomicInteger counter = new AtomicInteger();
+        return task -> {
+            Thread thread = new Thread(task, "gzip-inflater-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Последовательная распаковка членов gzip начиная с заданного смещения
+     */
+    private static final class MemberInflater {
+        private final FileChannel channel;
+        private final long size;
+        private final SpscQueue<Block> queue;
+        private final Inflater inflater = new Inflater(true);
+        private final CRC32 crc = new CRC32();
+        private final byte[] input = new byte[INPUT_SIZE];
+        private final ByteBuffer inputBuffer = ByteBuffer.wrap(input);
+        private byte[] output = new byte[BLOCK_SIZE];
+        private int outputLength = 0;
+
+        private MemberInflater(FileChannel channel, long size, SpscQueue<Block> queue) {
+            this.channel = channel;
+            this.size = size;
+            this.queue = queue;
+        }
+
+        /**
+         * Распаковывает члены, начинающиеся раньше {@code limit}
+         *
+         * @return смещение конца последнего распакованного члена, либо размер файла,
+         * если после члена нет заголовка следующего (остаток файла игнорируется, как в gzip)
+         */
+        long inflate(long start, long limit) throws IOException, InterruptedException {
+            long pos = start;
+            try {
+                while (pos < limit) {
+                    long dataStart = readHeader(pos);
+                    if (dataStart < 0) {
+                        pos = size;
+                        break;
+                    }
+                    pos = inflateMember(dataStart);
+                }
+                if (outputLength > 0) {
+                    queue.put(new Block(output, outputLength, 0, null));
+                }
+                return pos;
+            } finally {
+                inflater.end();
+            }
+        }
+
+        /**
+         * @return начало сжатых данных члена или -1, если по смещению нет заголовка gzip
+         */
+        private long readHeader(long pos) throws IOException {
+            byte[] header = readFully(pos, HEADER_SIZE, false);
+            if (header == null || !isHeader(header, 0)) {
+                return -1;
+            }
+            int flags = header[3];
+            pos += HEADER_SIZE;
+            if ((flags & FEXTRA) != 0) {
+                byte[] length = readFully(pos, 2, true);
+                pos += 2 + ((length[0] & 0xff) | (length[1] & 0xff) << 8);
+            }
+            if ((flags & FNAME) != 0) {
+                pos = skipZeroTerminated(pos);
+            }
+            if ((flags & FCOMMENT) != 0) {
+                pos = skipZeroTerminated(pos);
+            }
+            if ((flags & FHCRC) != 0) {
+                pos += 2;
+            }
+            return pos;
+        }
+
+        /**
+         * Распаковывает сжатые данные одного члена и проверяет его окончание
+         *
+         * @return смещение сразу после окончания члена
+         */
+        private long inflateMember(long pos) throws IOException, InterruptedException {
+            inflater.reset();
+            crc.reset();
+            long inflated = 0;
+            try {
+                while (!inflater.finished()) {
+                    if (inflater.needsInput()) {
+                        inputBuffer.clear();
+                        int n = channel.read(inputBuffer, pos);
+                        if (n <= 0) {
+                            throw new EOFException("Неожиданный конец сжатого файла");
+                        }
+                        inflater.setInput(input, 0, n);
+                        pos += n;
+                    }
+                    int n = inflater.inflate(output, outputLength, output.length - outputLength);
+                    if (n == 0 && inflater.needsDictionary()) {
+                        throw new ZipException("Сжатые данные требуют словаря");
+                    }
+                    crc.update(output, outputLength, n);
+                    outputLength += n;
+                    inflated += n;
+                    if (outputLength == output.length) {
+                        queue.put(new Block(output, outputLength, 0, null));
+                        output = new byte[BLOCK_SIZE];
+                        outputLength = 0;
+                    }
+                }
+            } catch (DataFormatException e) {
+                throw new ZipException("Ошибка в сжатых данных: " + e.getMessage());
+            }
+            long trailer = pos - inflater.getRemaining();
+            byte[] bytes = readFully(trailer, TRAILER_SIZE, true);
+            long expectedCrc = readInt(bytes, 0);
+            long expectedSize = readInt(bytes, 4);
+            if (expectedCrc != crc.getValue() || expectedSize != (inflated & 0xffffffffL)) {
+                throw new ZipException("Несовпадение контрольной суммы gzip");
+            }
+            return trailer + TRAILER_SIZE;
+        }
+
+        private long skipZeroTerminated(long pos) throws IOException {
+            while (true) {
+                inputBuffer.clear();
+                int n = channel.read(inputBuffer, pos);
+                if (n <= 0) {
+                    throw new EOFException("Неожиданный конец сжатого файла");
+                }
+                for (int i = 0; i < n; i++) {
+                    if (input[i] == 0) {
+                        return pos + i + 1;
+                    }
+                }
+                pos += n;
+            }
+        }
+
+        /**
+         * @param required бросать ли исключение, если данных не хватает, иначе вернуть null
+         */
+        private byte[] readFully(long pos, int length, boolean required) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            while (buffer.hasRemaining() && pos + buffer.position() < size) {
+                if (channel.read(buffer, pos + buffer.position()) < 0) {
+                    break;
+                }
+            }
+            if (buffer.hasRemaining()) {
+                if (required) {
+                    throw new EOFException("Неожиданный конец сжатого файла");
+                }
+                return null;
+            }
+            return buffer.array();
+        }
+
+        private static long readInt(byte[] bytes, int offset) {
+            return (bytes[offset] & 0xffL) | (bytes[offset + 1] & 0xffL) << 8
+                    | (bytes[offset + 2] & 0xffL) << 16 | (bytes[offset + 3] & 0xffL) << 24;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package ru.paskal.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+
+/**
+ * Входной файл, открытый заранее {@link FilePrefetcher}, вместе с прочитанным началом. Обработка читает начало
+ * из памяти, а остальное - из уже открытого канала, поэтому не ждет ни открытия файла, ни первого чтения с диска.
+ * Закрывается тем, кто получил его из {@link FilePrefetcher#take(int)}
+ */
+public final class PrefetchedFile implements Closeable {
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final DirectBufferPool pool;
+    private boolean closed = false;
+
+    /**
+     * @param channel открытый канал файла
+     * @param buffer  буфер с началом файла от позиции 0 до предела
+     * @param pool    пул, в который буфер возвращается при закрытии
+     */
+    PrefetchedFile(FileChannel channel, ByteBuffer buffer, DirectBufferPool pool) {
+        this.channel = channel;
+        this.buffer = buffer;
+        this.pool = pool;
+    }
+
+    /**
+     * @return открытый канал файла
+     */
+    public FileChannel channel() {
+        return channel;
+    }
+
+    /**
+     * @return начало файла от позиции 0 до предела, действительно до {@link #close()}
+     */
+    public ByteBuffer head() {
+        return buffer.duplicate();
+    }
+
+    /**
+     * @return true если файл начинается с сигнатуры gzip, как в {@link CompressedInputs#isGzip(java.nio.file.Path)}
+     */
+    public boolean isGzip() {
+        return CompressedInputs.isGzip(buffer);
+    }
+
+    /**
+     * @return поток всего содержимого файла: сначала прочитанное начало, затем остальное из канала.
+     * Закрытие потока закрывает канал
+     */
+    public InputStream newInputStream() throws IOException {
+        channel.position(buffer.limit());
+        return new SequenceInputStream(new HeadInputStream(head()), Channels.newInputStream(channel));
+    }
+
+    /**
+     * Закрывает канал и возвращает буфер в пул, повторный вызов ничего не делает
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            channel.close();
+        } finally {
+            pool.release(buffer);
+        }
+    }
+
+    /**
+     * Чтение начала файла из буфера
+     */
+    private static final class HeadInputStream extends InputStream {
+        private final ByteBuffer head;
+
+        HeadInputStream(ByteBuffer head) {
+            this.head = head;
+        }
+
+        @Override
+        public int read() {
+            return head.hasRemaining() ? head.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!head.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, head.remaining());
+            head.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return head.remaining();
+        }
+    }
+}
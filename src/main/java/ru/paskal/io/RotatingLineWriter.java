@@ -0,0 +1,207 @@
+package ru.paskal.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Запись строк в последовательность файлов-сегментов с переходом к следующему сегменту по объему или количеству строк.
+ * Переход выполняется только на границе строки, когда текущий сегмент уже содержит не меньше заданного объема
+ * или ровно заданное количество строк, поэтому сегмент может превышать объем не более чем на одну строку.
+ * Предыдущий сегмент закрывается до создания следующего: появление сегмента означает, что все предыдущие полностью записаны.
+ * <p>
+ * Объем считается в байтах до сжатия. Границы строк в уже закодированных данных определяются по байту {@code '\n'},
+ * поэтому системная кодировка должна быть совместима с ASCII.
+ */
+public class RotatingLineWriter implements LineWriter {
+    private static final int APPEND_CHUNK_SIZE = 1 << 16;
+
+    /**
+     * Открытие сегмента по номеру
+     */
+    @FunctionalInterface
+    public interface SegmentOpener {
+        /**
+         * @param index номер сегмента
+         * @return {@link LineWriter} нового сегмента
+         */
+        LineWriter open(int index) throws IOException;
+    }
+
+    private final SegmentOpener opener;
+    private final long maxBytes;
+    private final long maxLines;
+    private final Charset charset = Charset.defaultCharset();
+    private final int separatorLength = System.lineSeparator().getBytes(charset).length;
+    private LineWriter current;
+    private int index;
+    private long bytes = 0;
+    private long lines = 0;
+    private boolean atLineStart = true;
+    private FlushListener flushListener;
+
+    /**
+     * @param opener     открытие сегментов
+     * @param firstIndex номер первого сегмента
+     * @param maxBytes   объем сегмента в байтах или 0, если объем не ограничен
+     * @param maxLines   количество строк в сегменте или 0, если количество не ограничено
+     */
+    public RotatingLineWriter(SegmentOpener opener, int firstIndex, long maxBytes, long maxLines) throws IOException {
+        if (maxBytes <= 0 && maxLines <= 0) {
+            throw new IllegalArgumentException("Не задан объем или количество строк сегмента");
+        }
+        this.opener = opener;
+        this.maxBytes = maxBytes;
+        this.maxLines = maxLines;
+        this.index = firstIndex;
+        this.current = opener.open(firstIndex);
+    }
+
+    @Override
+    public void writeLine(CharSequence line) throws IOException {
+        segment().writeLine(line);
+        if (maxBytes > 0) {
+            bytes += encodedLength(line) + separatorLength;
+        }
+        lines++;
+    }
+
+    /**
+     * Данные делятся между сегментами по границам строк, строка может приходить частями в нескольких вызовах
+     */
+    @Override
+    public void writeEncoded(byte[] data, int offset, int length) throws IOException {
+        while (length > 0) {
+            LineWriter segment = segment();
+            int cut = findCut(data, offset, length);
+            segment.writeEncoded(data, offset, cut);
+            bytes += cut;
+            atLineStart = data[offset + cut - 1] == '\n';
+            offset += cut;
+            length -= cut;
+        }
+    }
+
+    /**
+     * Считает строки данных и находит конец строки, после которой текущий сегмент заполняется
+     *
+     * @return количество байтов, записываемых в текущий сегмент
+     */
+    private int findCut(byte[] data, int offset, int length) {
+        int end = offset + length;
+        int from = offset;
+        if (maxLines <= 0) {
+            // Строки не считаются, поэтому байты, не заполняющие сегмент, можно пропустить
+            from += (int) Math.min(length, Math.max(0, maxBytes - bytes - 1));
+        }
+        for (int i = from; i < end; i++) {
+            if (data[i] == '\n') {
+                lines++;
+                if (maxLines > 0 && lines >= maxLines || maxBytes > 0 && bytes + i + 1 - offset >= maxBytes) {
+                    return i + 1 - offset;
+                }
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Диапазон, целиком помещающийся в текущий сегмент, переносится без копирования, остальные читаются частями
+     */
+    @Override
+    public void append(FileChannel src, long position, long count) throws IOException {
+        if (count <= 0) {
+            return;
+        }
+        if (maxLines <= 0 && atLineStart && bytes + count < maxBytes) {
+            segment().append(src, position, count);
+            bytes += count;
+            return;
+        }
+        ByteBuffer chunk = ByteBuffer.allocate(APPEND_CHUNK_SIZE);
+        long end = position + count;
+        while (position < end) {
+            chunk.clear().limit((int) Math.min(chunk.capacity(), end - position));
+            int n = src.read(chunk, position);
+            if (n < 0) {
+                throw new EOFException("Файл %d байт короче ожидаемого".formatted(end - position));
+            }
+            writeEncoded(chunk.array(), 0, n);
+            position += n;
+        }
+    }
+
+    private boolean isFull() {
+        return maxLines > 0 && lines >= maxLines || maxBytes > 0 && bytes >= maxBytes;
+    }
+
+    /**
+     * Закрывает заполненный сегмент на границе строки и открывает следующий. Если сегмент не удалось открыть,
+     * попытка повторяется при следующей записи
+     *
+     * @return текущий сегмент
+     */
+    private LineWriter segment() throws IOException {
+        if (current != null && atLineStart && isFull()) {
+            LineWriter previous = current;
+            current = null;
+            index++;
+            bytes = 0;
+            lines = 0;
+            previous.close();
+        }
+        if (current == null) {
+            current = opener.open(index);
+            current.setFlushListener(flushListener);
+        }
+        return current;
+    }
+
+    /**
+     * @return длина строки в байтах системной кодировки, строки ASCII не кодируются
+     */
+    private int encodedLength(CharSequence line) {
+        int len = line.length();
+        if (line instanceof AsciiByteSequence) {
+            return len;
+        }
+        for (int i = 0; i < len; i++) {
+            if (line.charAt(i) >= 0x80) {
+                return line.toString().getBytes(charset).length;
+            }
+        }
+        return len;
+    }
+
+    @Override
+    public void setFlushListener(FlushListener listener) {
+        this.flushListener = listener;
+        if (current != null) {
+            current.setFlushListener(listener);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (current != null) {
+            current.flush();
+        }
+    }
+
+    @Override
+    public void sync() throws IOException {
+        if (current != null) {
+            current.sync();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (current != null) {
+            current.close();
+            current = null;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package ru.paskal.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Побайтовый поиск строк, используется, когда Vector API недоступен. Не хранит состояния
+ */
+final class ScalarLineScanner implements LineScanner {
+    static final ScalarLineScanner INSTANCE = new ScalarLineScanner();
+
+    private ScalarLineScanner() {
+    }
+
+    @Override
+    public int scan(ByteBuffer buffer, int len, boolean last, MappedLineReader.LineHandler handler) throws IOException {
+        int lineStart = 0;
+        int bits = 0;
+        for (int i = 0; i < len; i++) {
+            byte b = buffer.get(i);
+            if (b != '\n' && b != '\r') {
+                bits |= b;
+                continue;
+            }
+            int next = i + 1;
+            if (b == '\r') {
+                if (next == len) {
+                    if (!last) {
+                        // Нельзя решить, является ли \r частью \r\n, пока не прочитан следующий байт
+                        return lineStart;
+                    }
+                } else if (buffer.get(next) == '\n') {
+                    next++;
+                }
+            }
+            handler.onLine(buffer, lineStart, i, bits >= 0);
+            lineStart = next;
+            i = next - 1;
+            bits = 0;
+        }
+        if (!last) {
+            return lineStart;
+        }
+        if (lineStart < len) {
+            handler.onLine(buffer, lineStart, len, bits >= 0);
+        }
+        return len;
+    }
+}
@@ -0,0 +1,132 @@
+package ru.paskal.io;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Чтение потока, например стандартного ввода, вместе с отслеживаемыми файлами: поток читается построчно
+ * в отдельном потоке чтения, а каждый вызов {@link #poll(Consumer)} без ожидания передает обработчику
+ * уже прочитанные строки. Поэтому поток, в котором данные появляются редко или не заканчиваются,
+ * не задерживает опрос файлов и остановку обработки. Прочитанные, но не переданные строки ограничены
+ * {@link #CAPACITY}, при заполнении чтение ждет (обратное давление).
+ * <p>
+ * Чтение стандартного ввода нельзя прервать, поэтому после {@link #close()} поток чтения завершается
+ * сам при получении следующей строки или конца потока, а пока ожидает данных, не мешает завершению программы
+ */
+@Slf4j
+public class StreamFollower implements Closeable {
+    private static final int CAPACITY = 1 << 13;
+    /**
+     * Наибольшее количество строк за один вызов {@link #poll(Consumer)}, чтобы не задерживать опрос файлов
+     */
+    private static final int POLL_LINES = 1 << 12;
+    private static final long OFFER_MILLIS = 100;
+    /**
+     * Признак конца потока, сравнивается по ссылке
+     */
+    private static final String END = new String();
+
+    @Getter
+    private final String name;
+    private final BlockingQueue<String> lines = new ArrayBlockingQueue<>(CAPACITY);
+    private volatile IOException error;
+    private volatile boolean closed = false;
+    private boolean finished = false;
+
+    /**
+     * Запускает чтение потока
+     *
+     * @param in      поток байтов, не закрывается
+     * @param charset кодировка строк
+     * @param name    имя потока для сообщений и имени потока чтения
+     */
+    public StreamFollower(InputStream in, Charset charset, String name) {
+        this.name = name;
+        Thread thread = new Thread(() -> run(new BufferedReader(new InputStreamReader(in, charset))),
+                "follow-" + name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void run(BufferedReader reader) {
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!offer(line)) {
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            error = e;
+        }
+        offer(END);
+    }
+
+    /**
+     * @return false если чтение остановлено
+     */
+    private boolean offer(String line) {
+        try {
+            while (!closed) {
+                if (lines.offer(line, OFFER_MILLIS, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    /**
+     * Передает обработчику строки, прочитанные с прошлого вызова, не дожидаясь новых
+     *
+     * @param handler обработчик строк
+     * @return true если были переданы строки
+     * @throws IOException ошибка чтения потока, выбрасывается один раз после всех строк, прочитанных до нее
+     */
+    public boolean poll(Consumer<String> handler) throws IOException {
+        boolean progress = false;
+        for (int i = 0; i < POLL_LINES && !finished; i++) {
+            String line = lines.poll();
+            if (line == null) {
+                break;
+            }
+            if (line == END) {
+                finished = true;
+                log.info("Поток {} прочитан до конца", name);
+                if (error != null) {
+                    throw error;
+                }
+                break;
+            }
+            handler.accept(line);
+            progress = true;
+        }
+        return progress;
+    }
+
+    /**
+     * @return true если поток прочитан до конца и все его строки переданы обработчику
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        lines.clear();
+    }
+}
@@ -0,0 +1,64 @@
+package ru.paskal.io;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+/**
+ * Буферизированная запись строк в файл в системной кодировке, как это делал {@link java.io.FileWriter}.
+ * Строки ASCII копируются в буфер побайтно, без промежуточного кодирования.
+ */
+public class StreamLineWriter extends BufferedLineWriter {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final FileOutputStream out;
+
+    /**
+     * @param path   путь к файлу
+     * @param append дописывать ли данные в конец существующего файла
+     */
+    public StreamLineWriter(String path, boolean append) throws IOException {
+        super(new byte[BUFFER_SIZE]);
+        this.out = new FileOutputStream(path, append);
+    }
+
+    @Override
+    protected byte[] drain(byte[] buffer, int length) throws IOException {
+        out.write(buffer, 0, length);
+        return buffer;
+    }
+
+    @Override
+    protected void writeDirect(byte[] bytes, int offset, int length) throws IOException {
+        out.write(bytes, offset, length);
+    }
+
+    /**
+     * Переносит диапазон файла средствами {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)},
+     * без копирования через буфер приложения
+     */
+    @Override
+    public void append(FileChannel src, long position, long count) throws IOException {
+        flushBuffer();
+        FileChannel dst = out.getChannel();
+        long transferred = 0;
+        while (transferred < count) {
+            transferred += src.transferTo(position + transferred, count - transferred, dst);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flushBuffer();
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package ru.paskal.io;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Поиск строк через Vector API. Окно копируется блоками в массив, каждый вектор из 32 или 64 байт
+ * (в зависимости от процессора) сравнивается сразу со всеми интересующими классами байтов, а результаты
+ * переводятся в битовые маски: концы строк, байты вне ASCII и байты, которые не могут входить в число.
+ * Строки находятся перебором единичных битов маски концов строк, признаки строки - проверкой масок
+ * в ее диапазоне, поэтому байты внутри строки по отдельности не просматриваются.
+ * <p>
+ * Признак {@code numeric} консервативен: false означает, что строка содержит байт вне алфавита чисел Java
+ * (цифры, знаки, точка, пробельные символы, буквы шестнадцатеричных чисел, экспонент, суффиксов,
+ * NaN и Infinity), и такую строку {@link ru.paskal.utils.LineClassifier} гарантированно отнес бы к строкам.
+ * Результат поиска совпадает со скалярной реализацией
+ */
+final class VectorLineScanner implements LineScanner {
+    static final int MIN_LANES = 16;
+    private static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED;
+    private static final int LANES = SPECIES.length();
+    private static final int BLOCK_SIZE = 16 << 10;
+    /**
+     * Байт дополнения последнего неполного вектора: не конец строки, ASCII и может входить в число
+     */
+    private static final byte PADDING = '0';
+
+    private final byte[] block = new byte[BLOCK_SIZE];
+    private final boolean afterWarmUp;
+
+    /**
+     * @param afterWarmUp искать строки скалярно, пока векторный код не прогрет ({@link VectorSupport#isWarm()}):
+     *                    до компиляции JIT каждая операция Vector API создает объект, и первые мегабайты
+     *                    просматриваются в десятки раз медленнее скалярного поиска
+     */
+    VectorLineScanner(boolean afterWarmUp) {
+        this.afterWarmUp = afterWarmUp;
+    }
+
+    /**
+     * @return количество байтов в векторе предпочтительного размера
+     */
+    static int lanes() {
+        return SPECIES.length();
+    }
+
+    @Override
+    public int scan(ByteBuffer buffer, int len, boolean last, MappedLineReader.LineHandler handler) throws IOException {
+        if (afterWarmUp && !VectorSupport.isWarm()) {
+            return ScalarLineScanner.INSTANCE.scan(buffer, len, last, handler);
+        }
+        int lineStart = 0;
+        boolean text = false;
+        boolean nonAscii = false;
+        for (int base = 0; base < len; base += BLOCK_SIZE) {
+            int n = Math.min(BLOCK_SIZE, len - base);
+            buffer.get(base, block, 0, n);
+            int padded = (n + LANES - 1) & -LANES;
+            Arrays.fill(block, n, padded, PADDING);
+            for (int i = 0; i < padded; i += LANES) {
+                ByteVector v = ByteVector.fromArray(SPECIES, block, i);
+                long eols = v.eq((byte) '\n').or(v.eq((byte) '\r')).toLong();
+                long texts = textMask(v).toLong();
+                long highs = v.lt((byte) 0).toLong();
+                int offset = base + i;
+                // Первый байт текущей строки в векторе; после \r\n на границе векторов строка начинается во втором байте
+                int from = Math.max(0, lineStart - offset);
+                while (eols != 0) {
+                    int lane = Long.numberOfTrailingZeros(eols);
+                    eols &= eols - 1;
+                    int pos = offset + lane;
+                    if (pos < lineStart) {
+                        // \n из пары \r\n, уже учтенной вместе с \r
+                        continue;
+                    }
+                    long range = ((1L << lane) - 1) & (-1L << from);
+                    text |= (texts & range) != 0;
+                    nonAscii |= (highs & range) != 0;
+                    int next = pos + 1;
+                    if (block[i + lane] == '\r') {
+                        if (next == len) {
+                            if (!last) {
+                                // Нельзя решить, является ли \r частью \r\n, пока не прочитан следующий байт
+                                return lineStart;
+                            }
+                        } else if (buffer.get(next) == '\n') {
+                            next++;
+                        }
+                    }
+                    handler.onLine(buffer, lineStart, pos, !nonAscii, !text);
+                    lineStart = next;
+                    text = false;
+                    nonAscii = false;
+                    from = lineStart - offset;
+                }
+                if (from < LANES) {
+                    long rest = -1L << from;
+                    text |= (texts & rest) != 0;
+                    nonAscii |= (highs & rest) != 0;
+                }
+            }
+        }
+        if (!last) {
+            return lineStart;
+        }
+        if (lineStart < len) {
+            handler.onLine(buffer, lineStart, len, !nonAscii, !text);
+        }
+        return len;
+    }
+
+    /**
+     * Отмечает байты, которые не могут входить в число Java. Буквы сравниваются после приведения к нижнему
+     * регистру установкой бита 0x20, диапазоны - беззнаковым сравнением после вычитания начала диапазона.
+     * Байты вне ASCII отрицательны и больше любой границы при беззнаковом сравнении
+     */
+    private static VectorMask<Byte> textMask(ByteVector v) {
+        ByteVector folded = v.or((byte) 0x20);
+        return v.compare(VectorOperators.UNSIGNED_LE, (byte) ' ')
+                .or(v.sub((byte) '+').compare(VectorOperators.UNSIGNED_LE, (byte) ('9' - '+')))
+                .or(folded.sub((byte) 'a').compare(VectorOperators.UNSIGNED_LE, (byte) ('f' - 'a')))
+                .or(folded.eq((byte) 'i'))
+                .or(folded.eq((byte) 'n'))
+                .or(folded.eq((byte) 'p'))
+                .or(folded.eq((byte) 't'))
+                .or(folded.sub((byte) 'x').compare(VectorOperators.UNSIGNED_LE, (byte) ('y' - 'x')))
+                .not();
+    }
+}
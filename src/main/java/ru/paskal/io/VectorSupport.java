@@ -0,0 +1,111 @@
+package ru.paskal.io;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Проверка доступности Vector API для {@link VectorLineScanner}. Вынесена в отдельный класс, который не ссылается
+ * на классы {@code jdk.incubator.vector}: без модуля загрузка {@link VectorLineScanner} завершается ошибкой.
+ * Здесь же выполняется фоновый прогрев векторного кода, до окончания которого {@link LineScanner#preferred()}
+ * ищет строки скалярно
+ */
+@Slf4j
+final class VectorSupport {
+    private static final int WARM_UP_BLOCK = 64 << 10;
+    private static final int WARM_UP_ROUNDS = 512;
+
+    private static volatile boolean warm;
+
+    private VectorSupport() {
+    }
+
+    /**
+     * @return доступен ли Vector API, проверка выполняется один раз
+     */
+    static boolean isAvailable() {
+        return Holder.AVAILABLE;
+    }
+
+    /**
+     * Запускает прогрев при первом вызове. На одном процессоре прогрев не запускается: он отнимал бы время
+     * у обработки и на входных данных в сотни мегабайт не окупается
+     *
+     * @return прогрет ли векторный код
+     */
+    static boolean isWarm() {
+        return WarmUp.STARTED && warm;
+    }
+
+    private static final class Holder {
+        private static final boolean AVAILABLE = check();
+    }
+
+    private static final class WarmUp {
+        private static final boolean STARTED = start();
+    }
+
+    private static boolean start() {
+        if (Runtime.getRuntime().availableProcessors() < 2) {
+            log.debug("Один процессор, векторный поиск строк не прогревается, строки ищутся скалярно");
+            return false;
+        }
+        Thread thread = new Thread(VectorSupport::warmUp, "vector-warm-up");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+        return true;
+    }
+
+    /**
+     * Просматривает синтетический блок строк, пока JIT не скомпилирует векторный поиск. Прогрев идет параллельно
+     * с обработкой, которая тем временем ищет строки скалярно
+     */
+    private static void warmUp() {
+        ByteBuffer block = ByteBuffer.allocateDirect(WARM_UP_BLOCK);
+        for (int i = 0; block.remaining() > 32; i++) {
+            String line = switch (i % 4) {
+                case 0 -> Integer.toString(i * 7919) + "\n";
+                case 1 -> i + ".5e-3\r\n";
+                case 2 -> "warm up line " + i + "\n";
+                default -> "строка " + i + "\r";
+            };
+            block.put(line.getBytes(StandardCharsets.UTF_8));
+        }
+        int len = block.position();
+        long start = System.nanoTime();
+        long[] lines = new long[1];
+        VectorLineScanner scanner = new VectorLineScanner(false);
+        try {
+            for (int round = 0; round < WARM_UP_ROUNDS; round++) {
+                scanner.scan(block, len, true, (buffer, from, to, ascii) -> lines[0]++);
+            }
+        } catch (IOException | RuntimeException e) {
+            log.debug("Прогрев векторного поиска строк прерван, строки ищутся скалярно: {}", e.toString());
+            return;
+        }
+        warm = true;
+        log.debug("Векторный поиск строк прогрет за {} мс", (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private static boolean check() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            log.debug("Модуль jdk.incubator.vector не подключен, строки ищутся скалярно");
+            return false;
+        }
+        try {
+            int lanes = VectorLineScanner.lanes();
+            if (lanes < VectorLineScanner.MIN_LANES) {
+                log.debug("Векторы из {} байт слишком короткие, строки ищутся скалярно", lanes);
+                return false;
+            }
+            log.debug("Строки ищутся векторными инструкциями по {} байт", lanes);
+            return true;
+        } catch (LinkageError | RuntimeException e) {
+            log.debug("Vector API недоступен, строки ищутся скалярно: {}", e.toString());
+            return false;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package ru.paskal.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Событие JFR о завершении обработки входного файла
+ */
+@Name("ru.paskal.FileProcessed")
+@Label("Обработка файла")
+@Category("File Util")
+@Description("Объем и длительность обработки одного входного файла")
+@StackTrace(false)
+class FileProcessedEvent extends jdk.jfr.Event {
+    @Label("Файл")
+    String file;
+
+    @Label("Строк")
+    long lines;
+
+    @Label("Объем")
+    @DataAmount
+    long bytes;
+
+    @Label("Длительность обработки")
+    @Timespan
+    long processingTime;
+}
@@ -0,0 +1,432 @@
+package ru.paskal.metrics;
+
+import jdk.jfr.FlightRecorder;
+import lombok.extern.slf4j.Slf4j;
+import ru.paskal.io.FlushListener;
+import ru.paskal.utils.StringTypesEnum;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Метрики обработки: количество и объем строк по типам, скорость обработки файлов, время классификации
+ * и длительность записи в выходные файлы. Метрики доступны через JMX ({@link ProcessingMetricsMBean}),
+ * события JFR и строку прогресса {@link #formatProgress()}.
+ * <p>
+ * Накладные расходы рассчитаны на постоянную работу: потоки обработки считают строки в собственных
+ * {@link Recorder} и переносят счетчики в общие {@link LongAdder} пакетами, а время классификации
+ * измеряется только для каждой {@value #SAMPLE_INTERVAL}-й строки и экстраполируется на все строки.
+ * События JFR создаются, только если JFR запущен (например, {@code -XX:StartFlightRecording} или {@code jcmd JFR.start}),
+ * так как первое обращение к классам событий инициализирует JFR и задерживает запуск. По той же причине MBean
+ * регистрируется в отдельном потоке: обработка не ожидает создания платформенного {@link MBeanServer}.
+ */
+@Slf4j
+public class ProcessingMetrics implements ProcessingMetricsMBean {
+    /**
+     * Имя MBean метрик
+     */
+    public static final String OBJECT_NAME = "ru.paskal:type=ProcessingMetrics";
+    /**
+     * Время классификации измеряется для одной строки из стольких
+     */
+    public static final int SAMPLE_INTERVAL = 64;
+
+    private static final int PUBLISH_LINES = 1 << 12;
+    private static final double NANOS_PER_SECOND = 1e9;
+    private static final double NANOS_PER_MILLI = 1e6;
+    private static final double BYTES_PER_MB = 1 << 20;
+
+    private final LongAdder lines = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder[] typeCounts = new LongAdder[StringTypesEnum.values().length];
+    private final LongAdder files = new LongAdder();
+    private final LongAdder sampledLines = new LongAdder();
+    private final LongAdder sampledNanos = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder flushNanos = new LongAdder();
+    private final LongAccumulator maxFlushNanos = new LongAccumulator(Long::max, 0);
+    private final Runnable throughputHook = this::emitThroughput;
+    private volatile long startNanos = System.nanoTime();
+    private volatile long endNanos = 0;
+    private String objectName = OBJECT_NAME;
+    private ObjectName registeredName;
+    private boolean running;
+    private boolean throughputHookAdded;
+    private long progressLines;
+    private long progressBytes;
+    private long progressNanos;
+
+    public ProcessingMetrics() {
+        for (int i = 0; i < typeCounts.length; i++) {
+            typeCounts[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Начинает отсчет времени обработки, регистрирует периодическое событие JFR и запускает регистрацию MBean.
+     * Если MBean с тем же именем уже зарегистрирован, например другой обработкой в том же процессе,
+     * метрики доступны только через JFR и лог
+     */
+    public synchronized void start() {
+        startNanos = System.nanoTime();
+        endNanos = 0;
+        progressNanos = startNanos;
+        running = true;
+        if (isJfrStarted()) {
+            FlightRecorder.addPeriodicEvent(ThroughputEvent.class, throughputHook);
+            throughputHookAdded = true;
+        }
+        Thread registration = new Thread(this::registerMBean, "metrics-jmx");
+        registration.setDaemon(true);
+        registration.start();
+    }
+
+    /**
+     * Останавливает отсчет времени обработки, снимает регистрацию MBean и периодического события JFR
+     */
+    public synchronized void stop() {
+        endNanos = System.nanoTime();
+        running = false;
+        if (throughputHookAdded) {
+            FlightRecorder.removePeriodicEvent(throughputHook);
+            throughputHookAdded = false;
+        }
+        if (registeredName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+        } catch (JMException e) {
+            log.warn("Не удалось снять регистрацию MBean {}: {}", registeredName, e.getMessage());
+        }
+        registeredName = null;
+    }
+
+    /**
+     * Задает имя обработки, чтобы метрики одновременных обработок в одном процессе регистрировались
+     * как отдельные MBean {@code ru.paskal:type=ProcessingMetrics,job=<имя>}. Вызывается до {@link #start()}
+     *
+     * @param job имя обработки, допустимое в значении {@link ObjectName}
+     */
+    public synchronized void setJob(String job) {
+        objectName = OBJECT_NAME + ",job=" + job;
+    }
+
+    /**
+     * @return true если MBean метрик зарегистрирован
+     */
+    public synchronized boolean isRegistered() {
+        return registeredName != null;
+    }
+
+    /**
+     * Регистрирует MBean, если обработка еще не завершена. Платформенный {@link MBeanServer}
+     * создается вне блокировки, так как это занимает сотни миллисекунд
+     */
+    private void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(objectName);
+            synchronized (this) {
+                if (!running || registeredName != null) {
+                    return;
+                }
+                if (server.isRegistered(name)) {
+                    log.warn("MBean {} уже зарегистрирован, метрики не будут доступны через JMX", name);
+                    return;
+                }
+                server.registerMBean(this, name);
+                registeredName = name;
+            }
+        } catch (JMException e) {
+            log.warn("Не удалось зарегистрировать MBean {}: {}", objectName, e.getMessage());
+        }
+    }
+
+    /**
+     * @return счетчик строк для одного потока обработки
+     */
+    public Recorder newRecorder() {
+        return new Recorder(this);
+    }
+
+    /**
+     * @param type тип строк выходного файла
+     * @return получатель сведений о записи в выходной файл указанного типа
+     */
+    public FlushListener flushListener(StringTypesEnum type) {
+        String typeName = type.name();
+        return (written, nanos) -> {
+            flushes.increment();
+            flushNanos.add(nanos);
+            maxFlushNanos.accumulate(nanos);
+            if (!isJfrStarted()) {
+                return;
+            }
+            WriterFlushEvent event = new WriterFlushEvent();
+            if (event.isEnabled()) {
+                event.type = typeName;
+                event.bytes = written;
+                event.flushTime = nanos;
+                event.commit();
+            }
+        };
+    }
+
+    /**
+     * Учитывает полностью обработанный входной файл: выводит в лог скорость его обработки
+     * и создает событие JFR. Строки файла учитываются отдельно, через {@link Recorder}
+     *
+     * @param file      путь к файлу
+     * @param fileLines количество строк файла
+     * @param fileBytes объем строк файла
+     * @param nanos     длительность обработки
+     */
+    public void fileProcessed(String file, long fileLines, long fileBytes, long nanos) {
+        files.increment();
+        double seconds = Math.max(nanos, 1) / NANOS_PER_SECOND;
+        log.info("Файл {} обработан за {} мс: {} строк, {} строк/с, {} МБ/с", file, Math.round(nanos / NANOS_PER_MILLI),
+                fileLines, Math.round(fileLines / seconds), "%.1f".formatted(fileBytes / BYTES_PER_MB / seconds));
+        if (!isJfrStarted()) {
+            return;
+        }
+        FileProcessedEvent event = new FileProcessedEvent();
+        if (event.isEnabled()) {
+            event.file = file;
+            event.lines = fileLines;
+            event.bytes = fileBytes;
+            event.processingTime = nanos;
+            event.commit();
+        }
+    }
+
+    /**
+     * Строка прогресса со скоростью обработки с момента предыдущего вызова.
+     * Вызывается из одного потока, например потока таймера
+     *
+     * @return строка прогресса
+     */
+    public synchronized String formatProgress() {
+        long now = System.nanoTime();
+        long totalLines = lines.sum();
+        long totalBytes = bytes.sum();
+        double seconds = Math.max(now - progressNanos, 1) / NANOS_PER_SECOND;
+        String progress = ("Обработано %d строк (%.1f МБ), %d строк/с, %.1f МБ/с; целых чисел %d, " +
+                "вещественных чисел %d, строк %d; файлов %d").formatted(
+                totalLines, totalBytes / BYTES_PER_MB,
+                Math.round((totalLines - progressLines) / seconds),
+                (totalBytes - progressBytes) / BYTES_PER_MB / seconds,
+                getIntegerCount(), getFloatCount(), getStringCount(), files.sum());
+        progressLines = totalLines;
+        progressBytes = totalBytes;
+        progressNanos = now;
+        return progress;
+    }
+
+    /**
+     * @return итоговая сводка: средняя скорость, доля времени классификации и длительность записи в выходные файлы
+     */
+    public String formatSummary() {
+        double seconds = getElapsedMillis() / 1e3;
+        return ("Обработано %d строк (%.1f МБ) за %.1f с: %d строк/с, %.1f МБ/с; классификация около %d мс " +
+                "(%.0f нс на строку); записей в выходные файлы %d, средняя %.2f мс, наибольшая %.2f мс").formatted(
+                getLines(), getBytes() / BYTES_PER_MB, seconds, Math.round(getLinesPerSecond()),
+                getBytesPerSecond() / BYTES_PER_MB, getClassificationMillis(), getClassificationNanosPerLine(),
+                getFlushCount(), getAverageFlushMillis(), getMaxFlushMillis());
+    }
+
+    @Override
+    public long getLines() {
+        return lines.sum();
+    }
+
+    @Override
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    @Override
+    public long getIntegerCount() {
+        return typeCounts[StringTypesEnum.INTEGER.ordinal()].sum();
+    }
+
+    @Override
+    public long getFloatCount() {
+        return typeCounts[StringTypesEnum.FLOAT.ordinal()].sum();
+    }
+
+    @Override
+    public long getStringCount() {
+        return typeCounts[StringTypesEnum.STRING.ordinal()].sum();
+    }
+
+    @Override
+    public long getFilesProcessed() {
+        return files.sum();
+    }
+
+    @Override
+    public double getLinesPerSecond() {
+        return lines.sum() / elapsedSeconds();
+    }
+
+    @Override
+    public double getBytesPerSecond() {
+        return bytes.sum() / elapsedSeconds();
+    }
+
+    @Override
+    public double getClassificationNanosPerLine() {
+        long samples = sampledLines.sum();
+        return samples == 0 ? 0 : (double) sampledNanos.sum() / samples;
+    }
+
+    @Override
+    public long getClassificationMillis() {
+        return Math.round(getClassificationNanosPerLine() * lines.sum() / NANOS_PER_MILLI);
+    }
+
+    @Override
+    public long getFlushCount() {
+        return flushes.sum();
+    }
+
+    @Override
+    public double getAverageFlushMillis() {
+        long count = flushes.sum();
+        return count == 0 ? 0 : flushNanos.sum() / NANOS_PER_MILLI / count;
+    }
+
+    @Override
+    public double getMaxFlushMillis() {
+        return maxFlushNanos.get() / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public long getElapsedMillis() {
+        long end = endNanos != 0 ? endNanos : System.nanoTime();
+        return Math.round((end - startNanos) / NANOS_PER_MILLI);
+    }
+
+    private double elapsedSeconds() {
+        long end = endNanos != 0 ? endNanos : System.nanoTime();
+        return Math.max(end - startNanos, 1) / NANOS_PER_SECOND;
+    }
+
+    /**
+     * @return true если JFR уже инициализирован и события могут быть записаны
+     */
+    private static boolean isJfrStarted() {
+        return FlightRecorder.isInitialized();
+    }
+
+    private void emitThroughput() {
+        ThroughputEvent event = new ThroughputEvent();
+        event.lines = lines.sum();
+        event.bytes = bytes.sum();
+        event.integers = getIntegerCount();
+        event.floats = getFloatCount();
+        event.strings = getStringCount();
+        event.files = files.sum();
+        event.commit();
+    }
+
+    /**
+     * Счетчик строк одного потока обработки, не потокобезопасен. Счетчики переносятся в общие метрики
+     * каждые {@value #PUBLISH_LINES} строк и при вызове {@link #publish()}
+     */
+    public static final class Recorder {
+        private final ProcessingMetrics metrics;
+        private final long[] typeCounts = new long[StringTypesEnum.values().length];
+        private long lines;
+        private long bytes;
+        private long sampledLines;
+        private long sampledNanos;
+        private long totalLines;
+        private long totalBytes;
+
+        private Recorder(ProcessingMetrics metrics) {
+            this.metrics = metrics;
+        }
+
+        /**
+         * @return нужно ли измерить время классификации следующей строки
+         */
+        public boolean isSampled() {
+            return (totalLines & (SAMPLE_INTERVAL - 1)) == 0;
+        }
+
+        /**
+         * @param nanos время классификации строки, выбранной {@link #isSampled()}
+         */
+        public void recordClassification(long nanos) {
+            sampledLines++;
+            sampledNanos += nanos;
+        }
+
+        /**
+         * @param type      тип строки, null для пользовательского типа, такие строки учитываются только в общих счетчиках
+         * @param lineBytes объем строки вместе с разделителем
+         */
+        public void recordLine(StringTypesEnum type, int lineBytes) {
+            if (type != null) {
+                typeCounts[type.ordinal()]++;
+            }
+            lines++;
+            bytes += lineBytes;
+            totalLines++;
+            totalBytes += lineBytes;
+            if (lines == PUBLISH_LINES) {
+                publish();
+            }
+        }
+
+        /**
+         * Переносит накопленные счетчики в общие метрики
+         */
+        public void publish() {
+            if (lines == 0) {
+                return;
+            }
+            metrics.lines.add(lines);
+            metrics.bytes.add(bytes);
+            for (int i = 0; i < typeCounts.length; i++) {
+                if (typeCounts[i] != 0) {
+                    metrics.typeCounts[i].add(typeCounts[i]);
+                    typeCounts[i] = 0;
+                }
+            }
+            metrics.sampledLines.add(sampledLines);
+            metrics.sampledNanos.add(sampledNanos);
+            lines = 0;
+            bytes = 0;
+            sampledLines = 0;
+            sampledNanos = 0;
+        }
+
+        /**
+         * @return количество строк, учтенных этим счетчиком за все время
+         */
+        public long getTotalLines() {
+            return totalLines;
+        }
+
+        /**
+         * @return объем строк, учтенных этим счетчиком за все время
+         */
+        public long getTotalBytes() {
+            return totalBytes;
+        }
+
+        /**
+         * @return общие метрики, в которые переносятся счетчики
+         */
+        public ProcessingMetrics getMetrics() {
+            return metrics;
+        }
+    }
+}
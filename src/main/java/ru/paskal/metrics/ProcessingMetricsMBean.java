@@ -0,0 +1,67 @@
+package ru.paskal.metrics;
+
+/**
+ * Атрибуты JMX метрик обработки, см. {@link ProcessingMetrics}
+ */
+public interface ProcessingMetricsMBean {
+    /**
+     * @return количество обработанных строк
+     */
+    long getLines();
+
+    /**
+     * @return объем обработанных строк в байтах вместе с разделителями
+     */
+    long getBytes();
+
+    long getIntegerCount();
+
+    long getFloatCount();
+
+    long getStringCount();
+
+    /**
+     * @return количество полностью обработанных входных файлов
+     */
+    long getFilesProcessed();
+
+    /**
+     * @return средняя скорость обработки с начала работы, строк в секунду
+     */
+    double getLinesPerSecond();
+
+    /**
+     * @return средняя скорость обработки с начала работы, байтов в секунду
+     */
+    double getBytesPerSecond();
+
+    /**
+     * @return оценка среднего времени классификации одной строки по выборке строк, в наносекундах
+     */
+    double getClassificationNanosPerLine();
+
+    /**
+     * @return оценка суммарного времени классификации всех строк, в миллисекундах
+     */
+    long getClassificationMillis();
+
+    /**
+     * @return количество записей накопленных данных в выходные файлы
+     */
+    long getFlushCount();
+
+    /**
+     * @return средняя длительность записи в выходной файл, в миллисекундах
+     */
+    double getAverageFlushMillis();
+
+    /**
+     * @return наибольшая длительность записи в выходной файл, в миллисекундах
+     */
+    double getMaxFlushMillis();
+
+    /**
+     * @return время с начала обработки, в миллисекундах
+     */
+    long getElapsedMillis();
+}
@@ -0,0 +1,39 @@
+package ru.paskal.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+
+/**
+ * Периодическое событие JFR с накопленными счетчиками обработки, скорость вычисляется по разности соседних событий
+ */
+@Name("ru.paskal.Throughput")
+@Label("Счетчики обработки")
+@Category("File Util")
+@Description("Количество обработанных строк и их объем с начала обработки")
+@Period("1 s")
+@StackTrace(false)
+class ThroughputEvent extends jdk.jfr.Event {
+    @Label("Строк")
+    long lines;
+
+    @Label("Объем")
+    @DataAmount
+    long bytes;
+
+    @Label("Целых чисел")
+    long integers;
+
+    @Label("Вещественных чисел")
+    long floats;
+
+    @Label("Строк текста")
+    long strings;
+
+    @Label("Файлов")
+    long files;
+}
@@ -0,0 +1,30 @@
+package ru.paskal.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Событие JFR о записи накопленных данных в выходной файл
+ */
+@Name("ru.paskal.WriterFlush")
+@Label("Сброс выходного файла")
+@Category("File Util")
+@Description("Запись накопленных строк одного типа в выходной файл вместе со сбросом на диск")
+@StackTrace(false)
+class WriterFlushEvent extends jdk.jfr.Event {
+    @Label("Тип строк")
+    String type;
+
+    @Label("Объем")
+    @DataAmount
+    long bytes;
+
+    @Label("Длительность сброса")
+    @Timespan
+    long flushTime;
+}
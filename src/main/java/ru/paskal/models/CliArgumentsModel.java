@@ -3,6 +3,9 @@ package ru.paskal.models;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import ru.paskal.distinct.DistinctFilter;
+import ru.paskal.io.DurabilityPolicy;
+import ru.paskal.utils.LineTypes;
 
 /**
  * Модель аргументов командной строки
@@ -18,6 +21,39 @@ public class CliArgumentsModel {
     private boolean isShortStats;
     private boolean isFullStats;
     private String[] inputFiles;
+    private boolean isMmapMode;
+    private int threads;
+    private long chunkSize;
+    private int parallelism;
+    private boolean isPipelineMode;
+    private int writeBufferSize;
+    private DurabilityPolicy durability;
+    private boolean isFollowMode;
+    private long statsInterval;
+    private long flushInterval;
+    private boolean isExtendedStats;
+    private int topK;
+    private boolean isCompressOutput;
+    private long progressInterval;
+    private long checkpointInterval;
+    private boolean isResume;
+    private String cacheDir;
+    private long cacheSize;
+    private String daemonSocket;
+    private LineTypes lineTypes;
+    private boolean isAsyncWriters;
+    private long rotateSize;
+    private long rotateLines;
+    private boolean isDistinct;
+    private long distinctMemory;
+    private DistinctFilter.Overflow distinctOverflow;
+    private boolean isDistinctStats;
+    private boolean isSort;
+    private long sortMemory;
+    private int shardIndex;
+    private int shardCount;
+    private boolean isMergeShards;
+    private int prefetch;
 
     /**
      * @return true если все поля заполнены корректно
@@ -0,0 +1,221 @@
+package ru.paskal.models;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+
+/**
+ * Точная сумма чисел double без округления (суперсумматор). Любое конечное double представимо как целое
+ * число единиц младшего разряда 2<sup>-1074</sup>, поэтому сумма хранится как длинное целое из 32-битных разрядов
+ * в массиве long, старшие биты элементов которого служат запасом для переносов.
+ * <p>
+ * Чтобы добавление стоило почти как обычное сложение, мантиссы сначала складываются в корзины по знаку и порядку
+ * слагаемого: одно сложение long и счетчик без ветвлений по значению и без выделения памяти. Корзина переносится
+ * в длинное целое раз в {@value #BUCKET_LIMIT} слагаемых этой корзины и перед получением результата.
+ * <p>
+ * Сумма не зависит от порядка сложения, поэтому суммы, собранные независимо, объединяются без потери точности.
+ * {@link BigInteger} и {@link BigDecimal} используются только при получении результата.
+ */
+public final class ExactDoubleSum implements Serializable {
+    private static final int CHUNK_BITS = 32;
+    private static final long CHUNK_MASK = (1L << CHUNK_BITS) - 1;
+    private static final long MANTISSA_MASK = (1L << 52) - 1;
+    /**
+     * Наибольший сдвиг 2045 бит, перенос из корзины до 63 бит и запас на переносы от 2<sup>63</sup> слагаемых
+     */
+    private static final int CHUNKS = 71;
+    /**
+     * Корзина на каждое сочетание знака и порядка double
+     */
+    private static final int BUCKETS = 1 << 12;
+    /**
+     * Сумма {@value} мантисс вместе с неявными старшими битами меньше 2<sup>63</sup>
+     */
+    private static final int BUCKET_LIMIT = 1 << 10;
+    /**
+     * Перенос корзины увеличивает элемент меньше чем на 2<sup>33</sup>, поэтому до распространения
+     * переносов допустимо 2<sup>29</sup> переносов
+     */
+    private static final int MAX_PENDING = 1 << 29;
+    private static final BigDecimal ULP = new BigDecimal(Double.MIN_VALUE);
+
+    private final long[] chunks = new long[CHUNKS];
+    private int pending = 0;
+    private transient long[] buckets = new long[BUCKETS];
+    private transient short[] bucketCounts = new short[BUCKETS];
+    private boolean hasNaN = false;
+    private boolean hasPositiveInfinity = false;
+    private boolean hasNegativeInfinity = false;
+
+    /**
+     * @param value слагаемое
+     */
+    public void add(double value) {
+        long bits = Double.doubleToRawLongBits(value);
+        int bucket = (int) (bits >>> 52);
+        if ((bucket & 0x7FF) == 0x7FF) {
+            addSpecial(value);
+            return;
+        }
+        buckets[bucket] += bits & MANTISSA_MASK;
+        if (++bucketCounts[bucket] == BUCKET_LIMIT) {
+            flushBucket(bucket);
+        }
+    }
+
+    private void addSpecial(double value) {
+        if (Double.isNaN(value)) {
+            hasNaN = true;
+        } else if (value > 0) {
+            hasPositiveInfinity = true;
+        } else {
+            hasNegativeInfinity = true;
+        }
+    }
+
+    /**
+     * Переносит сумму мантисс корзины в длинное целое. Неявный старший бит нормализованных чисел
+     * добавляется здесь сразу для всех слагаемых корзины
+     */
+    private void flushBucket(int bucket) {
+        int exponent = bucket & 0x7FF;
+        long count = bucketCounts[bucket];
+        long mantissas = buckets[bucket];
+        if (exponent != 0) {
+            mantissas += count << 52;
+        }
+        // Денормализованные числа имеют тот же шаг, что и числа с наименьшим порядком
+        int shift = Math.max(exponent, 1) - 1;
+        int index = shift >>> 5;
+        int offset = shift & (CHUNK_BITS - 1);
+        long low = (mantissas & CHUNK_MASK) << offset;
+        long high = (mantissas >>> CHUNK_BITS) << offset;
+        long sign = bucket >>> 11 == 0 ? 0 : -1;
+        // Отрицательная сумма вычитается: x ^ -1 - (-1) = -x
+        chunks[index] += ((low & CHUNK_MASK) ^ sign) - sign;
+        chunks[index + 1] += (((low >>> CHUNK_BITS) + (high & CHUNK_MASK)) ^ sign) - sign;
+        chunks[index + 2] += ((high >>> CHUNK_BITS) ^ sign) - sign;
+        buckets[bucket] = 0;
+        bucketCounts[bucket] = 0;
+        if (++pending == MAX_PENDING) {
+            propagateCarries();
+        }
+    }
+
+    /**
+     * Переносит все корзины в длинное целое и приводит его к виду, в котором все элементы,
+     * кроме старшего, лежат в диапазоне [0, 2<sup>32</sup>)
+     */
+    private void normalize() {
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            if (bucketCounts[bucket] != 0) {
+                flushBucket(bucket);
+            }
+        }
+        propagateCarries();
+    }
+
+    private void propagateCarries() {
+        for (int i = 0; i < CHUNKS - 1; i++) {
+            long carry = chunks[i] >> CHUNK_BITS;
+            chunks[i] &= CHUNK_MASK;
+            chunks[i + 1] += carry;
+        }
+        pending = 0;
+    }
+
+    /**
+     * Добавляет к этой сумме другую. Корзины другой суммы при этом переносятся в ее длинное целое,
+     * значение другой суммы не меняется
+     *
+     * @param other сумма для добавления к этой
+     */
+    public void merge(ExactDoubleSum other) {
+        normalize();
+        other.normalize();
+        for (int i = 0; i < CHUNKS; i++) {
+            chunks[i] += other.chunks[i];
+        }
+        propagateCarries();
+        hasNaN |= other.hasNaN;
+        hasPositiveInfinity |= other.hasPositiveInfinity;
+        hasNegativeInfinity |= other.hasNegativeInfinity;
+    }
+
+    /**
+     * @return независимая копия суммы
+     */
+    public ExactDoubleSum copy() {
+        ExactDoubleSum copy = new ExactDoubleSum();
+        copy.merge(this);
+        return copy;
+    }
+
+    /**
+     * @return true если сумма конечна, то есть среди слагаемых нет NaN и бесконечностей
+     */
+    public boolean isFinite() {
+        return !hasNaN && !hasPositiveInfinity && !hasNegativeInfinity;
+    }
+
+    /**
+     * @return точная сумма конечных слагаемых
+     */
+    public BigDecimal toBigDecimal() {
+        normalize();
+        BigInteger units = BigInteger.valueOf(chunks[CHUNKS - 1]);
+        for (int i = CHUNKS - 2; i >= 0; i--) {
+            units = units.shiftLeft(CHUNK_BITS).or(BigInteger.valueOf(chunks[i]));
+        }
+        return new BigDecimal(units).multiply(ULP);
+    }
+
+    /**
+     * @return сумма, округленная до ближайшего double, или NaN и бесконечность по правилам сложения double
+     */
+    public double doubleValue() {
+        if (hasNaN || hasPositiveInfinity && hasNegativeInfinity) {
+            return Double.NaN;
+        }
+        if (hasPositiveInfinity) {
+            return Double.POSITIVE_INFINITY;
+        }
+        if (hasNegativeInfinity) {
+            return Double.NEGATIVE_INFINITY;
+        }
+        return toBigDecimal().doubleValue();
+    }
+
+    /**
+     * @param count количество слагаемых
+     * @return среднее значение, округленное до ближайшего double
+     */
+    public double average(long count) {
+        if (!isFinite()) {
+            return doubleValue();
+        }
+        return toBigDecimal().divide(BigDecimal.valueOf(count), MathContext.DECIMAL128).doubleValue();
+    }
+
+    /**
+     * Корзины не сохраняются: перед записью они переносятся в длинное целое
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        normalize();
+        out.defaultWriteObject();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (chunks.length != CHUNKS) {
+            throw new InvalidObjectException("Некорректная длина суммы: " + chunks.length);
+        }
+        buckets = new long[BUCKETS];
+        bucketCounts = new short[BUCKETS];
+    }
+}
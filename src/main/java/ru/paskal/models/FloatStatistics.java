@@ -1,31 +1,50 @@
 package ru.paskal.models;
 
 import lombok.Getter;
-import lombok.RequiredArgsConstructor;
 import lombok.val;
+import ru.paskal.models.sketches.QuantileSketch;
 
 /**
  * Класс хранения и подсчета статистики для чисел с плавающей запятой.
- * Подсчитывает количество чисел, минимальное и максимальное число, сумму чисел и среднее значение
+ * Подсчитывает количество чисел, минимальное и максимальное число, сумму чисел и среднее значение.
+ * Среднее значение вычисляется только при запросе.
+ * Сумма накапливается точно в {@link ExactDoubleSum} и округляется до double только при выводе,
+ * поэтому не зависит от порядка чисел и объединения статистики, собранной независимо.
+ * В расширенном режиме дополнительно оцениваются процентили при помощи {@link QuantileSketch}
  *
  * @see StringStatistics
  * @see IntegerStatistics
  */
-@RequiredArgsConstructor
 @Getter
-public class FloatStatistics implements Statistics<Double> {
+public class FloatStatistics implements Statistics<FloatStatistics> {
     private final boolean isFull;
     private boolean isUpdated = false;
-    private int count = 0;
+    private long count = 0;
     private double min = Float.MAX_VALUE;
     private double max = Float.MIN_VALUE;
-    private double sum = 0;
-    private double avg = 0;
+    private final ExactDoubleSum sum = new ExactDoubleSum();
+    private final QuantileSketch quantiles;
+
+    /**
+     * @param isFull собирать ли полную статистику
+     */
+    public FloatStatistics(boolean isFull) {
+        this(isFull, false);
+    }
+
+    /**
+     * @param isFull     собирать ли полную статистику
+     * @param isExtended оценивать ли процентили, только вместе с полной статистикой
+     */
+    public FloatStatistics(boolean isFull, boolean isExtended) {
+        this.isFull = isFull;
+        this.quantiles = isFull && isExtended ? new QuantileSketch() : null;
+    }
 
     /**
      * @param val число для обновления статистики
      */
-    public void upd(Double val) {
+    public void upd(double val) {
         isUpdated = true;
         count++;
 
@@ -35,15 +54,64 @@ public class FloatStatistics implements Statistics<Double> {
     /**
      * @param val число для обновления полной статистики
      */
-    private void updFull(Double val) {
+    private void updFull(double val) {
         if (val < min) {
             min = val;
         }
         if (val > max) {
             max = val;
         }
-        sum += val;
-        avg = sum / count;
+        sum.add(val);
+        if (quantiles != null) {
+            quantiles.add(val);
+        }
+    }
+
+    /**
+     * @return сумма чисел, округленная до ближайшего double
+     */
+    public double getSum() {
+        return sum.doubleValue();
+    }
+
+    /**
+     * @return среднее значение или 0, если чисел не было
+     */
+    public double getAvg() {
+        return count == 0 ? 0 : sum.average(count);
+    }
+
+    /**
+     * Сумма точная, поэтому результат объединения совпадает с последовательной обработкой тех же чисел
+     *
+     * @param other статистика чисел с плавающей запятой для объединения
+     */
+    @Override
+    public void merge(FloatStatistics other) {
+        if (!other.isUpdated) {
+            return;
+        }
+        count += other.count;
+        isUpdated = true;
+        if (isFull) {
+            if (other.min < min) {
+                min = other.min;
+            }
+            if (other.max > max) {
+                max = other.max;
+            }
+            sum.merge(other.sum);
+            if (quantiles != null && other.quantiles != null) {
+                quantiles.merge(other.quantiles);
+            }
+        }
+    }
+
+    @Override
+    public FloatStatistics copy() {
+        val copy = new FloatStatistics(isFull, quantiles != null);
+        copy.merge(this);
+        return copy;
     }
 
     /**
@@ -52,13 +120,14 @@ public class FloatStatistics implements Statistics<Double> {
     public String toStringFull() {
         val min = this.min == Float.MAX_VALUE && !isUpdated ? "недостаточно данных" : this.min;
         val max = this.max == Float.MIN_VALUE && !isUpdated ? "недостаточно данных" : this.max;
-        val avg = this.avg == 0 && !isUpdated ? "недостаточно данных" : this.avg;
+        val avg = !isUpdated ? "недостаточно данных" : getAvg();
         return "Полная статистика по числам с плавающей запятой: \n" +
                 "\tКоличество чисел: " + count + "\n" +
                 "\tМинимальное число: " + min + "\n" +
                 "\tМаксимальное число: " + max + "\n" +
-                "\tСумма чисел: " + sum + "\n" +
-                "\tСреднее число: " + avg;
+                "\tСумма чисел: " + getSum() + "\n" +
+                "\tСреднее число: " + avg +
+                (quantiles == null ? "" : "\n\tПроцентили (погрешность до 0.8%): " + quantiles.formatPercentiles(false));
     }
 
     /**
@@ -68,4 +137,4 @@ public class FloatStatistics implements Statistics<Double> {
         return "Краткая статистика по числам с плавающей запятой: \n" +
                 "\tКоличество чисел: " + count;
     }
-}
\ No newline at end of file
+}
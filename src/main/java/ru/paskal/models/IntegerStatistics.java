@@ -1,31 +1,55 @@
 package ru.paskal.models;
 
 import lombok.Getter;
-import lombok.RequiredArgsConstructor;
 import lombok.val;
+import ru.paskal.models.sketches.QuantileSketch;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
 
 /**
  * Класс хранения и подсчета статистики для целочисленных значений.
- * Подсчитывает количество чисел, минимальное и максимальное число, сумму чисел и среднее значение
+ * Подсчитывает количество чисел, минимальное и максимальное число, сумму чисел и среднее значение.
+ * Среднее значение вычисляется только при запросе.
+ * Сумма хранится как 128-битное число в двух long и не переполняется, пока количество чисел меньше 2<sup>64</sup>;
+ * {@link BigInteger} создается только при получении суммы.
+ * В расширенном режиме дополнительно оцениваются процентили при помощи {@link QuantileSketch}
  *
  * @see StringStatistics
  * @see FloatStatistics
  */
-@RequiredArgsConstructor
 @Getter
-public class IntegerStatistics implements Statistics<Long> {
+public class IntegerStatistics implements Statistics<IntegerStatistics> {
     private final boolean isFull;
     private boolean isUpdated = false;
     private long count = 0;
     private long min = Long.MAX_VALUE;
     private long max = Long.MIN_VALUE;
-    private long sum = 0;
-    private double avg = 0;
+    private long sumHigh = 0;
+    private long sumLow = 0;
+    private final QuantileSketch quantiles;
+
+    /**
+     * @param isFull собирать ли полную статистику
+     */
+    public IntegerStatistics(boolean isFull) {
+        this(isFull, false);
+    }
+
+    /**
+     * @param isFull     собирать ли полную статистику
+     * @param isExtended оценивать ли процентили, только вместе с полной статистикой
+     */
+    public IntegerStatistics(boolean isFull, boolean isExtended) {
+        this.isFull = isFull;
+        this.quantiles = isFull && isExtended ? new QuantileSketch() : null;
+    }
 
     /**
      * @param val число для обновления статистики
      */
-    public void upd(Long val) {
+    public void upd(long val) {
         count++;
         isUpdated = true;
         if (isFull) updFull(val);
@@ -34,15 +58,78 @@ public class IntegerStatistics implements Statistics<Long> {
     /**
      * @param val число для обновления полной статистики
      */
-    private void updFull(Long val) {
+    private void updFull(long val) {
         if (val < min) {
             min = val;
         }
         if (val > max) {
             max = val;
         }
-        sum += val;
-        avg = (double) sum / count;
+        addToSum(val >> 63, val);
+        if (quantiles != null) {
+            quantiles.add(val);
+        }
+    }
+
+    /**
+     * Прибавляет к сумме 128-битное число, перенос из младшей половины вычисляется без ветвлений
+     *
+     * @param high старшие 64 бита слагаемого
+     * @param low  младшие 64 бита слагаемого
+     */
+    private void addToSum(long high, long low) {
+        long result = sumLow + low;
+        long carry = ((sumLow & low) | ((sumLow | low) & ~result)) >>> 63;
+        sumLow = result;
+        sumHigh += high + carry;
+    }
+
+    /**
+     * @return точная сумма чисел
+     */
+    public BigInteger getSum() {
+        return BigInteger.valueOf(sumHigh).shiftLeft(64).add(new BigInteger(Long.toUnsignedString(sumLow)));
+    }
+
+    /**
+     * @return среднее значение, округленное до ближайшего double, или 0, если чисел не было
+     */
+    public double getAvg() {
+        if (count == 0) {
+            return 0;
+        }
+        if (sumHigh == sumLow >> 63) {
+            // Сумма помещается в long
+            return (double) sumLow / count;
+        }
+        return new BigDecimal(getSum()).divide(BigDecimal.valueOf(count), MathContext.DECIMAL128).doubleValue();
+    }
+
+    /**
+     * @param other статистика целых чисел для объединения
+     */
+    @Override
+    public void merge(IntegerStatistics other) {
+        if (!other.isUpdated) {
+            return;
+        }
+        count += other.count;
+        isUpdated = true;
+        if (isFull) {
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+            addToSum(other.sumHigh, other.sumLow);
+            if (quantiles != null && other.quantiles != null) {
+                quantiles.merge(other.quantiles);
+            }
+        }
+    }
+
+    @Override
+    public IntegerStatistics copy() {
+        val copy = new IntegerStatistics(isFull, quantiles != null);
+        copy.merge(this);
+        return copy;
     }
 
     /**
@@ -51,13 +138,14 @@ public class IntegerStatistics implements Statistics<Long> {
     public String toStringFull() {
         val min = this.min == Long.MAX_VALUE && !isUpdated ? "недостаточно данных" : this.min;
         val max = this.max == Long.MIN_VALUE && !isUpdated ? "недостаточно данных" : this.max;
-        val avg = this.avg == 0 && !isUpdated ? "недостаточно данных" : this.avg;
+        val avg = !isUpdated ? "недостаточно данных" : getAvg();
         return "Полная статистика по целым числам: \n" +
                 "\tКоличество чисел: " + count + "\n" +
                 "\tМинимальное число: " + min + "\n" +
                 "\tМаксимальное число: " + max + "\n" +
-                "\tСумма чисел: " + sum + "\n" +
-                "\tСреднее число: " + avg;
+                "\tСумма чисел: " + getSum() + "\n" +
+                "\tСреднее число: " + avg +
+                (quantiles == null ? "" : "\n\tПроцентили (погрешность до 0.8%): " + quantiles.formatPercentiles(true));
     }
 
     /**
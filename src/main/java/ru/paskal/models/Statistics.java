@@ -1,13 +1,29 @@
 package ru.paskal.models;
 
+import java.io.Serializable;
+
 /**
  * Интерфейс для хранения и подсчета статистики, позволяющий избавиться {@link ru.paskal.FilesManager}
- * от прямой зависимости от конкретных реализаций статистики
+ * от прямой зависимости от конкретных реализаций статистики.
+ * Обновление статистики выполняется методами {@code upd} конкретных реализаций, принимающими примитивы,
+ * чтобы подсчет не требовал упаковки значений.
+ * Статистика сериализуема, чтобы ее состояние можно было сохранить в контрольной точке.
  *
- * @param <T> тип данных для хранения статистики
+ * @param <S> тип реализации статистики, с которой возможно объединение
  */
-public interface Statistics<T> {
-    void upd(T val);
+public interface Statistics<S extends Statistics<S>> extends Serializable {
+    /**
+     * Объединяет с этой статистикой статистику, собранную независимо (например, другим потоком)
+     *
+     * @param other статистика того же типа
+     */
+    void merge(S other);
+
+    /**
+     * @return независимая копия текущего состояния статистики, например для промежуточного вывода
+     */
+    S copy();
+
     String toStringFull();
     String toStringShort();
 }
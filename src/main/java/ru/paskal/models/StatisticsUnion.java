@@ -2,7 +2,9 @@ package ru.paskal.models;
 
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Objects;
 
 /**
@@ -27,14 +29,28 @@ public class StatisticsUnion {
      * @param isFull флаг, указывающий то, выводить полную или краткую статистику
      */
     public void printAllStats(boolean isFull) {
+        for (String stat : formatAllStats(isFull)) {
+            log.info(stat);
+        }
+    }
+
+    /**
+     * Метод получения текстового представления статистики по строкам, целым числам и числам с плавающей запятой
+     *
+     * @param isFull флаг, указывающий то, выводить полную или краткую статистику
+     * @return список строк статистики, пустой если статистика не собиралась
+     */
+    public List<String> formatAllStats(boolean isFull) {
+        List<String> result = new ArrayList<>();
         if (isFull) {
             for (var stat : statisticsList) {
-                log.info(stat.toStringFull());
+                result.add(stat.toStringFull());
             }
         } else if (Arrays.stream(statisticsList).allMatch(Objects::nonNull)) {
             for (var stat : statisticsList) {
-                log.info(stat.toStringShort());
+                result.add(stat.toStringShort());
             }
         }
+        return result;
     }
 }
@@ -1,45 +1,138 @@
 package ru.paskal.models;
 
 import lombok.Getter;
-import lombok.RequiredArgsConstructor;
 import lombok.val;
+import ru.paskal.models.sketches.HyperLogLog;
+import ru.paskal.models.sketches.Log2Histogram;
+import ru.paskal.models.sketches.SpaceSaving;
 
 /**
  * Класс хранения и подсчета статистики для строковых значений.
- * Подсчитывает количество строк, минимальную и максимальную длину строки
+ * Подсчитывает количество строк, минимальную и максимальную длину строки.
+ * Для подсчета достаточно длины строки, поэтому сама строка не требуется.
+ * В расширенном режиме дополнительно оценивается количество различных строк при помощи {@link HyperLogLog}
+ * и строится гистограмма длин {@link Log2Histogram}, для этого строка передается целиком.
+ * При заданном количестве частых строк отслеживаются наиболее частые значения при помощи {@link SpaceSaving}
  *
  * @see IntegerStatistics
  * @see FloatStatistics
  */
-@RequiredArgsConstructor
 @Getter
-public class StringStatistics implements Statistics<String> {
+public class StringStatistics implements Statistics<StringStatistics> {
+    /**
+     * Количество счетчиков {@link SpaceSaving} на одно выводимое значение, погрешность оценки частоты
+     * не превышает N / (10 * K) при N строках
+     */
+    private static final int TOP_K_CAPACITY_FACTOR = 10;
+    private static final int MAX_DISPLAYED_LENGTH = 100;
+
     private final boolean isFull;
     private boolean isUpdated = false;
     private long count = 0;
     private long minLen = Long.MAX_VALUE;
     private long maxLen = 0;
+    private final HyperLogLog distinct;
+    private final Log2Histogram lengths;
+    private final int topK;
+    private final SpaceSaving topValues;
+
+    /**
+     * @param isFull собирать ли полную статистику
+     */
+    public StringStatistics(boolean isFull) {
+        this(isFull, false);
+    }
+
+    /**
+     * @param isFull     собирать ли полную статистику
+     * @param isExtended оценивать ли количество различных строк и распределение длин, только вместе с полной статистикой
+     */
+    public StringStatistics(boolean isFull, boolean isExtended) {
+        this(isFull, isExtended, 0);
+    }
+
+    /**
+     * @param isFull     собирать ли полную статистику
+     * @param isExtended оценивать ли количество различных строк и распределение длин, только вместе с полной статистикой
+     * @param topK       количество выводимых наиболее частых строк, 0 если не требуется, только вместе с полной статистикой
+     */
+    public StringStatistics(boolean isFull, boolean isExtended, int topK) {
+        this.isFull = isFull;
+        this.distinct = isFull && isExtended ? new HyperLogLog() : null;
+        this.lengths = isFull && isExtended ? new Log2Histogram() : null;
+        this.topK = isFull ? topK : 0;
+        this.topValues = this.topK > 0 ? new SpaceSaving(this.topK * TOP_K_CAPACITY_FACTOR) : null;
+    }
+
+    /**
+     * @param line строка для обновления статистики, используется в расширенном режиме и при поиске частых строк
+     */
+    public void upd(CharSequence line) {
+        upd(line.length());
+        if (distinct == null && topValues == null) {
+            return;
+        }
+        long hash = HyperLogLog.hash(line);
+        if (distinct != null) {
+            distinct.addHash(hash);
+        }
+        if (topValues != null) {
+            topValues.add(line, hash);
+        }
+    }
 
     /**
-     * @param str строка для обновления статистики
+     * @param len длина строки для обновления статистики
      */
-    public void upd(String str) {
+    public void upd(int len) {
         count++;
         isUpdated = true;
-        if (isFull) updFull(str);
+        if (isFull) updFull(len);
     }
 
     /**
-     * @param str строка для обновления статистики
+     * @param len длина строки для обновления статистики
      */
-    private void updFull(String str) {
-        long len = str.length();
+    private void updFull(int len) {
         if (len < this.minLen) {
             minLen = len;
         }
         if (len > maxLen) {
             maxLen = len;
         }
+        if (lengths != null) {
+            lengths.add(len);
+        }
+    }
+
+    /**
+     * @param other статистика строк для объединения
+     */
+    @Override
+    public void merge(StringStatistics other) {
+        if (!other.isUpdated) {
+            return;
+        }
+        count += other.count;
+        isUpdated = true;
+        if (isFull) {
+            minLen = Math.min(minLen, other.minLen);
+            maxLen = Math.max(maxLen, other.maxLen);
+            if (distinct != null && other.distinct != null) {
+                distinct.merge(other.distinct);
+                lengths.merge(other.lengths);
+            }
+            if (topValues != null && other.topValues != null) {
+                topValues.merge(other.topValues);
+            }
+        }
+    }
+
+    @Override
+    public StringStatistics copy() {
+        val copy = new StringStatistics(isFull, distinct != null, topK);
+        copy.merge(this);
+        return copy;
     }
 
     /**
@@ -51,7 +144,49 @@ public class StringStatistics implements Statistics<String> {
         return "Полная статистика по строковым значениям: \n" +
                 "\tКоличество строк: " + count + "\n" +
                 "\tМинимальная длина: " + min + "\n" +
-                "\tМаксимальная длина: " + max;
+                "\tМаксимальная длина: " + max +
+                (distinct == null ? "" : formatExtended()) +
+                (topValues == null ? "" : formatTopValues());
+    }
+
+    /**
+     * @return Строки расширенной статистики: оценка количества различных строк и гистограмма длин
+     */
+    private String formatExtended() {
+        StringBuilder sb = new StringBuilder("\n\tКоличество различных строк (погрешность около 0.8%): ")
+                .append(isUpdated ? distinct.estimate() : 0)
+                .append("\n\tРаспределение длин:");
+        for (int i = 0; i < Log2Histogram.BUCKETS; i++) {
+            long bucketCount = lengths.getCount(i);
+            if (bucketCount != 0) {
+                sb.append("\n\t\t").append(Log2Histogram.lowerBound(i)).append(" - ")
+                        .append(Log2Histogram.upperBound(i)).append(": ").append(bucketCount);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return Строки с наиболее частыми значениями, их оценками и гарантированными границами частоты
+     */
+    private String formatTopValues() {
+        long maxError = topValues.getTotal() / topValues.getCapacity();
+        StringBuilder sb = new StringBuilder("\n\tНаиболее частые строки (оценка частоты превышает истинную не более чем на ")
+                .append(maxError).append("):");
+        val entries = topValues.top(topK);
+        if (entries.isEmpty()) {
+            return sb.append(" недостаточно данных").toString();
+        }
+        for (val entry : entries) {
+            String value = entry.value();
+            if (value.length() > MAX_DISPLAYED_LENGTH) {
+                value = value.substring(0, MAX_DISPLAYED_LENGTH) + "...";
+            }
+            sb.append("\n\t\t\"").append(value).append("\": ").append(entry.count())
+                    .append(" (не менее ").append(entry.lowerBound()).append(')');
+        }
+        return sb.append("\n\tСтроки с нижней границей частоты больше ").append(topValues.guaranteedThreshold(topK))
+                .append(" гарантированно входят в ").append(topK).append(" наиболее частых").toString();
     }
 
     /**
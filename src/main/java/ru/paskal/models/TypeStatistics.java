@@ -0,0 +1,149 @@
+package ru.paskal.models;
+
+import lombok.Getter;
+import lombok.val;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+
+/**
+ * Класс хранения и подсчета статистики для пользовательского типа строк ({@link ru.paskal.utils.LineType}).
+ * Для любого типа подсчитывает количество строк, минимальную и максимальную длину строки.
+ * Для десятичного типа дополнительно подсчитывает минимальное и максимальное число, сумму и среднее значение
+ * в {@link BigDecimal}, поэтому значения с любым количеством знаков учитываются без потери точности.
+ * Строки десятичного типа, которые не удалось разобрать как число, учитываются только в количестве строк
+ *
+ * @see StringStatistics
+ */
+@Getter
+public class TypeStatistics implements Statistics<TypeStatistics> {
+    private final String name;
+    private final boolean isDecimal;
+    private final boolean isFull;
+    private boolean isUpdated = false;
+    private long count = 0;
+    private long minLen = Long.MAX_VALUE;
+    private long maxLen = 0;
+    private long numberCount = 0;
+    private BigDecimal min;
+    private BigDecimal max;
+    private BigDecimal sum = BigDecimal.ZERO;
+
+    /**
+     * @param name      имя типа
+     * @param isDecimal являются ли строки типа десятичными числами
+     * @param isFull    собирать ли полную статистику
+     */
+    public TypeStatistics(String name, boolean isDecimal, boolean isFull) {
+        this.name = name;
+        this.isDecimal = isDecimal;
+        this.isFull = isFull;
+    }
+
+    /**
+     * @param line строка для обновления статистики
+     */
+    public void upd(CharSequence line) {
+        count++;
+        isUpdated = true;
+        if (isFull) updFull(line);
+    }
+
+    /**
+     * @param line строка для обновления полной статистики
+     */
+    private void updFull(CharSequence line) {
+        int len = line.length();
+        if (len < minLen) {
+            minLen = len;
+        }
+        if (len > maxLen) {
+            maxLen = len;
+        }
+        if (!isDecimal) {
+            return;
+        }
+        BigDecimal value;
+        try {
+            value = new BigDecimal(line.toString().strip());
+        } catch (NumberFormatException e) {
+            return;
+        }
+        numberCount++;
+        if (min == null || value.compareTo(min) < 0) {
+            min = value;
+        }
+        if (max == null || value.compareTo(max) > 0) {
+            max = value;
+        }
+        sum = sum.add(value);
+    }
+
+    /**
+     * @return среднее значение с точностью 34 значащих цифры или null, если чисел не было
+     */
+    public BigDecimal getAvg() {
+        return numberCount == 0 ? null : sum.divide(BigDecimal.valueOf(numberCount), MathContext.DECIMAL128);
+    }
+
+    /**
+     * Сложение {@link BigDecimal} точное, поэтому объединение не зависит от порядка
+     *
+     * @param other статистика того же типа для объединения
+     */
+    @Override
+    public void merge(TypeStatistics other) {
+        if (!other.isUpdated) {
+            return;
+        }
+        count += other.count;
+        isUpdated = true;
+        if (isFull) {
+            minLen = Math.min(minLen, other.minLen);
+            maxLen = Math.max(maxLen, other.maxLen);
+            if (other.numberCount > 0) {
+                numberCount += other.numberCount;
+                min = min == null ? other.min : min.min(other.min);
+                max = max == null ? other.max : max.max(other.max);
+                sum = sum.add(other.sum);
+            }
+        }
+    }
+
+    @Override
+    public TypeStatistics copy() {
+        val copy = new TypeStatistics(name, isDecimal, isFull);
+        copy.merge(this);
+        return copy;
+    }
+
+    /**
+     * @return Строка, содержащая полную статистику о строках типа
+     */
+    public String toStringFull() {
+        val minLen = !isUpdated ? "недостаточно данных" : String.valueOf(this.minLen);
+        val maxLen = !isUpdated ? "недостаточно данных" : String.valueOf(this.maxLen);
+        String result = "Полная статистика по типу " + name + ": \n" +
+                "\tКоличество строк: " + count + "\n" +
+                "\tМинимальная длина: " + minLen + "\n" +
+                "\tМаксимальная длина: " + maxLen;
+        if (!isDecimal) {
+            return result;
+        }
+        val empty = "недостаточно данных";
+        return result + "\n" +
+                "\tКоличество чисел: " + numberCount + "\n" +
+                "\tМинимальное число: " + (min == null ? empty : min.toString()) + "\n" +
+                "\tМаксимальное число: " + (max == null ? empty : max.toString()) + "\n" +
+                "\tСумма чисел: " + sum + "\n" +
+                "\tСреднее число: " + (numberCount == 0 ? empty : getAvg().toString());
+    }
+
+    /**
+     * @return Строка, содержащая краткую статистику о строках типа
+     */
+    public String toStringShort() {
+        return "Краткая статистика по типу " + name + ": \n" +
+                "\tКоличество строк: " + count;
+    }
+}
@@ -0,0 +1,146 @@
+package ru.paskal.models.sketches;
+
+import java.io.Serializable;
+
+/**
+ * Оценка количества различных значений алгоритмом HyperLogLog с 2^{@value #P} регистрами.
+ * Для оценки используется улучшенный оценщик О. Эртля ("New cardinality estimation algorithms
+ * for HyperLogLog sketches", 2017), не требующий таблиц поправок и переключения на линейный подсчет.
+ * <p>
+ * Погрешность: стандартная ошибка около 1.04 / sqrt(2^14) ≈ 0.81% во всем диапазоне значений,
+ * то есть оценка отличается от истинного количества больше чем на 2.5% с вероятностью около 0.2%.
+ * Память постоянна: 16 КБ на скетч. Обновление - вычисление 64-битного хеша и одно сравнение.
+ */
+public class HyperLogLog implements Serializable {
+    private static final int P = 14;
+    private static final int M = 1 << P;
+    private static final int Q = 64 - P;
+    private static final double ALPHA_INF = 1 / (2 * Math.log(2));
+
+    private static final long SEED = 0x9E3779B97F4A7C15L;
+    private static final long C1 = 0x87C37B91114253D5L;
+    private static final long C2 = 0x4CF5AD432745937FL;
+
+    private final byte[] registers = new byte[M];
+
+    /**
+     * @param value значение для добавления
+     */
+    public void add(CharSequence value) {
+        addHash(hash(value));
+    }
+
+    /**
+     * @param hash 64-битный хеш значения с равномерным распределением битов
+     */
+    public void addHash(long hash) {
+        int index = (int) (hash >>> Q);
+        long w = hash << P;
+        int rho = w == 0 ? Q + 1 : Long.numberOfLeadingZeros(w) + 1;
+        if (rho > registers[index]) {
+            registers[index] = (byte) rho;
+        }
+    }
+
+    /**
+     * Объединяет с этим скетчем скетч, собранный независимо
+     *
+     * @param other скетч для объединения
+     */
+    public void merge(HyperLogLog other) {
+        for (int i = 0; i < M; i++) {
+            if (other.registers[i] > registers[i]) {
+                registers[i] = other.registers[i];
+            }
+        }
+    }
+
+    /**
+     * @return оценка количества различных значений
+     */
+    public long estimate() {
+        int[] histogram = new int[Q + 2];
+        for (byte register : registers) {
+            histogram[register]++;
+        }
+        double z = M * tau(1 - (double) histogram[Q + 1] / M);
+        for (int k = Q; k >= 1; k--) {
+            z = 0.5 * (z + histogram[k]);
+        }
+        z += M * sigma((double) histogram[0] / M);
+        return Math.round(ALPHA_INF * M * M / z);
+    }
+
+    private static double sigma(double x) {
+        if (x == 1) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double y = 1;
+        double z = x;
+        double previous;
+        do {
+            x *= x;
+            previous = z;
+            z += x * y;
+            y += y;
+        } while (z != previous);
+        return z;
+    }
+
+    private static double tau(double x) {
+        if (x == 0 || x == 1) {
+            return 0;
+        }
+        double y = 1;
+        double z = 1 - x;
+        double previous;
+        do {
+            x = Math.sqrt(x);
+            previous = z;
+            y *= 0.5;
+            z -= (1 - x) * (1 - x) * y;
+        } while (z != previous);
+        return z / 3;
+    }
+
+    /**
+     * 64-битный хеш последовательности символов в стиле MurmurHash3: символы обрабатываются по четыре,
+     * поэтому {@link String} и {@link ru.paskal.io.AsciiByteSequence} с одинаковыми символами имеют одинаковый хеш
+     *
+     * @param value последовательность символов
+     * @return хеш
+     */
+    public static long hash(CharSequence value) {
+        int length = value.length();
+        long h = SEED ^ length;
+        int i = 0;
+        for (; i + 4 <= length; i += 4) {
+            long k = value.charAt(i)
+                    | (long) value.charAt(i + 1) << 16
+                    | (long) value.charAt(i + 2) << 32
+                    | (long) value.charAt(i + 3) << 48;
+            h ^= mixKey(k);
+            h = Long.rotateLeft(h, 27) * 5 + 0x52DCE729;
+        }
+        long k = 0;
+        for (; i < length; i++) {
+            k = k << 16 | value.charAt(i);
+        }
+        h ^= mixKey(k);
+        return finalMix(h);
+    }
+
+    private static long mixKey(long k) {
+        k *= C1;
+        k = Long.rotateLeft(k, 31);
+        return k * C2;
+    }
+
+    private static long finalMix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        return h ^ h >>> 33;
+    }
+}
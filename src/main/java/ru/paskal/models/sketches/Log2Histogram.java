@@ -0,0 +1,54 @@
+package ru.paskal.models.sketches;
+
+import java.io.Serializable;
+
+/**
+ * Гистограмма неотрицательных целых значений с корзинами по степеням двойки:
+ * корзина 0 содержит значение 0, корзина k - значения от 2^(k-1) до 2^k - 1.
+ * Количества в корзинах точные, разрешение гистограммы - множитель 2. Память постоянна: 33 счетчика.
+ */
+public class Log2Histogram implements Serializable {
+    public static final int BUCKETS = Integer.SIZE + 1;
+
+    private final long[] counts = new long[BUCKETS];
+
+    /**
+     * @param value неотрицательное значение
+     */
+    public void add(int value) {
+        counts[Integer.SIZE - Integer.numberOfLeadingZeros(value)]++;
+    }
+
+    /**
+     * @param other гистограмма для объединения
+     */
+    public void merge(Log2Histogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] += other.counts[i];
+        }
+    }
+
+    /**
+     * @param bucket номер корзины
+     * @return количество значений в корзине
+     */
+    public long getCount(int bucket) {
+        return counts[bucket];
+    }
+
+    /**
+     * @param bucket номер корзины
+     * @return наименьшее значение корзины
+     */
+    public static long lowerBound(int bucket) {
+        return bucket == 0 ? 0 : 1L << (bucket - 1);
+    }
+
+    /**
+     * @param bucket номер корзины
+     * @return наибольшее значение корзины
+     */
+    public static long upperBound(int bucket) {
+        return bucket == 0 ? 0 : (1L << bucket) - 1;
+    }
+}
@@ -0,0 +1,251 @@
+package ru.paskal.models.sketches;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Скетч квантилей с ограниченной относительной погрешностью значения (по мотивам DDSketch и HdrHistogram).
+ * Значения распределяются по логарифмически-линейным корзинам: корзина определяется порядком числа
+ * и старшими {@value #SUB_BITS} битами мантиссы, то есть каждая октава делится на 64 равные части.
+ * Ключ корзины вычисляется сдвигом битового представления double, без логарифмов и ветвлений по значению.
+ * <p>
+ * Погрешность: квантиль ищется по точному рангу, а возвращается середина корзины, которая отличается
+ * от истинного значения не более чем на 2^-7 ≈ 0.78% его модуля. Положительные и отрицательные значения
+ * хранятся в окнах из {@value #MAX_BINS} корзин (64 октавы, то есть отношение наибольшего значения к наименьшему
+ * до 1.8e19), значения ниже окна объединяются в его нижнюю корзину, и для них гарантия погрешности не действует.
+ * Любые значения типа long помещаются в окно целиком.
+ * Модули меньше {@link Double#MIN_NORMAL} учитываются как 0, бесконечности учитываются отдельно, NaN не учитываются.
+ * Память постоянна: около 64 КБ на скетч.
+ */
+public class QuantileSketch implements Serializable {
+    private static final int SUB_BITS = 6;
+    private static final int KEY_SHIFT = 52 - SUB_BITS;
+    private static final int MAX_BINS = 64 << SUB_BITS;
+    private static final long SIGN_MASK = Long.MIN_VALUE;
+    private static final int MIN_NORMAL_KEY = 1 << SUB_BITS;
+    private static final int INFINITY_KEY = (int) (Double.doubleToRawLongBits(Double.POSITIVE_INFINITY) >>> KEY_SHIFT);
+
+    private final Store positive = new Store();
+    private final Store negative = new Store();
+    private long zeroCount = 0;
+    private long positiveInfinityCount = 0;
+    private long negativeInfinityCount = 0;
+    private long count = 0;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    /**
+     * @param value значение для добавления, NaN пропускается
+     */
+    public void add(double value) {
+        if (value != value) {
+            return;
+        }
+        count++;
+        if (value < min) {
+            min = value;
+        }
+        if (value > max) {
+            max = value;
+        }
+        long bits = Double.doubleToRawLongBits(value);
+        int key = (int) ((bits & ~SIGN_MASK) >>> KEY_SHIFT);
+        if (key < MIN_NORMAL_KEY) {
+            zeroCount++;
+        } else if (key >= INFINITY_KEY) {
+            if (bits < 0) {
+                negativeInfinityCount++;
+            } else {
+                positiveInfinityCount++;
+            }
+        } else if (bits < 0) {
+            negative.add(key, 1);
+        } else {
+            positive.add(key, 1);
+        }
+    }
+
+    /**
+     * @return количество учтенных значений
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Оценка квантиля: значение с рангом {@code floor(q * (n - 1))} в отсортированной последовательности
+     *
+     * @param q уровень квантиля от 0 до 1
+     * @return оценка квантиля или NaN, если значений не было
+     */
+    public double quantile(double q) {
+        if (q < 0 || q > 1) {
+            throw new IllegalArgumentException("Уровень квантиля должен быть от 0 до 1");
+        }
+        if (count == 0) {
+            return Double.NaN;
+        }
+        long rank = (long) Math.floor(q * (count - 1));
+        if (rank < negativeInfinityCount) {
+            return Double.NEGATIVE_INFINITY;
+        }
+        rank -= negativeInfinityCount;
+        if (rank < negative.total) {
+            return clamp(-negative.valueAtDescending(rank));
+        }
+        rank -= negative.total;
+        if (rank < zeroCount) {
+            return clamp(0);
+        }
+        rank -= zeroCount;
+        if (rank < positive.total) {
+            return clamp(positive.valueAtAscending(rank));
+        }
+        return Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * @param integral округлять ли значения до целых
+     * @return текстовое представление 50, 90 и 99 процентилей
+     */
+    public String formatPercentiles(boolean integral) {
+        if (count == 0) {
+            return "недостаточно данных";
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int percent : new int[]{50, 90, 99}) {
+            double value = quantile(percent / 100.0);
+            if (!sb.isEmpty()) {
+                sb.append(", ");
+            }
+            sb.append('p').append(percent).append(" = ");
+            if (integral && !Double.isInfinite(value)) {
+                sb.append(Math.round(value));
+            } else {
+                sb.append(value);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Объединяет с этим скетчем скетч, собранный независимо
+     *
+     * @param other скетч для объединения
+     */
+    public void merge(QuantileSketch other) {
+        positive.merge(other.positive);
+        negative.merge(other.negative);
+        zeroCount += other.zeroCount;
+        positiveInfinityCount += other.positiveInfinityCount;
+        negativeInfinityCount += other.negativeInfinityCount;
+        count += other.count;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * Середина корзины гарантированно ближе к значениям корзины, чем ее границы, но может выйти
+     * за наблюдавшийся диапазон, поэтому ограничивается минимумом и максимумом
+     */
+    private double clamp(double value) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    /**
+     * @return середина корзины с указанным ключом
+     */
+    private static double midpoint(int key) {
+        double low = Double.longBitsToDouble((long) key << KEY_SHIFT);
+        double high = Double.longBitsToDouble((long) (key + 1) << KEY_SHIFT);
+        return low + (high - low) / 2;
+    }
+
+    /**
+     * Счетчики корзин одного знака в скользящем окне из {@link #MAX_BINS} ключей.
+     * Окно расширяется вниз, пока в него помещается наибольший ключ, и сдвигается вверх
+     * при появлении большего ключа, объединяя вышедшие из окна корзины в нижнюю
+     */
+    private static final class Store implements Serializable {
+        private final long[] counts = new long[MAX_BINS];
+        private int base = 0;
+        private int maxKey = -1;
+        private long total = 0;
+
+        void add(int key, long n) {
+            if (total == 0) {
+                base = key;
+                maxKey = key;
+            } else if (key < base) {
+                int newBase = Math.max(key, maxKey - MAX_BINS + 1);
+                if (newBase < base) {
+                    shiftDown(base - newBase);
+                }
+            } else if (key >= base + MAX_BINS) {
+                shiftUp(key - MAX_BINS + 1 - base);
+            }
+            counts[Math.max(0, key - base)] += n;
+            total += n;
+            if (key > maxKey) {
+                maxKey = key;
+            }
+        }
+
+        private void shiftDown(int shift) {
+            System.arraycopy(counts, 0, counts, shift, MAX_BINS - shift);
+            Arrays.fill(counts, 0, shift, 0);
+            base -= shift;
+        }
+
+        private void shiftUp(int shift) {
+            long collapsed = 0;
+            int removed = Math.min(shift, MAX_BINS);
+            for (int i = 0; i < removed; i++) {
+                collapsed += counts[i];
+            }
+            System.arraycopy(counts, removed, counts, 0, MAX_BINS - removed);
+            Arrays.fill(counts, MAX_BINS - removed, MAX_BINS, 0);
+            counts[0] += collapsed;
+            base += shift;
+        }
+
+        void merge(Store other) {
+            if (other.total == 0) {
+                return;
+            }
+            if (total == 0) {
+                System.arraycopy(other.counts, 0, counts, 0, MAX_BINS);
+                base = other.base;
+                maxKey = other.maxKey;
+                total = other.total;
+                return;
+            }
+            // От старших корзин к младшим, чтобы окно сдвигалось не больше одного раза
+            for (int i = MAX_BINS - 1; i >= 0; i--) {
+                if (other.counts[i] != 0) {
+                    add(other.base + i, other.counts[i]);
+                }
+            }
+        }
+
+        double valueAtAscending(long rank) {
+            for (int i = 0; i < MAX_BINS; i++) {
+                rank -= counts[i];
+                if (rank < 0) {
+                    return midpoint(base + i);
+                }
+            }
+            return midpoint(maxKey);
+        }
+
+        double valueAtDescending(long rank) {
+            for (int i = MAX_BINS - 1; i >= 0; i--) {
+                rank -= counts[i];
+                if (rank < 0) {
+                    return midpoint(base + i);
+                }
+            }
+            return midpoint(base);
+        }
+    }
+}
@@ -0,0 +1,434 @@
+package ru.paskal.models.sketches;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Поиск наиболее частых значений алгоритмом Space-Saving (Metwally, Agrawal, El Abbadi, 2005)
+ * с фиксированным количеством счетчиков.
+ * <p>
+ * Каждый счетчик хранит значение, оценку его частоты и погрешность оценки. Если значение отслеживается,
+ * его счетчик увеличивается, иначе значение занимает счетчик с наименьшей оценкой и наследует ее как погрешность.
+ * Гарантии при N учтенных значениях и m счетчиках:
+ * <ul>
+ *     <li>оценка частоты не меньше истинной, а оценка минус погрешность не больше истинной;</li>
+ *     <li>погрешность не превышает N / m;</li>
+ *     <li>любое значение с частотой больше {@link #getUnmonitoredBound()} (не больше N / m) отслеживается.</li>
+ * </ul>
+ * Счетчики хранятся в структуре Stream-Summary из той же статьи: счетчики с одинаковой оценкой объединены
+ * в корзину, корзины связаны в список по возрастанию оценки. Увеличение счетчика и замена счетчика
+ * с наименьшей оценкой выполняются за O(1) без создания объектов, значение ищется по 64-битному хешу
+ * в открытой хеш-таблице. Символы значения копируются в массив счетчика, который переиспользуется при замене,
+ * строки создаются только при выводе результата.
+ * <p>
+ * Скетчи, собранные независимо, объединяются по правилу Mergeable Summaries (Agarwal et al., 2012):
+ * отсутствующее в одном из скетчей значение получает его границу неотслеживаемых значений,
+ * после чего остаются m наибольших оценок. Гарантии сохраняются для объединенного потока.
+ */
+public class SpaceSaving implements Serializable {
+    private static final int NONE = -1;
+
+    private final int capacity;
+    private final char[][] values;
+    private final int[] lengths;
+    private final long[] hashes;
+    private final long[] errors;
+    private final int[] table;
+    private final int mask;
+
+    // Счетчик: корзина и соседи по корзине
+    private final int[] bucketOf;
+    private final int[] nextInBucket;
+    private final int[] prevInBucket;
+
+    // Корзина: оценка, первый счетчик и соседние корзины с меньшей и большей оценкой
+    private final long[] bucketCount;
+    private final int[] bucketHead;
+    private final int[] bucketDown;
+    private final int[] bucketUp;
+    private int freeBuckets;
+    private int minBucket;
+    private int maxBucket;
+
+    private int size;
+    private long total;
+    private long floor;
+
+    /**
+     * Запись о частом значении
+     *
+     * @param value значение
+     * @param count оценка частоты, не меньше истинной
+     * @param error погрешность оценки, истинная частота не меньше {@code count - error}
+     */
+    public record Entry(String value, long count, long error) {
+        /**
+         * @return гарантированная нижняя граница частоты
+         */
+        public long lowerBound() {
+            return count - error;
+        }
+    }
+
+    /**
+     * @param capacity количество счетчиков
+     */
+    public SpaceSaving(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Количество счетчиков должно быть положительным");
+        }
+        this.capacity = capacity;
+        this.values = new char[capacity][];
+        this.lengths = new int[capacity];
+        this.hashes = new long[capacity];
+        this.errors = new long[capacity];
+        this.table = new int[Integer.highestOneBit(capacity * 4 - 1) << 1];
+        this.mask = table.length - 1;
+        this.bucketOf = new int[capacity];
+        this.nextInBucket = new int[capacity];
+        this.prevInBucket = new int[capacity];
+        this.bucketCount = new long[capacity];
+        this.bucketHead = new int[capacity];
+        this.bucketDown = new int[capacity];
+        this.bucketUp = new int[capacity];
+        clear();
+    }
+
+    /**
+     * @param value значение для учета
+     */
+    public void add(CharSequence value) {
+        add(value, HyperLogLog.hash(value));
+    }
+
+    /**
+     * @param value значение для учета
+     * @param hash  хеш значения {@link HyperLogLog#hash(CharSequence)}
+     */
+    public void add(CharSequence value, long hash) {
+        total++;
+        int slot = find(value, hash);
+        if (slot >= 0) {
+            increment(slot);
+            return;
+        }
+        if (size < capacity) {
+            slot = size++;
+            store(slot, value, hash);
+            errors[slot] = floor;
+            place(slot, floor + 1);
+            return;
+        }
+        // Все оценки не меньше границы неотслеживаемых значений, поэтому замещается счетчик из наименьшей корзины
+        slot = bucketHead[minBucket];
+        remove(slot);
+        store(slot, value, hash);
+        errors[slot] = bucketCount[minBucket];
+        increment(slot);
+    }
+
+    /**
+     * @return количество учтенных значений
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * @return количество счетчиков
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return верхняя граница частоты любого неотслеживаемого значения
+     */
+    public long getUnmonitoredBound() {
+        return size < capacity ? floor : Math.max(floor, bucketCount[minBucket]);
+    }
+
+    /**
+     * @param k количество записей
+     * @return до k записей с наибольшими оценками частоты по убыванию оценки
+     */
+    public List<Entry> top(int k) {
+        List<Entry> entries = entries();
+        return entries.subList(0, Math.min(k, entries.size()));
+    }
+
+    /**
+     * Граница, при превышении которой нижней оценкой частоты значение гарантированно входит в первые k:
+     * наибольшая из оценок значений за пределами первых k и границы неотслеживаемых значений
+     *
+     * @param k количество записей
+     * @return граница гарантированного вхождения в первые k
+     */
+    public long guaranteedThreshold(int k) {
+        List<Entry> entries = entries();
+        long threshold = getUnmonitoredBound();
+        if (entries.size() > k) {
+            threshold = Math.max(threshold, entries.get(k).count());
+        }
+        return threshold;
+    }
+
+    /**
+     * Объединяет с этим скетчем скетч, собранный независимо
+     *
+     * @param other скетч для объединения
+     */
+    public void merge(SpaceSaving other) {
+        if (other.total == 0) {
+            return;
+        }
+        long bound = getUnmonitoredBound();
+        long otherBound = other.getUnmonitoredBound();
+        Map<String, long[]> merged = new HashMap<>();
+        for (int slot = 0; slot < size; slot++) {
+            merged.put(valueAt(slot), new long[]{countOf(slot) + otherBound, errors[slot] + otherBound, hashes[slot]});
+        }
+        for (int slot = 0; slot < other.size; slot++) {
+            String value = other.valueAt(slot);
+            long[] entry = merged.get(value);
+            if (entry == null) {
+                merged.put(value, new long[]{other.countOf(slot) + bound, other.errors[slot] + bound, other.hashes[slot]});
+            } else {
+                // Оценка этого скетча уже дополнена границей другого, заменяем ее точной оценкой
+                entry[0] += other.countOf(slot) - otherBound;
+                entry[1] += other.errors[slot] - otherBound;
+            }
+        }
+        List<Map.Entry<String, long[]>> sorted = new ArrayList<>(merged.entrySet());
+        sorted.sort(Comparator.<Map.Entry<String, long[]>>comparingLong(e -> e.getValue()[0])
+                .thenComparing(Map.Entry::getKey, Comparator.reverseOrder()));
+
+        int dropped = Math.max(0, sorted.size() - capacity);
+        long newFloor = bound + otherBound;
+        if (dropped > 0) {
+            newFloor = Math.max(newFloor, sorted.get(dropped - 1).getValue()[0]);
+        }
+        long newTotal = total + other.total;
+        clear();
+        total = newTotal;
+        floor = newFloor;
+        // По возрастанию оценки, чтобы каждая корзина добавлялась в конец списка
+        for (Map.Entry<String, long[]> entry : sorted.subList(dropped, sorted.size())) {
+            int slot = size++;
+            store(slot, entry.getKey(), entry.getValue()[2]);
+            errors[slot] = entry.getValue()[1];
+            place(slot, entry.getValue()[0]);
+        }
+    }
+
+    /**
+     * @return независимая копия скетча
+     */
+    public SpaceSaving copy() {
+        SpaceSaving copy = new SpaceSaving(capacity);
+        copy.merge(this);
+        return copy;
+    }
+
+    private List<Entry> entries() {
+        List<Entry> entries = new ArrayList<>(size);
+        for (int slot = 0; slot < size; slot++) {
+            entries.add(new Entry(valueAt(slot), countOf(slot), errors[slot]));
+        }
+        entries.sort(Comparator.comparingLong(Entry::count).reversed().thenComparing(Entry::value));
+        return entries;
+    }
+
+    private long countOf(int slot) {
+        return bucketCount[bucketOf[slot]];
+    }
+
+    private void clear() {
+        Arrays.fill(table, 0);
+        for (int bucket = 0; bucket < capacity; bucket++) {
+            bucketUp[bucket] = bucket + 1 < capacity ? bucket + 1 : NONE;
+        }
+        freeBuckets = 0;
+        minBucket = NONE;
+        maxBucket = NONE;
+        size = 0;
+        total = 0;
+        floor = 0;
+    }
+
+    /**
+     * Увеличивает оценку счетчика на 1: счетчик переходит в следующую корзину, если ее оценка больше на 1,
+     * единственный счетчик корзины увеличивает оценку самой корзины, иначе создается новая корзина
+     */
+    private void increment(int slot) {
+        int bucket = bucketOf[slot];
+        long count = bucketCount[bucket] + 1;
+        int up = bucketUp[bucket];
+        if (up != NONE && bucketCount[up] == count) {
+            detach(slot);
+            attach(slot, up);
+            if (bucketHead[bucket] == NONE) {
+                releaseBucket(bucket);
+            }
+        } else if (bucketHead[bucket] == slot && nextInBucket[slot] == NONE) {
+            bucketCount[bucket] = count;
+        } else {
+            detach(slot);
+            attach(slot, newBucket(count, bucket, up));
+        }
+    }
+
+    /**
+     * Помещает счетчик в корзину с указанной оценкой, создавая ее при необходимости
+     */
+    private void place(int slot, long count) {
+        if (minBucket == NONE || count < bucketCount[minBucket]) {
+            attach(slot, newBucket(count, NONE, minBucket));
+            return;
+        }
+        int bucket = maxBucket;
+        while (bucketCount[bucket] > count) {
+            bucket = bucketDown[bucket];
+        }
+        attach(slot, bucketCount[bucket] == count ? bucket : newBucket(count, bucket, bucketUp[bucket]));
+    }
+
+    private int newBucket(long count, int down, int up) {
+        int bucket = freeBuckets;
+        freeBuckets = bucketUp[bucket];
+        bucketCount[bucket] = count;
+        bucketHead[bucket] = NONE;
+        bucketDown[bucket] = down;
+        bucketUp[bucket] = up;
+        if (down == NONE) {
+            minBucket = bucket;
+        } else {
+            bucketUp[down] = bucket;
+        }
+        if (up == NONE) {
+            maxBucket = bucket;
+        } else {
+            bucketDown[up] = bucket;
+        }
+        return bucket;
+    }
+
+    private void releaseBucket(int bucket) {
+        int down = bucketDown[bucket];
+        int up = bucketUp[bucket];
+        if (down == NONE) {
+            minBucket = up;
+        } else {
+            bucketUp[down] = up;
+        }
+        if (up == NONE) {
+            maxBucket = down;
+        } else {
+            bucketDown[up] = down;
+        }
+        bucketUp[bucket] = freeBuckets;
+        freeBuckets = bucket;
+    }
+
+    private void attach(int slot, int bucket) {
+        int head = bucketHead[bucket];
+        prevInBucket[slot] = NONE;
+        nextInBucket[slot] = head;
+        if (head != NONE) {
+            prevInBucket[head] = slot;
+        }
+        bucketHead[bucket] = slot;
+        bucketOf[slot] = bucket;
+    }
+
+    private void detach(int slot) {
+        int prev = prevInBucket[slot];
+        int next = nextInBucket[slot];
+        if (prev == NONE) {
+            bucketHead[bucketOf[slot]] = next;
+        } else {
+            nextInBucket[prev] = next;
+        }
+        if (next != NONE) {
+            prevInBucket[next] = prev;
+        }
+    }
+
+    private int find(CharSequence value, long hash) {
+        for (int i = (int) hash & mask; ; i = (i + 1) & mask) {
+            int slot = table[i] - 1;
+            if (slot < 0) {
+                return -1;
+            }
+            if (hashes[slot] == hash && contentEquals(slot, value)) {
+                return slot;
+            }
+        }
+    }
+
+    private boolean contentEquals(int slot, CharSequence value) {
+        int length = lengths[slot];
+        if (value.length() != length) {
+            return false;
+        }
+        char[] chars = values[slot];
+        for (int i = 0; i < length; i++) {
+            if (chars[i] != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Копирует символы значения в массив счетчика и добавляет счетчик в хеш-таблицу
+     */
+    private void store(int slot, CharSequence value, long hash) {
+        int length = value.length();
+        char[] chars = values[slot];
+        if (chars == null || chars.length < length) {
+            chars = new char[Math.max(length, 16)];
+            values[slot] = chars;
+        }
+        for (int i = 0; i < length; i++) {
+            chars[i] = value.charAt(i);
+        }
+        lengths[slot] = length;
+        hashes[slot] = hash;
+
+        int i = (int) hash & mask;
+        while (table[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        table[i] = slot + 1;
+    }
+
+    private String valueAt(int slot) {
+        return new String(values[slot], 0, lengths[slot]);
+    }
+
+    /**
+     * Удаление из таблицы с линейным пробированием со сдвигом следующих записей на освободившееся место
+     */
+    private void remove(int slot) {
+        int i = (int) hashes[slot] & mask;
+        while (table[i] != slot + 1) {
+            i = (i + 1) & mask;
+        }
+        int hole = i;
+        for (int j = (hole + 1) & mask; table[j] != 0; j = (j + 1) & mask) {
+            int home = (int) hashes[table[j] - 1] & mask;
+            // Запись переносится, если ее исходная позиция не лежит между дырой и текущей позицией
+            if (((j - home) & mask) >= ((j - hole) & mask)) {
+                table[hole] = table[j];
+                hole = j;
+            }
+        }
+        table[hole] = 0;
+    }
+}
@@ -0,0 +1,459 @@
+package ru.paskal.sort;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Внешняя сортировка записей по ключу long в пределах бюджета памяти. Запись - ключ и исходные байты строки,
+ * байты копируются в общий массив серии, а ключи и ссылки на байты - в массивы, которые растут вдвое, пока серия
+ * не займет половину бюджета. Заполненная серия сортируется и записывается в {@link RunFile} в отдельном потоке,
+ * пока следующие записи накапливаются во второй серии. Если все записи поместились в одну серию, они сортируются
+ * и выдаются без временных файлов, иначе серии сливаются k-путевым слиянием через двоичную кучу.
+ * Серия сортируется поразрядной сортировкой, которая переставляет ссылки вместе с ключами и устойчива, а при слиянии
+ * из равных ключей первой выдается запись более ранней серии, поэтому записи с равными ключами выдаются в порядке
+ * добавления. Не потокобезопасен
+ */
+final class ExternalSorter implements Closeable {
+    private static final int INITIAL_CAPACITY = 1 << 12;
+    private static final int INITIAL_BYTES = 1 << 16;
+    private static final long MIN_RUN_BUDGET = 16 << 10;
+    private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+    /**
+     * Память на запись кроме ее байтов: ключ и ссылка, а также их копии при сортировке
+     */
+    private static final int RECORD_OVERHEAD = 4 * Long.BYTES;
+    private static final int RADIX_BITS = 16;
+    private static final int RADIX_MASK = (1 << RADIX_BITS) - 1;
+
+    /**
+     * Получатель отсортированных записей
+     */
+    @FunctionalInterface
+    interface RecordSink {
+        /**
+         * @param key    ключ записи
+         * @param bytes  массив с байтами строки, действителен только во время вызова
+         * @param offset начало строки в массиве
+         * @param length количество байтов строки
+         */
+        void accept(long key, byte[] bytes, int offset, int length) throws IOException;
+    }
+
+    private final long runBudget;
+    private final Path tempDir;
+    private final List<RunFile> runs = new ArrayList<>();
+    private Run current;
+    /**
+     * Серия, записанная в фоне, массивы которой после записи используются повторно
+     */
+    private Run spare;
+    private Future<RunFile> pending;
+    private Run pendingRun;
+    private ExecutorService spiller;
+
+    /**
+     * @param memoryLimit бюджет памяти на две серии в байтах
+     * @param tempDir     директория временных файлов серий
+     */
+    ExternalSorter(long memoryLimit, Path tempDir) {
+        this.runBudget = Math.max(MIN_RUN_BUDGET, memoryLimit / 2);
+        this.tempDir = tempDir;
+        this.current = new Run();
+    }
+
+    /**
+     * @param key    ключ сортировки
+     * @param buffer буфер со строкой
+     * @param start  начало строки в буфере
+     * @param end    конец строки в буфере (не включительно)
+     */
+    void add(long key, ByteBuffer buffer, int start, int end) throws IOException {
+        int length = end - start;
+        makeRoom(length);
+        buffer.get(start, current.bytes, current.used, length);
+        current.add(key, length);
+    }
+
+    /**
+     * @param key    ключ сортировки
+     * @param bytes  массив со строкой
+     * @param offset начало строки в массиве
+     * @param length количество байтов строки
+     */
+    void add(long key, byte[] bytes, int offset, int length) throws IOException {
+        makeRoom(length);
+        System.arraycopy(bytes, offset, current.bytes, current.used, length);
+        current.add(key, length);
+    }
+
+    /**
+     * Передает все добавленные записи получателю в порядке возрастания ключей
+     *
+     * @param sink получатель записей
+     */
+    void drainSorted(RecordSink sink) throws IOException {
+        awaitPending();
+        current.sort();
+        if (runs.isEmpty()) {
+            for (int i = 0; i < current.size; i++) {
+                long ref = current.refs[i];
+                sink.accept(current.keys[i], current.bytes, offset(ref), length(ref));
+            }
+        } else {
+            List<RecordCursor> cursors = new ArrayList<>(runs.size() + 1);
+            for (RunFile run : runs) {
+                cursors.add(run.cursor());
+            }
+            cursors.add(current.cursor());
+            merge(cursors, sink);
+        }
+        current.clear();
+    }
+
+    /**
+     * @return количество серий, записанных во временные файлы
+     */
+    int getRunCount() {
+        return runs.size();
+    }
+
+    /**
+     * @return объем серий во временных файлах в байтах
+     */
+    long getRunBytes() throws IOException {
+        long bytes = 0;
+        for (RunFile run : runs) {
+            bytes += run.bytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Освобождает временные файлы и поток записи серий
+     */
+    @Override
+    public void close() throws IOException {
+        IOException error = null;
+        try {
+            awaitPending();
+        } catch (IOException e) {
+            error = e;
+        }
+        for (RunFile run : runs) {
+            try {
+                run.close();
+            } catch (IOException e) {
+                if (error == null) {
+                    error = e;
+                }
+            }
+        }
+        runs.clear();
+        if (spiller != null) {
+            spiller.shutdown();
+            spiller = null;
+        }
+        current = new Run(0, 0);
+        spare = null;
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * @return ссылка на байты записи: начало в старших 32 битах, длина в младших
+     */
+    static long ref(int offset, int length) {
+        return (long) offset << 32 | length;
+    }
+
+    static int offset(long ref) {
+        return (int) (ref >>> 32);
+    }
+
+    static int length(long ref) {
+        return (int) ref;
+    }
+
+    /**
+     * Освобождает место для записи длиной {@code length}: увеличивает массивы серии, а если серия заняла
+     * половину бюджета, передает ее на сортировку и запись в фоне. Запись, которая одна больше бюджета,
+     * все равно принимается в пустую серию
+     */
+    private void makeRoom(int length) throws IOException {
+        if (current.size > 0 && (current.memory() + RECORD_OVERHEAD + length > runBudget
+                || (long) current.used + length > MAX_ARRAY_SIZE || current.size == MAX_ARRAY_SIZE)) {
+            spill();
+        }
+        if ((long) current.used + length > MAX_ARRAY_SIZE) {
+            throw new IOException("Строка длиннее %d байт".formatted(MAX_ARRAY_SIZE));
+        }
+        current.ensureCapacity(length);
+    }
+
+    private void spill() throws IOException {
+        awaitPending();
+        Run full = current;
+        pendingRun = full;
+        pending = getSpiller().submit(() -> {
+            full.sort();
+            return RunFile.write(tempDir, full.keys, full.refs, full.bytes, full.size);
+        });
+        current = spare != null ? spare : new Run();
+        spare = null;
+    }
+
+    /**
+     * Дожидается записи серии в фоне. Ошибка записи выбрасывается здесь, записи этой серии теряются
+     */
+    private void awaitPending() throws IOException {
+        if (pending == null) {
+            return;
+        }
+        try {
+            runs.add(pending.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Сортировка была прервана");
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+        } finally {
+            pendingRun.clear();
+            spare = pendingRun;
+            pending = null;
+            pendingRun = null;
+        }
+    }
+
+    private ExecutorService getSpiller() {
+        if (spiller == null) {
+            spiller = Executors.newSingleThreadExecutor(task -> {
+                Thread thread = new Thread(task, "sort-spill");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return spiller;
+    }
+
+    /**
+     * Устойчиво сортирует начало массива ключей, переставляя вместе с ними ссылки: поразрядная сортировка
+     * по 16 бит с пропуском разрядов, одинаковых у всех ключей
+     *
+     * @param keys        ключи
+     * @param refs        ссылки на байты записей
+     * @param count       количество записей в начале массивов
+     * @param keyScratch  вспомогательный массив ключей не короче {@code count}
+     * @param refScratch  вспомогательный массив ссылок не короче {@code count}
+     */
+    static void sort(long[] keys, long[] refs, int count, long[] keyScratch, long[] refScratch) {
+        int digits = Long.SIZE / RADIX_BITS;
+        int[][] counts = new int[digits][RADIX_MASK + 1];
+        for (int i = 0; i < count; i++) {
+            // Инверсия знакового бита переводит знаковый порядок в беззнаковый
+            long key = keys[i] ^ Long.MIN_VALUE;
+            for (int d = 0; d < digits; d++) {
+                counts[d][(int) (key >>> (d * RADIX_BITS)) & RADIX_MASK]++;
+            }
+        }
+        long[] srcKeys = keys;
+        long[] srcRefs = refs;
+        long[] dstKeys = keyScratch;
+        long[] dstRefs = refScratch;
+        for (int d = 0; d < digits && count > 0; d++) {
+            int shift = d * RADIX_BITS;
+            int[] offsets = counts[d];
+            if (offsets[(int) ((srcKeys[0] ^ Long.MIN_VALUE) >>> shift) & RADIX_MASK] == count) {
+                continue;
+            }
+            int sum = 0;
+            for (int i = 0; i <= RADIX_MASK; i++) {
+                int c = offsets[i];
+                offsets[i] = sum;
+                sum += c;
+            }
+            for (int i = 0; i < count; i++) {
+                long key = srcKeys[i];
+                int target = offsets[(int) ((key ^ Long.MIN_VALUE) >>> shift) & RADIX_MASK]++;
+                dstKeys[target] = key;
+                dstRefs[target] = srcRefs[i];
+            }
+            long[] swap = srcKeys;
+            srcKeys = dstKeys;
+            dstKeys = swap;
+            swap = srcRefs;
+            srcRefs = dstRefs;
+            dstRefs = swap;
+        }
+        if (srcKeys != keys) {
+            System.arraycopy(srcKeys, 0, keys, 0, count);
+            System.arraycopy(srcRefs, 0, refs, 0, count);
+        }
+    }
+
+    /**
+     * K-путевое слияние: курсор с наименьшей текущей записью находится в вершине двоичной кучи.
+     * При равных ключах меньшим считается курсор, раньше стоящий в списке
+     */
+    private static void merge(List<RecordCursor> sources, RecordSink sink) throws IOException {
+        RecordCursor[] heap = new RecordCursor[sources.size()];
+        int[] order = new int[sources.size()];
+        int heapSize = 0;
+        for (RecordCursor cursor : sources) {
+            if (cursor.next()) {
+                order[heapSize] = heapSize;
+                heap[heapSize++] = cursor;
+            }
+        }
+        for (int i = heapSize / 2 - 1; i >= 0; i--) {
+            siftDown(heap, order, i, heapSize);
+        }
+        while (heapSize > 0) {
+            RecordCursor top = heap[0];
+            sink.accept(top.key(), top.bytes(), top.offset(), top.length());
+            if (!top.next()) {
+                heapSize--;
+                heap[0] = heap[heapSize];
+                order[0] = order[heapSize];
+                heap[heapSize] = null;
+            }
+            if (heapSize > 1) {
+                siftDown(heap, order, 0, heapSize);
+            }
+        }
+    }
+
+    private static void siftDown(RecordCursor[] heap, int[] order, int i, int heapSize) {
+        RecordCursor cursor = heap[i];
+        int cursorOrder = order[i];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= heapSize) {
+                break;
+            }
+            if (child + 1 < heapSize && less(heap[child + 1], order[child + 1], heap[child], order[child])) {
+                child++;
+            }
+            if (!less(heap[child], order[child], cursor, cursorOrder)) {
+                break;
+            }
+            heap[i] = heap[child];
+            order[i] = order[child];
+            i = child;
+        }
+        heap[i] = cursor;
+        order[i] = cursorOrder;
+    }
+
+    private static boolean less(RecordCursor a, int aOrder, RecordCursor b, int bOrder) {
+        return a.key() < b.key() || a.key() == b.key() && aOrder < bOrder;
+    }
+
+    /**
+     * Серия в памяти: ключи, ссылки на байты и байты строк. Массивы растут по мере добавления записей
+     * и сохраняются после {@link #clear()}
+     */
+    private static final class Run {
+        private long[] keys;
+        private long[] refs;
+        private byte[] bytes;
+        private long[] keyScratch;
+        private long[] refScratch;
+        private int size = 0;
+        private int used = 0;
+
+        Run() {
+            this(INITIAL_CAPACITY, INITIAL_BYTES);
+        }
+
+        Run(int capacity, int byteCapacity) {
+            keys = new long[capacity];
+            refs = new long[capacity];
+            bytes = new byte[byteCapacity];
+        }
+
+        /**
+         * @return память серии в байтах с учетом вспомогательных массивов сортировки
+         */
+        long memory() {
+            return (long) size * RECORD_OVERHEAD + used;
+        }
+
+        void ensureCapacity(int length) {
+            if (size == keys.length) {
+                int capacity = (int) Math.min(MAX_ARRAY_SIZE, Math.max(1, 2L * keys.length));
+                keys = Arrays.copyOf(keys, capacity);
+                refs = Arrays.copyOf(refs, capacity);
+            }
+            if (used + length > bytes.length) {
+                bytes = Arrays.copyOf(bytes, (int) Math.min(MAX_ARRAY_SIZE, Math.max((long) used + length, 2L * bytes.length)));
+            }
+        }
+
+        /**
+         * Добавляет запись, байты которой уже скопированы в конец {@link #bytes}
+         */
+        void add(long key, int length) {
+            keys[size] = key;
+            refs[size++] = ref(used, length);
+            used += length;
+        }
+
+        void sort() {
+            if (keyScratch == null || keyScratch.length < size) {
+                keyScratch = new long[keys.length];
+                refScratch = new long[keys.length];
+            }
+            ExternalSorter.sort(keys, refs, size, keyScratch, refScratch);
+        }
+
+        void clear() {
+            size = 0;
+            used = 0;
+        }
+
+        /**
+         * @return отсортированная серия как источник слияния
+         */
+        RecordCursor cursor() {
+            return new RecordCursor() {
+                private int index = -1;
+
+                @Override
+                public boolean next() {
+                    return ++index < size;
+                }
+
+                @Override
+                public long key() {
+                    return keys[index];
+                }
+
+                @Override
+                public byte[] bytes() {
+                    return bytes;
+                }
+
+                @Override
+                public int offset() {
+                    return ExternalSorter.offset(refs[index]);
+                }
+
+                @Override
+                public int length() {
+                    return ExternalSorter.length(refs[index]);
+                }
+            };
+        }
+    }
+}
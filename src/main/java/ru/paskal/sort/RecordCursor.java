@@ -0,0 +1,36 @@
+package ru.paskal.sort;
+
+import java.io.IOException;
+
+/**
+ * Последовательное чтение записей с неубывающими ключами, источник k-путевого слияния.
+ * Запись - ключ сортировки и исходные байты строки
+ */
+interface RecordCursor {
+    /**
+     * Переходит к следующей записи
+     *
+     * @return false если записи закончились
+     */
+    boolean next() throws IOException;
+
+    /**
+     * @return ключ текущей записи, действителен после успешного {@link #next()}
+     */
+    long key();
+
+    /**
+     * @return массив с байтами текущей записи, действителен до следующего вызова {@link #next()}
+     */
+    byte[] bytes();
+
+    /**
+     * @return начало байтов текущей записи в {@link #bytes()}
+     */
+    int offset();
+
+    /**
+     * @return количество байтов текущей записи
+     */
+    int length();
+}
@@ -0,0 +1,212 @@
+package ru.paskal.sort;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Отсортированная серия записей во временном файле. Запись хранится как разность ключа с предыдущим
+ * и длина строки в виде беззнаковых чисел переменной длины по 7 бит в байте, за которыми следуют исходные
+ * байты строки, поэтому ключ плотной серии занимает 1-3 байта вместо 8. Файл удаляется сразу после создания,
+ * а где это невозможно - при завершении программы, место на диске освобождается при {@link #close()}
+ */
+final class RunFile implements Closeable {
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int MAX_VARINT_BYTES = 10;
+    private static final int MAX_HEADER_BYTES = 2 * MAX_VARINT_BYTES;
+
+    private final FileChannel channel;
+    private final int count;
+
+    private RunFile(FileChannel channel, int count) {
+        this.channel = channel;
+        this.count = count;
+    }
+
+    /**
+     * Записывает отсортированные записи во временный файл
+     *
+     * @param dir   директория временных файлов
+     * @param keys  ключи записей в порядке возрастания
+     * @param refs  ссылки на байты записей в {@code bytes}, см. {@link ExternalSorter#ref(int, int)}
+     * @param bytes байты строк
+     * @param count количество записей в начале массивов
+     * @return серия во временном файле
+     */
+    static RunFile write(Path dir, long[] keys, long[] refs, byte[] bytes, int count) throws IOException {
+        Files.createDirectories(dir);
+        Path file = Files.createTempFile(dir, ".file_util-sort-", ".run");
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            Files.delete(file);
+        } catch (IOException e) {
+            file.toFile().deleteOnExit();
+        }
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int position = 0;
+            long filePosition = 0;
+            // Разность первого ключа считается от наименьшего long и поэтому неотрицательна
+            long previous = Long.MIN_VALUE;
+            for (int i = 0; i < count; i++) {
+                if (BUFFER_SIZE - position < MAX_HEADER_BYTES) {
+                    filePosition += writeFully(channel, buffer, position, filePosition);
+                    position = 0;
+                }
+                int offset = ExternalSorter.offset(refs[i]);
+                int length = ExternalSorter.length(refs[i]);
+                position = writeVarint(buffer, position, keys[i] - previous);
+                position = writeVarint(buffer, position, length);
+                previous = keys[i];
+                if (BUFFER_SIZE - position >= length) {
+                    System.arraycopy(bytes, offset, buffer, position, length);
+                    position += length;
+                    continue;
+                }
+                // Строка не помещается в буфер: буфер и строка записываются по отдельности
+                filePosition += writeFully(channel, buffer, position, filePosition);
+                position = 0;
+                filePosition += writeFully(channel, ByteBuffer.wrap(bytes, offset, length), filePosition);
+            }
+            writeFully(channel, buffer, position, filePosition);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return new RunFile(channel, count);
+    }
+
+    private static int writeVarint(byte[] buffer, int position, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer[position++] = (byte) (value | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+        return position;
+    }
+
+    private static int writeFully(FileChannel channel, byte[] buffer, int length, long filePosition) throws IOException {
+        return writeFully(channel, ByteBuffer.wrap(buffer, 0, length), filePosition);
+    }
+
+    private static int writeFully(FileChannel channel, ByteBuffer data, long filePosition) throws IOException {
+        int length = data.remaining();
+        int start = data.position();
+        while (data.hasRemaining()) {
+            channel.write(data, filePosition + data.position() - start);
+        }
+        return length;
+    }
+
+    /**
+     * @return чтение записей серии с начала, каждый вызов создает независимый курсор
+     */
+    RecordCursor cursor() {
+        return new Reader();
+    }
+
+    /**
+     * @return объем серии на диске в байтах
+     */
+    long bytes() throws IOException {
+        return channel.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Чтение серии через буфер, который дочитывается, когда в нем нет полной записи,
+     * и увеличивается для строки длиннее буфера
+     */
+    private final class Reader implements RecordCursor {
+        private byte[] array = new byte[BUFFER_SIZE];
+        private int position = 0;
+        private int limit = 0;
+        private long filePosition = 0;
+        private int remaining = count;
+        private long key = Long.MIN_VALUE;
+        private int offset;
+        private int length;
+
+        @Override
+        public boolean next() throws IOException {
+            if (remaining == 0) {
+                return false;
+            }
+            position = offset + length;
+            ensure(MAX_HEADER_BYTES);
+            key += readVarint();
+            length = (int) readVarint();
+            ensure(length);
+            offset = position;
+            remaining--;
+            return true;
+        }
+
+        @Override
+        public long key() {
+            return key;
+        }
+
+        @Override
+        public byte[] bytes() {
+            return array;
+        }
+
+        @Override
+        public int offset() {
+            return offset;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        private long readVarint() {
+            long value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = array[position++];
+                value |= (b & 0x7FL) << shift;
+                shift += 7;
+            } while (b < 0);
+            return value;
+        }
+
+        /**
+         * Дочитывает буфер, чтобы в нем от текущей позиции было не меньше {@code bytes} байтов или конец файла
+         */
+        private void ensure(int bytes) throws IOException {
+            int left = limit - position;
+            if (left >= bytes) {
+                return;
+            }
+            if (array.length < bytes) {
+                array = Arrays.copyOf(array, Math.max(bytes, 2 * array.length));
+            }
+            System.arraycopy(array, position, array, 0, left);
+            ByteBuffer buffer = ByteBuffer.wrap(array).position(left);
+            while (buffer.position() < bytes) {
+                int n = channel.read(buffer, filePosition);
+                if (n < 0) {
+                    break;
+                }
+                filePosition += n;
+            }
+            position = 0;
+            offset = 0;
+            length = 0;
+            limit = buffer.position();
+        }
+    }
+}
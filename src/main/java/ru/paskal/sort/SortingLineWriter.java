@@ -0,0 +1,174 @@
+package ru.paskal.sort;
+
+import lombok.extern.slf4j.Slf4j;
+import ru.paskal.io.AsciiByteSequence;
+import ru.paskal.io.FlushListener;
+import ru.paskal.io.LineWriter;
+import ru.paskal.io.MappedLineReader;
+import ru.paskal.utils.LineClassifier;
+import ru.paskal.utils.StringTypesEnum;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+
+/**
+ * Запись целых или дробных чисел в порядке возрастания. Строки разбираются {@link LineClassifier} только ради
+ * ключа сортировки, а в {@link ExternalSorter} вместе с ключом накапливаются исходные байты строки, которые
+ * при закрытии записываются в {@link LineWriter} выходного файла без изменений: меняется только порядок строк.
+ * Ключ дробного числа - long, порядок которых совпадает с {@link Double#compare(double, double)}:
+ * -0.0 меньше 0.0, NaN больше бесконечности. Строки с равными ключами (например, {@code 7} и {@code 007})
+ * записываются в порядке поступления.
+ * <p>
+ * Строки принимаются в любом виде, в котором их записывают обработчики: по одной, блоками конвейера
+ * и временными файлами параллельной обработки или кэша, поэтому сортировка не зависит от способа обработки.
+ * Требует совместимой с ASCII системной кодировки. {@link #flush()} не записывает накопленные значения.
+ * Не потокобезопасен.
+ */
+@Slf4j
+public class SortingLineWriter implements LineWriter {
+    private static final int OUTPUT_BUFFER_SIZE = 1 << 16;
+
+    private final LineWriter delegate;
+    private final boolean floats;
+    private final ExternalSorter sorter;
+    private final LineClassifier classifier = new LineClassifier();
+    private final MappedLineReader reader = new MappedLineReader();
+    private final AsciiByteSequence asciiLine = new AsciiByteSequence();
+    private final Charset charset = Charset.defaultCharset();
+    private final byte[] lineSeparator = System.lineSeparator().getBytes(charset);
+    private final byte[] output = new byte[OUTPUT_BUFFER_SIZE];
+    private int position = 0;
+    private boolean closed = false;
+
+    /**
+     * @param delegate    запись в выходной файл
+     * @param type        тип чисел, {@link StringTypesEnum#INTEGER} или {@link StringTypesEnum#FLOAT}
+     * @param memoryLimit бюджет памяти на строки и их ключи в байтах, при превышении серии записываются во временные файлы
+     * @param tempDir     директория временных файлов серий
+     */
+    public SortingLineWriter(LineWriter delegate, StringTypesEnum type, long memoryLimit, Path tempDir) {
+        if (type == StringTypesEnum.STRING) {
+            throw new IllegalArgumentException("Сортируются только числа");
+        }
+        this.delegate = delegate;
+        this.floats = type == StringTypesEnum.FLOAT;
+        this.sorter = new ExternalSorter(memoryLimit, tempDir);
+    }
+
+    @Override
+    public void writeLine(CharSequence line) throws IOException {
+        long key = key(line);
+        byte[] bytes = line.toString().getBytes(charset);
+        sorter.add(key, bytes, 0, bytes.length);
+    }
+
+    @Override
+    public void writeEncoded(byte[] bytes, int offset, int length) throws IOException {
+        reader.read(ByteBuffer.wrap(bytes, offset, length).slice(), this::onLine);
+    }
+
+    @Override
+    public void append(FileChannel src, long position, long count) throws IOException {
+        reader.read(src, position, position + count, this::onLine);
+    }
+
+    @Override
+    public void setFlushListener(FlushListener listener) {
+        delegate.setFlushListener(listener);
+    }
+
+    /**
+     * Сбрасывает выходной файл; накопленные значения записываются только при закрытии
+     */
+    @Override
+    public void flush() throws IOException {
+        delegate.flush();
+    }
+
+    /**
+     * Записывает значения в порядке возрастания и закрывает выходной файл и временные файлы серий
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (sorter.getRunCount() > 0) {
+                log.info("Строки сливаются из {} серий во временных файлах объемом {} байт",
+                        sorter.getRunCount() + 1, sorter.getRunBytes());
+            }
+            sorter.drainSorted(this::writeRecord);
+            if (position > 0) {
+                delegate.writeEncoded(output, 0, position);
+                position = 0;
+            }
+        } finally {
+            try {
+                sorter.close();
+            } finally {
+                delegate.close();
+            }
+        }
+    }
+
+    /**
+     * Переводит double в long, знаковый порядок которого совпадает с {@link Double#compare(double, double)}:
+     * у отрицательных чисел инвертируются все биты, кроме знакового
+     */
+    static long toSortable(double value) {
+        long bits = Double.doubleToLongBits(value);
+        return bits ^ ((bits >> 63) & Long.MAX_VALUE);
+    }
+
+    private void onLine(ByteBuffer buffer, int start, int end, boolean ascii) throws IOException {
+        long key;
+        if (ascii) {
+            key = key(asciiLine.set(buffer, start, end));
+        } else {
+            byte[] bytes = new byte[end - start];
+            buffer.get(start, bytes);
+            key = key(new String(bytes, charset));
+        }
+        sorter.add(key, buffer, start, end);
+    }
+
+    /**
+     * @return ключ сортировки строки
+     * @throws IOException строка не является числом типа файла
+     */
+    private long key(CharSequence line) throws IOException {
+        return switch (classifier.classify(line)) {
+            case INTEGER -> floats ? toSortable((double) classifier.getLongValue()) : classifier.getLongValue();
+            case FLOAT -> {
+                if (!floats) {
+                    throw new IOException("Строка %s не является целым числом".formatted(line));
+                }
+                yield toSortable(classifier.getDoubleValue());
+            }
+            case STRING -> throw new IOException("Строка %s не является числом".formatted(line));
+        };
+    }
+
+    /**
+     * Записывает исходные байты строки и перевод строки; строка длиннее буфера записывается напрямую
+     */
+    private void writeRecord(long key, byte[] bytes, int offset, int length) throws IOException {
+        if (OUTPUT_BUFFER_SIZE - position < length + lineSeparator.length) {
+            delegate.writeEncoded(output, 0, position);
+            position = 0;
+        }
+        if (length + lineSeparator.length > OUTPUT_BUFFER_SIZE) {
+            delegate.writeEncoded(bytes, offset, length);
+        } else {
+            System.arraycopy(bytes, offset, output, position, length);
+            position += length;
+        }
+        System.arraycopy(lineSeparator, 0, output, position, lineSeparator.length);
+        position += lineSeparator.length;
+    }
+}
@@ -2,10 +2,17 @@ package ru.paskal.utils;
 
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.cli.*;
+import ru.paskal.distinct.DistinctFilter;
+import ru.paskal.io.DurabilityPolicy;
 import ru.paskal.models.CliArgumentsModel;
 
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Парсер аргументов командной строки, позволяет собрать аргументы в модель {@link CliArgumentsModel}
@@ -19,6 +26,18 @@ public class ArgumentsParser {
 
     private static final Options options = getOptions();
 
+    private static final long DEFAULT_CHUNK_SIZE = 64L << 20;
+    private static final long DEFAULT_WRITE_BUFFER_SIZE = 1L << 20;
+    private static final long DEFAULT_CHECKPOINT_INTERVAL = 60_000;
+    private static final long DEFAULT_CACHE_SIZE = 1L << 30;
+    private static final long DEFAULT_DISTINCT_MEMORY = 256L << 20;
+    private static final long DEFAULT_SORT_MEMORY = 256L << 20;
+    private static final long MAX_WRITE_BUFFER_SIZE = 1L << 30;
+    private static final int MAX_TOP_K = 100_000;
+    private static final int DEFAULT_PREFETCH = 4;
+    private static final int MAX_PREFETCH = 64;
+    private static final Pattern SHARD_PATTERN = Pattern.compile("(\\d+)/(\\d+)");
+
 
     /**
      * Метод парсинга аргументов командной строки, в случае ошибки выводит сообщение в лог
@@ -35,17 +54,82 @@ public class ArgumentsParser {
                 return new CliArgumentsModel();
             }
 
+            if (cmd.hasOption("daemon")) {
+                // Аргументы обработки передаются демону в заданиях клиента
+                CliArgumentsModel daemon = new CliArgumentsModel();
+                daemon.setDaemonSocket(cmd.getOptionValue("daemon"));
+                return daemon;
+            }
+
             String outputPath = cmd.getOptionValue("o", ".");
             String prefix = cmd.getOptionValue("p", "");
             boolean appendMode = cmd.hasOption("a");
             boolean shortStats = cmd.hasOption("s");
             boolean fullStats = cmd.hasOption("f");
+            boolean extendedStats = cmd.hasOption("e");
+            int topK = parsePositiveInt(cmd, "top-k", 0);
+            if (topK > MAX_TOP_K) {
+                throw new IllegalArgumentException(
+                        "Значение аргумента --top-k не должно превышать %d: %d".formatted(MAX_TOP_K, topK));
+            }
+            boolean mmapMode = cmd.hasOption("m");
+            int threads = parsePositiveInt(cmd, "t", 1);
+            long chunkSize = parseSize(cmd, "chunk-size", DEFAULT_CHUNK_SIZE);
+            int parallelism = parsePositiveInt(cmd, "parallelism", 1);
+            boolean pipelineMode = cmd.hasOption("pipeline");
+            boolean compressOutput = cmd.hasOption("z");
+            long writeBufferSize = parseSize(cmd, "write-buffer", DEFAULT_WRITE_BUFFER_SIZE);
+            if (writeBufferSize > MAX_WRITE_BUFFER_SIZE) {
+                throw new IllegalArgumentException(
+                        "Значение аргумента --write-buffer не должно превышать 1G: " + cmd.getOptionValue("write-buffer"));
+            }
+            DurabilityPolicy durability = parseDurability(cmd);
+            boolean followMode = cmd.hasOption("F");
+            long statsInterval = parseInterval(cmd, "stats-interval");
+            long flushInterval = parseInterval(cmd, "flush-interval");
+            long progressInterval = parseInterval(cmd, "progress");
+            long checkpointInterval = parseInterval(cmd, "checkpoint-interval");
+            boolean resume = cmd.hasOption("resume");
+            String cacheDir = cmd.getOptionValue("cache-dir");
+            long cacheSize = parseSize(cmd, "cache-size", DEFAULT_CACHE_SIZE);
+            LineTypes lineTypes = parseLineTypes(cmd);
+            boolean asyncWriters = cmd.hasOption("async-writers");
+            long rotateSize = parseSize(cmd, "rotate-size", 0);
+            long rotateLines = parsePositiveInt(cmd, "rotate-lines", 0);
+            boolean distinct = cmd.hasOption("distinct");
+            long distinctMemory = parseSize(cmd, "distinct-memory", DEFAULT_DISTINCT_MEMORY);
+            DistinctFilter.Overflow distinctOverflow = parseDistinctOverflow(cmd);
+            boolean distinctStats = cmd.hasOption("distinct-stats");
+            boolean sort = cmd.hasOption("sort");
+            long sortMemory = parseSize(cmd, "sort-memory", DEFAULT_SORT_MEMORY);
+            int[] shard = parseShard(cmd);
+            boolean mergeShards = cmd.hasOption("merge-shards");
+            int prefetch = "0".equals(cmd.getOptionValue("prefetch")) ? 0
+                    : parsePositiveInt(cmd, "prefetch", DEFAULT_PREFETCH);
+            if (prefetch > MAX_PREFETCH) {
+                throw new IllegalArgumentException(
+                        "Значение аргумента --prefetch не должно превышать %d: %d".formatted(MAX_PREFETCH, prefetch));
+            }
+            if (resume && checkpointInterval == 0) {
+                checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+            }
 
             String[] inputFiles = cmd.getArgs();
             if (inputFiles.length == 0) {
                 log.error("Не указаны входные файлы.");
                 return new CliArgumentsModel();
             }
+            if (shard[1] > 0) {
+                if (mergeShards) {
+                    throw new IllegalArgumentException("Аргументы --shard и --merge-shards несовместимы");
+                }
+                if (followMode) {
+                    throw new IllegalArgumentException("Отслеживаемые файлы нельзя разделить между частями");
+                }
+                if (Arrays.asList(inputFiles).contains("-")) {
+                    throw new IllegalArgumentException("Стандартный ввод нельзя разделить между частями");
+                }
+            }
             log.info("Выбранные настройки утилиты:");
 
             if (outputPath.equals(".")) {
@@ -66,24 +150,181 @@ public class ArgumentsParser {
                 log.info("Новые результаты перезаписывают старые");
             }
 
+            if (extendedStats && !fullStats) {
+                log.info("Расширенная статистика дополняет полную, будет выведена полная статистика");
+                fullStats = true;
+            }
+
+            if (topK > 0 && !fullStats) {
+                log.info("Наиболее частые строки выводятся в полной статистике, будет выведена полная статистика");
+                fullStats = true;
+            }
+
+            if (statsInterval > 0 && !shortStats && !fullStats) {
+                log.info("Для промежуточной статистики будет собираться краткая статистика");
+                shortStats = true;
+            }
+
             if (shortStats && fullStats) {
                 log.info("Был задан вывод и краткой и полной статистики, будет выведена полная статистика");
                 shortStats = false;
             } else if (shortStats) {
                 log.info("Будет выведена краткая статистика");
+            } else if (fullStats && extendedStats) {
+                log.info("Будет выведена полная статистика с процентилями, количеством различных строк и распределением длин");
             } else if (fullStats) {
                 log.info("Будет выведена полная статистика");
             } else {
                 log.info("Статистика не будет выведена");
             }
 
+            if (topK > 0) {
+                log.info("Отслеживаются {} наиболее частых строк", topK);
+            }
+
+            if (compressOutput) {
+                log.info("Выходные файлы сжимаются в формате gzip");
+            }
+
+            if (mmapMode) {
+                log.info("Входные файлы читаются побайтово через отображение в память");
+            }
+
+            if (threads > 1) {
+                log.info("Файлы обрабатываются параллельно в {} потоках", threads);
+            }
+
+            if (parallelism > 1) {
+                log.info("Файлы больше {} байт обрабатываются частями по {} байт в {} потоках",
+                        2 * chunkSize, chunkSize, parallelism);
+            }
+
+            if (pipelineMode) {
+                log.info("Чтение, классификация и запись выполняются конвейером в отдельных потоках");
+            }
+
+            if (followMode) {
+                log.info("Входные файлы отслеживаются как в tail -F до остановки утилиты");
+            }
+
+            if (statsInterval > 0) {
+                log.info("Промежуточная статистика выводится каждые {} мс", statsInterval);
+            }
+
+            if (flushInterval > 0) {
+                log.info("Выходные файлы сбрасываются не реже чем раз в {} мс", flushInterval);
+            }
+
+            if (progressInterval > 0) {
+                log.info("Прогресс обработки выводится каждые {} мс", progressInterval);
+            }
+
+            if (checkpointInterval > 0) {
+                log.info("Контрольные точки создаются каждые {} мс", checkpointInterval);
+            }
+
+            if (resume) {
+                log.info("Обработка продолжается с последней контрольной точки");
+            }
+
+            if (cacheDir != null) {
+                log.info("Результаты обработки файлов кэшируются в директории {}, не более {} байт", cacheDir, cacheSize);
+            }
+
+            if (lineTypes != null) {
+                for (LineType type : lineTypes.getTypes()) {
+                    log.info("Строки типа {} по шаблону {} записываются в файл {}{}", type.name(), type.pattern(),
+                            prefix, type.toFileName());
+                }
+                log.info("Шаблоны типов скомпилированы в автомат из {} состояний",
+                        lineTypes.getAutomaton().getStateCount());
+            }
+
+            if (asyncWriters) {
+                log.info("Каждый выходной файл записывается в отдельном потоке");
+            }
+
+            if (rotateSize > 0 && rotateLines > 0) {
+                log.info("Выходные файлы делятся на сегменты по {} байт или {} строк", rotateSize, rotateLines);
+            } else if (rotateSize > 0) {
+                log.info("Выходные файлы делятся на сегменты по {} байт", rotateSize);
+            } else if (rotateLines > 0) {
+                log.info("Выходные файлы делятся на сегменты по {} строк", rotateLines);
+            }
+
+            if (distinct) {
+                log.info("Повторяющиеся значения не записываются, бюджет памяти {} байт, при превышении - {}",
+                        distinctMemory, distinctOverflow == DistinctFilter.Overflow.BLOOM
+                                ? "фильтр Блума" : "временные файлы");
+                if (distinctStats) {
+                    log.info("Статистика учитывает только первые вхождения значений");
+                }
+            }
+
+            if (sort) {
+                log.info("Целые и дробные числа записываются в порядке возрастания, бюджет памяти {} байт", sortMemory);
+            }
+
+            if (shard[1] > 0) {
+                log.info("Обрабатывается часть {} из {} входных данных", shard[0], shard[1]);
+            }
+
+            if (prefetch > 0 && !followMode && !mergeShards) {
+                log.info("Следующие {} входных файлов открываются и читаются заранее", prefetch);
+            }
+
+            if (mergeShards) {
+                log.info("Результаты частей из директорий {} объединяются в {}", String.join(", ", inputFiles), outputPath);
+            }
+
+            switch (durability.getMode()) {
+                case CLOSE -> log.info("Выходные файлы сбрасываются на диск при закрытии");
+                case PERIODIC -> log.info("Выходные файлы сбрасываются на диск каждые {} байт и при закрытии",
+                        durability.getSyncInterval());
+                default -> {
+                }
+            }
+
             return new CliArgumentsModel(
                     outputPath,
                     prefix,
                     appendMode,
                     shortStats,
                     fullStats,
-                    inputFiles
+                    inputFiles,
+                    mmapMode,
+                    threads,
+                    chunkSize,
+                    parallelism,
+                    pipelineMode,
+                    (int) writeBufferSize,
+                    durability,
+                    followMode,
+                    statsInterval,
+                    flushInterval,
+                    extendedStats,
+                    topK,
+                    compressOutput,
+                    progressInterval,
+                    checkpointInterval,
+                    resume,
+                    cacheDir,
+                    cacheSize,
+                    null,
+                    lineTypes,
+                    asyncWriters,
+                    rotateSize,
+                    rotateLines,
+                    distinct,
+                    distinctMemory,
+                    distinctOverflow,
+                    distinctStats,
+                    sort,
+                    sortMemory,
+                    shard[0],
+                    shard[1],
+                    mergeShards,
+                    prefetch
             );
         } catch (ParseException e) {
             log.error("Ошибка при разборе аргументов: {}", e.getMessage());
@@ -94,6 +335,205 @@ public class ArgumentsParser {
     }
 
 
+    /**
+     * Метод получения положительного целого значения аргумента
+     *
+     * @param cmd          разобранные аргументы
+     * @param option       имя аргумента
+     * @param defaultValue значение по умолчанию, если аргумент не указан
+     * @return значение аргумента
+     * @throws IllegalArgumentException если значение не является положительным целым числом
+     */
+    private static int parsePositiveInt(CommandLine cmd, String option, int defaultValue) {
+        String value = cmd.getOptionValue(option);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            int result = Integer.parseInt(value);
+            if (result > 0) {
+                return result;
+            }
+        } catch (NumberFormatException e) {
+            // Сообщение об ошибке ниже
+        }
+        throw new IllegalArgumentException(
+                "Значение аргумента %s должно быть положительным целым числом: %s".formatted(optionName(option), value));
+    }
+
+    /**
+     * Метод получения размера в байтах, допускаются суффиксы K, M и G
+     *
+     * @param cmd          разобранные аргументы
+     * @param option       имя аргумента
+     * @param defaultValue значение по умолчанию, если аргумент не указан
+     * @return размер в байтах
+     * @throws IllegalArgumentException если значение не является положительным размером
+     */
+    private static long parseSize(CommandLine cmd, String option, long defaultValue) {
+        String value = cmd.getOptionValue(option);
+        if (value == null) {
+            return defaultValue;
+        }
+        String digits = value.toUpperCase();
+        int shift = switch (digits.isEmpty() ? ' ' : digits.charAt(digits.length() - 1)) {
+            case 'K' -> 10;
+            case 'M' -> 20;
+            case 'G' -> 30;
+            default -> 0;
+        };
+        if (shift > 0) {
+            digits = digits.substring(0, digits.length() - 1);
+        }
+        try {
+            long result = Long.parseLong(digits);
+            if (result > 0 && result <= Long.MAX_VALUE >> shift) {
+                return result << shift;
+            }
+        } catch (NumberFormatException e) {
+            // Сообщение об ошибке ниже
+        }
+        throw new IllegalArgumentException(
+                "Значение аргумента %s должно быть положительным размером, например 64M: %s"
+                        .formatted(optionName(option), value));
+    }
+
+    /**
+     * Метод получения интервала времени в миллисекундах, допускаются суффиксы ms, s, m и h,
+     * число без суффикса означает миллисекунды
+     *
+     * @param cmd    разобранные аргументы
+     * @param option имя аргумента
+     * @return интервал в миллисекундах или 0, если аргумент не указан
+     * @throws IllegalArgumentException если значение не является положительным интервалом
+     */
+    private static long parseInterval(CommandLine cmd, String option) {
+        String value = cmd.getOptionValue(option);
+        if (value == null) {
+            return 0;
+        }
+        String digits = value.toLowerCase();
+        long unit = 1;
+        if (digits.endsWith("ms")) {
+            digits = digits.substring(0, digits.length() - 2);
+        } else if (digits.endsWith("s")) {
+            digits = digits.substring(0, digits.length() - 1);
+            unit = 1000;
+        } else if (digits.endsWith("m")) {
+            digits = digits.substring(0, digits.length() - 1);
+            unit = 60_000;
+        } else if (digits.endsWith("h")) {
+            digits = digits.substring(0, digits.length() - 1);
+            unit = 3_600_000;
+        }
+        try {
+            long result = Long.parseLong(digits);
+            if (result > 0 && result <= Long.MAX_VALUE / unit) {
+                return result * unit;
+            }
+        } catch (NumberFormatException e) {
+            // Сообщение об ошибке ниже
+        }
+        throw new IllegalArgumentException(
+                "Значение аргумента %s должно быть положительным интервалом, например 500ms или 10s: %s"
+                        .formatted(optionName(option), value));
+    }
+
+    /**
+     * Метод получения политики сброса выходных файлов на диск: none, close или размер, например 16M
+     *
+     * @param cmd разобранные аргументы
+     * @return политика сброса на диск, по умолчанию {@link DurabilityPolicy#NONE}
+     * @throws IllegalArgumentException если значение не является допустимой политикой
+     */
+    private static DurabilityPolicy parseDurability(CommandLine cmd) {
+        String value = cmd.getOptionValue("durability");
+        if (value == null || value.equalsIgnoreCase("none")) {
+            return DurabilityPolicy.NONE;
+        }
+        if (value.equalsIgnoreCase("close")) {
+            return DurabilityPolicy.ON_CLOSE;
+        }
+        try {
+            return DurabilityPolicy.every(parseSize(cmd, "durability", 0));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(
+                    "Значение аргумента --durability должно быть none, close или размером, например 16M: " + value);
+        }
+    }
+
+    /**
+     * Метод получения поведения режима без повторов при превышении бюджета памяти: bloom или spill
+     *
+     * @param cmd разобранные аргументы
+     * @return поведение при превышении бюджета, по умолчанию {@link DistinctFilter.Overflow#BLOOM}
+     * @throws IllegalArgumentException если значение не является допустимым поведением
+     */
+    private static DistinctFilter.Overflow parseDistinctOverflow(CommandLine cmd) {
+        String value = cmd.getOptionValue("distinct-overflow");
+        if (value == null || value.equalsIgnoreCase("bloom")) {
+            return DistinctFilter.Overflow.BLOOM;
+        }
+        if (value.equalsIgnoreCase("spill")) {
+            return DistinctFilter.Overflow.SPILL;
+        }
+        throw new IllegalArgumentException("Значение аргумента --distinct-overflow должно быть bloom или spill: " + value);
+    }
+
+    /**
+     * Метод получения номера части и количества частей из аргумента --shard в виде i/n
+     *
+     * @param cmd разобранные аргументы
+     * @return номер части от 1 до n и количество частей или два нуля, если аргумент не указан
+     * @throws IllegalArgumentException если значение не имеет вид i/n, где 1 <= i <= n
+     */
+    private static int[] parseShard(CommandLine cmd) {
+        String value = cmd.getOptionValue("shard");
+        if (value == null) {
+            return new int[]{0, 0};
+        }
+        Matcher matcher = SHARD_PATTERN.matcher(value);
+        if (matcher.matches()) {
+            try {
+                int index = Integer.parseInt(matcher.group(1));
+                int count = Integer.parseInt(matcher.group(2));
+                if (index >= 1 && index <= count) {
+                    return new int[]{index, count};
+                }
+            } catch (NumberFormatException e) {
+                // Сообщение об ошибке ниже
+            }
+        }
+        throw new IllegalArgumentException(
+                "Значение аргумента --shard должно иметь вид i/n, где 1 <= i <= n, например 2/8: " + value);
+    }
+
+    /**
+     * Метод загрузки пользовательских типов строк из файла, указанного аргументом --types
+     *
+     * @param cmd разобранные аргументы
+     * @return пользовательские типы или null, если аргумент не указан
+     * @throws IllegalArgumentException если файл не удалось прочитать или он содержит ошибки
+     */
+    private static LineTypes parseLineTypes(CommandLine cmd) {
+        String file = cmd.getOptionValue("types");
+        if (file == null) {
+            return null;
+        }
+        try {
+            return LineTypes.load(Paths.get(file));
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Не удалось прочитать файл типов %s: %s".formatted(file, e.getMessage()));
+        }
+    }
+
+    /**
+     * @return имя аргумента в том виде, в котором оно указывается в командной строке
+     */
+    private static String optionName(String option) {
+        return option.length() == 1 ? "-" + option : "--" + option;
+    }
+
     /**
      * @return объект {@link Options} с настройками для парсера аргументов командной строки
      */
@@ -104,6 +544,38 @@ public class ArgumentsParser {
         options.addOption("a", "append", false, "Добавить данные в существующие файлы.");
         options.addOption("s", "short-stats", false, "Вывод краткой статистики.");
         options.addOption("f", "full-stats", false, "Вывод полной статистики.");
+        options.addOption("e", "extended-stats", false, "Вывод полной статистики с процентилями чисел, количеством различных строк и распределением длин.");
+        options.addOption(null, "top-k", true, "Количество выводимых наиболее частых строк с оценкой частоты.");
+        options.addOption("z", "compress", false, "Сжимать выходные файлы в формате gzip.");
+        options.addOption("m", "mmap", false, "Чтение входных файлов через отображение в память.");
+        options.addOption("t", "threads", true, "Количество потоков для параллельной обработки файлов.");
+        options.addOption(null, "parallelism", true, "Количество потоков для обработки больших файлов по частям.");
+        options.addOption(null, "chunk-size", true, "Размер части большого файла, например 64M (по умолчанию 64M).");
+        options.addOption(null, "pipeline", false, "Конвейерная обработка: чтение, классификация и запись в отдельных потоках.");
+        options.addOption(null, "write-buffer", true, "Объем буфера записи каждого выходного файла, например 1M (по умолчанию 1M).");
+        options.addOption(null, "durability", true, "Сброс выходных файлов на диск: none, close или каждые N байт, например 16M (по умолчанию none).");
+        options.addOption("F", "follow", false, "Отслеживать дописывание и ротацию входных файлов, как tail -F.");
+        options.addOption(null, "stats-interval", true, "Интервал вывода промежуточной статистики, например 10s.");
+        options.addOption(null, "flush-interval", true, "Максимальная задержка сброса выходных файлов, например 100ms.");
+        options.addOption(null, "progress", true, "Интервал вывода строки прогресса со скоростью обработки, например 5s.");
+        options.addOption(null, "checkpoint-interval", true, "Интервал создания контрольных точек для продолжения обработки, например 1m.");
+        options.addOption(null, "resume", false, "Продолжить обработку с последней контрольной точки (контрольные точки по умолчанию раз в минуту).");
+        options.addOption(null, "cache-dir", true, "Директория кэша результатов обработки неизменившихся входных файлов.");
+        options.addOption(null, "cache-size", true, "Наибольший размер кэша, например 10G (по умолчанию 1G).");
+        options.addOption(null, "types", true, "Файл пользовательских типов строк вида имя = шаблон, каждый тип записывается в свой файл.");
+        options.addOption(null, "async-writers", false, "Записывать каждый выходной файл в отдельном потоке.");
+        options.addOption(null, "rotate-size", true, "Делить выходные файлы на сегменты указанного объема, например 1G.");
+        options.addOption(null, "rotate-lines", true, "Делить выходные файлы на сегменты указанного количества строк.");
+        options.addOption(null, "distinct", false, "Не записывать повторяющиеся значения.");
+        options.addOption(null, "distinct-memory", true, "Бюджет памяти для отбора повторов, например 1G (по умолчанию 256M).");
+        options.addOption(null, "distinct-overflow", true, "При превышении бюджета: bloom - фильтр Блума, spill - временные файлы (по умолчанию bloom).");
+        options.addOption(null, "distinct-stats", false, "Учитывать в статистике только первые вхождения значений.");
+        options.addOption(null, "sort", false, "Записывать целые и дробные числа в порядке возрастания.");
+        options.addOption(null, "sort-memory", true, "Бюджет памяти для сортировки чисел, например 1G (по умолчанию 256M).");
+        options.addOption(null, "shard", true, "Обработать часть i из n входных данных, например 2/8; результаты частей объединяются --merge-shards.");
+        options.addOption(null, "merge-shards", false, "Объединить результаты частей из директорий, указанных вместо входных файлов, в директорию -o.");
+        options.addOption(null, "prefetch", true, "Количество следующих входных файлов, которые открываются и читаются заранее, 0 - отключить (по умолчанию 4).");
+        options.addOption(null, "daemon", true, "Запуск демона, принимающего задания клиента ru.paskal.daemon.DaemonClient через указанный сокет Unix.");
         options.addOption("h", "help", false, "Вывод справки.");
         return options;
     }
@@ -114,7 +586,7 @@ public class ArgumentsParser {
     public static void logHelp() {
         StringWriter sw = new StringWriter();
         PrintWriter pw = new PrintWriter(sw);
-        formatter.printHelp(pw, 80, "java -jar file_util-1.0.jar [OPTIONS] file1 file2 ...", null, options, 8, 3, null);
+        formatter.printHelp(pw, 80, "java -jar file_util-1.0.jar [OPTIONS] file1 dir2 'logs/*.txt' ... (- для стандартного ввода)", null, options, 8, 3, null);
         log.info(sw.toString());
     }
 }
@@ -0,0 +1,320 @@
+package ru.paskal.utils;
+
+import lombok.Getter;
+import lombok.NonNull;
+
+import static ru.paskal.utils.StringTypesEnum.FLOAT;
+import static ru.paskal.utils.StringTypesEnum.INTEGER;
+import static ru.paskal.utils.StringTypesEnum.STRING;
+
+/**
+ * Однопроходный классификатор строк без исключений.
+ * Определяет тип строки ({@link StringTypesEnum}) и одновременно вычисляет ее значение,
+ * полностью повторяя поведение цепочки {@link Long#parseLong(String)} -> {@link Double#parseDouble(String)}:
+ * переполнение long уходит в FLOAT, строки вида "NaN", "Infinity", "1e5", "0x1p3", " 5 ", "2d" считаются FLOAT.
+ * <p>
+ * Результат разбора хранится в полях экземпляра, поэтому объект не потокобезопасен
+ * и должен использоваться одним потоком. Для типичных чисел метод не выделяет памяти,
+ * к {@link Double#parseDouble(String)} обращение происходит только для уже проверенных
+ * строк, которые нельзя точно вычислить быстрым путем (более 18 значащих цифр, большая экспонента, hex).
+ */
+@Getter
+public class LineClassifier {
+    /**
+     * Точные степени десяти, представимые в double без округления
+     */
+    private static final double[] POW10 = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    private static final int MAX_MANTISSA_DIGITS = 18;
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+    private long longValue;
+    private double doubleValue;
+
+    /**
+     * Метод определения типа строки, значение доступно через {@link #getLongValue()}
+     * для INTEGER и через {@link #getDoubleValue()} для FLOAT
+     *
+     * @param line строка для определения типа
+     * @return тип строки
+     */
+    public StringTypesEnum classify(@NonNull CharSequence line) {
+        int len = line.length();
+        if (len == 0) {
+            return STRING;
+        }
+        if (line.charAt(0) <= ' ' || line.charAt(len - 1) <= ' ') {
+            return classifyTrimmed(line, len);
+        }
+        return scan(line, 0, len, true);
+    }
+
+    /**
+     * Строки с пробельными символами по краям не разбираются {@link Long#parseLong(String)},
+     * но {@link Double#parseDouble(String)} предварительно обрезает их как {@link String#trim()}
+     */
+    private StringTypesEnum classifyTrimmed(CharSequence line, int len) {
+        int begin = 0;
+        int end = len;
+        while (begin < end && line.charAt(begin) <= ' ') {
+            begin++;
+        }
+        while (end > begin && line.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        if (begin == end) {
+            return STRING;
+        }
+        return scan(line, begin, end, false);
+    }
+
+    /**
+     * Основной проход по строке: одновременно накапливает значение long (как {@link Long#parseLong(String)})
+     * и мантиссу double, а также проверяет грамматику чисел с плавающей запятой Java
+     *
+     * @param s            строка
+     * @param begin        начало проверяемого диапазона
+     * @param end          конец проверяемого диапазона (не включительно)
+     * @param allowInteger может ли строка быть целым числом (false, если строка была обрезана)
+     */
+    private StringTypesEnum scan(CharSequence s, int begin, int end, boolean allowInteger) {
+        int i = begin;
+        char c = s.charAt(i);
+        boolean negative = false;
+        if (c == '-' || c == '+') {
+            negative = c == '-';
+            if (++i == end) {
+                return STRING;
+            }
+            c = s.charAt(i);
+        }
+        if (c == 'N') {
+            return special(s, i, end, "NaN", Double.NaN);
+        }
+        if (c == 'I') {
+            return special(s, i, end, "Infinity", negative ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY);
+        }
+        if (c == '0' && i + 1 < end && (s.charAt(i + 1) == 'x' || s.charAt(i + 1) == 'X')) {
+            return hex(s, i + 2, end);
+        }
+
+        // Целая часть накапливается в отрицательном диапазоне, как в Long.parseLong
+        boolean fitsLong = allowInteger;
+        long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+        long multmin = limit / 10;
+        long acc = 0;
+
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean exact = true;
+        boolean sawDigit = false;
+        boolean decSeen = false;
+
+        for (; i < end; i++) {
+            c = s.charAt(i);
+            int d = c - '0';
+            if (d >= 0 && d <= 9) {
+                sawDigit = true;
+                if (fitsLong) {
+                    if (acc < multmin) {
+                        fitsLong = false;
+                    } else {
+                        acc *= 10;
+                        if (acc < limit + d) {
+                            fitsLong = false;
+                        } else {
+                            acc -= d;
+                        }
+                    }
+                }
+                if (mantissa == 0 && d == 0) {
+                    if (decSeen) scale++;
+                } else if (digits < MAX_MANTISSA_DIGITS) {
+                    mantissa = mantissa * 10 + d;
+                    digits++;
+                    if (decSeen) scale++;
+                } else {
+                    exact = false;
+                }
+            } else if (c == '.') {
+                if (decSeen) {
+                    return STRING;
+                }
+                decSeen = true;
+                fitsLong = false;
+            } else if (c >= 0x80) {
+                // Long.parseLong принимает любые цифры Unicode, Double.parseDouble - только ASCII
+                return allowInteger ? unicodeInteger(s) : STRING;
+            } else {
+                break;
+            }
+        }
+
+        if (!sawDigit) {
+            return STRING;
+        }
+        if (i == end && fitsLong) {
+            longValue = negative ? acc : -acc;
+            return INTEGER;
+        }
+
+        int exp10 = 0;
+        if (i < end && (c == 'e' || c == 'E')) {
+            if (++i == end) {
+                return STRING;
+            }
+            int expSign = 1;
+            c = s.charAt(i);
+            if (c == '-' || c == '+') {
+                expSign = c == '-' ? -1 : 1;
+                i++;
+            }
+            int expAt = i;
+            int expVal = 0;
+            for (; i < end; i++) {
+                c = s.charAt(i);
+                if (c < '0' || c > '9') {
+                    break;
+                }
+                if (expVal < 100_000) {
+                    expVal = expVal * 10 + (c - '0');
+                } else {
+                    exact = false;
+                }
+            }
+            if (i == expAt) {
+                return STRING;
+            }
+            exp10 = expSign * expVal;
+        }
+
+        if (i < end) {
+            c = s.charAt(i);
+            if (i != end - 1 || (c != 'f' && c != 'F' && c != 'd' && c != 'D')) {
+                return STRING;
+            }
+        }
+
+        if (exact) {
+            if (mantissa == 0) {
+                doubleValue = negative ? -0.0 : 0.0;
+                return FLOAT;
+            }
+            int e = exp10 - scale;
+            if (mantissa < MAX_EXACT_MANTISSA && e >= -22 && e <= 22) {
+                // Мантисса и степень десяти точны, одна операция IEEE дает корректное округление
+                double value = (double) mantissa;
+                value = e < 0 ? value / POW10[-e] : value * POW10[e];
+                doubleValue = negative ? -value : value;
+                return FLOAT;
+            }
+        }
+        doubleValue = Double.parseDouble(s.toString());
+        return FLOAT;
+    }
+
+    /**
+     * Проверка строк "NaN" и "Infinity", которые должны занимать весь остаток строки
+     */
+    private StringTypesEnum special(CharSequence s, int from, int end, String word, double value) {
+        if (end - from != word.length()) {
+            return STRING;
+        }
+        for (int k = 0; k < word.length(); k++) {
+            if (s.charAt(from + k) != word.charAt(k)) {
+                return STRING;
+            }
+        }
+        doubleValue = value;
+        return FLOAT;
+    }
+
+    /**
+     * Проверка шестнадцатеричной записи вида {@code 0x1.8p3} по грамматике {@link Double#valueOf(String)},
+     * значение вычисляется стандартным разбором, так как такие строки встречаются редко
+     *
+     * @param from позиция сразу после префикса "0x"
+     */
+    private StringTypesEnum hex(CharSequence s, int from, int end) {
+        int i = from;
+        int hexDigits = 0;
+        while (i < end && isHexDigit(s.charAt(i))) {
+            i++;
+            hexDigits++;
+        }
+        if (i < end && s.charAt(i) == '.') {
+            i++;
+            while (i < end && isHexDigit(s.charAt(i))) {
+                i++;
+                hexDigits++;
+            }
+        }
+        if (hexDigits == 0 || i == end || (s.charAt(i) != 'p' && s.charAt(i) != 'P')) {
+            return STRING;
+        }
+        if (++i < end && (s.charAt(i) == '-' || s.charAt(i) == '+')) {
+            i++;
+        }
+        int expAt = i;
+        while (i < end && s.charAt(i) >= '0' && s.charAt(i) <= '9') {
+            i++;
+        }
+        if (i == expAt) {
+            return STRING;
+        }
+        if (i < end) {
+            char c = s.charAt(i);
+            if (i != end - 1 || (c != 'f' && c != 'F' && c != 'd' && c != 'D')) {
+                return STRING;
+            }
+        }
+        doubleValue = Double.parseDouble(s.toString());
+        return FLOAT;
+    }
+
+    /**
+     * Медленный путь для строк с non-ASCII символами: повторяет {@link Long#parseLong(String)}
+     * с {@link Character#digit(char, int)}. Такая строка не может быть FLOAT.
+     */
+    private StringTypesEnum unicodeInteger(CharSequence s) {
+        int len = s.length();
+        int i = 0;
+        boolean negative = false;
+        long limit = -Long.MAX_VALUE;
+        char first = s.charAt(0);
+        if (first < '0') {
+            if (first == '-') {
+                negative = true;
+                limit = Long.MIN_VALUE;
+            } else if (first != '+') {
+                return STRING;
+            }
+            if (len == 1) {
+                return STRING;
+            }
+            i++;
+        }
+        long multmin = limit / 10;
+        long result = 0;
+        while (i < len) {
+            int digit = Character.digit(s.charAt(i++), 10);
+            if (digit < 0 || result < multmin) {
+                return STRING;
+            }
+            result *= 10;
+            if (result < limit + digit) {
+                return STRING;
+            }
+            result -= digit;
+        }
+        longValue = negative ? result : -result;
+        return INTEGER;
+    }
+
+    private static boolean isHexDigit(char c) {
+        return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+    }
+}
@@ -0,0 +1,17 @@
+package ru.paskal.utils;
+
+/**
+ * Пользовательский тип строк, объявленный в файле типов {@link LineTypes}
+ *
+ * @param name    имя типа, из него составляется имя выходного файла
+ * @param decimal являются ли строки типа десятичными числами, статистика которых считается без потери точности
+ * @param pattern шаблон, с которым сопоставляется вся строка
+ */
+public record LineType(String name, boolean decimal, String pattern) {
+    /**
+     * @return имя выходного файла типа, например для типа hex_id вернет "hex_id.txt"
+     */
+    public String toFileName() {
+        return name + ".txt";
+    }
+}
@@ -0,0 +1,138 @@
+package ru.paskal.utils;
+
+import lombok.Getter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Набор пользовательских типов строк из файла типов. Каждая строка файла объявляет один тип:
+ * <pre>
+ * # комментарий
+ * hex_id = 0x[0-9a-fA-F]+
+ * iso_date = \d{4}-\d{2}-\d{2}
+ * amount:decimal = -?\d+\.\d+
+ * </pre>
+ * Имя типа задает выходной файл {@code <префикс><имя>.txt}, суффикс {@code :decimal} включает статистику
+ * десятичных чисел без потери точности. Шаблоны компилируются в один {@link TypeAutomaton},
+ * пользовательские типы проверяются раньше встроенных {@link StringTypesEnum}, а среди них - в порядке объявления.
+ * <p>
+ * Последним, с наименьшим приоритетом, в автомат добавляется шаблон {@link #NUMBER_PATTERN}, который допускает
+ * все строки, которые {@link LineClassifier} может признать числом. Поэтому тот же просмотр строки отделяет
+ * заведомые строки ({@link #STRING}) от возможных чисел ({@link #NUMBER}). Значение числа автомат не вычисляет:
+ * возможные числа по-прежнему разбираются {@link LineClassifier}, который и определяет, целое это, дробное или строка
+ */
+@Getter
+public class LineTypes {
+    private static final Pattern NAME = Pattern.compile("[A-Za-z0-9_-]+");
+    private static final String DECIMAL_SUFFIX = ":decimal";
+    /**
+     * Результат {@link #match(CharSequence)}: строка не подходит под пользовательские типы и может быть числом
+     */
+    public static final int NUMBER = -1;
+    /**
+     * Результат {@link #match(CharSequence)}: строка не подходит под пользовательские типы и не является числом
+     */
+    public static final int STRING = -2;
+    /**
+     * Надмножество чисел, распознаваемых {@link LineClassifier}: десятичная и шестнадцатеричная запись Java,
+     * NaN и Infinity с пробельными символами по краям, а также целые с цифрами Unicode
+     */
+    private static final String NUMBER_PATTERN = "[\0- ]*[+-]?(NaN|Infinity"
+            + "|([0-9]+\\.?[0-9]*|\\.[0-9]+)([eE][+-]?[0-9]+)?[fFdD]?"
+            + "|0[xX][0-9a-fA-F]*(\\.[0-9a-fA-F]*)?[pP][+-]?[0-9]+[fFdD]?)[\0- ]*"
+            + "|[+-]?([0-9]|[^\0-\177])+";
+
+    private final List<LineType> types;
+    private final TypeAutomaton automaton;
+
+    /**
+     * @param types типы в порядке приоритета
+     * @throws IllegalArgumentException если имена типов некорректны или повторяются, либо шаблон некорректен
+     */
+    public LineTypes(List<LineType> types) {
+        Set<String> names = new HashSet<>();
+        for (StringTypesEnum builtIn : StringTypesEnum.values()) {
+            names.add(builtIn.toFileName());
+        }
+        List<String> patterns = new ArrayList<>();
+        for (LineType type : types) {
+            if (!NAME.matcher(type.name()).matches()) {
+                throw new IllegalArgumentException("Имя типа может содержать только латинские буквы, цифры, _ и -: " + type.name());
+            }
+            if (!names.add(type.toFileName().toLowerCase(Locale.ROOT))) {
+                throw new IllegalArgumentException("Тип %s объявлен повторно или совпадает со встроенным типом".formatted(type.name()));
+            }
+            patterns.add(type.pattern());
+        }
+        if (types.isEmpty()) {
+            throw new IllegalArgumentException("Не объявлено ни одного типа");
+        }
+        this.types = List.copyOf(types);
+        patterns.add(NUMBER_PATTERN);
+        this.automaton = TypeAutomaton.compile(patterns);
+    }
+
+    /**
+     * Читает файл типов в кодировке UTF-8
+     *
+     * @param file путь к файлу типов
+     * @return набор типов
+     * @throws IOException              если файл не удалось прочитать
+     * @throws IllegalArgumentException если файл содержит ошибки, номер строки указывается в сообщении
+     */
+    public static LineTypes load(Path file) throws IOException {
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        List<LineType> types = new ArrayList<>();
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).strip();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            int separator = line.indexOf('=');
+            if (separator < 0) {
+                throw new IllegalArgumentException("%s, строка %d: ожидается объявление вида имя = шаблон".formatted(file, i + 1));
+            }
+            String name = line.substring(0, separator).strip();
+            boolean decimal = name.endsWith(DECIMAL_SUFFIX);
+            if (decimal) {
+                name = name.substring(0, name.length() - DECIMAL_SUFFIX.length()).strip();
+            }
+            types.add(new LineType(name, decimal, line.substring(separator + 1).strip()));
+        }
+        try {
+            return new LineTypes(types);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("%s: %s".formatted(file, e.getMessage()));
+        }
+    }
+
+    /**
+     * @param line строка без символов перевода строки
+     * @return номер первого подходящего типа, {@link #NUMBER} если строка может быть встроенным числовым типом
+     * или {@link #STRING}, если строка относится к встроенному типу строк
+     */
+    public int match(CharSequence line) {
+        int type = automaton.match(line);
+        if (type < 0) {
+            return STRING;
+        }
+        return type == types.size() ? NUMBER : type;
+    }
+
+    public int size() {
+        return types.size();
+    }
+
+    public LineType get(int index) {
+        return types.get(index);
+    }
+}
@@ -0,0 +1,170 @@
+package ru.paskal.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Ограниченная кольцевая очередь для одного производителя и одного потребителя.
+ * При заполненной очереди производитель ждет (обратное давление), при пустой ждет потребитель.
+ * Ожидание сначала выполняется активно, затем поток останавливается {@link LockSupport#park(Object)}
+ * до тех пор, пока другая сторона не добавит или не извлечет элемент и не разбудит его, поэтому
+ * простаивающая стадия не расходует процессор, сколько бы ни длился простой.
+ * <p>
+ * Очередь собирает статистику заполненности, по которой можно определить узкое место конвейера:
+ * постоянно заполненная очередь означает медленного потребителя, постоянно пустая - медленного производителя.
+ * Счетчики производителя и потребителя изменяются только своими потоками и читаются после их завершения.
+ *
+ * @param <T> тип элементов
+ */
+public class SpscQueue<T> {
+    private static final int SPINS = 256;
+
+    private final Object[] buffer;
+    private final int mask;
+    private final int capacity;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    /**
+     * Остановленные в ожидании потоки. Индексы изменяются volatile-записью до чтения потока другой стороны,
+     * а ожидающий поток публикует себя до повторной проверки индекса, поэтому пробуждение не теряется
+     */
+    private volatile Thread producerWaiter;
+    private volatile Thread consumerWaiter;
+
+    private long producerWaits;
+    private long consumerWaits;
+    private long occupancySum;
+    private long samples;
+
+    /**
+     * @param capacity вместимость очереди, округляется вверх до степени двойки
+     */
+    public SpscQueue(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Вместимость очереди должна быть положительной");
+        }
+        int size = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.buffer = new Object[size];
+        this.mask = size - 1;
+        this.capacity = size;
+    }
+
+    /**
+     * Добавляет элемент, ожидая освобождения места. Вызывается только потоком производителя
+     *
+     * @param item элемент
+     */
+    public void put(T item) throws InterruptedException {
+        long t = tail.get();
+        if (t - head.get() == capacity) {
+            producerWaits++;
+            for (int spins = 0; t - head.get() == capacity; spins++) {
+                if (spins < SPINS) {
+                    spin();
+                    continue;
+                }
+                producerWaiter = Thread.currentThread();
+                try {
+                    if (t - head.get() == capacity) {
+                        park();
+                    }
+                } finally {
+                    producerWaiter = null;
+                }
+            }
+        }
+        buffer[(int) t & mask] = item;
+        tail.set(t + 1);
+        wake(consumerWaiter);
+        occupancySum += t + 1 - head.get();
+        samples++;
+    }
+
+    /**
+     * Извлекает элемент, ожидая его появления. Вызывается только потоком потребителя
+     *
+     * @return элемент
+     */
+    @SuppressWarnings("unchecked")
+    public T take() throws InterruptedException {
+        long h = head.get();
+        if (h == tail.get()) {
+            consumerWaits++;
+            for (int spins = 0; h == tail.get(); spins++) {
+                if (spins < SPINS) {
+                    spin();
+                    continue;
+                }
+                consumerWaiter = Thread.currentThread();
+                try {
+                    if (h == tail.get()) {
+                        park();
+                    }
+                } finally {
+                    consumerWaiter = null;
+                }
+            }
+        }
+        int index = (int) h & mask;
+        T item = (T) buffer[index];
+        buffer[index] = null;
+        head.set(h + 1);
+        wake(producerWaiter);
+        return item;
+    }
+
+    /**
+     * @return текущее количество элементов в очереди
+     */
+    public int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return средняя заполненность очереди в момент добавления элемента, от 0 до 1
+     */
+    public double averageOccupancy() {
+        return samples == 0 ? 0 : (double) occupancySum / samples / capacity;
+    }
+
+    /**
+     * @return сколько раз производитель ждал освобождения места
+     */
+    public long producerWaits() {
+        return producerWaits;
+    }
+
+    /**
+     * @return сколько раз потребитель ждал появления элемента
+     */
+    public long consumerWaits() {
+        return consumerWaits;
+    }
+
+    private static void spin() throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        Thread.onSpinWait();
+    }
+
+    /**
+     * Останавливает поток до пробуждения другой стороной или прерывания, ложные пробуждения проверяются циклом ожидания
+     */
+    private void park() throws InterruptedException {
+        LockSupport.park(this);
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+    }
+
+    private static void wake(Thread waiter) {
+        if (waiter != null) {
+            LockSupport.unpark(waiter);
+        }
+    }
+}
@@ -0,0 +1,604 @@
+package ru.paskal.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Детерминированный автомат, распознающий сразу все шаблоны пользовательских типов строк.
+ * Шаблоны компилируются в недетерминированный автомат Томпсона, который построением подмножеств
+ * превращается в один детерминированный, поэтому строка просматривается один раз независимо от количества типов,
+ * а просмотр прекращается, как только строка не может подойти ни под один шаблон.
+ * <p>
+ * Шаблон сопоставляется со всей строкой. Поддерживается подмножество синтаксиса {@link java.util.regex.Pattern}:
+ * символы ASCII, экранирование, {@code .}, классы {@code [a-z]}, {@code [^...]}, {@code \d \w \s} и их отрицания,
+ * группы {@code (...)} и {@code (?:...)}, альтернатива {@code |}, квантификаторы {@code * + ? {n} {n,} {n,m}},
+ * а также {@code ^} в начале и {@code $} в конце шаблона. Символы вне ASCII в шаблонах не допускаются,
+ * но подходят под отрицательные классы и {@code .}.
+ * Строке соответствует первый по порядку объявления шаблон.
+ */
+public final class TypeAutomaton {
+    /**
+     * Символы ASCII и один общий символ для всех остальных
+     */
+    private static final int SYMBOLS = 129;
+    private static final int OTHER = 128;
+    private static final int MAX_REPEAT = 1000;
+    private static final int MAX_NFA_STATES = 100_000;
+    private static final int MAX_DFA_STATES = 20_000;
+
+    /**
+     * Класс эквивалентности каждого символа ASCII
+     */
+    private final int[] asciiClasses = new int[OTHER];
+    private final int otherClass;
+    private final int classCount;
+    /**
+     * Таблица переходов: для состояния, заданного смещением {@code state * classCount}, и класса символа -
+     * смещение следующего состояния. Состояние со смещением 0 тупиковое
+     */
+    private final int[] next;
+    private final int start;
+    /**
+     * Номер распознанного шаблона для каждого состояния или -1
+     */
+    private final int[] accepts;
+
+    private TypeAutomaton(int[] symbolClasses, int classCount, int[] next, int start, int[] accepts) {
+        System.arraycopy(symbolClasses, 0, asciiClasses, 0, OTHER);
+        this.otherClass = symbolClasses[OTHER];
+        this.classCount = classCount;
+        this.next = next;
+        this.start = start;
+        this.accepts = accepts;
+    }
+
+    /**
+     * Компилирует шаблоны в один автомат
+     *
+     * @param patterns шаблоны в порядке приоритета
+     * @return автомат, распознающий все шаблоны
+     * @throws IllegalArgumentException если шаблон некорректен или автомат получается слишком большим
+     */
+    public static TypeAutomaton compile(List<String> patterns) {
+        Nfa nfa = new Nfa();
+        int root = nfa.newState();
+        for (int i = 0; i < patterns.size(); i++) {
+            Node node;
+            try {
+                node = new Parser(patterns.get(i)).parse();
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Некорректный шаблон \"%s\": %s".formatted(patterns.get(i), e.getMessage()));
+            }
+            int[] fragment = nfa.build(node);
+            nfa.epsilon(root, fragment[0]);
+            nfa.accept(fragment[1], i);
+        }
+        return nfa.determinize(root);
+    }
+
+    /**
+     * @param line строка без символов перевода строки
+     * @return номер первого подходящего шаблона или -1, если строка не подходит ни под один
+     */
+    public int match(CharSequence line) {
+        int state = start;
+        for (int i = 0, n = line.length(); i < n; i++) {
+            char c = line.charAt(i);
+            state = next[state + (c < OTHER ? asciiClasses[c] : otherClass)];
+            if (state == 0) {
+                return -1;
+            }
+        }
+        return accepts[state / classCount];
+    }
+
+    /**
+     * @return количество состояний автомата вместе с тупиковым
+     */
+    public int getStateCount() {
+        return accepts.length;
+    }
+
+    /**
+     * Узел разобранного шаблона
+     */
+    private sealed interface Node permits Chars, Concat, Alt, Repeat {
+    }
+
+    /**
+     * Один символ из множества
+     *
+     * @param set принадлежность множеству каждого символа ASCII и общего символа {@link #OTHER}
+     */
+    private record Chars(boolean[] set) implements Node {
+    }
+
+    private record Concat(List<Node> items) implements Node {
+    }
+
+    private record Alt(List<Node> options) implements Node {
+    }
+
+    /**
+     * @param max наибольшее количество повторений, -1 если не ограничено
+     */
+    private record Repeat(Node node, int min, int max) implements Node {
+    }
+
+    /**
+     * Разбор шаблона рекурсивным спуском
+     */
+    private static final class Parser {
+        private final String pattern;
+        private int pos;
+        private int end;
+
+        Parser(String pattern) {
+            this.pattern = pattern;
+            this.end = pattern.length();
+        }
+
+        Node parse() {
+            if (end > 0 && pattern.charAt(0) == '^') {
+                pos = 1;
+            }
+            if (end > pos && pattern.charAt(end - 1) == '$' && !isEscaped(end - 1)) {
+                end--;
+            }
+            Node node = alternation();
+            if (pos < end) {
+                throw error("непарная закрывающая скобка");
+            }
+            return node;
+        }
+
+        private boolean isEscaped(int index) {
+            int backslashes = 0;
+            while (index - backslashes - 1 >= 0 && pattern.charAt(index - backslashes - 1) == '\\') {
+                backslashes++;
+            }
+            return backslashes % 2 == 1;
+        }
+
+        private Node alternation() {
+            List<Node> options = new ArrayList<>();
+            options.add(concatenation());
+            while (pos < end && pattern.charAt(pos) == '|') {
+                pos++;
+                options.add(concatenation());
+            }
+            return options.size() == 1 ? options.get(0) : new Alt(options);
+        }
+
+        private Node concatenation() {
+            List<Node> items = new ArrayList<>();
+            while (pos < end && pattern.charAt(pos) != '|' && pattern.charAt(pos) != ')') {
+                items.add(repetition());
+            }
+            return items.size() == 1 ? items.get(0) : new Concat(items);
+        }
+
+        private Node repetition() {
+            Node node = atom();
+            if (pos >= end) {
+                return node;
+            }
+            int min;
+            int max;
+            switch (pattern.charAt(pos)) {
+                case '*' -> {
+                    min = 0;
+                    max = -1;
+                }
+                case '+' -> {
+                    min = 1;
+                    max = -1;
+                }
+                case '?' -> {
+                    min = 0;
+                    max = 1;
+                }
+                case '{' -> {
+                    int close = pattern.indexOf('}', pos);
+                    if (close < 0 || close >= end) {
+                        throw error("незакрытый квантификатор");
+                    }
+                    String[] bounds = pattern.substring(pos + 1, close).split(",", -1);
+                    if (bounds.length > 2) {
+                        throw error("некорректный квантификатор");
+                    }
+                    min = parseCount(bounds[0]);
+                    max = bounds.length == 1 ? min : bounds[1].isEmpty() ? -1 : parseCount(bounds[1]);
+                    if (max != -1 && max < min) {
+                        throw error("наибольшее количество повторений меньше наименьшего");
+                    }
+                    pos = close;
+                }
+                default -> {
+                    return node;
+                }
+            }
+            pos++;
+            if (pos < end && "*+?{".indexOf(pattern.charAt(pos)) >= 0) {
+                throw error("ленивые, жадные и повторные квантификаторы не поддерживаются");
+            }
+            return new Repeat(node, min, max);
+        }
+
+        private int parseCount(String value) {
+            try {
+                int count = Integer.parseInt(value.trim());
+                if (count >= 0 && count <= MAX_REPEAT) {
+                    return count;
+                }
+            } catch (NumberFormatException e) {
+                // Сообщение об ошибке ниже
+            }
+            throw error("количество повторений должно быть от 0 до " + MAX_REPEAT);
+        }
+
+        private Node atom() {
+            char c = pattern.charAt(pos++);
+            switch (c) {
+                case '(' -> {
+                    if (pattern.startsWith("?:", pos)) {
+                        pos += 2;
+                    } else if (pos < end && pattern.charAt(pos) == '?') {
+                        throw error("поддерживаются только группы (...) и (?:...)");
+                    }
+                    Node node = alternation();
+                    if (pos >= end || pattern.charAt(pos) != ')') {
+                        throw error("незакрытая группа");
+                    }
+                    pos++;
+                    return node;
+                }
+                case '[' -> {
+                    return charClass();
+                }
+                case '.' -> {
+                    boolean[] set = range(0, SYMBOLS);
+                    set['\n'] = false;
+                    set['\r'] = false;
+                    return new Chars(set);
+                }
+                case '\\' -> {
+                    return new Chars(escape(false));
+                }
+                case '*', '+', '?', '{' -> throw error("квантификатор без повторяемого выражения");
+                case '^', '$' -> throw error("шаблон всегда сопоставляется со всей строкой, якоря допускаются только по краям");
+                default -> {
+                    return new Chars(literal(c));
+                }
+            }
+        }
+
+        private Chars charClass() {
+            boolean negate = pos < end && pattern.charAt(pos) == '^';
+            if (negate) {
+                pos++;
+            }
+            boolean[] set = new boolean[SYMBOLS];
+            boolean first = true;
+            while (true) {
+                if (pos >= end) {
+                    throw error("незакрытый класс символов");
+                }
+                char c = pattern.charAt(pos++);
+                if (c == ']' && !first) {
+                    break;
+                }
+                first = false;
+                boolean[] item;
+                int low = -1;
+                if (c == '\\') {
+                    item = escape(true);
+                    low = single(item);
+                } else {
+                    item = literal(c);
+                    low = c;
+                }
+                if (low >= 0 && pos + 1 < end && pattern.charAt(pos) == '-' && pattern.charAt(pos + 1) != ']') {
+                    pos++;
+                    char h = pattern.charAt(pos++);
+                    int high = h == '\\' ? single(escape(true)) : single(literal(h));
+                    if (high < low) {
+                        throw error("некорректный диапазон символов");
+                    }
+                    item = range(low, high + 1);
+                }
+                for (int i = 0; i < SYMBOLS; i++) {
+                    set[i] |= item[i];
+                }
+            }
+            if (negate) {
+                for (int i = 0; i < SYMBOLS; i++) {
+                    set[i] = !set[i];
+                }
+            }
+            return new Chars(set);
+        }
+
+        /**
+         * @return единственный символ множества или -1, если символов несколько
+         */
+        private static int single(boolean[] set) {
+            int found = -1;
+            for (int i = 0; i < OTHER; i++) {
+                if (set[i]) {
+                    if (found >= 0) {
+                        return -1;
+                    }
+                    found = i;
+                }
+            }
+            return set[OTHER] ? -1 : found;
+        }
+
+        private boolean[] escape(boolean inClass) {
+            if (pos >= end) {
+                throw error("незавершенное экранирование");
+            }
+            char c = pattern.charAt(pos++);
+            boolean[] set;
+            switch (c) {
+                case 'd', 'D' -> set = range('0', '9' + 1);
+                case 'w', 'W' -> {
+                    set = range('a', 'z' + 1);
+                    merge(set, range('A', 'Z' + 1));
+                    merge(set, range('0', '9' + 1));
+                    set['_'] = true;
+                }
+                case 's', 'S' -> {
+                    set = literal(' ');
+                    for (char space : new char[]{'\t', '\n', 0x0B, '\f', '\r'}) {
+                        set[space] = true;
+                    }
+                }
+                case 't' -> set = literal('\t');
+                case 'n' -> set = literal('\n');
+                case 'r' -> set = literal('\r');
+                case 'f' -> set = literal('\f');
+                default -> {
+                    if (Character.isLetterOrDigit(c)) {
+                        throw error("неподдерживаемое экранирование \\" + c);
+                    }
+                    return literal(c);
+                }
+            }
+            if (Character.isUpperCase(c)) {
+                for (int i = 0; i < SYMBOLS; i++) {
+                    set[i] = !set[i];
+                }
+            }
+            return set;
+        }
+
+        private boolean[] literal(char c) {
+            if (c >= OTHER) {
+                throw error("поддерживаются только символы ASCII");
+            }
+            boolean[] set = new boolean[SYMBOLS];
+            set[c] = true;
+            return set;
+        }
+
+        private static boolean[] range(int from, int to) {
+            boolean[] set = new boolean[SYMBOLS];
+            Arrays.fill(set, from, to, true);
+            return set;
+        }
+
+        private static void merge(boolean[] target, boolean[] source) {
+            for (int i = 0; i < SYMBOLS; i++) {
+                target[i] |= source[i];
+            }
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " (позиция " + pos + ")");
+        }
+    }
+
+    /**
+     * Недетерминированный автомат Томпсона: каждое состояние имеет переходы без символа
+     * и не более одного перехода по множеству символов
+     */
+    private static final class Nfa {
+        private final List<int[]> epsilons = new ArrayList<>();
+        private final List<boolean[]> sets = new ArrayList<>();
+        private final List<Integer> targets = new ArrayList<>();
+        private final Map<Integer, Integer> accepts = new HashMap<>();
+
+        int newState() {
+            if (epsilons.size() == MAX_NFA_STATES) {
+                throw new IllegalArgumentException("Шаблоны слишком велики, уменьшите количество повторений");
+            }
+            epsilons.add(new int[0]);
+            sets.add(null);
+            targets.add(-1);
+            return epsilons.size() - 1;
+        }
+
+        void epsilon(int from, int to) {
+            int[] old = epsilons.get(from);
+            int[] updated = Arrays.copyOf(old, old.length + 1);
+            updated[old.length] = to;
+            epsilons.set(from, updated);
+        }
+
+        void accept(int state, int pattern) {
+            accepts.putIfAbsent(state, pattern);
+        }
+
+        /**
+         * @return начальное и конечное состояния фрагмента автомата, распознающего узел
+         */
+        int[] build(Node node) {
+            int in = newState();
+            int out = newState();
+            switch (node) {
+                case Chars chars -> {
+                    sets.set(in, chars.set());
+                    targets.set(in, out);
+                }
+                case Concat concat -> {
+                    int current = in;
+                    for (Node item : concat.items()) {
+                        int[] fragment = build(item);
+                        epsilon(current, fragment[0]);
+                        current = fragment[1];
+                    }
+                    epsilon(current, out);
+                }
+                case Alt alt -> {
+                    for (Node option : alt.options()) {
+                        int[] fragment = build(option);
+                        epsilon(in, fragment[0]);
+                        epsilon(fragment[1], out);
+                    }
+                }
+                case Repeat repeat -> {
+                    int current = in;
+                    for (int i = 0; i < repeat.min(); i++) {
+                        int[] fragment = build(repeat.node());
+                        epsilon(current, fragment[0]);
+                        current = fragment[1];
+                    }
+                    if (repeat.max() == -1) {
+                        int[] fragment = build(repeat.node());
+                        epsilon(current, fragment[0]);
+                        epsilon(fragment[1], current);
+                        epsilon(current, out);
+                    } else {
+                        for (int i = repeat.min(); i < repeat.max(); i++) {
+                            int[] fragment = build(repeat.node());
+                            epsilon(current, fragment[0]);
+                            epsilon(current, out);
+                            current = fragment[1];
+                        }
+                        epsilon(current, out);
+                    }
+                }
+            }
+            return new int[]{in, out};
+        }
+
+        /**
+         * Построение подмножеств по классам эквивалентности символов: символы, одинаково входящие
+         * во все множества шаблонов, неразличимы для автомата и имеют общий столбец таблицы переходов
+         */
+        TypeAutomaton determinize(int root) {
+            int[] symbolClasses = new int[SYMBOLS];
+            Map<BitSet, Integer> signatures = new HashMap<>();
+            List<Integer> representatives = new ArrayList<>();
+            for (int symbol = 0; symbol < SYMBOLS; symbol++) {
+                BitSet signature = new BitSet();
+                for (int state = 0; state < sets.size(); state++) {
+                    if (sets.get(state) != null && sets.get(state)[symbol]) {
+                        signature.set(state);
+                    }
+                }
+                Integer cls = signatures.get(signature);
+                if (cls == null) {
+                    cls = representatives.size();
+                    signatures.put(signature, cls);
+                    representatives.add(symbol);
+                }
+                symbolClasses[symbol] = cls;
+            }
+            int classCount = representatives.size();
+
+            List<BitSet> states = new ArrayList<>();
+            Map<BitSet, Integer> ids = new HashMap<>();
+            BitSet dead = new BitSet();
+            states.add(dead);
+            ids.put(dead, 0);
+            BitSet initial = closure(single(root));
+            int start = ids.computeIfAbsent(initial, key -> {
+                states.add(key);
+                return states.size() - 1;
+            });
+            List<int[]> rows = new ArrayList<>();
+            rows.add(new int[classCount]);
+            for (int id = 1; id < states.size(); id++) {
+                BitSet current = states.get(id);
+                int[] row = new int[classCount];
+                for (int cls = 0; cls < classCount; cls++) {
+                    int symbol = representatives.get(cls);
+                    BitSet moved = new BitSet();
+                    for (int state = current.nextSetBit(0); state >= 0; state = current.nextSetBit(state + 1)) {
+                        boolean[] set = sets.get(state);
+                        if (set != null && set[symbol]) {
+                            moved.set(targets.get(state));
+                        }
+                    }
+                    BitSet target = closure(moved);
+                    Integer targetId = ids.get(target);
+                    if (targetId == null) {
+                        if (states.size() == MAX_DFA_STATES) {
+                            throw new IllegalArgumentException("Шаблоны слишком сложны: автомат превышает "
+                                    + MAX_DFA_STATES + " состояний");
+                        }
+                        targetId = states.size();
+                        states.add(target);
+                        ids.put(target, targetId);
+                    }
+                    row[cls] = targetId * classCount;
+                }
+                rows.add(row);
+            }
+
+            int[] next = new int[states.size() * classCount];
+            int[] acceptsByState = new int[states.size()];
+            for (int id = 0; id < states.size(); id++) {
+                System.arraycopy(rows.get(id), 0, next, id * classCount, classCount);
+                int pattern = -1;
+                BitSet set = states.get(id);
+                for (int state = set.nextSetBit(0); state >= 0; state = set.nextSetBit(state + 1)) {
+                    Integer accepted = accepts.get(state);
+                    if (accepted != null && (pattern == -1 || accepted < pattern)) {
+                        pattern = accepted;
+                    }
+                }
+                acceptsByState[id] = pattern;
+            }
+            return new TypeAutomaton(symbolClasses, classCount, next, start * classCount, acceptsByState);
+        }
+
+        private static BitSet single(int state) {
+            BitSet set = new BitSet();
+            set.set(state);
+            return set;
+        }
+
+        /**
+         * @return множество состояний, достижимых из заданных переходами без символа
+         */
+        private BitSet closure(BitSet states) {
+            BitSet result = (BitSet) states.clone();
+            int[] stack = new int[Math.max(16, states.cardinality())];
+            int size = 0;
+            for (int state = states.nextSetBit(0); state >= 0; state = states.nextSetBit(state + 1)) {
+                stack[size++] = state;
+            }
+            while (size > 0) {
+                int state = stack[--size];
+                for (int target : epsilons.get(state)) {
+                    if (!result.get(target)) {
+                        result.set(target);
+                        if (size == stack.length) {
+                            stack = Arrays.copyOf(stack, size * 2);
+                        }
+                        stack[size++] = target;
+                    }
+                }
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.paskal.io.AsciiByteSequence;
+import ru.paskal.io.StreamLineWriter;
+import ru.paskal.models.FloatStatistics;
+import ru.paskal.models.IntegerStatistics;
+import ru.paskal.utils.LineClassifier;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Проверка того, что обработка числовой строки (классификация, запись и обновление статистики)
+ * в установившемся режиме не выделяет памяти в куче
+ */
+public class AllocationProfileTest {
+    private static final int LINES = 1_000_000;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testNumericLinesDoNotAllocate() throws Exception {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean,
+                "JVM не предоставляет com.sun.management.ThreadMXBean");
+        var threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threadBean.isThreadAllocatedMemorySupported(), "JVM не измеряет выделение памяти потоками");
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(64);
+        byte[] integerLine = "-1234567890".getBytes(StandardCharsets.US_ASCII);
+        byte[] floatLine = "3.14159e2".getBytes(StandardCharsets.US_ASCII);
+        buffer.put(0, integerLine);
+        buffer.put(32, floatLine);
+
+        LineClassifier classifier = new LineClassifier();
+        AsciiByteSequence line = new AsciiByteSequence();
+        IntegerStatistics integerStats = new IntegerStatistics(true);
+        FloatStatistics floatStats = new FloatStatistics(true);
+
+        try (StreamLineWriter integers = new StreamLineWriter(tempDir.resolve("i.txt").toString(), false);
+             StreamLineWriter floats = new StreamLineWriter(tempDir.resolve("f.txt").toString(), false)) {
+            for (int round = 0; round < 3; round++) {
+                long before = threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+                for (int i = 0; i < LINES; i++) {
+                    classifier.classify(line.set(buffer, 0, integerLine.length));
+                    integers.writeLine(line);
+                    integerStats.upd(classifier.getLongValue());
+
+                    classifier.classify(line.set(buffer, 32, 32 + floatLine.length));
+                    floats.writeLine(line);
+                    floatStats.upd(classifier.getDoubleValue());
+                }
+                long allocated = threadBean.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+                if (round == 2) {
+                    // Небольшой запас на служебные объекты JVM, не зависящий от количества строк
+                    assertTrue(allocated < 16 * 1024,
+                            "Выделено " + allocated + " байт на " + 2 * LINES + " числовых строк");
+                }
+            }
+        }
+        assertEquals(3L * LINES, integerStats.getCount());
+        assertEquals(3 * LINES, floatStats.getCount());
+    }
+}
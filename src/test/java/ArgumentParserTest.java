@@ -1,4 +1,5 @@
 import org.junit.jupiter.api.Test;
+import ru.paskal.io.DurabilityPolicy;
 import ru.paskal.models.CliArgumentsModel;
 import ru.paskal.utils.ArgumentsParser;
 
@@ -31,6 +32,58 @@ public class ArgumentParserTest {
         assertArrayEquals(new String[]{"input1.txt", "input2.txt"}, result.getInputFiles());
     }
 
+    @Test
+    void testParseThreads() {
+        assertEquals(1, ArgumentsParser.parse(new String[]{"input1.txt"}).getThreads());
+        assertEquals(8, ArgumentsParser.parse(new String[]{"-t", "8", "input1.txt"}).getThreads());
+        assertEquals(new CliArgumentsModel(), ArgumentsParser.parse(new String[]{"-t", "0", "input1.txt"}));
+        assertEquals(new CliArgumentsModel(), ArgumentsParser.parse(new String[]{"-t", "x", "input1.txt"}));
+    }
+
+    @Test
+    void testParseWriteOptions() {
+        CliArgumentsModel defaults = ArgumentsParser.parse(new String[]{"input1.txt"});
+        assertEquals(1 << 20, defaults.getWriteBufferSize());
+        assertSame(DurabilityPolicy.NONE, defaults.getDurability());
+
+        CliArgumentsModel result = ArgumentsParser.parse(
+                new String[]{"--write-buffer", "256K", "--durability", "16M", "input1.txt"});
+        assertEquals(256 << 10, result.getWriteBufferSize());
+        assertEquals(DurabilityPolicy.Mode.PERIODIC, result.getDurability().getMode());
+        assertEquals(16 << 20, result.getDurability().getSyncInterval());
+
+        assertSame(DurabilityPolicy.ON_CLOSE,
+                ArgumentsParser.parse(new String[]{"--durability", "close", "input1.txt"}).getDurability());
+        assertEquals(new CliArgumentsModel(),
+                ArgumentsParser.parse(new String[]{"--durability", "always", "input1.txt"}));
+        assertEquals(new CliArgumentsModel(),
+                ArgumentsParser.parse(new String[]{"--write-buffer", "2G", "input1.txt"}));
+    }
+
+    @Test
+    void testParseShard() {
+        CliArgumentsModel result = ArgumentsParser.parse(new String[]{"--shard", "2/8", "input1.txt"});
+        assertEquals(2, result.getShardIndex());
+        assertEquals(8, result.getShardCount());
+        assertEquals(0, ArgumentsParser.parse(new String[]{"input1.txt"}).getShardCount());
+        for (String value : new String[]{"0/2", "3/2", "1", "x/2"}) {
+            assertEquals(new CliArgumentsModel(), ArgumentsParser.parse(new String[]{"--shard", value, "input1.txt"}));
+        }
+        assertEquals(new CliArgumentsModel(), ArgumentsParser.parse(new String[]{"--shard", "1/2", "-"}));
+        assertEquals(new CliArgumentsModel(),
+                ArgumentsParser.parse(new String[]{"--shard", "1/2", "--merge-shards", "dir1"}));
+    }
+
+    @Test
+    void testParsePrefetch() {
+        assertEquals(4, ArgumentsParser.parse(new String[]{"input1.txt"}).getPrefetch());
+        assertEquals(16, ArgumentsParser.parse(new String[]{"--prefetch", "16", "input1.txt"}).getPrefetch());
+        assertEquals(0, ArgumentsParser.parse(new String[]{"--prefetch", "0", "input1.txt"}).getPrefetch());
+        for (String value : new String[]{"-1", "65", "x"}) {
+            assertEquals(new CliArgumentsModel(), ArgumentsParser.parse(new String[]{"--prefetch", value, "input1.txt"}));
+        }
+    }
+
     @Test
     void testParseWithHelpOption() {
         String[] args = {"-h"};
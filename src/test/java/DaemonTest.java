@@ -0,0 +1,110 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.paskal.FilesManager;
+import ru.paskal.daemon.DaemonClient;
+import ru.paskal.daemon.DaemonServer;
+import ru.paskal.utils.ArgumentsParser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DaemonTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testConcurrentJobsMatchDirectRuns() throws Exception {
+        Path input = tempDir.resolve("in.txt");
+        Files.writeString(input, FilesManagerTest.generateLines(new Random(59), 20_000), StandardCharsets.UTF_8);
+        Path socket = tempDir.resolve("daemon.sock");
+
+        FilesManager direct = new FilesManager(ArgumentsParser.parse(
+                new String[]{"-f", "-o", tempDir.resolve("direct").toString(), input.toString()}));
+        List<String> expectedStats = direct.processFiles().formatAllStats(true);
+        direct.closeWriters();
+        assertTrue(direct.getErrors().isEmpty());
+
+        ExecutorService clients = Executors.newFixedThreadPool(4);
+        try (DaemonServer server = new DaemonServer(socket, 2)) {
+            Thread acceptor = new Thread(server::run);
+            acceptor.start();
+
+            List<Future<String>> jobs = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                // Пути разрешаются относительно рабочей директории клиента, два задания пишут в одну директорию
+                List<String> args = List.of("-f", "-m", "-o", "out" + i % 3, "in.txt");
+                jobs.add(clients.submit(() -> {
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    int status = DaemonClient.submit(socket, tempDir, args, new PrintStream(out, true, StandardCharsets.UTF_8), System.err);
+                    assertEquals(0, status);
+                    return out.toString(StandardCharsets.UTF_8);
+                }));
+            }
+            for (Future<String> job : jobs) {
+                assertEquals(String.join(System.lineSeparator(), expectedStats) + System.lineSeparator(), job.get());
+            }
+            // Выходные файлы проверяются после всех заданий: задания с общей директорией перезаписывают ее по очереди
+            for (int i = 0; i < 3; i++) {
+                FilesManagerTest.assertSameOutputs(tempDir.resolve("direct"), tempDir.resolve("out" + i));
+            }
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            assertEquals(2, DaemonClient.submit(socket, tempDir, List.of("-t", "0", "in.txt"),
+                    new PrintStream(out, true, StandardCharsets.UTF_8), System.err));
+            assertFalse(out.toString(StandardCharsets.UTF_8).isEmpty());
+
+            // Ошибки файлов задания передаются клиенту, а задание завершается с ошибкой
+            out.reset();
+            assertEquals(1, DaemonClient.submit(socket, tempDir, List.of("-o", "missing", "in.txt", "absent.txt"),
+                    new PrintStream(out, true, StandardCharsets.UTF_8), System.err));
+            assertTrue(out.toString(StandardCharsets.UTF_8).contains("absent.txt"));
+
+            server.close();
+            acceptor.join();
+        } finally {
+            clients.shutdownNow();
+        }
+        assertFalse(Files.exists(socket));
+        assertEquals(3, DaemonClient.submit(socket, tempDir, List.of("in.txt"), System.out, new PrintStream(new ByteArrayOutputStream())));
+    }
+
+    @Test
+    void testStatisticsLongerThan64KbReachClient() throws Exception {
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            lines.append("длинная строка с повторяющимся текстом номер ").append(i).append('\n');
+        }
+        Path input = tempDir.resolve("in.txt");
+        Files.writeString(input, lines, StandardCharsets.UTF_8);
+        Path socket = tempDir.resolve("daemon.sock");
+        List<String> args = List.of("-f", "--top-k", "1000", "-o", "out", "in.txt");
+
+        FilesManager direct = new FilesManager(ArgumentsParser.parse(
+                new String[]{"-f", "--top-k", "1000", "-o", tempDir.resolve("direct").toString(), input.toString()}));
+        List<String> expectedStats = direct.processFiles().formatAllStats(true);
+        direct.closeWriters();
+        assertTrue(expectedStats.stream().anyMatch(line -> line.getBytes(StandardCharsets.UTF_8).length > 65535));
+
+        try (DaemonServer server = new DaemonServer(socket, 1)) {
+            Thread acceptor = new Thread(server::run);
+            acceptor.start();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            assertEquals(0, DaemonClient.submit(socket, tempDir, args, new PrintStream(out, true, StandardCharsets.UTF_8), System.err));
+            assertEquals(String.join(System.lineSeparator(), expectedStats) + System.lineSeparator(),
+                    out.toString(StandardCharsets.UTF_8));
+            server.close();
+            acceptor.join();
+        }
+    }
+}
@@ -0,0 +1,143 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.paskal.distinct.DistinctFilter;
+import ru.paskal.io.AsciiByteSequence;
+import ru.paskal.utils.StringTypesEnum;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Проверка отбора первых вхождений значений в пределах бюджета памяти и при его превышении
+ */
+public class DistinctTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testExactSetsMatchHashSet() throws Exception {
+        for (DistinctFilter.Overflow overflow : DistinctFilter.Overflow.values()) {
+            // Маленький бюджет при вытеснении во временные файлы не влияет на точность
+            long budget = overflow == DistinctFilter.Overflow.SPILL ? 64 << 10 : 256 << 20;
+            DistinctFilter filter = new DistinctFilter(budget, overflow, tempDir);
+            Random random = new Random(3);
+            Set<Long> longs = new HashSet<>();
+            Set<String> strings = new HashSet<>();
+            AsciiByteSequence ascii = new AsciiByteSequence();
+            for (int i = 0; i < 200_000; i++) {
+                long value = random.nextInt(50_000) - 10_000;
+                assertEquals(longs.add(value), filter.addInteger(value));
+
+                String line = switch (random.nextInt(3)) {
+                    case 0 -> "строка " + random.nextInt(5_000);
+                    case 1 -> "x".repeat(random.nextInt(300));
+                    default -> "line " + random.nextInt(40_000);
+                };
+                boolean expected = strings.add(line);
+                if (line.chars().allMatch(c -> c < 0x80) && random.nextBoolean()) {
+                    ByteBuffer bytes = ByteBuffer.wrap(line.getBytes(StandardCharsets.US_ASCII));
+                    assertEquals(expected, filter.addString(ascii.set(bytes, 0, bytes.limit())), line);
+                } else {
+                    assertEquals(expected, filter.addString(line), line);
+                }
+            }
+            assertEquals(200_000 - longs.size(), filter.getRepeats(StringTypesEnum.INTEGER));
+            assertEquals(0, filter.getFalsePositiveRate(StringTypesEnum.STRING));
+
+            assertTrue(filter.addFloat(0.0));
+            assertFalse(filter.addFloat(-0.0));
+            assertTrue(filter.addFloat(Double.NaN));
+            assertFalse(filter.addFloat(0.0 / 0.0));
+            assertTrue(filter.addFloat(1.5));
+            assertFalse(filter.addFloat(15e-1));
+        }
+        try (var files = Files.list(tempDir)) {
+            assertEquals(0, files.count(), "Временные файлы удаляются после отображения");
+        }
+    }
+
+    @Test
+    void testUndoAddForgetsLastValue() throws Exception {
+        for (DistinctFilter.Overflow overflow : DistinctFilter.Overflow.values()) {
+            // Маленький бюджет: множества расширяются, вытесняются или заменяются фильтром Блума по ходу проверки
+            DistinctFilter filter = new DistinctFilter(32 << 10, overflow, tempDir);
+            Random random = new Random(7);
+            Set<Long> longs = new HashSet<>();
+            Set<String> strings = new HashSet<>();
+            // Ноль хранится в множестве отдельно от таблицы
+            assertTrue(filter.addInteger(0));
+            filter.undoAdd(StringTypesEnum.INTEGER);
+            assertTrue(filter.addInteger(0), "После отмены значение снова новое");
+            assertFalse(filter.addInteger(0));
+            filter.undoAdd(StringTypesEnum.INTEGER);
+            assertFalse(filter.addInteger(0), "Отбрасывание повтора не отменяется");
+            longs.add(0L);
+            for (int i = 0; i < 50_000; i++) {
+                long value = random.nextInt(20_000) - 100;
+                boolean isNew = !longs.contains(value);
+                boolean accepted = filter.addInteger(value);
+                if (!isNew) {
+                    assertFalse(accepted, "Повтор всегда отбрасывается");
+                } else if (overflow == DistinctFilter.Overflow.SPILL) {
+                    assertTrue(accepted);
+                }
+                if (random.nextInt(4) == 0) {
+                    filter.undoAdd(StringTypesEnum.INTEGER);
+                } else if (accepted) {
+                    longs.add(value);
+                }
+
+                String line = "line " + random.nextInt(20_000);
+                isNew = !strings.contains(line);
+                accepted = filter.addString(line);
+                if (!isNew) {
+                    assertFalse(accepted, "Повтор всегда отбрасывается");
+                } else if (overflow == DistinctFilter.Overflow.SPILL) {
+                    assertTrue(accepted);
+                }
+                if (random.nextInt(4) == 0) {
+                    filter.undoAdd(StringTypesEnum.STRING);
+                } else if (accepted) {
+                    strings.add(line);
+                }
+            }
+            if (overflow == DistinctFilter.Overflow.BLOOM) {
+                assertTrue(filter.getFalsePositiveRate(StringTypesEnum.INTEGER) > 0,
+                        "Множество должно было перейти к фильтру Блума");
+            }
+        }
+    }
+
+    @Test
+    void testBloomFallbackNeverKeepsRepeats() throws Exception {
+        DistinctFilter filter = new DistinctFilter(64 << 10, DistinctFilter.Overflow.BLOOM, tempDir);
+        Set<Long> seen = new HashSet<>();
+        Random random = new Random(5);
+        long distinct = 0;
+        long dropped = 0;
+        for (int i = 0; i < 100_000; i++) {
+            long value = random.nextLong() >>> 44;
+            boolean isNew = seen.add(value);
+            boolean accepted = filter.addInteger(value);
+            if (!isNew) {
+                assertFalse(accepted, "Повтор всегда отбрасывается");
+            } else {
+                distinct++;
+                if (!accepted) {
+                    dropped++;
+                }
+            }
+        }
+        double rate = filter.getFalsePositiveRate(StringTypesEnum.INTEGER);
+        assertTrue(rate > 0, "Множество должно было перейти к фильтру Блума");
+        assertTrue((double) dropped / distinct <= 2 * rate + 0.001,
+                "Доля ошибочно отброшенных %d из %d при оценке %f".formatted(dropped, distinct, rate));
+    }
+}
@@ -0,0 +1,70 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.paskal.io.AsciiByteSequence;
+import ru.paskal.io.FileFollower;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Тесты {@link FileFollower}: дописывание, незавершенные строки, усечение и ротация файла
+ */
+public class FileFollowerTest {
+    @TempDir
+    Path tempDir;
+
+    private final List<String> lines = new ArrayList<>();
+
+    @Test
+    void testFollowsAppendsAndWaitsForLineEnd() throws Exception {
+        Path file = tempDir.resolve("log.txt");
+        try (FileFollower follower = new FileFollower(file)) {
+            assertFalse(poll(follower), "Отсутствующий файл ожидается");
+
+            Files.writeString(file, "a\nb\r\nc");
+            assertTrue(poll(follower));
+            assertEquals(List.of("a", "b"), lines);
+
+            append(file, "d\r");
+            assertFalse(poll(follower), "Строка, заканчивающаяся \\r, может быть продолжена \\n");
+            append(file, "\ne\rf\n");
+            assertTrue(poll(follower));
+            assertEquals(List.of("a", "b", "cd", "e", "f"), lines);
+            assertFalse(poll(follower));
+        }
+    }
+
+    @Test
+    void testTruncationAndRotation() throws Exception {
+        Path file = tempDir.resolve("log.txt");
+        try (FileFollower follower = new FileFollower(file)) {
+            Files.writeString(file, "first\nsecond\n");
+            poll(follower);
+
+            Files.writeString(file, "x\n");
+            assertTrue(poll(follower), "После усечения файл читается с начала");
+            assertEquals(List.of("first", "second", "x"), lines);
+
+            append(file, "tail");
+            Files.move(file, tempDir.resolve("log.txt.1"));
+            Files.writeString(file, "new\n");
+            assertTrue(poll(follower));
+            assertEquals(List.of("first", "second", "x", "tail", "new"), lines,
+                    "Замененный файл дочитывается до конца, затем читается новый");
+        }
+    }
+
+    private boolean poll(FileFollower follower) throws Exception {
+        return follower.poll((buffer, start, end, ascii) ->
+                lines.add(new AsciiByteSequence().set(buffer, start, end).toString()));
+    }
+
+    private static void append(Path file, String content) throws Exception {
+        Files.writeString(file, content, StandardOpenOption.APPEND);
+    }
+}
@@ -0,0 +1,897 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.paskal.FilesManager;
+import ru.paskal.ShardMerger;
+import ru.paskal.metrics.ProcessingMetrics;
+import ru.paskal.utils.ArgumentsParser;
+import ru.paskal.utils.StringTypesEnum;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Сквозные тесты {@link FilesManager}: разные режимы обработки должны давать одинаковые выходные файлы
+ */
+public class FilesManagerTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testMmapModeMatchesReaderMode() throws Exception {
+        Path input1 = writeInput("in1.txt", "Lorem ipsum\r\n45\n3.1415\r-0.001\n\nабв\n1e5\n 7 \n9223372036854775808\nNaN");
+        Path input2 = writeInput("in2.txt", generateLines(new Random(3), 5_000));
+
+        Path readerOut = run("reader", input1, input2);
+        Path mmapOut = run("mmap", "-m", input1, input2);
+        assertSameOutputs(readerOut, mmapOut);
+    }
+
+    @Test
+    void testParallelModeMatchesSequentialMode() throws Exception {
+        Random random = new Random(11);
+        List<Object> inputs = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            inputs.add(writeInput("in" + i + ".txt", generateLines(random, 500 + random.nextInt(3000))));
+            if (i == 5) {
+                inputs.add(tempDir.resolve("missing.txt"));
+            }
+        }
+
+        FilesManager sequential = newManager("sequential", inputs);
+        List<String> sequentialStats = sequential.processFiles().formatAllStats(true);
+        sequential.closeWriters();
+
+        for (String mode : new String[]{"", "-m"}) {
+            List<Object> args = new ArrayList<>(List.of("-t", "4"));
+            if (!mode.isEmpty()) args.add(mode);
+            args.addAll(inputs);
+            FilesManager parallel = newManager("parallel" + mode, args);
+            List<String> parallelStats = parallel.processFiles().formatAllStats(true);
+            parallel.closeWriters();
+
+            assertIterableEquals(sequentialStats, parallelStats);
+            assertSameOutputs(tempDir.resolve("sequential"), tempDir.resolve("parallel" + mode));
+            try (var files = Files.list(tempDir.resolve("parallel" + mode))) {
+                assertEquals(3, files.count(), "Временные файлы должны быть удалены");
+            }
+        }
+    }
+
+    @Test
+    void testChunkedModeMatchesSequentialMode() throws Exception {
+        Path small = writeInput("small.txt", "1\n2.5\nsmall\n");
+        Path large = writeInput("large.txt", generateLines(new Random(5), 20_000));
+
+        FilesManager sequential = newManager("sequential", List.of(small, large));
+        List<String> sequentialStats = sequential.processFiles().formatAllStats(true);
+        sequential.closeWriters();
+
+        FilesManager chunked = newManager("chunked", List.of("--parallelism", "3", "--chunk-size", "1K", small, large));
+        List<String> chunkedStats = chunked.processFiles().formatAllStats(true);
+        chunked.closeWriters();
+
+        assertIterableEquals(sequentialStats, chunkedStats);
+        assertSameOutputs(tempDir.resolve("sequential"), tempDir.resolve("chunked"));
+    }
+
+    @Test
+    void testExtendedStatsMatchAcrossModes() throws Exception {
+        Path small = writeInput("small.txt", "1\n2.5\nsmall\n");
+        Path large = writeInput("large.txt", generateLines(new Random(31), 20_000));
+
+        FilesManager sequential = newManager("sequential", List.of("-e", small, large));
+        List<String> sequentialStats = sequential.processFiles().formatAllStats(true);
+        sequential.closeWriters();
+        assertTrue(sequentialStats.get(0).contains("Количество различных строк"));
+        assertTrue(sequentialStats.get(1).contains("p99"));
+
+        FilesManager chunked = newManager("chunked",
+                List.of("-e", "-t", "2", "--parallelism", "3", "--chunk-size", "1K", small, large));
+        List<String> chunkedStats = chunked.processFiles().formatAllStats(true);
+        chunked.closeWriters();
+        assertIterableEquals(sequentialStats, chunkedStats);
+    }
+
+    @Test
+    void testPipelineModeMatchesSequentialMode() throws Exception {
+        Path small = writeInput("small.txt", "1\n2.5\nабв\n");
+        // Больше суммарного объема пакетов и блоков конвейера, чтобы они переиспользовались
+        Path large = writeInput("large.txt", generateLines(new Random(17), 400_000));
+        Path longLine = writeInput("long.txt", "x".repeat(3 << 20) + "\n42\n");
+        List<Object> inputs = List.of(small, tempDir.resolve("missing.txt"), large, longLine);
+
+        FilesManager sequential = newManager("sequential", inputs);
+        List<String> sequentialStats = sequential.processFiles().formatAllStats(true);
+        sequential.closeWriters();
+
+        List<Object> args = new ArrayList<>(List.of("--pipeline"));
+        args.addAll(inputs);
+        FilesManager pipelined = newManager("pipeline", args);
+        List<String> pipelinedStats = pipelined.processFiles().formatAllStats(true);
+        pipelined.closeWriters();
+
+        assertIterableEquals(sequentialStats, pipelinedStats);
+        assertSameOutputs(tempDir.resolve("sequential"), tempDir.resolve("pipeline"));
+    }
+
+    @Test
+    void testSmallWriteBufferAndDurabilityKeepOutputs() throws Exception {
+        Path input = writeInput("in.txt", generateLines(new Random(23), 3_000) + "y".repeat(1000) + "\nабв\n");
+
+        Path defaults = run("defaults", input);
+        Path small = run("small", "--write-buffer", "100", "--durability", "1K", input);
+        assertSameOutputs(defaults, small);
+
+        // Режим добавления дописывает в существующие файлы, а не перезаписывает их
+        run("small", "-a", "--write-buffer", "300", "--durability", "close", input);
+        for (StringTypesEnum type : StringTypesEnum.values()) {
+            String expected = Files.readString(defaults.resolve(type.toFileName()));
+            assertEquals(expected + expected, Files.readString(small.resolve(type.toFileName())), type.toFileName());
+        }
+    }
+
+    @Test
+    void testStdinMatchesFileInput() throws Exception {
+        String content = generateLines(new Random(29), 2_000);
+        Path input = writeInput("in.txt", content);
+        Path fileOut = run("file", input);
+
+        var stdin = System.in;
+        try {
+            System.setIn(new java.io.ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)));
+            run("stdin", "-");
+        } finally {
+            System.setIn(stdin);
+        }
+        assertSameOutputs(fileOut, tempDir.resolve("stdin"));
+    }
+
+    @Test
+    void testFollowModeProcessesAppendedLines() throws Exception {
+        Path input = writeInput("in.txt", "1\n");
+        FilesManager manager = newManager("follow", List.of("--follow", "--stats-interval", "20ms", input));
+        List<List<String>> result = new ArrayList<>();
+        Thread worker = new Thread(() -> result.add(manager.processFiles().formatAllStats(true)));
+        worker.start();
+
+        Files.writeString(input, "2.5\ntext\n3", StandardOpenOption.APPEND);
+        Path integers = tempDir.resolve("follow").resolve(StringTypesEnum.INTEGER.toFileName());
+        Path strings = tempDir.resolve("follow").resolve(StringTypesEnum.STRING.toFileName());
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!(Files.exists(strings) && Files.readString(strings).equals("text" + System.lineSeparator()))) {
+            assertTrue(System.currentTimeMillis() < deadline, "Строки должны сбрасываться в выходные файлы без остановки");
+            Thread.sleep(10);
+        }
+
+        manager.stop();
+        worker.join(10_000);
+        manager.closeWriters();
+        assertFalse(worker.isAlive());
+        assertEquals("1" + System.lineSeparator(), Files.readString(integers), "Незавершенная строка не обрабатывается");
+        assertTrue(result.get(0).get(1).contains("Количество чисел: 1"));
+    }
+
+    @Test
+    void testFollowModeReadsStdinAlongsideFiles() throws Exception {
+        Path input = writeInput("in.txt", "");
+        var stdin = System.in;
+        java.io.PipedOutputStream pipe = new java.io.PipedOutputStream();
+        try {
+            System.setIn(new java.io.PipedInputStream(pipe));
+            FilesManager manager = newManager("follow", List.of("--follow", "-", input));
+            Thread worker = new Thread(manager::processFiles);
+            worker.start();
+
+            // Стандартный ввод не заканчивается, а строки в нем появляются медленно
+            Path integers = tempDir.resolve("follow").resolve(StringTypesEnum.INTEGER.toFileName());
+            Path strings = tempDir.resolve("follow").resolve(StringTypesEnum.STRING.toFileName());
+            StringBuilder expectedIntegers = new StringBuilder();
+            StringBuilder expectedStrings = new StringBuilder();
+            for (int i = 0; i < 5; i++) {
+                pipe.write((i + "\n").getBytes(StandardCharsets.UTF_8));
+                pipe.flush();
+                expectedIntegers.append(i).append(System.lineSeparator());
+                Files.writeString(input, "file" + i + "\n", StandardOpenOption.APPEND);
+                expectedStrings.append("file").append(i).append(System.lineSeparator());
+                awaitContent(strings, expectedStrings.toString());
+                awaitContent(integers, expectedIntegers.toString());
+            }
+
+            manager.stop();
+            worker.join(10_000);
+            assertFalse(worker.isAlive(), "Обработка должна останавливаться, пока стандартный ввод открыт");
+            manager.closeWriters();
+        } finally {
+            System.setIn(stdin);
+            pipe.close();
+        }
+    }
+
+    private static void awaitContent(Path file, String expected) throws Exception {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!(Files.exists(file) && Files.readString(file).equals(expected))) {
+            assertTrue(System.currentTimeMillis() < deadline, "Ожидалось содержимое " + file + ": " + expected);
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    void testGzipInputAndCompressedOutput() throws Exception {
+        String content = generateLines(new Random(37), 20_000);
+        Path plain = writeInput("in.txt", content);
+        // Два члена gzip подряд, граница проходит посреди строки
+        Path gzip = tempDir.resolve("in.gz");
+        int middle = content.length() / 2;
+        for (String part : new String[]{content.substring(0, middle), content.substring(middle)}) {
+            try (var out = new java.util.zip.GZIPOutputStream(
+                    Files.newOutputStream(gzip, StandardOpenOption.CREATE, StandardOpenOption.APPEND))) {
+                out.write(part.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        Path plainOut = run("plain", plain);
+        assertSameOutputs(plainOut, run("gzip", gzip));
+        assertSameOutputs(plainOut, run("gzip-mmap", "-m", gzip));
+        assertSameOutputs(plainOut, run("gzip-pipeline", "--pipeline", "--parallelism", "2", "--chunk-size", "1K", gzip));
+
+        Path compressed = run("compressed", "-z", "--write-buffer", "4K", plain);
+        for (StringTypesEnum type : StringTypesEnum.values()) {
+            try (var in = new java.util.zip.GZIPInputStream(
+                    Files.newInputStream(compressed.resolve(type.toFileName() + ".gz")))) {
+                assertArrayEquals(Files.readAllBytes(plainOut.resolve(type.toFileName())), in.readAllBytes(),
+                        type.toFileName());
+            }
+        }
+    }
+
+    @Test
+    void testMetricsMatchOutputsAcrossModes() throws Exception {
+        Path small = writeInput("small.txt", "1\n2.5\nабв\n");
+        Path large = writeInput("large.txt", generateLines(new Random(43), 20_000));
+        List<Object> inputs = List.of(small, tempDir.resolve("missing.txt"), large);
+
+        long[] expected = null;
+        // Объем строк в байтах совпадает во всех режимах побайтового чтения
+        for (List<String> mode : List.<List<String>>of(List.of("-m"), List.of("-m", "-t", "2"),
+                List.of("-m", "--parallelism", "3", "--chunk-size", "1K"), List.of("--pipeline"),
+                List.of("-m", "--write-buffer", "4K"))) {
+            String outName = "out" + mode.size() + mode.hashCode();
+            List<Object> args = new ArrayList<>(mode);
+            args.addAll(inputs);
+            FilesManager manager = newManager(outName, args);
+            manager.processFiles();
+            manager.closeWriters();
+            ProcessingMetrics metrics = manager.getMetrics();
+
+            long[] actual = {metrics.getLines(), metrics.getBytes(), metrics.getFilesProcessed(),
+                    metrics.getIntegerCount(), metrics.getFloatCount(), metrics.getStringCount()};
+            if (expected == null) {
+                expected = actual;
+                assertEquals(2, metrics.getFilesProcessed(), "Отсутствующий файл не учитывается");
+                assertEquals(20_003, metrics.getLines());
+                assertTrue(metrics.getClassificationNanosPerLine() > 0);
+                assertTrue(metrics.getFlushCount() > 0);
+            }
+            assertArrayEquals(expected, actual, mode.toString());
+            assertEquals(metrics.getIntegerCount(), countLines(tempDir.resolve(outName), StringTypesEnum.INTEGER));
+            assertEquals(metrics.getStringCount(), countLines(tempDir.resolve(outName), StringTypesEnum.STRING));
+        }
+
+        FilesManager reader = newManager("reader", new ArrayList<>(inputs));
+        reader.processFiles();
+        reader.closeWriters();
+        assertEquals(expected[0], reader.getMetrics().getLines());
+        assertEquals(expected[5], reader.getMetrics().getStringCount());
+    }
+
+    @Test
+    void testResumeFromCheckpointsMatchesUninterruptedRun() throws Exception {
+        Path small = writeInput("small.txt", "1\n2.5\nsmall\n");
+        Path large = writeInput("large.txt", generateLines(new Random(47), 20_000));
+        for (List<String> mode : List.<List<String>>of(List.of("-e", "--parallelism", "2", "--chunk-size", "64K"),
+                List.of("-e", "-t", "2"), List.of("-a", "-s"), List.of("-t", "2", "--async-writers", "-z"))) {
+            String suffix = String.valueOf(mode.hashCode());
+            List<Object> args = new ArrayList<>(mode);
+            args.addAll(List.of(small, large, small));
+            if (mode.contains("-a")) {
+                // Строки из предыдущих запусков в режиме дописывания сохраняются
+                for (String outName : List.of("full" + suffix, "resumed" + suffix)) {
+                    Files.createDirectories(tempDir.resolve(outName));
+                    Files.writeString(tempDir.resolve(outName).resolve(StringTypesEnum.INTEGER.toFileName()), "0\n");
+                }
+            }
+
+            FilesManager full = newManager("full" + suffix, args);
+            List<String> expectedStats = full.processFiles().formatAllStats(true);
+            full.closeWriters();
+
+            List<Object> checkpointArgs = new ArrayList<>(List.of("--checkpoint-interval", "1h"));
+            checkpointArgs.addAll(args);
+            Path checkpoint = tempDir.resolve("resumed" + suffix).resolve(".file_util-checkpoint");
+            List<String> actualStats = null;
+            int runs = 0;
+            do {
+                // Каждый запуск останавливается на первой границе части или файла
+                FilesManager manager = newManager("resumed" + suffix, checkpointArgs);
+                manager.stop();
+                actualStats = manager.processFiles().formatAllStats(true);
+                manager.closeWriters();
+                if (runs++ == 0) {
+                    assertTrue(Files.exists(checkpoint), mode.toString());
+                    checkpointArgs.add(0, "--resume");
+                }
+                assertTrue(runs < 100, "Обработка должна продвигаться с каждым запуском");
+            } while (Files.exists(checkpoint));
+
+            assertTrue(runs > 3, mode.toString());
+            assertIterableEquals(expectedStats, actualStats, mode.toString());
+            assertSameOutputs(tempDir.resolve("full" + suffix), tempDir.resolve("resumed" + suffix));
+        }
+    }
+
+    @Test
+    void testResumeRejectsDifferentInputs() throws Exception {
+        Path first = writeInput("first.txt", "1\n2\n");
+        Path second = writeInput("second.txt", "3\n");
+        FilesManager manager = newManager("out", List.of("--checkpoint-interval", "1h", first, second));
+        manager.stop();
+        manager.processFiles();
+        manager.closeWriters();
+        Path checkpoint = tempDir.resolve("out").resolve(".file_util-checkpoint");
+        assertTrue(Files.exists(checkpoint));
+
+        run("out", "--resume", second, first);
+        assertTrue(Files.exists(checkpoint), "Контрольная точка другого запуска не удаляется");
+        assertEquals("1" + System.lineSeparator() + "2" + System.lineSeparator(),
+                Files.readString(tempDir.resolve("out").resolve(StringTypesEnum.INTEGER.toFileName())));
+    }
+
+    @Test
+    void testCacheReusesUnchangedFiles() throws Exception {
+        Path small = writeInput("small.txt", "1\n2.5\nsmall\n");
+        Path large = writeInput("large.txt", generateLines(new Random(53), 20_000));
+        Path other = writeInput("other.txt", "42\nтекст\n");
+        Path cacheDir = tempDir.resolve("cache");
+
+        FilesManager plain = newManager("plain", List.of("-e", small, large, other));
+        List<String> expectedStats = plain.processFiles().formatAllStats(true);
+        plain.closeWriters();
+
+        for (String outName : List.of("cold", "warm")) {
+            FilesManager cached = newManager(outName, List.of("-e", "--cache-dir", cacheDir, small, large, other));
+            assertIterableEquals(expectedStats, cached.processFiles().formatAllStats(true), outName);
+            cached.closeWriters();
+            assertEquals(outName.equals("cold") ? 0 : 3, cached.getCacheHits(), outName);
+            assertSameOutputs(tempDir.resolve("plain"), tempDir.resolve(outName));
+        }
+
+        // Содержимое изменено без изменения размера и времени изменения - изменение находит контрольная сумма
+        var modified = Files.getLastModifiedTime(large);
+        String content = Files.readString(large);
+        Files.writeString(large, content.replaceFirst("text", "TEXT"));
+        Files.setLastModifiedTime(large, modified);
+        FilesManager changedPlain = newManager("changed-plain", List.of("-e", small, large, other));
+        List<String> changedStats = changedPlain.processFiles().formatAllStats(true);
+        changedPlain.closeWriters();
+        FilesManager changed = newManager("changed", List.of("-e", "-t", "2", "--cache-dir", cacheDir, small, large, other));
+        assertIterableEquals(changedStats, changed.processFiles().formatAllStats(true));
+        changed.closeWriters();
+        assertEquals(2, changed.getCacheHits());
+        assertSameOutputs(tempDir.resolve("changed-plain"), tempDir.resolve("changed"));
+
+        run("limited", "--cache-dir", cacheDir, "--cache-size", "1K", small, large, other);
+        long cacheSize = 0;
+        try (var entries = Files.list(cacheDir)) {
+            for (Path entry : entries.filter(path -> path.toString().endsWith(".entry")).toList()) {
+                cacheSize += Files.size(entry);
+            }
+        }
+        assertTrue(cacheSize <= 1024, "Размер кэша ограничен: " + cacheSize);
+    }
+
+    @Test
+    void testCustomLineTypesGetOwnFilesAndStats() throws Exception {
+        Path types = writeInput("types.conf", "hex = 0x[0-9a-f]+\namount:decimal = \\d+\\.\\d{3,}\n");
+        Path input = writeInput("in.txt", "0x1f\n42\n1.50\n0.100000000000000000001\nтекст\n0xzz\n2.000\n");
+        for (String mode : new String[]{"reader", "mmap"}) {
+            FilesManager manager = newManager(mode, List.of("--types", types, "-t", "2", mode.equals("mmap") ? "-m" : "-f", input));
+            List<String> stats = manager.processFiles().formatAllStats(true);
+            manager.closeWriters();
+            Path out = tempDir.resolve(mode);
+            String eol = System.lineSeparator();
+            assertEquals("0x1f" + eol, Files.readString(out.resolve("hex.txt")));
+            assertEquals("0.100000000000000000001" + eol + "2.000" + eol, Files.readString(out.resolve("amount.txt")));
+            assertEquals("42" + eol, Files.readString(out.resolve(StringTypesEnum.INTEGER.toFileName())));
+            assertEquals("1.50" + eol, Files.readString(out.resolve(StringTypesEnum.FLOAT.toFileName())));
+            assertEquals("текст" + eol + "0xzz" + eol, Files.readString(out.resolve(StringTypesEnum.STRING.toFileName())));
+            assertEquals(5, stats.size());
+            assertTrue(stats.get(4).contains("Сумма чисел: 2.100000000000000000001"), stats.get(4));
+        }
+    }
+
+    @Test
+    void testCustomLineTypesMatchAcrossModes() throws Exception {
+        Path types = writeInput("types.conf", "negative = -\\d+\namount:decimal = \\d+\\.\\d{3,}\ntagged = text line -.*\n");
+        Path small = writeInput("small.txt", "1\n-2\n2.500\nsmall\n");
+        Path large = writeInput("large.txt", generateLines(new Random(61), 20_000));
+        Path other = writeInput("other.txt", "42\n0.125\nтекст\n");
+        List<Object> inputs = List.of(small, large, other);
+        Path cacheDir = tempDir.resolve("cache");
+
+        List<Object> sequentialArgs = new ArrayList<>(List.of("--types", types));
+        sequentialArgs.addAll(inputs);
+        FilesManager sequential = newManager("sequential", sequentialArgs);
+        List<String> expectedStats = sequential.processFiles().formatAllStats(true);
+        sequential.closeWriters();
+        assertEquals(6, expectedStats.size());
+
+        List<List<Object>> modes = List.of(List.of("-t", "2"), List.of("-m", "--parallelism", "3", "--chunk-size", "1K"),
+                List.of("--pipeline"), List.of("--cache-dir", cacheDir), List.of("--cache-dir", cacheDir));
+        for (int i = 0; i < modes.size(); i++) {
+            List<Object> args = new ArrayList<>(List.of("--types", types));
+            args.addAll(modes.get(i));
+            args.addAll(inputs);
+            FilesManager manager = newManager("mode" + i, args);
+            assertIterableEquals(expectedStats, manager.processFiles().formatAllStats(true), modes.get(i).toString());
+            manager.closeWriters();
+            if (i == modes.size() - 1) {
+                assertEquals(inputs.size(), manager.getCacheHits());
+            }
+            assertSameFiles(tempDir.resolve("sequential"), tempDir.resolve("mode" + i));
+        }
+
+        List<Object> checkpointArgs = new ArrayList<>(List.of("--checkpoint-interval", "1h", "--types", types,
+                "--parallelism", "2", "--chunk-size", "64K"));
+        checkpointArgs.addAll(inputs);
+        Path checkpoint = tempDir.resolve("resumed").resolve(".file_util-checkpoint");
+        List<String> resumedStats;
+        int runs = 0;
+        do {
+            FilesManager manager = newManager("resumed", checkpointArgs);
+            manager.stop();
+            resumedStats = manager.processFiles().formatAllStats(true);
+            manager.closeWriters();
+            if (runs++ == 0) {
+                checkpointArgs.add(0, "--resume");
+            }
+            assertTrue(runs < 100, "Обработка должна продвигаться с каждым запуском");
+        } while (Files.exists(checkpoint));
+        assertTrue(runs > 2);
+        assertIterableEquals(expectedStats, resumedStats);
+        assertSameFiles(tempDir.resolve("sequential"), tempDir.resolve("resumed"));
+    }
+
+    /**
+     * Сравнивает все выходные файлы, в том числе файлы пользовательских типов
+     */
+    static void assertSameFiles(Path expectedDir, Path actualDir) throws Exception {
+        List<String> names;
+        try (var files = Files.list(expectedDir)) {
+            names = files.map(file -> file.getFileName().toString()).sorted().toList();
+        }
+        try (var files = Files.list(actualDir)) {
+            assertIterableEquals(names, files.map(file -> file.getFileName().toString()).sorted().toList());
+        }
+        for (String name : names) {
+            assertArrayEquals(Files.readAllBytes(expectedDir.resolve(name)), Files.readAllBytes(actualDir.resolve(name)), name);
+        }
+    }
+
+    @Test
+    void testAsyncWritersAndRotatedOutputsMatchSequentialMode() throws Exception {
+        Path input1 = writeInput("in1.txt", generateLines(new Random(29), 4_000));
+        Path input2 = writeInput("in2.txt", generateLines(new Random(31), 3_000));
+        Path sequential = run("sequential", input1, input2);
+
+        assertSameOutputs(sequential, run("async", "--async-writers", "--write-buffer", "1K", input1, input2));
+        // Временные файлы и файл кэша переносятся потоками записи и освобождаются после переноса
+        Path cacheDir = tempDir.resolve("async-cache");
+        for (String outName : new String[]{"async-cold", "async-warm"}) {
+            Path out = run(outName, "-t", "2", "--async-writers", "--write-buffer", "1K", "--cache-dir", cacheDir,
+                    input1, input2);
+            assertSameOutputs(sequential, out);
+            try (var files = Files.list(out)) {
+                assertEquals(3, files.count(), "Временные файлы должны быть удалены");
+            }
+        }
+
+        Path byLines = run("lines", "--rotate-lines", "100", "-t", "2", "--async-writers", input1, input2);
+        Path bySize = run("size", "--rotate-size", "1K", "-m", input1, input2);
+        for (StringTypesEnum type : StringTypesEnum.values()) {
+            String expected = Files.readString(sequential.resolve(type.toFileName()));
+            List<Path> lineSegments = segments(byLines, type);
+            assertEquals(expected, concat(lineSegments), type.toFileName());
+            for (int i = 0; i < lineSegments.size(); i++) {
+                long lines = Files.readAllLines(lineSegments.get(i)).size();
+                assertTrue(i == lineSegments.size() - 1 ? lines <= 100 : lines == 100, lineSegments.get(i).toString());
+            }
+            List<Path> sizeSegments = segments(bySize, type);
+            assertEquals(expected, concat(sizeSegments), type.toFileName());
+            for (int i = 0; i < sizeSegments.size() - 1; i++) {
+                long size = Files.size(sizeSegments.get(i));
+                assertTrue(size >= 1024 && size < 1024 + 100, sizeSegments.get(i) + ": " + size);
+            }
+            assertFalse(Files.exists(bySize.resolve(type.toFileName())));
+        }
+
+        // При дописывании нумерация сегментов продолжается, а без него старые сегменты удаляются
+        int before = segments(bySize, StringTypesEnum.STRING).size();
+        run("size", "-a", "--rotate-size", "1K", input1, input2);
+        List<Path> appended = segments(bySize, StringTypesEnum.STRING);
+        String expected = Files.readString(sequential.resolve(StringTypesEnum.STRING.toFileName()));
+        assertEquals(expected, concat(appended.subList(0, before)));
+        assertEquals(expected, concat(appended.subList(before, appended.size())));
+        run("size", "--rotate-size", "1M", input1);
+        assertEquals(1, segments(bySize, StringTypesEnum.STRING).size());
+    }
+
+    @Test
+    void testDistinctModeWritesFirstOccurrences() throws Exception {
+        Random random = new Random(37);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 6_000; i++) {
+            switch (random.nextInt(3)) {
+                case 0 -> sb.append(random.nextInt(200) * (random.nextBoolean() ? 1 : -1));
+                case 1 -> sb.append(random.nextInt(100) / 4.0).append(random.nextBoolean() ? "0" : "");
+                default -> sb.append(random.nextBoolean() ? "слово " : "word ").append(random.nextInt(300));
+            }
+            sb.append('\n');
+        }
+        Path input = writeInput("in.txt", sb.toString() + "007\n7\n-0.0\n0.0\n");
+        Path all = run("all", input);
+
+        FilesManager manager = newManager("distinct", List.of("--distinct", "-t", "2", "-m", input));
+        List<String> stats = manager.processFiles().formatAllStats(true);
+        manager.closeWriters();
+        Path out = tempDir.resolve("distinct");
+        assertEquals(firstOccurrences(all, StringTypesEnum.INTEGER, Long::parseLong),
+                Files.readAllLines(out.resolve(StringTypesEnum.INTEGER.toFileName())));
+        assertEquals(firstOccurrences(all, StringTypesEnum.FLOAT, line -> Double.parseDouble(line) + 0.0),
+                Files.readAllLines(out.resolve(StringTypesEnum.FLOAT.toFileName())));
+        assertEquals(firstOccurrences(all, StringTypesEnum.STRING, line -> line),
+                Files.readAllLines(out.resolve(StringTypesEnum.STRING.toFileName())));
+
+        // По умолчанию статистика учитывает все значения, а с --distinct-stats - только записанные
+        FilesManager plain = newManager("plain", List.of(input));
+        assertIterableEquals(plain.processFiles().formatAllStats(true), stats);
+        plain.closeWriters();
+        FilesManager distinctStats = newManager("distinct-stats", List.of("--distinct", "--distinct-stats", input));
+        List<String> written = distinctStats.processFiles().formatAllStats(true);
+        distinctStats.closeWriters();
+        Path rewritten = writeInput("distinct.txt", Files.readString(out.resolve(StringTypesEnum.STRING.toFileName()))
+                + Files.readString(out.resolve(StringTypesEnum.INTEGER.toFileName()))
+                + Files.readString(out.resolve(StringTypesEnum.FLOAT.toFileName())));
+        FilesManager expected = newManager("expected", List.of(rewritten));
+        assertIterableEquals(expected.processFiles().formatAllStats(true), written);
+        expected.closeWriters();
+    }
+
+    @Test
+    void testSortModeWritesNumbersInOrder() throws Exception {
+        Random random = new Random(41);
+        List<Object> inputs = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            inputs.add(writeInput("in" + i + ".txt", generateLines(random, 5_000)));
+        }
+        inputs.add(writeInput("edge.txt",
+                "007\n+5\n-0.0\n0.0\n1e5\n 7 \n2d\nNaN\n-Infinity\n9223372036854775807\n-9223372036854775808\n"));
+
+        FilesManager plain = newManager("plain", inputs);
+        List<String> plainStats = plain.processFiles().formatAllStats(true);
+        plain.closeWriters();
+        Path plainOut = tempDir.resolve("plain");
+        // Меняется только порядок строк, равные значения остаются в порядке входных данных
+        List<String> integers = Files.readAllLines(plainOut.resolve(StringTypesEnum.INTEGER.toFileName())).stream()
+                .sorted(Comparator.comparingLong(line -> Long.parseLong(line.strip()))).toList();
+        List<String> floats = Files.readAllLines(plainOut.resolve(StringTypesEnum.FLOAT.toFileName())).stream()
+                .sorted(Comparator.comparingDouble(Double::parseDouble)).toList();
+        assertTrue(integers.contains("007") && floats.contains("1e5"));
+
+        // Маленький бюджет заставляет записывать серии во временные файлы и сливать их
+        List<List<String>> modes = List.of(List.of(), List.of("-t", "4"), List.of("--pipeline"),
+                List.of("--parallelism", "2", "--chunk-size", "16K", "-m"), List.of("--sort-memory", "64K"));
+        for (int i = 0; i < modes.size(); i++) {
+            List<Object> args = new ArrayList<>(List.of("--sort"));
+            args.addAll(modes.get(i));
+            args.addAll(inputs);
+            FilesManager sorted = newManager("sorted" + i, args);
+            assertIterableEquals(plainStats, sorted.processFiles().formatAllStats(true), modes.get(i).toString());
+            sorted.closeWriters();
+
+            Path out = tempDir.resolve("sorted" + i);
+            assertEquals(integers, Files.readAllLines(out.resolve(StringTypesEnum.INTEGER.toFileName())));
+            assertEquals(floats, Files.readAllLines(out.resolve(StringTypesEnum.FLOAT.toFileName())));
+            assertEquals(Files.readString(plainOut.resolve(StringTypesEnum.STRING.toFileName())),
+                    Files.readString(out.resolve(StringTypesEnum.STRING.toFileName())));
+            try (var files = Files.list(out)) {
+                assertEquals(3, files.count(), "Временные файлы должны быть удалены");
+            }
+        }
+    }
+
+    @Test
+    void testShardsMergeToSingleNodeRun() throws Exception {
+        Random random = new Random(43);
+        Path gzip = tempDir.resolve("in.gz");
+        try (var out = new java.util.zip.GZIPOutputStream(Files.newOutputStream(gzip))) {
+            out.write(generateLines(random, 3_000).getBytes(StandardCharsets.UTF_8));
+        }
+        List<Object> inputs = List.of(
+                writeInput("first.txt", generateLines(random, 4_000)),
+                gzip,
+                tempDir.resolve("missing.txt"),
+                writeInput("empty.txt", ""),
+                writeInput("crlf.txt", generateLines(random, 20_000).replace("\n", "\r\n")),
+                writeInput("last.txt", "1\n2.5\nбез перевода строки"));
+
+        List<Object> single = new ArrayList<>(List.of("-e"));
+        single.addAll(inputs);
+        FilesManager manager = newManager("single", single);
+        List<String> singleStats = manager.processFiles().formatAllStats(true);
+        manager.closeWriters();
+
+        List<List<String>> modes = List.of(List.of(), List.of("-t", "2"),
+                List.of("--parallelism", "2", "--chunk-size", "4K", "-m"), List.of("--pipeline"));
+        for (List<String> mode : modes) {
+            for (int count : new int[]{1, 3, 7}) {
+                List<String> merge = new ArrayList<>(List.of("--merge-shards", "-o",
+                        tempDir.resolve("merged" + count + mode).toString()));
+                for (int index = count; index >= 1; index--) {
+                    String name = "shard" + index + "of" + count + mode;
+                    List<Object> args = new ArrayList<>(List.of("-e", "--shard", index + "/" + count));
+                    args.addAll(mode);
+                    args.addAll(inputs);
+                    FilesManager shard = newManager(name, args);
+                    shard.processFiles();
+                    shard.closeWriters();
+                    merge.add(tempDir.resolve(name).toString());
+                }
+                var mergeArgs = ArgumentsParser.parse(merge.toArray(String[]::new));
+                assertIterableEquals(singleStats, new ShardMerger(mergeArgs).merge().formatAllStats(true),
+                        count + " " + mode);
+                assertSameOutputs(tempDir.resolve("single"), tempDir.resolve("merged" + count + mode));
+            }
+        }
+
+        // Неполный набор частей не объединяется
+        var incomplete = ArgumentsParser.parse(new String[]{"--merge-shards", "-o", tempDir.resolve("bad").toString(),
+                tempDir.resolve("shard1of3[]").toString(), tempDir.resolve("shard3of3[]").toString()});
+        assertThrows(IOException.class, () -> new ShardMerger(incomplete).merge());
+    }
+
+    @Test
+    void testEmptyInputsAreSharded() throws Exception {
+        List<Object> inputs = List.of(writeInput("empty1.txt", ""), tempDir.resolve("missing.txt"),
+                writeInput("empty2.txt", ""));
+        List<Object> single = new ArrayList<>(List.of("-s"));
+        single.addAll(inputs);
+        FilesManager manager = newManager("empty-single", single);
+        List<String> singleStats = manager.processFiles().formatAllStats(false);
+        manager.closeWriters();
+        for (int count : new int[]{2, 3}) {
+            List<String> merge = new ArrayList<>(List.of("--merge-shards", "-o", tempDir.resolve("empty-merged" + count).toString()));
+            for (int index = 1; index <= count; index++) {
+                String name = "empty-shard" + index + "of" + count;
+                List<Object> args = new ArrayList<>(List.of("-s", "--shard", index + "/" + count));
+                args.addAll(inputs);
+                FilesManager shard = newManager(name, args);
+                shard.processFiles();
+                shard.closeWriters();
+                assertTrue(shard.getErrors().getCount() <= 1, "Ошибкой может быть только отсутствующий файл");
+                merge.add(tempDir.resolve(name).toString());
+            }
+            var merged = new ShardMerger(ArgumentsParser.parse(merge.toArray(String[]::new))).merge();
+            assertIterableEquals(singleStats, merged.formatAllStats(false), String.valueOf(count));
+        }
+    }
+
+    @Test
+    void testDirectoryAndGlobInputsMatchFileList() throws Exception {
+        Path dir = tempDir.resolve("logs");
+        Files.createDirectories(dir.resolve("b"));
+        Files.createDirectories(dir.resolve(".hidden"));
+        Random random = new Random(17);
+        List<Object> files = new ArrayList<>();
+        for (String name : new String[]{"a1.txt", "a2.txt", "b/b1.txt", "b/b2.log", "c.txt"}) {
+            Path file = dir.resolve(name);
+            Files.writeString(file, generateLines(random, 200 + random.nextInt(500)), StandardCharsets.UTF_8);
+            files.add(file);
+        }
+        Files.writeString(dir.resolve(".hidden/skipped.txt"), "skipped\n");
+
+        Path explicit = run("explicit", files.toArray());
+        assertSameOutputs(explicit, run("directory", dir));
+        assertSameOutputs(explicit, run("no-prefetch", "--prefetch", "0", dir));
+        assertSameOutputs(explicit, run("pipeline", "--pipeline", dir));
+        assertSameOutputs(explicit, run("parallel", "-t", "3", dir));
+        assertSameOutputs(explicit, run("glob", dir.resolve("a*.txt"), dir.resolve("{b,c}*")));
+        assertSameOutputs(explicit, run("deep-glob", dir + "/**"));
+
+        // Выходная директория внутри входной не читается повторно
+        run("logs/out", dir);
+        assertSameOutputs(explicit, run("logs/out", dir));
+    }
+
+    @Test
+    void testPrefetchedFilesMatchAcrossModes() throws Exception {
+        String content = generateLines(new Random(23), 30_000);
+        List<Object> inputs = new ArrayList<>();
+        inputs.add(writeInput("first.txt", "1\n2.5\nабв\n"));
+        inputs.add(writeInput("small.txt", "3\r\n4.5\r\nгде"));
+        // Больше прочитанного заранее начала, граница начала проходит посреди строки
+        inputs.add(writeInput("large.txt", content));
+        // Начало заканчивается на \r, а \n следует уже за ним
+        inputs.add(writeInput("crlf.txt", "x".repeat((256 << 10) - 1) + "\r\n7\r\n"));
+        inputs.add(writeInput("long.txt", "y".repeat(300 << 10) + "\n8\n"));
+        inputs.add(writeInput("empty.txt", ""));
+        inputs.add(tempDir.resolve("missing.txt"));
+        Path gzip = tempDir.resolve("in.gz");
+        try (var out = new java.util.zip.GZIPOutputStream(Files.newOutputStream(gzip))) {
+            out.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+        inputs.add(gzip);
+        inputs.add(writeInput("last.txt", "9\n"));
+
+        List<List<String>> modes = List.of(List.of(), List.of("-m"), List.of("--pipeline"), List.of("-t", "2"),
+                List.of("-t", "2", "-m"), List.of("--cache-dir"));
+        for (int i = 0; i < modes.size(); i++) {
+            for (String prefetch : new String[]{"0", "2"}) {
+                String outName = "prefetch-" + prefetch + "-" + i;
+                List<Object> args = new ArrayList<>(List.of("--prefetch", prefetch));
+                args.addAll(modes.get(i));
+                if (modes.get(i).contains("--cache-dir")) {
+                    // Кэш для каждого запуска свой, чтобы файлы читались, а не брались из кэша
+                    args.add(tempDir.resolve("cache-" + outName));
+                }
+                args.addAll(inputs);
+                run(outName, args.toArray());
+            }
+            assertSameOutputs(tempDir.resolve("prefetch-0-" + i), tempDir.resolve("prefetch-2-" + i));
+        }
+    }
+
+    @Test
+    void testOutputFilesInInputDirectoryAreNotRead() throws Exception {
+        Path dir = tempDir.resolve("same");
+        Files.createDirectories(dir);
+        Random random = new Random(19);
+        List<Object> files = new ArrayList<>();
+        for (String name : new String[]{"in1.txt", "in2.txt"}) {
+            Path file = dir.resolve(name);
+            Files.writeString(file, generateLines(random, 300), StandardCharsets.UTF_8);
+            files.add(file);
+        }
+        Path explicit = run("same-explicit", files.toArray());
+
+        // Выходная директория совпадает с входной: ни файлы прошлого запуска, ни записываемые файлы не читаются
+        for (int i = 0; i < 2; i++) {
+            assertSameOutputs(explicit, run("same", dir));
+            assertSameOutputs(explicit, run("same", dir + "/*.txt"));
+        }
+        // Сжатые сегменты и результат части с префиксом тоже пропускаются
+        Path prefixed = tempDir.resolve("same-prefixed");
+        Files.createDirectories(prefixed);
+        for (Object file : files) {
+            Files.copy((Path) file, prefixed.resolve(((Path) file).getFileName()));
+        }
+        for (int i = 0; i < 2; i++) {
+            run("same-prefixed", "-p", "pre_", "--rotate-lines", "100", "-z", prefixed);
+            run("same-prefixed", "-p", "pre_", "--shard", "1/1", prefixed);
+        }
+        try (var listed = Files.list(prefixed)) {
+            assertTrue(listed.anyMatch(file -> file.getFileName().toString().matches("pre_integer-\\d+\\.txt\\.gz")));
+        }
+        for (StringTypesEnum type : StringTypesEnum.values()) {
+            assertArrayEquals(Files.readAllBytes(explicit.resolve(type.toFileName())),
+                    Files.readAllBytes(prefixed.resolve("pre_" + type.toFileName())), type.toFileName());
+        }
+    }
+
+    @Test
+    void testMissingFileIsSkipped() throws Exception {
+        Path input = writeInput("in.txt", "1\n2\n");
+        Path out = run("mmap", "-m", tempDir.resolve("missing.txt"), input);
+        assertEquals("1" + System.lineSeparator() + "2" + System.lineSeparator(),
+                Files.readString(out.resolve(StringTypesEnum.INTEGER.toFileName())));
+    }
+
+    static long countLines(Path dir, StringTypesEnum type) throws Exception {
+        try (var lines = Files.lines(dir.resolve(type.toFileName()))) {
+            return lines.count();
+        }
+    }
+
+    /**
+     * @return сегменты выходного файла типа в порядке номеров
+     */
+    static List<Path> segments(Path dir, StringTypesEnum type) throws Exception {
+        String stem = type.toFileName().replace(".txt", "-");
+        try (var files = Files.list(dir)) {
+            return files.filter(file -> file.getFileName().toString().startsWith(stem)).sorted().toList();
+        }
+    }
+
+    static String concat(List<Path> files) throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (Path file : files) {
+            sb.append(Files.readString(file));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return строки выходного файла, значения которых встретились впервые
+     */
+    static List<String> firstOccurrences(Path dir, StringTypesEnum type, Function<String, Object> key)
+            throws Exception {
+        Set<Object> seen = new HashSet<>();
+        List<String> result = new ArrayList<>();
+        for (String line : Files.readAllLines(dir.resolve(type.toFileName()))) {
+            if (seen.add(key.apply(line))) {
+                result.add(line);
+            }
+        }
+        return result;
+    }
+
+    static String generateLines(Random random, int count) {
+        StringBuilder sb = new StringBuilder();
+        String[] separators = {"\n", "\r\n", "\r"};
+        for (int i = 0; i < count; i++) {
+            switch (random.nextInt(4)) {
+                case 0 -> sb.append(random.nextLong() >> random.nextInt(64));
+                case 1 -> sb.append(random.nextDouble() * random.nextInt(1000));
+                case 2 -> sb.append("строка ").append(random.nextInt(100));
+                default -> sb.append("text line ").append(random.nextInt());
+            }
+            sb.append(separators[random.nextInt(separators.length)]);
+        }
+        return sb.toString();
+    }
+
+    Path writeInput(String name, String content) throws Exception {
+        Path file = tempDir.resolve(name);
+        Files.writeString(file, content, StandardCharsets.UTF_8);
+        return file;
+    }
+
+    Path run(String outName, Object... argsAndFiles) {
+        FilesManager manager = newManager(outName, Arrays.asList(argsAndFiles));
+        manager.processFiles();
+        manager.closeWriters();
+        return tempDir.resolve(outName);
+    }
+
+    FilesManager newManager(String outName, List<Object> argsAndFiles) {
+        Path out = tempDir.resolve(outName);
+        List<String> args = new ArrayList<>(Arrays.asList("-o", out.toString(), "-f"));
+        for (Object arg : argsAndFiles) {
+            args.add(arg.toString());
+        }
+        return new FilesManager(ArgumentsParser.parse(args.toArray(String[]::new)));
+    }
+
+    static void assertSameOutputs(Path expectedDir, Path actualDir) throws Exception {
+        for (StringTypesEnum type : StringTypesEnum.values()) {
+            Path expected = expectedDir.resolve(type.toFileName());
+            Path actual = actualDir.resolve(type.toFileName());
+            assertEquals(Files.exists(expected), Files.exists(actual), type.toFileName());
+            if (Files.exists(expected)) {
+                assertArrayEquals(Files.readAllBytes(expected), Files.readAllBytes(actual), type.toFileName());
+            }
+        }
+    }
+}
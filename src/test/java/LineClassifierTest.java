@@ -0,0 +1,98 @@
+import org.junit.jupiter.api.Test;
+import ru.paskal.utils.LineClassifier;
+import ru.paskal.utils.StringTypesEnum;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Дифференциальный тест {@link LineClassifier} против исходной цепочки Long.parseLong -> Double.parseDouble
+ */
+public class LineClassifierTest {
+    private final LineClassifier classifier = new LineClassifier();
+
+    private static final String[] CORNER_CASES = {
+            "", " ", "\t", "+", "-", ".", "e", "0", "-0", "+0", "00", "007", "-007", "123", "-123", "+123",
+            "9223372036854775807", "-9223372036854775808", "9223372036854775808", "-9223372036854775809",
+            "99999999999999999999999", "1.5", "-1.5", ".5", "5.", "-.5", "+.5", "1..5", "1.5.",
+            "1e5", "1E5", "1e+5", "1e-5", "1e", "1e+", "1e-", "e5", ".e5", "1.5e3", "1.5e3d", "1.5e3f",
+            "2d", "2D", "2f", "2F", "2dd", "2x", "1_000", "1,5", " 5", "5 ", " 5 ", "\t-7\t", " 1.5 ",
+            "NaN", "-NaN", "+NaN", "NaNd", "nan", "Infinity", "-Infinity", "+Infinity", "Infinityd", "infinity",
+            "Inf", " NaN ", "0x1p3", "0X1P3", "-0x1.8p1", "0x.8p1", "0x1.p1", "0x.p1", "0x", "0x1", "0x1p",
+            "0x1p-2d", "0xAbCp+3f", "00x1p1", "0.1", "0.30000000000000004", "1234567890.0987654321",
+            "1e308", "1e309", "-1e309", "4.9e-324", "1e-400", "123456789012345678.5", "0.000000000000000000001",
+            "1e999999999999", "0e999999999999", "٣", "-٣", "١٢٣", "١٢.٥", "٣ ", "12٣", "９", "a", "abc", "hello world",
+            "1-2", "--1", "+-1", "1e5e5", "\u007f1", "1\u0000", "\u00001", "12345678901234567890123.5e-3"
+    };
+
+    @Test
+    void testCornerCasesMatchLegacy() {
+        for (String s : CORNER_CASES) {
+            assertSameAsLegacy(s);
+        }
+    }
+
+    @Test
+    void testRandomInputsMatchLegacy() {
+        Random random = new Random(42);
+        String alphabet = "0123456789000999+-..eEdDfFxXpPNaIny \t٣a";
+        StringBuilder sb = new StringBuilder();
+        for (int n = 0; n < 300_000; n++) {
+            sb.setLength(0);
+            int len = random.nextInt(25);
+            for (int k = 0; k < len; k++) {
+                sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            assertSameAsLegacy(sb.toString());
+        }
+    }
+
+    @Test
+    void testRandomNumbersMatchLegacy() {
+        Random random = new Random(7);
+        for (int n = 0; n < 200_000; n++) {
+            assertSameAsLegacy(Long.toString(random.nextLong()));
+            double d = Double.longBitsToDouble(random.nextLong());
+            assertSameAsLegacy(Double.toString(d));
+            assertSameAsLegacy(String.format("%.6f", random.nextDouble() * 1000));
+            assertSameAsLegacy(random.nextInt(1_000_000) + "." + random.nextInt(1_000_000) + "e" + (random.nextInt(60) - 30));
+        }
+    }
+
+    @Test
+    void testLongOverflowFallsThroughToFloat() {
+        assertEquals(StringTypesEnum.FLOAT, classifier.classify("9223372036854775808"));
+        assertEquals(9.223372036854775808E18, classifier.getDoubleValue());
+        assertEquals(StringTypesEnum.INTEGER, classifier.classify("-9223372036854775808"));
+        assertEquals(Long.MIN_VALUE, classifier.getLongValue());
+    }
+
+    private void assertSameAsLegacy(String s) {
+        StringTypesEnum expected;
+        long expectedLong = 0;
+        double expectedDouble = 0;
+        try {
+            expectedLong = Long.parseLong(s);
+            expected = StringTypesEnum.INTEGER;
+        } catch (NumberFormatException e) {
+            try {
+                expectedDouble = Double.parseDouble(s);
+                expected = StringTypesEnum.FLOAT;
+            } catch (NumberFormatException ex) {
+                expected = StringTypesEnum.STRING;
+            }
+        }
+        if (s.isEmpty()) {
+            expected = StringTypesEnum.STRING;
+        }
+
+        StringTypesEnum actual = classifier.classify(s);
+        assertEquals(expected, actual, () -> "Тип строки '" + s + "'");
+        if (expected == StringTypesEnum.INTEGER) {
+            assertEquals(expectedLong, classifier.getLongValue(), () -> "Значение строки '" + s + "'");
+        } else if (expected == StringTypesEnum.FLOAT) {
+            assertEquals(expectedDouble, classifier.getDoubleValue(), () -> "Значение строки '" + s + "'");
+        }
+    }
+}
@@ -0,0 +1,171 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.paskal.FilesManager;
+import ru.paskal.LineRouter;
+import ru.paskal.io.CallbackLineWriter;
+import ru.paskal.io.LineWriter;
+import ru.paskal.io.MemoryLineWriter;
+import ru.paskal.models.StatisticsUnion;
+import ru.paskal.utils.ArgumentsParser;
+import ru.paskal.utils.StringTypesEnum;
+
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Встраиваемая обработка {@link LineRouter} должна давать те же строки и статистику, что и утилита
+ */
+public class LineRouterTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testInputStreamMatchesFilesManager() throws Exception {
+        String content = FilesManagerTest.generateLines(new Random(21), 20_000);
+        Path input = tempDir.resolve("in.txt");
+        Files.writeString(input, content, StandardCharsets.UTF_8);
+        Path out = tempDir.resolve("out");
+        FilesManager manager = new FilesManager(ArgumentsParser.parse(
+                new String[]{"-o", out.toString(), "-f", input.toString()}));
+        List<String> expectedStats = manager.processFiles().formatAllStats(true);
+        manager.closeWriters();
+
+        Map<StringTypesEnum, MemoryLineWriter> sinks = memorySinks();
+        try (LineRouter router = new LineRouter(sinks, true, false);
+             InputStream in = Files.newInputStream(input)) {
+            router.process(in);
+            assertIterableEquals(expectedStats, router.snapshot().union().formatAllStats(true));
+        }
+        for (StringTypesEnum type : StringTypesEnum.values()) {
+            Path file = out.resolve(type.toFileName());
+            List<String> expected = Files.exists(file) ? Files.readAllLines(file) : List.of();
+            assertEquals(expected, sinks.get(type).getLines(), type.toFileName());
+        }
+    }
+
+    @Test
+    void testPublisherMatchesStreamWithBackpressure() throws Exception {
+        List<String> lines = FilesManagerTest.generateLines(new Random(22), 10_000).lines().toList();
+
+        MemoryLineWriter expectedStrings = new MemoryLineWriter();
+        MemoryLineWriter expectedNumbers = new MemoryLineWriter();
+        Map<StringTypesEnum, LineWriter> expected = Map.of(StringTypesEnum.STRING, expectedStrings,
+                StringTypesEnum.INTEGER, expectedNumbers, StringTypesEnum.FLOAT, expectedNumbers);
+        StatisticsUnion expectedStats;
+        try (LineRouter router = new LineRouter(expected, true, true)) {
+            router.process(lines.stream());
+            expectedStats = router.snapshot().union();
+        }
+
+        Map<StringTypesEnum, LineWriter> sinks = new EnumMap<>(StringTypesEnum.class);
+        MemoryLineWriter strings = new MemoryLineWriter();
+        sinks.put(StringTypesEnum.STRING, strings);
+        List<String> numbers = new ArrayList<>();
+        // Медленный выход: издатель ждет, пока подписчик не запросит следующие строки
+        CallbackLineWriter slow = new CallbackLineWriter(line -> {
+            numbers.add(line);
+            if (numbers.size() % 1000 == 0) {
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        sinks.put(StringTypesEnum.INTEGER, slow);
+        sinks.put(StringTypesEnum.FLOAT, slow);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (LineRouter router = new LineRouter(sinks, true, true);
+             SubmissionPublisher<String> publisher = new SubmissionPublisher<>(executor, 16)) {
+            var result = router.subscribe(publisher);
+            long previous = 0;
+            for (String line : lines) {
+                publisher.submit(line);
+                long current = router.snapshot().lines();
+                assertTrue(current >= previous);
+                previous = current;
+            }
+            publisher.close();
+            LineRouter.Snapshot snapshot = result.get(30, TimeUnit.SECONDS);
+            assertEquals(lines.size(), snapshot.lines());
+            assertIterableEquals(expectedStats.formatAllStats(true), snapshot.union().formatAllStats(true));
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(expectedStrings.getLines(), strings.getLines());
+        assertEquals(expectedNumbers.getLines(), numbers);
+    }
+
+    @Test
+    void testTrickledStreamLinesAreRoutedBeforeEnd() throws Exception {
+        MemoryLineWriter strings = new MemoryLineWriter();
+        PipedOutputStream source = new PipedOutputStream();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (LineRouter router = new LineRouter(Map.of(StringTypesEnum.STRING, strings), false, false);
+             PipedInputStream in = new PipedInputStream(source)) {
+            Future<?> result = executor.submit(() -> {
+                router.process(in);
+                return null;
+            });
+            // Поток не заканчивается и не заполняет буфер чтения: строки должны передаваться по мере поступления
+            for (int i = 0; i < 3; i++) {
+                source.write(("line " + i + "\n").getBytes(StandardCharsets.UTF_8));
+                source.flush();
+                awaitLines(router, i + 1);
+            }
+            source.write("1\nlast".getBytes(StandardCharsets.UTF_8));
+            source.close();
+            result.get(30, TimeUnit.SECONDS);
+            assertEquals(5, router.snapshot().lines());
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(List.of("line 0", "line 1", "line 2", "last"), strings.getLines());
+    }
+
+    private static void awaitLines(LineRouter router, long lines) throws InterruptedException {
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (router.snapshot().lines() < lines) {
+            assertTrue(System.nanoTime() < deadline, "Строки не переданы до конца потока");
+            Thread.sleep(1);
+        }
+    }
+
+    @Test
+    void testTypesWithoutSinkAreCountedInStatistics() throws Exception {
+        MemoryLineWriter strings = new MemoryLineWriter();
+        try (LineRouter router = new LineRouter(Map.of(StringTypesEnum.STRING, strings), false, false)) {
+            router.process(List.of("1", "2.5", "text", "-3").stream());
+            LineRouter.Snapshot snapshot = router.snapshot();
+            assertEquals(4, snapshot.lines());
+            assertEquals(List.of("text"), strings.getLines());
+            assertEquals(2, snapshot.integers().getCount());
+            assertEquals(1, snapshot.floats().getCount());
+        }
+    }
+
+    private static Map<StringTypesEnum, MemoryLineWriter> memorySinks() {
+        Map<StringTypesEnum, MemoryLineWriter> sinks = new EnumMap<>(StringTypesEnum.class);
+        for (StringTypesEnum type : StringTypesEnum.values()) {
+            sinks.put(type, new MemoryLineWriter());
+        }
+        return sinks;
+    }
+}
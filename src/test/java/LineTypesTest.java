@@ -0,0 +1,128 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.paskal.models.TypeStatistics;
+import ru.paskal.utils.LineClassifier;
+import ru.paskal.utils.LineType;
+import ru.paskal.utils.LineTypes;
+import ru.paskal.utils.StringTypesEnum;
+import ru.paskal.utils.TypeAutomaton;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Проверка автомата пользовательских типов строк на совпадение с {@link Pattern}
+ */
+public class LineTypesTest {
+    private static final List<String> PATTERNS = List.of(
+            "0x[0-9a-fA-F]+",
+            "\\d{4}-\\d{2}-\\d{2}",
+            "[+-]?\\d+\\.\\d{3,}",
+            "(ab|a)*c?",
+            "[^\\d\\s]{2,4}x",
+            "\\w+@\\w+\\.(com|ru)",
+            ".*\\$.*"
+    );
+    private static final String ALPHABET = "0123456789abcdefxACF.-+@$ _\tцы";
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testAutomatonMatchesRegex() {
+        TypeAutomaton automaton = TypeAutomaton.compile(PATTERNS);
+        List<Pattern> regexes = PATTERNS.stream().map(Pattern::compile).toList();
+        Random random = new Random(17);
+        List<String> samples = List.of("", "0x1F", "0x", "2024-01-31", "2024-1-31", "-3.1415", "3.14", "abac",
+                "aab", "c", "ыы x", "цxx", "name@host.ru", "name@host.org", "cost $5", "12345");
+        for (String sample : samples) {
+            assertEquals(expected(regexes, sample), automaton.match(sample), sample);
+        }
+        for (int i = 0; i < 200_000; i++) {
+            StringBuilder line = new StringBuilder();
+            int length = random.nextInt(14);
+            for (int j = 0; j < length; j++) {
+                line.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+            }
+            String value = line.toString();
+            assertEquals(expected(regexes, value), automaton.match(value), value);
+        }
+    }
+
+    @Test
+    void testStringsRejectedByAutomatonAreNotNumbers() {
+        LineTypes types = new LineTypes(List.of(new LineType("hex_id", false, "0x[0-9a-f]+")));
+        LineClassifier classifier = new LineClassifier();
+        List<String> numbers = List.of("42", "-7", "+0", "3.14", ".5", "5.", "1e10", "-2.5E-3f", "7d", " 12 ",
+                "\t-1\t", "NaN", "-Infinity", "0x1.8p3", "0X1P-2d", "١٢٣", "-٣", "99999999999999999999");
+        for (String number : numbers) {
+            assertTrue(classifier.classify(number) != StringTypesEnum.STRING, number);
+            assertEquals(LineTypes.NUMBER, types.match(number), number);
+        }
+        Random random = new Random(23);
+        String alphabet = "0123456789+-.eEfFdDxXpPaNIny \t٣ц";
+        for (int i = 0; i < 500_000; i++) {
+            StringBuilder line = new StringBuilder();
+            int length = random.nextInt(10);
+            for (int j = 0; j < length; j++) {
+                line.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            String value = line.toString();
+            if (types.match(value) == LineTypes.STRING) {
+                assertEquals(StringTypesEnum.STRING, classifier.classify(value), value);
+            }
+        }
+    }
+
+    @Test
+    void testConfigFile() throws Exception {
+        Path config = tempDir.resolve("types.conf");
+        Files.writeString(config, """
+                # идентификаторы
+                hex_id = 0x[0-9a-f]+
+
+                amount:decimal = -?\\d+\\.\\d+
+                """);
+        LineTypes types = LineTypes.load(config);
+        assertEquals(List.of(new LineType("hex_id", false, "0x[0-9a-f]+"), new LineType("amount", true, "-?\\d+\\.\\d+")),
+                types.getTypes());
+        assertEquals(0, types.match("0xff"));
+        assertEquals(1, types.match("-0.10"));
+        assertEquals(LineTypes.NUMBER, types.match("42"));
+        assertEquals(LineTypes.STRING, types.match("text"));
+
+        for (String invalid : List.of("integer = x+", "a = (b", "a = b\nA = c", "a b", "a = [z-a]", "a = ж", "a = x{2,1}")) {
+            Files.writeString(config, invalid);
+            assertThrows(IllegalArgumentException.class, () -> LineTypes.load(config));
+        }
+    }
+
+    @Test
+    void testDecimalStatisticsAreExact() {
+        TypeStatistics first = new TypeStatistics("amount", true, true);
+        TypeStatistics second = new TypeStatistics("amount", true, true);
+        first.upd("0.1");
+        first.upd("12345678901234567890.000000000000000001");
+        second.upd("0.2");
+        second.upd("-7.5");
+        first.merge(second);
+        assertEquals("12345678901234567882.800000000000000001", first.getSum().toString());
+        assertEquals("-7.5", first.getMin().toString());
+        assertEquals(4, first.getNumberCount());
+        assertEquals(3, first.getMinLen());
+    }
+
+    private static int expected(List<Pattern> regexes, String line) {
+        for (int i = 0; i < regexes.size(); i++) {
+            if (regexes.get(i).matcher(line).matches()) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
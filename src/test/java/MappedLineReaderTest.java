@@ -0,0 +1,250 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.paskal.io.FileChunks;
+import ru.paskal.io.LineScanner;
+import ru.paskal.io.MappedLineReader;
+import ru.paskal.utils.LineClassifier;
+import ru.paskal.utils.StringTypesEnum;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+public class MappedLineReaderTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testLinesMatchBufferedReaderForAnyWindowSize() throws Exception {
+        String content = "first\nsecond\r\nthird\rfourth\n\n\r\r\nпривет мир\n" +
+                "x".repeat(100) + "\r\n12345\r";
+        Path file = tempDir.resolve("input.txt");
+        Files.writeString(file, content, StandardCharsets.UTF_8);
+
+        List<String> expected = readWithBufferedReader(file);
+        for (int window = 1; window <= 40; window++) {
+            assertIterableEquals(expected, readMapped(file, window));
+        }
+        assertIterableEquals(expected, readMapped(file, MappedLineReader.DEFAULT_WINDOW_SIZE));
+    }
+
+    @Test
+    void testShortStreamReadsMatchBufferedReader() throws Exception {
+        String content = "first\nsecond\r\nthird\rfourth\n\n\r\r\nпривет мир\n" + "x".repeat(100) + "\r\n12345\r";
+        String longLine = "y".repeat(3 << 20) + "\r\nend";
+        Random random = new Random(31);
+        for (String text : new String[]{content, content + longLine}) {
+            Path file = tempDir.resolve("input.txt");
+            Files.writeString(file, text, StandardCharsets.UTF_8);
+            List<String> expected = readWithBufferedReader(file);
+            // Каждое чтение возвращает лишь часть данных, как канал или сокет: \r\n и строки разрываются между чтениями
+            int maxRead = text.length() > 1 << 20 ? 1 << 16 : 7;
+            for (int i = 0; i < 10; i++) {
+                RecordingHandler stream = new RecordingHandler();
+                new MappedLineReader().read(new ShortReadInputStream(Files.readAllBytes(file), random, maxRead), stream);
+                assertIterableEquals(expected, stream.lines);
+            }
+        }
+    }
+
+    @Test
+    void testChunksAreAlignedToLineBoundaries() throws Exception {
+        String content = "aa\r\nbbb\rcc\n\r\n\rdddd\r\r\neeeee\nf";
+        Path file = tempDir.resolve("input.txt");
+        Files.writeString(file, content, StandardCharsets.UTF_8);
+        List<String> expected = readWithBufferedReader(file);
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            for (int chunkSize = 1; chunkSize <= content.length(); chunkSize++) {
+                long[] bounds = FileChunks.split(channel, 0, channel.size(), chunkSize);
+                List<String> lines = new ArrayList<>();
+                for (int i = 0; i + 1 < bounds.length; i++) {
+                    new MappedLineReader(3).read(channel, bounds[i], bounds[i + 1], (buffer, start, end, ascii) -> {
+                        byte[] bytes = new byte[end - start];
+                        buffer.get(start, bytes);
+                        lines.add(new String(bytes, StandardCharsets.UTF_8));
+                    });
+                }
+                assertIterableEquals(expected, lines);
+            }
+        }
+    }
+
+    @Test
+    void testReadingFromBoundaryContinuesWithRemainingLines() throws Exception {
+        String content = "aa\r\nbbb\rcc\n\r\n\rdddd\r\r\neeeee\nf";
+        Path file = tempDir.resolve("input.txt");
+        Files.writeString(file, content, StandardCharsets.UTF_8);
+        List<String> expected = readWithBufferedReader(file);
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            for (int window = 1; window <= 8; window++) {
+                List<String> lines = new ArrayList<>();
+                List<long[]> boundaries = new ArrayList<>();
+                new MappedLineReader(window)
+                        .setBoundaryHandler(position -> boundaries.add(new long[]{position, lines.size()}))
+                        .read(channel, 0, channel.size(), (buffer, start, end, ascii) -> lines.add(decode(buffer, start, end)));
+                assertIterableEquals(expected, lines);
+                assertFalse(boundaries.isEmpty());
+                for (long[] boundary : boundaries) {
+                    assertTrue(boundary[0] < channel.size());
+                    List<String> rest = new ArrayList<>();
+                    new MappedLineReader(window).read(channel, boundary[0], channel.size(),
+                            (buffer, start, end, ascii) -> rest.add(decode(buffer, start, end)));
+                    assertIterableEquals(expected.subList((int) boundary[1], expected.size()), rest);
+                }
+            }
+        }
+    }
+
+    @Test
+    void testFileWithoutTrailingNewline() throws Exception {
+        Path file = tempDir.resolve("input.txt");
+        Files.writeString(file, "a\nb", StandardCharsets.UTF_8);
+        assertIterableEquals(List.of("a", "b"), readMapped(file, 2));
+    }
+
+    @Test
+    void testEmptyFile() throws Exception {
+        Path file = tempDir.resolve("input.txt");
+        Files.createFile(file);
+        assertIterableEquals(List.of(), readMapped(file, 8));
+    }
+
+    @Test
+    void testAsciiFlag() throws Exception {
+        Path file = tempDir.resolve("input.txt");
+        Files.writeString(file, "abc\nабв\n", StandardCharsets.UTF_8);
+        List<Boolean> flags = new ArrayList<>();
+        new MappedLineReader(4).read(file, (buffer, start, end, ascii) -> flags.add(ascii));
+        assertIterableEquals(List.of(true, false), flags);
+    }
+
+    @Test
+    void testVectorScannerMatchesScalarScanner() throws Exception {
+        LineScanner vector = LineScanner.vector();
+        assumeTrue(vector != null, "Vector API недоступен");
+        Random random = new Random(29);
+        String[] pieces = {"\n", "\r", "\r\n", "12", "-3.5e7", "NaN", "0x1p3", " 7 ", "2d", "Infinity", "abc", "строка",
+                "lorem ipsum", "1,5", "x".repeat(70), "9".repeat(130), "\t", "@", "z"};
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 20_000; i++) {
+            sb.append(pieces[random.nextInt(pieces.length)]);
+        }
+        Path file = tempDir.resolve("input.txt");
+        Files.writeString(file, sb, StandardCharsets.UTF_8);
+
+        for (int window : new int[]{1, 7, 63, 64, 65, 1000, 16 << 10, MappedLineReader.DEFAULT_WINDOW_SIZE}) {
+            RecordingHandler scalar = new RecordingHandler();
+            new MappedLineReader(window, LineScanner.scalar()).read(file, scalar);
+            RecordingHandler vectorized = new RecordingHandler();
+            new MappedLineReader(window, vector).read(file, vectorized);
+            assertIterableEquals(scalar.lines, vectorized.lines, "window " + window);
+            assertIterableEquals(scalar.ascii, vectorized.ascii, "window " + window);
+            assertTrue(vectorized.texts > 0);
+
+            RecordingHandler stream = new RecordingHandler();
+            try (var in = Files.newInputStream(file)) {
+                new MappedLineReader(window, vector).read(in, stream);
+            }
+            assertIterableEquals(scalar.lines, stream.lines);
+        }
+    }
+
+    private static List<String> readWithBufferedReader(Path file) throws Exception {
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader br = new BufferedReader(new FileReader(file.toFile(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    private static List<String> readMapped(Path file, int window) throws Exception {
+        List<String> lines = new ArrayList<>();
+        new MappedLineReader(window).read(file, (buffer, start, end, ascii) -> {
+            byte[] bytes = new byte[end - start];
+            buffer.get(start, bytes);
+            lines.add(new String(bytes, StandardCharsets.UTF_8));
+        });
+        return lines;
+    }
+
+    private static String decode(ByteBuffer buffer, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        buffer.get(start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Запоминает строки и признаки, а для строк, отмеченных как заведомо не числа, проверяет это классификатором
+     */
+    private static class RecordingHandler implements MappedLineReader.LineHandler {
+        private final LineClassifier classifier = new LineClassifier();
+        private final List<String> lines = new ArrayList<>();
+        private final List<Boolean> ascii = new ArrayList<>();
+        private int texts = 0;
+
+        @Override
+        public void onLine(ByteBuffer buffer, int start, int end, boolean ascii) {
+            lines.add(decode(buffer, start, end));
+            this.ascii.add(ascii);
+        }
+
+        @Override
+        public void onLine(ByteBuffer buffer, int start, int end, boolean ascii, boolean numeric) {
+            onLine(buffer, start, end, ascii);
+            if (!numeric) {
+                texts++;
+                String line = lines.get(lines.size() - 1);
+                assertEquals(StringTypesEnum.STRING, classifier.classify(line), line);
+            }
+        }
+    }
+
+    /**
+     * Поток, каждое чтение которого возвращает случайное количество байтов от 1 до {@code maxRead}
+     */
+    private static class ShortReadInputStream extends InputStream {
+        private final byte[] data;
+        private final Random random;
+        private final int maxRead;
+        private int position = 0;
+
+        ShortReadInputStream(byte[] data, Random random, int maxRead) {
+            this.data = data;
+            this.random = random;
+            this.maxRead = maxRead;
+        }
+
+        @Override
+        public int read() {
+            return position < data.length ? data[position++] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (position == data.length) {
+                return -1;
+            }
+            int n = Math.min(Math.min(len, 1 + random.nextInt(maxRead)), data.length - position);
+            System.arraycopy(data, position, b, off, n);
+            position += n;
+            return n;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.paskal.io.ParallelGzipInputStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ParallelGzipInputStreamTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testMultiMemberFileMatchesSequentialDecompression() throws Exception {
+        Random random = new Random(41);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        for (int member = 0; member < 60; member++) {
+            byte[] data = new byte[random.nextInt(20_000)];
+            for (int i = 0; i < data.length; i++) {
+                data[i] = (byte) ('a' + random.nextInt(random.nextBoolean() ? 3 : 26));
+            }
+            if (member % 7 == 3) {
+                // Несжатые данные с сигнатурой gzip внутри - ложный кандидат на начало члена
+                byte[] fake = {0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, 3};
+                System.arraycopy(fake, 0, data, 0, Math.min(fake.length, data.length));
+            }
+            expected.write(data);
+            file.write(gzip(data, member % 7 == 3 ? Deflater.NO_COMPRESSION : Deflater.DEFAULT_COMPRESSION));
+        }
+        Path path = tempDir.resolve("input.gz");
+        Files.write(path, file.toByteArray());
+
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(path))) {
+            assertArrayEquals(expected.toByteArray(), in.readAllBytes());
+        }
+        for (int rangeSize : new int[]{1 << 10, 1 << 14, 1 << 20}) {
+            long[] starts;
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                starts = ParallelGzipInputStream.findRangeStarts(channel, rangeSize);
+            }
+            try (InputStream in = new ParallelGzipInputStream(path, starts, 3)) {
+                assertArrayEquals(expected.toByteArray(), in.readAllBytes(), "rangeSize=" + rangeSize);
+            }
+        }
+    }
+
+    @Test
+    void testCorruptedMemberIsReported() throws Exception {
+        byte[] first = gzip(new byte[50_000], Deflater.DEFAULT_COMPRESSION);
+        byte[] second = gzip("abc".repeat(20_000).getBytes(), Deflater.DEFAULT_COMPRESSION);
+        // Повреждение контрольной суммы второго члена
+        second[second.length - 6] ^= 1;
+        Path path = tempDir.resolve("corrupted.gz");
+        Files.write(path, first);
+        Files.write(path, second, StandardOpenOption.APPEND);
+
+        long[] starts;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            starts = ParallelGzipInputStream.findRangeStarts(channel, 64);
+        }
+        assertThrows(IOException.class, () -> {
+            try (InputStream in = new ParallelGzipInputStream(path, starts, 2)) {
+                in.readAllBytes();
+            }
+        });
+    }
+
+    private static byte[] gzip(byte[] data, int level) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out) {
+            {
+                def.setLevel(level);
+            }
+        }) {
+            gzip.write(data);
+        }
+        return out.toByteArray();
+    }
+}
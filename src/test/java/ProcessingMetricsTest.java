@@ -0,0 +1,60 @@
+import org.junit.jupiter.api.Test;
+import ru.paskal.metrics.ProcessingMetrics;
+import ru.paskal.utils.StringTypesEnum;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ProcessingMetricsTest {
+    @Test
+    void testRecorderPublishesBatchesAndSamples() {
+        ProcessingMetrics metrics = new ProcessingMetrics();
+        ProcessingMetrics.Recorder recorder = metrics.newRecorder();
+        int sampled = 0;
+        for (int i = 0; i < 10_000; i++) {
+            if (recorder.isSampled()) {
+                sampled++;
+                recorder.recordClassification(100);
+            }
+            recorder.recordLine(StringTypesEnum.values()[i % 3], 10);
+        }
+        assertEquals(10_000 / ProcessingMetrics.SAMPLE_INTERVAL + 1, sampled);
+        assertTrue(metrics.getLines() > 0 && metrics.getLines() < 10_000, "Счетчики переносятся пакетами");
+
+        recorder.publish();
+        assertEquals(10_000, metrics.getLines());
+        assertEquals(100_000, metrics.getBytes());
+        assertEquals(3334, metrics.getStringCount());
+        assertEquals(3333, metrics.getIntegerCount());
+        assertEquals(100, metrics.getClassificationNanosPerLine(), 0);
+        assertEquals(1, metrics.getClassificationMillis());
+    }
+
+    @Test
+    void testMBeanIsRegisteredWhileRunning() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(ProcessingMetrics.OBJECT_NAME);
+        ProcessingMetrics metrics = new ProcessingMetrics();
+        metrics.start();
+        try {
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (!metrics.isRegistered()) {
+                assertTrue(System.currentTimeMillis() < deadline, "MBean регистрируется в отдельном потоке");
+                Thread.sleep(10);
+            }
+            metrics.flushListener(StringTypesEnum.FLOAT).onFlush(1024, 3_000_000);
+            metrics.flushListener(StringTypesEnum.STRING).onFlush(1024, 1_000_000);
+            metrics.fileProcessed("in.txt", 1, 2, 3);
+            assertEquals(2L, server.getAttribute(name, "FlushCount"));
+            assertEquals(2.0, (double) server.getAttribute(name, "AverageFlushMillis"), 1e-9);
+            assertEquals(3.0, (double) server.getAttribute(name, "MaxFlushMillis"), 1e-9);
+            assertEquals(1L, server.getAttribute(name, "FilesProcessed"));
+        } finally {
+            metrics.stop();
+        }
+        assertFalse(server.isRegistered(name));
+    }
+}
@@ -0,0 +1,156 @@
+import org.junit.jupiter.api.Test;
+import ru.paskal.models.sketches.HyperLogLog;
+import ru.paskal.models.sketches.Log2Histogram;
+import ru.paskal.models.sketches.QuantileSketch;
+import ru.paskal.models.sketches.SpaceSaving;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Проверка заявленных погрешностей скетчей расширенной статистики
+ */
+public class SketchesTest {
+    private static final double[] LEVELS = {0, 0.01, 0.25, 0.5, 0.9, 0.99, 1};
+
+    @Test
+    void testQuantileRelativeError() {
+        Random random = new Random(1);
+        double[] values = new double[200_000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = switch (i % 4) {
+                case 0 -> random.nextGaussian() * 1e6;
+                case 1 -> Math.exp(random.nextDouble() * 40 - 20);
+                case 2 -> random.nextLong() >> random.nextInt(64);
+                default -> i % 1000 == 3 ? 0 : -random.nextDouble();
+            };
+        }
+        QuantileSketch sketch = new QuantileSketch();
+        QuantileSketch first = new QuantileSketch();
+        QuantileSketch second = new QuantileSketch();
+        for (int i = 0; i < values.length; i++) {
+            sketch.add(values[i]);
+            (i < values.length / 3 ? first : second).add(values[i]);
+        }
+        first.merge(second);
+
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        for (double q : LEVELS) {
+            double expected = sorted[(int) Math.floor(q * (sorted.length - 1))];
+            double actual = sketch.quantile(q);
+            assertTrue(Math.abs(actual - expected) <= Math.abs(expected) / 128,
+                    "q=" + q + " ожидалось " + expected + ", получено " + actual);
+            assertEquals(actual, first.quantile(q), 0.0, "Объединение должно совпадать с общим скетчем");
+        }
+    }
+
+    @Test
+    void testQuantileSpecialValues() {
+        QuantileSketch sketch = new QuantileSketch();
+        assertTrue(Double.isNaN(sketch.quantile(0.5)));
+        sketch.add(Double.NaN);
+        sketch.add(Double.NEGATIVE_INFINITY);
+        sketch.add(5);
+        sketch.add(Double.POSITIVE_INFINITY);
+        assertEquals(3, sketch.getCount());
+        assertEquals(Double.NEGATIVE_INFINITY, sketch.quantile(0));
+        assertEquals(5, sketch.quantile(0.5), 5.0 / 128);
+        assertEquals(Double.POSITIVE_INFINITY, sketch.quantile(1));
+    }
+
+    @Test
+    void testDistinctCountError() {
+        StringBuilder sb = new StringBuilder();
+        for (int distinct : new int[]{1, 100, 5_000, 300_000}) {
+            HyperLogLog hll = new HyperLogLog();
+            HyperLogLog merged = new HyperLogLog();
+            HyperLogLog other = new HyperLogLog();
+            for (int repeat = 0; repeat < 2; repeat++) {
+                for (int i = 0; i < distinct; i++) {
+                    sb.setLength(0);
+                    sb.append("строка ").append(i);
+                    hll.add(sb);
+                    (i % 2 == 0 ? merged : other).add(sb.toString());
+                }
+            }
+            merged.merge(other);
+            long estimate = hll.estimate();
+            assertTrue(Math.abs(estimate - distinct) <= Math.max(1, distinct * 0.03),
+                    "ожидалось " + distinct + ", получено " + estimate);
+            assertEquals(estimate, merged.estimate());
+        }
+    }
+
+    @Test
+    void testLog2Histogram() {
+        Log2Histogram histogram = new Log2Histogram();
+        for (int value : new int[]{0, 1, 2, 3, 4, 7, 8, Integer.MAX_VALUE}) {
+            histogram.add(value);
+        }
+        long[] expected = new long[Log2Histogram.BUCKETS];
+        expected[0] = 1;
+        expected[1] = 1;
+        expected[2] = 2;
+        expected[3] = 2;
+        expected[4] = 1;
+        expected[31] = 1;
+        for (int i = 0; i < Log2Histogram.BUCKETS; i++) {
+            assertEquals(expected[i], histogram.getCount(i), "корзина " + i);
+        }
+        assertEquals(Integer.MAX_VALUE, Log2Histogram.upperBound(31));
+    }
+
+    @Test
+    void testSpaceSavingExactWhenCountersSuffice() {
+        SpaceSaving sketch = new SpaceSaving(8);
+        for (String value : "a b a c a b d".split(" ")) {
+            sketch.add(value);
+        }
+        assertEquals(List.of(new SpaceSaving.Entry("a", 3, 0), new SpaceSaving.Entry("b", 2, 0)), sketch.top(2));
+        assertEquals(1, sketch.guaranteedThreshold(2));
+    }
+
+    @Test
+    void testSpaceSavingBoundsAndMerge() {
+        Random random = new Random(5);
+        int capacity = 100;
+        SpaceSaving sketch = new SpaceSaving(capacity);
+        SpaceSaving first = new SpaceSaving(capacity);
+        SpaceSaving second = new SpaceSaving(capacity);
+        Map<String, Long> exact = new HashMap<>();
+        int total = 200_000;
+        for (int i = 0; i < total; i++) {
+            // Распределение, близкое к Ципфу: значение k встречается с частотой около 1 / k
+            String value = "v" + (int) Math.pow(100_000, random.nextDouble());
+            exact.merge(value, 1L, Long::sum);
+            sketch.add(value);
+            (i % 3 == 0 ? first : second).add(new StringBuilder(value));
+        }
+        first.merge(second);
+        assertEquals(total, first.getTotal());
+
+        for (SpaceSaving summary : new SpaceSaving[]{sketch, first}) {
+            List<SpaceSaving.Entry> entries = summary.top(capacity);
+            for (SpaceSaving.Entry entry : entries) {
+                long actual = exact.get(entry.value());
+                assertTrue(entry.lowerBound() <= actual && actual <= entry.count(), entry + " при частоте " + actual);
+                assertTrue(entry.error() <= 2L * total / capacity, entry.toString());
+            }
+            long bound = summary.getUnmonitoredBound();
+            assertTrue(bound <= 2L * total / capacity);
+            for (Map.Entry<String, Long> value : exact.entrySet()) {
+                if (value.getValue() > bound) {
+                    assertTrue(entries.stream().anyMatch(e -> e.value().equals(value.getKey())),
+                            "Частое значение " + value + " должно отслеживаться");
+                }
+            }
+        }
+        assertEquals("v1", sketch.top(1).get(0).value());
+    }
+}
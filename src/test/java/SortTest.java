@@ -0,0 +1,142 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.paskal.io.LineWriter;
+import ru.paskal.sort.SortingLineWriter;
+import ru.paskal.utils.StringTypesEnum;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Проверка записи чисел в порядке возрастания при сортировке в памяти и слиянии серий из временных файлов.
+ * Строки записываются без изменений, строки с равными значениями - в порядке поступления
+ */
+public class SortTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testIntegersAreSortedWithinAnyBudget() throws Exception {
+        Random random = new Random(17);
+        List<String> lines = new ArrayList<>(List.of("9223372036854775807", "-9223372036854775808", "0", "+12", "007",
+                "7", "12", "-0", "0"));
+        for (int i = 0; i < 100_000; i++) {
+            lines.add(String.valueOf(random.nextLong() >> random.nextInt(64)));
+        }
+        List<String> expected = lines.stream().sorted(Comparator.comparingLong(Long::parseLong)).toList();
+
+        for (long budget : new long[]{256 << 20, 32 << 10}) {
+            MemoryWriter out = new MemoryWriter();
+            SortingLineWriter writer = new SortingLineWriter(out, StringTypesEnum.INTEGER, budget, tempDir);
+            writeAllWays(writer, lines);
+            writer.close();
+            assertEquals(expected, out.lines());
+            assertTrue(out.closed);
+            try (var files = Files.list(tempDir)) {
+                assertEquals(0, files.filter(file -> file.getFileName().toString().endsWith(".run")).count(),
+                        "Временные файлы серий должны быть удалены");
+            }
+        }
+    }
+
+    @Test
+    void testFloatsFollowDoubleCompareOrder() throws Exception {
+        Random random = new Random(19);
+        List<String> lines = new ArrayList<>(List.of("NaN", "Infinity", "-Infinity", "-0.0", "0.0", "1e5", " 5 ", "2d",
+                "0x1p3", "4.9E-324", "-4.9E-324", "1.7976931348623157E308", "12", "12.0", "100000",
+                "0.12345678901234567890123", "12345678.9"));
+        for (int i = 0; i < 50_000; i++) {
+            double value = random.nextGaussian() * Math.pow(10, random.nextInt(40) - 20);
+            lines.add(String.valueOf(value));
+        }
+        List<String> expected = lines.stream().sorted(Comparator.comparingDouble(Double::parseDouble)).toList();
+
+        MemoryWriter out = new MemoryWriter();
+        SortingLineWriter writer = new SortingLineWriter(out, StringTypesEnum.FLOAT, 16 << 10, tempDir);
+        writeAllWays(writer, lines);
+        writer.close();
+        assertEquals(expected, out.lines());
+
+        SortingLineWriter integers = new SortingLineWriter(new MemoryWriter(), StringTypesEnum.INTEGER, 1 << 20, tempDir);
+        assertThrows(IOException.class, () -> integers.writeLine("1.5"));
+        assertThrows(IOException.class, () -> integers.writeLine("text"));
+        integers.close();
+    }
+
+    /**
+     * Передает строки тремя способами, которыми их записывают обработчики: по одной,
+     * блоками с разными разделителями строк и диапазонами временного файла
+     */
+    private void writeAllWays(SortingLineWriter writer, List<String> lines) throws Exception {
+        int third = lines.size() / 3;
+        for (String line : lines.subList(0, third)) {
+            writer.writeLine(line);
+        }
+        StringBuilder block = new StringBuilder();
+        for (String line : lines.subList(third, 2 * third)) {
+            block.append(line).append(block.length() % 2 == 0 ? "\n" : "\r\n");
+        }
+        byte[] bytes = ("#" + block).getBytes(StandardCharsets.US_ASCII);
+        writer.writeEncoded(bytes, 1, bytes.length - 1);
+
+        Path spool = tempDir.resolve("spool.txt");
+        String head = "skipped\n";
+        Files.writeString(spool, head + String.join("\n", lines.subList(2 * third, lines.size())) + "\n");
+        try (FileChannel channel = FileChannel.open(spool, StandardOpenOption.READ)) {
+            writer.append(channel, head.length(), channel.size() - head.length());
+        }
+        Files.delete(spool);
+    }
+
+    /**
+     * Запись в память для проверки содержимого
+     */
+    private static class MemoryWriter implements LineWriter {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private boolean closed = false;
+
+        @Override
+        public void writeLine(CharSequence line) {
+            bytes.writeBytes((line + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void writeEncoded(byte[] data, int offset, int length) {
+            bytes.write(data, offset, length);
+        }
+
+        @Override
+        public void append(FileChannel src, long position, long count) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate((int) count);
+            src.read(buffer, position);
+            bytes.write(buffer.array(), 0, buffer.position());
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+
+        List<String> lines() {
+            String text = bytes.toString(StandardCharsets.UTF_8);
+            return text.isEmpty() ? List.of() : Arrays.asList(text.split(System.lineSeparator()));
+        }
+    }
+}
@@ -0,0 +1,95 @@
+import org.junit.jupiter.api.Test;
+import ru.paskal.utils.SpscQueue;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Ожидающая сторона очереди должна останавливаться до пробуждения, а не опрашивать очередь по таймеру
+ */
+public class SpscQueueTest {
+    @Test
+    void testIdleConsumerParksUntilPut() throws Exception {
+        SpscQueue<Integer> queue = new SpscQueue<>(2);
+        AtomicReference<Integer> taken = new AtomicReference<>();
+        Thread consumer = new Thread(() -> {
+            try {
+                taken.set(queue.take());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        consumer.start();
+        awaitState(consumer, Thread.State.WAITING);
+        queue.put(42);
+        consumer.join(5_000);
+        assertFalse(consumer.isAlive());
+        assertEquals(42, (int) taken.get());
+    }
+
+    @Test
+    void testBlockedProducerParksUntilTake() throws Exception {
+        SpscQueue<Integer> queue = new SpscQueue<>(1);
+        queue.put(1);
+        Thread producer = new Thread(() -> {
+            try {
+                queue.put(2);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        producer.start();
+        awaitState(producer, Thread.State.WAITING);
+        assertEquals(1, (int) queue.take());
+        producer.join(5_000);
+        assertFalse(producer.isAlive());
+        assertEquals(2, (int) queue.take());
+    }
+
+    @Test
+    void testElementsPassInOrder() throws Exception {
+        int count = 200_000;
+        SpscQueue<Integer> queue = new SpscQueue<>(4);
+        Thread producer = new Thread(() -> {
+            try {
+                for (int i = 0; i < count; i++) {
+                    queue.put(i);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        producer.start();
+        for (int i = 0; i < count; i++) {
+            assertEquals(i, (int) queue.take());
+        }
+        producer.join(5_000);
+    }
+
+    @Test
+    void testWaitingThreadIsInterrupted() throws Exception {
+        SpscQueue<Integer> queue = new SpscQueue<>(1);
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread consumer = new Thread(() -> {
+            try {
+                queue.take();
+            } catch (InterruptedException e) {
+                error.set(e);
+            }
+        });
+        consumer.start();
+        awaitState(consumer, Thread.State.WAITING);
+        consumer.interrupt();
+        consumer.join(5_000);
+        assertTrue(error.get() instanceof InterruptedException);
+    }
+
+    private static void awaitState(Thread thread, Thread.State state) throws InterruptedException {
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (thread.getState() != state) {
+            assertTrue(System.nanoTime() < deadline, "Поток не перешел в состояние " + state + ": " + thread.getState());
+            Thread.sleep(1);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+import org.junit.jupiter.api.Test;
+import ru.paskal.models.ExactDoubleSum;
+import ru.paskal.models.FloatStatistics;
+import ru.paskal.models.IntegerStatistics;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Проверка точности сумм и средних значений статистики чисел
+ */
+public class StatisticsTest {
+    @Test
+    void testIntegerSumDoesNotOverflow() {
+        IntegerStatistics stats = new IntegerStatistics(true);
+        IntegerStatistics first = new IntegerStatistics(true);
+        IntegerStatistics second = new IntegerStatistics(true);
+        Random random = new Random(7);
+        BigInteger expected = BigInteger.ZERO;
+        for (int i = 0; i < 100_000; i++) {
+            long value = i % 3 == 0 ? Long.MAX_VALUE - random.nextInt(100) : random.nextLong();
+            stats.upd(value);
+            (i % 2 == 0 ? first : second).upd(value);
+            expected = expected.add(BigInteger.valueOf(value));
+        }
+        first.merge(second);
+        assertEquals(expected, stats.getSum());
+        assertEquals(expected, first.getSum());
+        assertEquals(new BigDecimal(expected).divide(BigDecimal.valueOf(100_000), MathContext.DECIMAL128).doubleValue(),
+                stats.getAvg());
+
+        IntegerStatistics negative = new IntegerStatistics(true);
+        negative.upd(Long.MIN_VALUE);
+        negative.upd(Long.MIN_VALUE);
+        negative.upd(1);
+        assertEquals(BigInteger.valueOf(Long.MIN_VALUE).shiftLeft(1).add(BigInteger.ONE), negative.getSum());
+    }
+
+    @Test
+    void testFloatSumIsExactAndOrderIndependent() {
+        Random random = new Random(13);
+        double[] values = new double[50_000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = switch (i % 4) {
+                case 0 -> 1e300 * (random.nextBoolean() ? 1 : -1);
+                case 1 -> random.nextGaussian() * 1e-300;
+                case 2 -> Double.MIN_VALUE * random.nextInt(1000);
+                default -> (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(-20, 20));
+            };
+        }
+        BigDecimal expected = BigDecimal.ZERO;
+        FloatStatistics forward = new FloatStatistics(true);
+        for (double value : values) {
+            forward.upd(value);
+            expected = expected.add(new BigDecimal(value));
+        }
+        FloatStatistics first = new FloatStatistics(true);
+        FloatStatistics second = new FloatStatistics(true);
+        for (int i = values.length - 1; i >= 0; i--) {
+            (i % 3 == 0 ? first : second).upd(values[i]);
+        }
+        second.merge(first);
+        assertEquals(expected.doubleValue(), forward.getSum());
+        assertEquals(forward.getSum(), second.getSum());
+        assertEquals(forward.toStringFull(), second.toStringFull());
+
+        FloatStatistics cancelling = new FloatStatistics(true);
+        for (double value : new double[]{1e100, 1.0, -1e100, 0.1, 0.2}) {
+            cancelling.upd(value);
+        }
+        assertEquals(new BigDecimal(1.0).add(new BigDecimal(0.1)).add(new BigDecimal(0.2)).doubleValue(), cancelling.getSum());
+    }
+
+    @Test
+    void testSpecialValues() {
+        ExactDoubleSum sum = new ExactDoubleSum();
+        sum.add(1);
+        sum.add(Double.POSITIVE_INFINITY);
+        assertEquals(Double.POSITIVE_INFINITY, sum.doubleValue());
+        sum.add(Double.NEGATIVE_INFINITY);
+        assertTrue(Double.isNaN(sum.doubleValue()));
+
+        ExactDoubleSum large = new ExactDoubleSum();
+        large.add(Double.MAX_VALUE);
+        large.add(Double.MAX_VALUE);
+        assertEquals(Double.POSITIVE_INFINITY, large.doubleValue());
+        large.add(-Double.MAX_VALUE);
+        assertEquals(Double.MAX_VALUE, large.doubleValue());
+    }
+
+    @Test
+    void testSumSurvivesSerialization() throws Exception {
+        ExactDoubleSum sum = new ExactDoubleSum();
+        for (int i = 0; i < 5_000; i++) {
+            sum.add(0.1 * i);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(sum);
+        }
+        ExactDoubleSum restored;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            restored = (ExactDoubleSum) in.readObject();
+        }
+        restored.add(-0.1);
+        sum.add(-0.1);
+        assertEquals(sum.toBigDecimal(), restored.toBigDecimal());
+    }
+}